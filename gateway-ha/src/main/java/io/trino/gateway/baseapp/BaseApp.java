@@ -37,8 +37,12 @@ import io.trino.gateway.ha.resource.TrinoResource;
 import io.trino.gateway.ha.router.ForRouter;
 import io.trino.gateway.ha.router.RoutingRulesManager;
 import io.trino.gateway.ha.security.AuthorizedExceptionMapper;
+import io.trino.gateway.proxyserver.AdmissionController;
+import io.trino.gateway.proxyserver.AdmissionResource;
 import io.trino.gateway.proxyserver.ForProxy;
+import io.trino.gateway.proxyserver.ProxyLanes;
 import io.trino.gateway.proxyserver.ProxyRequestHandler;
+import io.trino.gateway.proxyserver.RateLimiter;
 import io.trino.gateway.proxyserver.RouteToBackendResource;
 import io.trino.gateway.proxyserver.RouterPreMatchContainerRequestFilter;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
@@ -145,7 +149,13 @@ public class BaseApp
         jaxrsBinder(binder).bind(AuthorizedExceptionMapper.class);
         binder.bind(ProxyHandlerStats.class).in(Scopes.SINGLETON);
         newExporter(binder).export(ProxyHandlerStats.class).withGeneratedName();
-        binder.bind(RoutingRulesManager.class);
+        binder.bind(ProxyLanes.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(ProxyLanes.class).withGeneratedName();
+        binder.bind(AdmissionController.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(AdmissionController.class).withGeneratedName();
+        binder.bind(RateLimiter.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(RateLimiter.class).withGeneratedName();
+        binder.bind(RoutingRulesManager.class).in(Scopes.SINGLETON);
     }
 
     private static void addManagedApps(HaGatewayConfiguration configuration, Binder binder)
@@ -193,6 +203,7 @@ public class BaseApp
     private static void registerProxyResources(Binder binder)
     {
         jaxrsBinder(binder).bind(RouteToBackendResource.class);
+        jaxrsBinder(binder).bind(AdmissionResource.class);
         jaxrsBinder(binder).bind(RouterPreMatchContainerRequestFilter.class);
         jaxrsBinder(binder).bind(ProxyRequestHandler.class);
         httpClientBinder(binder).bindHttpClient("proxy", ForProxy.class);
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.config;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class AdmissionConfiguration
+{
+    private boolean enabled;
+    private int maxQueuedQueriesPerCluster = 100;
+    private int maxHeldQueries = 10000;
+    private int maxHeldQueriesPerUser = 1000;
+    private Duration maxWait = new Duration(5, MINUTES);
+    private Duration pollWait = new Duration(1, SECONDS);
+    private Map<String, Integer> userWeights = ImmutableMap.of();
+
+    public AdmissionConfiguration() {}
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public int getMaxQueuedQueriesPerCluster()
+    {
+        return maxQueuedQueriesPerCluster;
+    }
+
+    public void setMaxQueuedQueriesPerCluster(int maxQueuedQueriesPerCluster)
+    {
+        this.maxQueuedQueriesPerCluster = maxQueuedQueriesPerCluster;
+    }
+
+    public int getMaxHeldQueries()
+    {
+        return maxHeldQueries;
+    }
+
+    public void setMaxHeldQueries(int maxHeldQueries)
+    {
+        this.maxHeldQueries = maxHeldQueries;
+    }
+
+    public int getMaxHeldQueriesPerUser()
+    {
+        return maxHeldQueriesPerUser;
+    }
+
+    public void setMaxHeldQueriesPerUser(int maxHeldQueriesPerUser)
+    {
+        this.maxHeldQueriesPerUser = maxHeldQueriesPerUser;
+    }
+
+    public Duration getMaxWait()
+    {
+        return maxWait;
+    }
+
+    public void setMaxWait(Duration maxWait)
+    {
+        this.maxWait = maxWait;
+    }
+
+    public Duration getPollWait()
+    {
+        return pollWait;
+    }
+
+    public void setPollWait(Duration pollWait)
+    {
+        this.pollWait = pollWait;
+    }
+
+    public Map<String, Integer> getUserWeights()
+    {
+        return userWeights;
+    }
+
+    public void setUserWeights(Map<String, Integer> userWeights)
+    {
+        this.userWeights = ImmutableMap.copyOf(userWeights);
+    }
+}
@@ -13,6 +13,11 @@
  */
 package io.trino.gateway.ha.config;
 
+import io.airlift.units.Duration;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public class DataStoreConfiguration
 {
     private String jdbcUrl;
@@ -21,6 +26,16 @@ public class DataStoreConfiguration
     private String driver;
     private Integer queryHistoryHoursRetention = 4;
     private boolean runMigrationsEnabled = true;
+    private boolean queryHistoryWriteBehindEnabled = true;
+    private int queryHistoryQueueSize = 10_000;
+    private int queryHistoryBatchSize = 100;
+    private Duration queryHistoryFlushInterval = new Duration(1, SECONDS);
+    private int maxPoolSize = 10;
+    private int minIdle = 1;
+    private Duration connectionTimeout = new Duration(30, SECONDS);
+    private Duration idleTimeout = new Duration(10, MINUTES);
+    private Duration maxLifetime = new Duration(30, MINUTES);
+    private Duration leakDetectionThreshold;
 
     public DataStoreConfiguration(String jdbcUrl, String user, String password, String driver, Integer queryHistoryHoursRetention, boolean runMigrationsEnabled)
     {
@@ -93,4 +108,104 @@ public class DataStoreConfiguration
     {
         this.runMigrationsEnabled = runMigrationsEnabled;
     }
+
+    public boolean isQueryHistoryWriteBehindEnabled()
+    {
+        return this.queryHistoryWriteBehindEnabled;
+    }
+
+    public void setQueryHistoryWriteBehindEnabled(boolean queryHistoryWriteBehindEnabled)
+    {
+        this.queryHistoryWriteBehindEnabled = queryHistoryWriteBehindEnabled;
+    }
+
+    public int getQueryHistoryQueueSize()
+    {
+        return this.queryHistoryQueueSize;
+    }
+
+    public void setQueryHistoryQueueSize(int queryHistoryQueueSize)
+    {
+        this.queryHistoryQueueSize = queryHistoryQueueSize;
+    }
+
+    public int getQueryHistoryBatchSize()
+    {
+        return this.queryHistoryBatchSize;
+    }
+
+    public void setQueryHistoryBatchSize(int queryHistoryBatchSize)
+    {
+        this.queryHistoryBatchSize = queryHistoryBatchSize;
+    }
+
+    public Duration getQueryHistoryFlushInterval()
+    {
+        return this.queryHistoryFlushInterval;
+    }
+
+    public void setQueryHistoryFlushInterval(Duration queryHistoryFlushInterval)
+    {
+        this.queryHistoryFlushInterval = queryHistoryFlushInterval;
+    }
+
+    public int getMaxPoolSize()
+    {
+        return this.maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public int getMinIdle()
+    {
+        return this.minIdle;
+    }
+
+    public void setMinIdle(int minIdle)
+    {
+        this.minIdle = minIdle;
+    }
+
+    public Duration getConnectionTimeout()
+    {
+        return this.connectionTimeout;
+    }
+
+    public void setConnectionTimeout(Duration connectionTimeout)
+    {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public Duration getIdleTimeout()
+    {
+        return this.idleTimeout;
+    }
+
+    public void setIdleTimeout(Duration idleTimeout)
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public Duration getMaxLifetime()
+    {
+        return this.maxLifetime;
+    }
+
+    public void setMaxLifetime(Duration maxLifetime)
+    {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public Duration getLeakDetectionThreshold()
+    {
+        return this.leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(Duration leakDetectionThreshold)
+    {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
 }
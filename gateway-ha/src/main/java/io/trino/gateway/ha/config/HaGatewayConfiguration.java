@@ -43,6 +43,9 @@ public class HaGatewayConfiguration
     private List<String> statementPaths = ImmutableList.of(V1_STATEMENT_PATH);
     private boolean includeClusterHostInResponse;
     private ProxyResponseConfiguration proxyResponseConfiguration = new ProxyResponseConfiguration();
+    private ProxyLaneConfiguration proxyLaneConfiguration = new ProxyLaneConfiguration();
+    private AdmissionConfiguration admissionConfiguration = new AdmissionConfiguration();
+    private RateLimitConfiguration rateLimitConfiguration = new RateLimitConfiguration();
 
     private RequestAnalyzerConfig requestAnalyzerConfig = new RequestAnalyzerConfig();
 
@@ -278,6 +281,36 @@ public class HaGatewayConfiguration
         this.proxyResponseConfiguration = proxyResponseConfiguration;
     }
 
+    public ProxyLaneConfiguration getProxyLaneConfiguration()
+    {
+        return this.proxyLaneConfiguration;
+    }
+
+    public void setProxyLaneConfiguration(ProxyLaneConfiguration proxyLaneConfiguration)
+    {
+        this.proxyLaneConfiguration = proxyLaneConfiguration;
+    }
+
+    public AdmissionConfiguration getAdmissionConfiguration()
+    {
+        return this.admissionConfiguration;
+    }
+
+    public void setAdmissionConfiguration(AdmissionConfiguration admissionConfiguration)
+    {
+        this.admissionConfiguration = admissionConfiguration;
+    }
+
+    public RateLimitConfiguration getRateLimitConfiguration()
+    {
+        return this.rateLimitConfiguration;
+    }
+
+    public void setRateLimitConfiguration(RateLimitConfiguration rateLimitConfiguration)
+    {
+        this.rateLimitConfiguration = rateLimitConfiguration;
+    }
+
     private void validateStatementPath(String statementPath, List<String> statementPaths)
     {
         if (statementPath.startsWith(V1_STATEMENT_PATH) ||
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.config;
+
+import io.airlift.units.Duration;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class OutlierDetectionConfiguration
+{
+    private boolean enabled;
+    private int consecutiveConnectFailures = 3;
+    private double failureRateThreshold = 0.5;
+    private int failureRateMinimumRequests = 20;
+    private Duration interval = new Duration(10, SECONDS);
+    private double latencyOutlierFactor = 5;
+    private Duration baseEjectionTime = new Duration(10, SECONDS);
+    private Duration maxEjectionTime = new Duration(5, MINUTES);
+    private int maxEjectionPercent = 50;
+
+    public OutlierDetectionConfiguration() {}
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public int getConsecutiveConnectFailures()
+    {
+        return consecutiveConnectFailures;
+    }
+
+    public void setConsecutiveConnectFailures(int consecutiveConnectFailures)
+    {
+        this.consecutiveConnectFailures = consecutiveConnectFailures;
+    }
+
+    public double getFailureRateThreshold()
+    {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold)
+    {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getFailureRateMinimumRequests()
+    {
+        return failureRateMinimumRequests;
+    }
+
+    public void setFailureRateMinimumRequests(int failureRateMinimumRequests)
+    {
+        this.failureRateMinimumRequests = failureRateMinimumRequests;
+    }
+
+    public Duration getInterval()
+    {
+        return interval;
+    }
+
+    public void setInterval(Duration interval)
+    {
+        this.interval = interval;
+    }
+
+    public double getLatencyOutlierFactor()
+    {
+        return latencyOutlierFactor;
+    }
+
+    public void setLatencyOutlierFactor(double latencyOutlierFactor)
+    {
+        this.latencyOutlierFactor = latencyOutlierFactor;
+    }
+
+    public Duration getBaseEjectionTime()
+    {
+        return baseEjectionTime;
+    }
+
+    public void setBaseEjectionTime(Duration baseEjectionTime)
+    {
+        this.baseEjectionTime = baseEjectionTime;
+    }
+
+    public Duration getMaxEjectionTime()
+    {
+        return maxEjectionTime;
+    }
+
+    public void setMaxEjectionTime(Duration maxEjectionTime)
+    {
+        this.maxEjectionTime = maxEjectionTime;
+    }
+
+    public int getMaxEjectionPercent()
+    {
+        return maxEjectionPercent;
+    }
+
+    public void setMaxEjectionPercent(int maxEjectionPercent)
+    {
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+}
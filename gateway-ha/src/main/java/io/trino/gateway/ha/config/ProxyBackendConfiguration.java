@@ -23,6 +23,7 @@ public class ProxyBackendConfiguration
     private String externalUrl;
     private String name;
     private String proxyTo;
+    private int weight = 1;
 
     @JsonProperty
     public String getName()
@@ -86,4 +87,16 @@ public class ProxyBackendConfiguration
     {
         this.routingGroup = routingGroup;
     }
+
+    @JsonProperty
+    public int getWeight()
+    {
+        return this.weight;
+    }
+
+    @JsonSetter
+    public void setWeight(int weight)
+    {
+        this.weight = weight;
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.config;
+
+import io.airlift.units.Duration;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class ProxyLaneConfiguration
+{
+    private int submissionMaxInFlight = 1000;
+    private int pollMaxInFlight = 10000;
+    private int apiMaxInFlight = 1000;
+    private int threadsPerLane = 100;
+    private Duration retryAfter = new Duration(1, SECONDS);
+
+    public ProxyLaneConfiguration() {}
+
+    public int getSubmissionMaxInFlight()
+    {
+        return submissionMaxInFlight;
+    }
+
+    public void setSubmissionMaxInFlight(int submissionMaxInFlight)
+    {
+        this.submissionMaxInFlight = submissionMaxInFlight;
+    }
+
+    public int getPollMaxInFlight()
+    {
+        return pollMaxInFlight;
+    }
+
+    public void setPollMaxInFlight(int pollMaxInFlight)
+    {
+        this.pollMaxInFlight = pollMaxInFlight;
+    }
+
+    public int getApiMaxInFlight()
+    {
+        return apiMaxInFlight;
+    }
+
+    public void setApiMaxInFlight(int apiMaxInFlight)
+    {
+        this.apiMaxInFlight = apiMaxInFlight;
+    }
+
+    public int getThreadsPerLane()
+    {
+        return threadsPerLane;
+    }
+
+    public void setThreadsPerLane(int threadsPerLane)
+    {
+        this.threadsPerLane = threadsPerLane;
+    }
+
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter)
+    {
+        this.retryAfter = retryAfter;
+    }
+}
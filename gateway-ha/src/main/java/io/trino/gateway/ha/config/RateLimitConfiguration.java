@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.config;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+public class RateLimitConfiguration
+{
+    private boolean enabled;
+    private Duration idleTimeout = new Duration(10, MINUTES);
+    private int maxBuckets = 10_000;
+    private int maxExportedBuckets = 100;
+    private RoutingGroupRateLimits defaultLimits = new RoutingGroupRateLimits();
+    private Map<String, RoutingGroupRateLimits> routingGroupLimits = ImmutableMap.of();
+
+    public RateLimitConfiguration() {}
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public Duration getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(Duration idleTimeout)
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getMaxBuckets()
+    {
+        return maxBuckets;
+    }
+
+    public void setMaxBuckets(int maxBuckets)
+    {
+        this.maxBuckets = maxBuckets;
+    }
+
+    public int getMaxExportedBuckets()
+    {
+        return maxExportedBuckets;
+    }
+
+    public void setMaxExportedBuckets(int maxExportedBuckets)
+    {
+        this.maxExportedBuckets = maxExportedBuckets;
+    }
+
+    public RoutingGroupRateLimits getDefaultLimits()
+    {
+        return defaultLimits;
+    }
+
+    public void setDefaultLimits(RoutingGroupRateLimits defaultLimits)
+    {
+        this.defaultLimits = defaultLimits;
+    }
+
+    public Map<String, RoutingGroupRateLimits> getRoutingGroupLimits()
+    {
+        return routingGroupLimits;
+    }
+
+    public void setRoutingGroupLimits(Map<String, RoutingGroupRateLimits> routingGroupLimits)
+    {
+        this.routingGroupLimits = ImmutableMap.copyOf(routingGroupLimits);
+    }
+}
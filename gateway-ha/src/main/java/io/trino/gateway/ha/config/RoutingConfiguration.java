@@ -16,6 +16,7 @@ package io.trino.gateway.ha.config;
 import io.airlift.units.Duration;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class RoutingConfiguration
 {
@@ -23,6 +24,26 @@ public class RoutingConfiguration
 
     private boolean addXForwardedHeaders = true;
 
+    private Duration backendRefreshInterval = new Duration(5, SECONDS);
+
+    private Duration queryIdSearchTimeout = new Duration(5, SECONDS);
+
+    private Duration unknownQueryIdCacheTtl = new Duration(1, MINUTES);
+
+    private int queryIdCacheSize = 1_000_000;
+
+    private Duration queryIdCachePreloadAge = new Duration(30, MINUTES);
+
+    private boolean backendTokenEnabled;
+
+    private String backendTokenSigningSecret;
+
+    private int submissionMaxAttempts = 1;
+
+    private double affinityLoadFactor = 1.25;
+
+    private OutlierDetectionConfiguration outlierDetection = new OutlierDetectionConfiguration();
+
     public Duration getAsyncTimeout()
     {
         return asyncTimeout;
@@ -42,4 +63,104 @@ public class RoutingConfiguration
     {
         this.addXForwardedHeaders = addXForwardedHeaders;
     }
+
+    public Duration getBackendRefreshInterval()
+    {
+        return backendRefreshInterval;
+    }
+
+    public void setBackendRefreshInterval(Duration backendRefreshInterval)
+    {
+        this.backendRefreshInterval = backendRefreshInterval;
+    }
+
+    public Duration getQueryIdSearchTimeout()
+    {
+        return queryIdSearchTimeout;
+    }
+
+    public void setQueryIdSearchTimeout(Duration queryIdSearchTimeout)
+    {
+        this.queryIdSearchTimeout = queryIdSearchTimeout;
+    }
+
+    public Duration getUnknownQueryIdCacheTtl()
+    {
+        return unknownQueryIdCacheTtl;
+    }
+
+    public void setUnknownQueryIdCacheTtl(Duration unknownQueryIdCacheTtl)
+    {
+        this.unknownQueryIdCacheTtl = unknownQueryIdCacheTtl;
+    }
+
+    public int getQueryIdCacheSize()
+    {
+        return queryIdCacheSize;
+    }
+
+    public void setQueryIdCacheSize(int queryIdCacheSize)
+    {
+        this.queryIdCacheSize = queryIdCacheSize;
+    }
+
+    public Duration getQueryIdCachePreloadAge()
+    {
+        return queryIdCachePreloadAge;
+    }
+
+    public void setQueryIdCachePreloadAge(Duration queryIdCachePreloadAge)
+    {
+        this.queryIdCachePreloadAge = queryIdCachePreloadAge;
+    }
+
+    public boolean isBackendTokenEnabled()
+    {
+        return backendTokenEnabled;
+    }
+
+    public void setBackendTokenEnabled(boolean backendTokenEnabled)
+    {
+        this.backendTokenEnabled = backendTokenEnabled;
+    }
+
+    public String getBackendTokenSigningSecret()
+    {
+        return backendTokenSigningSecret;
+    }
+
+    public void setBackendTokenSigningSecret(String backendTokenSigningSecret)
+    {
+        this.backendTokenSigningSecret = backendTokenSigningSecret;
+    }
+
+    public int getSubmissionMaxAttempts()
+    {
+        return submissionMaxAttempts;
+    }
+
+    public void setSubmissionMaxAttempts(int submissionMaxAttempts)
+    {
+        this.submissionMaxAttempts = submissionMaxAttempts;
+    }
+
+    public double getAffinityLoadFactor()
+    {
+        return affinityLoadFactor;
+    }
+
+    public void setAffinityLoadFactor(double affinityLoadFactor)
+    {
+        this.affinityLoadFactor = affinityLoadFactor;
+    }
+
+    public OutlierDetectionConfiguration getOutlierDetection()
+    {
+        return outlierDetection;
+    }
+
+    public void setOutlierDetection(OutlierDetectionConfiguration outlierDetection)
+    {
+        this.outlierDetection = outlierDetection;
+    }
 }
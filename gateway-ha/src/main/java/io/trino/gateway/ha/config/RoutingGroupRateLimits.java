@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.config;
+
+/**
+ * Submission rates of a routing group. A rate of zero does not limit submissions.
+ */
+public class RoutingGroupRateLimits
+{
+    private double userQueriesPerSecond;
+    private int userBurst = 10;
+    private double sourceQueriesPerSecond;
+    private int sourceBurst = 10;
+
+    public RoutingGroupRateLimits() {}
+
+    public double getUserQueriesPerSecond()
+    {
+        return userQueriesPerSecond;
+    }
+
+    public void setUserQueriesPerSecond(double userQueriesPerSecond)
+    {
+        this.userQueriesPerSecond = userQueriesPerSecond;
+    }
+
+    public int getUserBurst()
+    {
+        return userBurst;
+    }
+
+    public void setUserBurst(int userBurst)
+    {
+        this.userBurst = userBurst;
+    }
+
+    public double getSourceQueriesPerSecond()
+    {
+        return sourceQueriesPerSecond;
+    }
+
+    public void setSourceQueriesPerSecond(double sourceQueriesPerSecond)
+    {
+        this.sourceQueriesPerSecond = sourceQueriesPerSecond;
+    }
+
+    public int getSourceBurst()
+    {
+        return sourceBurst;
+    }
+
+    public void setSourceBurst(int sourceBurst)
+    {
+        this.sourceBurst = sourceBurst;
+    }
+}
@@ -13,12 +13,31 @@
  */
 package io.trino.gateway.ha.config;
 
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
+
 import java.util.List;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public class RulesExternalConfiguration
 {
     private String urlPath;
     private List<String> excludeHeaders;
+    private Duration requestTimeout = new Duration(1, SECONDS);
+    private int cacheMaxSize;
+    private Duration cacheTtl = new Duration(1, MINUTES);
+    private boolean cacheKeyUser = true;
+    private List<String> cacheKeyHeaders = ImmutableList.of("X-Trino-Source", "X-Trino-Client-Tags");
+    private boolean cacheKeyQuery = true;
+    private int circuitBreakerFailureThreshold = 5;
+    private Duration circuitBreakerOpenTime = new Duration(30, SECONDS);
+    private String batchUrlPath;
+    private int batchMaxSize = 100;
+    private Duration batchMaxDelay = new Duration(5, MILLISECONDS);
+    private List<String> requestFields = ImmutableList.of();
 
     public String getUrlPath()
     {
@@ -39,4 +58,124 @@ public class RulesExternalConfiguration
     {
         this.excludeHeaders = excludeHeaders;
     }
+
+    public Duration getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout)
+    {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public int getCacheMaxSize()
+    {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize)
+    {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public Duration getCacheTtl()
+    {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(Duration cacheTtl)
+    {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public boolean isCacheKeyUser()
+    {
+        return cacheKeyUser;
+    }
+
+    public void setCacheKeyUser(boolean cacheKeyUser)
+    {
+        this.cacheKeyUser = cacheKeyUser;
+    }
+
+    public List<String> getCacheKeyHeaders()
+    {
+        return cacheKeyHeaders;
+    }
+
+    public void setCacheKeyHeaders(List<String> cacheKeyHeaders)
+    {
+        this.cacheKeyHeaders = ImmutableList.copyOf(cacheKeyHeaders);
+    }
+
+    public boolean isCacheKeyQuery()
+    {
+        return cacheKeyQuery;
+    }
+
+    public void setCacheKeyQuery(boolean cacheKeyQuery)
+    {
+        this.cacheKeyQuery = cacheKeyQuery;
+    }
+
+    public int getCircuitBreakerFailureThreshold()
+    {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold)
+    {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public Duration getCircuitBreakerOpenTime()
+    {
+        return circuitBreakerOpenTime;
+    }
+
+    public void setCircuitBreakerOpenTime(Duration circuitBreakerOpenTime)
+    {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    public String getBatchUrlPath()
+    {
+        return batchUrlPath;
+    }
+
+    public void setBatchUrlPath(String batchUrlPath)
+    {
+        this.batchUrlPath = batchUrlPath;
+    }
+
+    public int getBatchMaxSize()
+    {
+        return batchMaxSize;
+    }
+
+    public void setBatchMaxSize(int batchMaxSize)
+    {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public Duration getBatchMaxDelay()
+    {
+        return batchMaxDelay;
+    }
+
+    public void setBatchMaxDelay(Duration batchMaxDelay)
+    {
+        this.batchMaxDelay = batchMaxDelay;
+    }
+
+    public List<String> getRequestFields()
+    {
+        return requestFields;
+    }
+
+    public void setRequestFields(List<String> requestFields)
+    {
+        this.requestFields = ImmutableList.copyOf(requestFields);
+    }
 }
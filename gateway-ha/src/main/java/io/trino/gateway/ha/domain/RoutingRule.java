@@ -13,6 +13,7 @@
  */
 package io.trino.gateway.ha.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.google.common.collect.ImmutableList;
 
 import java.util.List;
@@ -28,13 +29,15 @@ import static java.util.Objects.requireNonNullElse;
  * @param priority priority of the routing rule. Higher number represents higher priority. If two rules have same priority then order of execution is not guaranteed.
  * @param actions actions of the routing rule
  * @param condition condition of the routing rule
+ * @param terminal whether no further rules are evaluated once this rule's condition holds, which suppresses all higher-priority rules. Defaults to false.
  */
 public record RoutingRule(
         String name,
         String description,
         Integer priority,
         List<String> actions,
-        String condition)
+        String condition,
+        @JsonInclude(JsonInclude.Include.NON_DEFAULT) Boolean terminal)
 {
     public RoutingRule {
         requireNonNull(name, "name is null");
@@ -42,5 +45,11 @@ public record RoutingRule(
         priority = requireNonNullElse(priority, 0);
         actions = ImmutableList.copyOf(actions);
         requireNonNull(condition, "condition is null");
+        terminal = requireNonNullElse(terminal, false);
+    }
+
+    public RoutingRule(String name, String description, Integer priority, List<String> actions, String condition)
+    {
+        this(name, description, priority, actions, condition, false);
     }
 }
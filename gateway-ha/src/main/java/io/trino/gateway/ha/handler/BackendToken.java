@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Signed token identifying the backend and routing group of a query. The token is added to the
+ * path of the {@code nextUri}, {@code infoUri} and {@code partialCancelUri} returned to clients,
+ * so that follow-up requests are routed by decoding the path, without looking up the query id.
+ *
+ * <p>Like {@link io.trino.gateway.ha.router.GatewayCookie}, the token is signed with HMAC-SHA256,
+ * so that clients cannot send requests to arbitrary hosts. Tokens do not expire, and all gateway
+ * instances sharing the signing secret accept each other's tokens.
+ */
+public final class BackendToken
+{
+    public static final String PATH_PREFIX = "/trino-gateway/backend/";
+
+    private static final int SIGNATURE_BYTES = 16;
+    private static final char SEPARATOR = ' ';
+    private static final String[] URI_FIELDS = {"\"nextUri\":\"", "\"infoUri\":\"", "\"partialCancelUri\":\""};
+    // the fields following the URIs in a QueryResults document, which contain the result data
+    private static final String[] DATA_FIELDS = {"\"columns\":", "\"data\":"};
+
+    private final HashFunction hmac;
+    private final Map<Target, String> tokens = new ConcurrentHashMap<>();
+    // only valid tokens are cached, so the size is bounded by the number of backends and routing groups
+    private final Map<String, Target> verifiedTokens = new ConcurrentHashMap<>();
+
+    public BackendToken(String signingSecret)
+    {
+        requireNonNull(signingSecret, "signingSecret is null");
+        hmac = Hashing.hmacSha256(new SecretKeySpec(signingSecret.getBytes(UTF_8), "HmacSHA256"));
+    }
+
+    public static Optional<BackendToken> fromConfiguration(HaGatewayConfiguration configuration)
+    {
+        RoutingConfiguration routingConfiguration = configuration.getRouting();
+        if (!routingConfiguration.isBackendTokenEnabled()) {
+            return Optional.empty();
+        }
+        if (isNullOrEmpty(routingConfiguration.getBackendTokenSigningSecret())) {
+            throw new IllegalArgumentException("routing.backendTokenSigningSecret must be provided when backend tokens are enabled");
+        }
+        // streamed responses are relayed without being read, so no token could be added to them
+        if (configuration.getProxyResponseConfiguration().isStreamingEnabled()) {
+            throw new IllegalArgumentException("routing.backendTokenEnabled cannot be used with proxyResponseConfiguration.streamingEnabled");
+        }
+        return Optional.of(new BackendToken(routingConfiguration.getBackendTokenSigningSecret()));
+    }
+
+    public String encode(String backend, String routingGroup)
+    {
+        return tokens.computeIfAbsent(new Target(backend, routingGroup), target -> {
+            byte[] payload = (target.backend() + SEPARATOR + target.routingGroup()).getBytes(UTF_8);
+            return encoder().encodeToString(payload) + "." + encoder().encodeToString(sign(payload));
+        });
+    }
+
+    public Optional<Target> decode(String token)
+    {
+        Target target = verifiedTokens.get(token);
+        if (target != null) {
+            return Optional.of(target);
+        }
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = Base64.getUrlDecoder().decode(token.substring(0, dot));
+            signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+        }
+        catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (!MessageDigest.isEqual(signature, sign(payload))) {
+            return Optional.empty();
+        }
+        String value = new String(payload, UTF_8);
+        int separator = value.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        target = new Target(value.substring(0, separator), value.substring(separator + 1));
+        verifiedTokens.put(token, target);
+        return Optional.of(target);
+    }
+
+    /**
+     * Splits a path starting with {@link #PATH_PREFIX} into the token and the path to send to the backend.
+     */
+    public static Optional<TokenPath> parsePath(String path)
+    {
+        if (path == null || !path.startsWith(PATH_PREFIX)) {
+            return Optional.empty();
+        }
+        int end = path.indexOf('/', PATH_PREFIX.length());
+        if (end < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new TokenPath(path.substring(PATH_PREFIX.length(), end), path.substring(end)));
+    }
+
+    /**
+     * Adds the token to the URIs of a Trino {@code QueryResults} document. The fields are found with
+     * a plain string search, which is much cheaper than parsing result data. Trino writes the URIs
+     * before the {@code columns} and {@code data} fields, so the search stops at the first of those:
+     * values of {@code MAP} and {@code ROW} columns are written as JSON objects, whose keys could
+     * match the URI fields on pages without the URIs. URIs pointing directly to the backend are left
+     * untouched, since the backend does not know the token path. Returns an empty result if no URI
+     * was rewritten.
+     */
+    public Optional<String> rewriteQueryResults(String body, String backend, String routingGroup)
+    {
+        int limit = body.length();
+        for (String field : DATA_FIELDS) {
+            int start = body.indexOf(field);
+            if (start >= 0 && start < limit) {
+                limit = start;
+            }
+        }
+        int[] insertions = new int[URI_FIELDS.length];
+        int count = 0;
+        for (String field : URI_FIELDS) {
+            int path = findUriPath(body, field, backend, limit);
+            if (path >= 0) {
+                insertions[count++] = path;
+            }
+        }
+        if (count == 0) {
+            return Optional.empty();
+        }
+        Arrays.sort(insertions, 0, count);
+        String token = encode(backend, routingGroup);
+        StringBuilder result = new StringBuilder(body.length() + count * (PATH_PREFIX.length() + token.length()));
+        int copied = 0;
+        for (int i = 0; i < count; i++) {
+            result.append(body, copied, insertions[i])
+                    .append(PATH_PREFIX)
+                    .append(token);
+            copied = insertions[i];
+        }
+        return Optional.of(result.append(body, copied, body.length()).toString());
+    }
+
+    private static int findUriPath(String body, String field, String backend, int limit)
+    {
+        int start = body.indexOf(field);
+        if (start < 0 || start >= limit) {
+            return -1;
+        }
+        start += field.length();
+        int end = body.indexOf('"', start);
+        if (end < 0 || body.startsWith(backend, start)) {
+            return -1;
+        }
+        int scheme = body.indexOf("://", start);
+        if (scheme < 0 || scheme >= end) {
+            return -1;
+        }
+        int path = body.indexOf('/', scheme + 3);
+        return path < end ? path : -1;
+    }
+
+    private byte[] sign(byte[] payload)
+    {
+        return Arrays.copyOf(hmac.hashBytes(payload).asBytes(), SIGNATURE_BYTES);
+    }
+
+    private static Base64.Encoder encoder()
+    {
+        return Base64.getUrlEncoder().withoutPadding();
+    }
+
+    public record Target(String backend, String routingGroup)
+    {
+        public Target
+        {
+            requireNonNull(backend, "backend is null");
+            requireNonNull(routingGroup, "routingGroup is null");
+        }
+    }
+
+    public record TokenPath(String token, String path) {}
+}
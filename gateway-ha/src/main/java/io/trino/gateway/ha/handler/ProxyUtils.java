@@ -13,9 +13,10 @@
  */
 package io.trino.gateway.ha.handler;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import io.airlift.log.Logger;
-import io.trino.gateway.ha.router.TrinoQueryProperties;
+import io.trino.gateway.ha.router.RequestAnalysisContext;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.HttpMethod;
 
@@ -24,12 +25,8 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
-import static io.trino.gateway.ha.handler.HttpUtils.TRINO_UI_PATH;
-import static io.trino.gateway.ha.handler.HttpUtils.V1_QUERY_PATH;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Locale.ENGLISH;
 
@@ -40,19 +37,7 @@ public final class ProxyUtils
 
     private static final Logger log = Logger.get(ProxyUtils.class);
     public static final int QUERY_TEXT_LENGTH_FOR_HISTORY = 200;
-    /**
-     * This regular expression matches query ids as they appear in the path of a URL. The query id must be preceded
-     * by a "/". A query id is defined as three groups of digits separated by underscores, with a final group
-     * consisting of any alphanumeric characters.
-     */
-    private static final Pattern QUERY_ID_PATH_PATTERN = Pattern.compile(".*/(\\d+_\\d+_\\d+_\\w+).*");
-    /**
-     * This regular expression matches query ids as they appear in the query parameters of a URL. The query id is
-     * defined as in QUERY_TEXT_LENGTH_FOR_HISTORY. The query id must either be at the beginning of the query parameter
-     * string, or be preceded by %2F (a URL-encoded "/"), or  "query_id=", with or without the underscore and any
-     * capitalization.
-     */
-    private static final Pattern QUERY_ID_PARAM_PATTERN = Pattern.compile(".*(?:%2F|(?i)query_?id(?-i)=|^)(\\d+_\\d+_\\d+_\\w+).*");
+    private static final String KILL_QUERY = "kill_query";
 
     private ProxyUtils() {}
 
@@ -62,10 +47,31 @@ public final class ProxyUtils
             boolean requestAnalyserClientsUseV2Format,
             int requestAnalyserMaxBodySize)
     {
-        String path = request.getRequestURI();
-        String queryParams = request.getQueryString();
+        return extractQueryIdIfPresent(request, new RequestPathClassifier(statementPaths, ImmutableList.of(), false), requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize);
+    }
+
+    public static Optional<String> extractQueryIdIfPresent(
+            HttpServletRequest request,
+            RequestPathClassifier pathClassifier,
+            boolean requestAnalyserClientsUseV2Format,
+            int requestAnalyserMaxBodySize)
+    {
         if (!request.getMethod().equals(HttpMethod.POST)) {
-            return extractQueryIdIfPresent(path, queryParams, statementPaths);
+            return extractQueryIdIfPresent(request.getRequestURI(), request.getQueryString(), pathClassifier);
+        }
+        if (isKillQuery(request)) {
+            return RequestAnalysisContext.forRequest(request, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize)
+                    .getTrinoQueryProperties()
+                    .getQueryId();
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isKillQuery(HttpServletRequest request)
+    {
+        Optional<RequestBody> requestBody = RequestBody.fromRequest(request);
+        if (requestBody.isPresent()) {
+            return requestBody.get().containsAsciiIgnoreCase(KILL_QUERY);
         }
         String queryText;
         try {
@@ -74,49 +80,18 @@ public final class ProxyUtils
         catch (IOException e) {
             throw new RuntimeException("Error reading request body", e);
         }
-        if (!isNullOrEmpty(queryText) && queryText.toLowerCase(ENGLISH).contains("kill_query")) {
-            TrinoQueryProperties trinoQueryProperties = new TrinoQueryProperties(request, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize);
-            return trinoQueryProperties.getQueryId();
-        }
-        return Optional.empty();
+        return !isNullOrEmpty(queryText) && queryText.toLowerCase(ENGLISH).contains(KILL_QUERY);
     }
 
     public static Optional<String> extractQueryIdIfPresent(String path, String queryParams, List<String> statementPaths)
     {
-        if (path == null) {
-            return Optional.empty();
-        }
+        return extractQueryIdIfPresent(path, queryParams, new RequestPathClassifier(statementPaths, ImmutableList.of(), false));
+    }
+
+    public static Optional<String> extractQueryIdIfPresent(String path, String queryParams, RequestPathClassifier pathClassifier)
+    {
         log.debug("Trying to extract query id from path [%s] or queryString [%s]", path, queryParams);
-        // matchingStatementPath should match paths such as /v1/statement/executing/query_id/nonce/sequence_number,
-        // and if custom paths are supplied using the statementPaths configuration, paths such as
-        // /custom/statement/path/executing/query_id/nonce/sequence_number
-        Optional<String> matchingStatementPath = statementPaths.stream().filter(path::startsWith).findAny();
-        if (!isNullOrEmpty(queryParams)) {
-            Matcher matcher = QUERY_ID_PARAM_PATTERN.matcher(queryParams);
-            if (matcher.matches()) {
-                return Optional.of(matcher.group(1));
-            }
-        }
-        if (matchingStatementPath.isPresent() || path.startsWith(V1_QUERY_PATH)) {
-            path = path.replace(matchingStatementPath.orElse(V1_QUERY_PATH), "");
-            String[] tokens = path.split("/");
-            if (tokens.length >= 2) {
-                if (tokens[1].equals("queued")
-                        || tokens[1].equals("scheduled")
-                        || tokens[1].equals("executing")
-                        || tokens[1].equals("partialCancel")) {
-                    return Optional.of(tokens[2]);
-                }
-                return Optional.of(tokens[1]);
-            }
-        }
-        else if (path.startsWith(TRINO_UI_PATH)) {
-            Matcher matcher = QUERY_ID_PATH_PATTERN.matcher(path);
-            if (matcher.matches()) {
-                return Optional.of(matcher.group(1));
-            }
-        }
-        return Optional.empty();
+        return pathClassifier.extractQueryId(path, queryParams);
     }
 
     public static URI buildUriWithNewCluster(String backendHost, HttpServletRequest request)
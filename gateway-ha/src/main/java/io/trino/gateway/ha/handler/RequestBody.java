@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The body of a proxied request, read from the client once and shared by every component that
+ * inspects or forwards it. The text form is decoded on first use and cached.
+ * <p>
+ * Attached to the servlet request as the {@link #ATTRIBUTE} attribute.
+ */
+public final class RequestBody
+{
+    public static final String ATTRIBUTE = RequestBody.class.getName();
+
+    private final byte[] bytes;
+    private volatile String text;
+
+    public RequestBody(byte[] bytes)
+    {
+        this.bytes = requireNonNull(bytes, "bytes is null");
+    }
+
+    public static Optional<RequestBody> fromRequest(HttpServletRequest request)
+    {
+        if (request.getAttribute(ATTRIBUTE) instanceof RequestBody requestBody) {
+            return Optional.of(requestBody);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the raw body without copying. Callers must not modify the returned array.
+     */
+    public byte[] bytes()
+    {
+        return bytes;
+    }
+
+    public int length()
+    {
+        return bytes.length;
+    }
+
+    public InputStream openStream()
+    {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    public String text()
+    {
+        String value = text;
+        if (value == null) {
+            value = new String(bytes, UTF_8);
+            text = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes at most {@code maxChars} characters from the start of the body, without decoding the rest of it.
+     */
+    public String textPrefix(int maxChars)
+    {
+        checkArgument(maxChars >= 0, "maxChars is negative");
+        String value = text;
+        if (value != null) {
+            return truncate(value, maxChars);
+        }
+        // a UTF-8 encoded character takes at most 3 bytes per UTF-16 char, so a character cut at the
+        // end of the prefix decodes after the first maxChars chars
+        int prefixLength = (int) Math.min(bytes.length, 3L * maxChars);
+        return truncate(new String(bytes, 0, prefixLength, UTF_8), maxChars);
+    }
+
+    private static String truncate(String value, int maxChars)
+    {
+        if (value.length() <= maxChars) {
+            return value;
+        }
+        // do not split a surrogate pair
+        int end = maxChars > 0 && Character.isHighSurrogate(value.charAt(maxChars - 1)) ? maxChars - 1 : maxChars;
+        return value.substring(0, end);
+    }
+
+    /**
+     * Checks whether the body contains the given ASCII string, ignoring case, without decoding the body.
+     */
+    public boolean containsAsciiIgnoreCase(String value)
+    {
+        int length = value.length();
+        for (int start = 0; start <= bytes.length - length; start++) {
+            int i = 0;
+            while (i < length && toLowerAscii(bytes[start + i]) == toLowerAscii((byte) value.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toLowerAscii(byte value)
+    {
+        return (value >= 'A' && value <= 'Z') ? value + ('a' - 'A') : value;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Chars;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static io.trino.gateway.ha.handler.HttpUtils.OAUTH_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.TRINO_UI_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_INFO_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_NODE_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_QUERY_PATH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Classifies request paths by their prefix, and extracts query ids from request paths and query
+ * strings. The prefixes are compiled into a trie, and query ids are found by scanning the path
+ * once, so that no intermediate strings, streams or regular expression matchers are created.
+ * Only the extra whitelisted paths, which are arbitrary regular expressions, are matched with
+ * {@link Pattern}, and only for paths without a known prefix.
+ */
+public final class RequestPathClassifier
+{
+    public enum PathCategory
+    {
+        STATEMENT,
+        QUERY,
+        UI,
+        INFO,
+        NODE,
+        OAUTH,
+        BACKEND_TOKEN,
+        EXTRA,
+        NONE,
+    }
+
+    private static final PathCategory[] CATEGORIES = PathCategory.values();
+    private static final int NO_CATEGORY = -1;
+    private static final String[] STATEMENT_STATES = {"queued", "scheduled", "executing", "partialCancel"};
+    private static final String PERCENT_ENCODED_SLASH = "%2F";
+    private static final String QUERY_ID_PARAMETER = "query_id=";
+    private static final String QUERYID_PARAMETER = "queryid=";
+
+    // trie of the path prefixes, where the children of a node are linked through their siblings
+    private final char[] labels;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final int[] categories;
+    private final List<Pattern> extraWhitelistPaths;
+
+    public RequestPathClassifier(List<String> statementPaths, List<Pattern> extraWhitelistPaths, boolean backendTokenEnabled)
+    {
+        this.extraWhitelistPaths = ImmutableList.copyOf(requireNonNull(extraWhitelistPaths, "extraWhitelistPaths is null"));
+        TrieBuilder trie = new TrieBuilder();
+        trie.add(V1_QUERY_PATH, PathCategory.QUERY);
+        trie.add(TRINO_UI_PATH, PathCategory.UI);
+        trie.add(V1_INFO_PATH, PathCategory.INFO);
+        trie.add(V1_NODE_PATH, PathCategory.NODE);
+        trie.add(OAUTH_PATH, PathCategory.OAUTH);
+        if (backendTokenEnabled) {
+            trie.add(BackendToken.PATH_PREFIX, PathCategory.BACKEND_TOKEN);
+        }
+        // added last, so that statement paths take precedence over the built-in prefixes
+        for (String statementPath : requireNonNull(statementPaths, "statementPaths is null")) {
+            trie.add(statementPath, PathCategory.STATEMENT);
+        }
+        labels = Chars.toArray(trie.labels);
+        firstChild = Ints.toArray(trie.firstChild);
+        nextSibling = Ints.toArray(trie.nextSibling);
+        categories = Ints.toArray(trie.categories);
+    }
+
+    public PathCategory classify(String path)
+    {
+        long match = matchPrefix(path);
+        if (match != NO_CATEGORY) {
+            return CATEGORIES[(int) match];
+        }
+        for (Pattern pattern : extraWhitelistPaths) {
+            if (pattern.matcher(path).matches()) {
+                return PathCategory.EXTRA;
+            }
+        }
+        return PathCategory.NONE;
+    }
+
+    /**
+     * Extracts the query id from the query string, or else from the path of statement, query and
+     * UI requests.
+     *
+     * <p>In the query string, the query id must either be at the beginning, or be preceded by
+     * {@code %2F} (a URL-encoded "/"), or by {@code query_id=}, with or without the underscore and
+     * any capitalization. In the path of statement and query requests, the query id is the segment
+     * following the prefix, or the segment after that for the {@code queued}, {@code scheduled},
+     * {@code executing} and {@code partialCancel} states. In UI paths, the query id must be
+     * preceded by a "/". A query id is defined as three groups of digits separated by underscores,
+     * with a final group consisting of any alphanumeric characters. When several query ids are
+     * present, the last one is returned.
+     */
+    public Optional<String> extractQueryId(String path, String queryString)
+    {
+        if (path == null) {
+            return Optional.empty();
+        }
+        if (queryString != null && !queryString.isEmpty()) {
+            Optional<String> queryId = extractQueryIdFromQueryString(queryString);
+            if (queryId.isPresent()) {
+                return queryId;
+            }
+        }
+        long match = matchPrefix(path);
+        if (match == NO_CATEGORY) {
+            return Optional.empty();
+        }
+        return switch (CATEGORIES[(int) match]) {
+            case STATEMENT, QUERY -> extractQueryIdFromSegments(path, (int) (match >>> 32));
+            case UI -> extractQueryIdFromUiPath(path);
+            default -> Optional.empty();
+        };
+    }
+
+    /**
+     * Returns the category ordinal of the matching prefix in the low bits and the length of the
+     * prefix in the high bits. A statement path takes precedence, and otherwise the longest
+     * prefix is used.
+     */
+    private long matchPrefix(String path)
+    {
+        long match = NO_CATEGORY;
+        int node = 0;
+        for (int i = 0; i < path.length(); i++) {
+            node = child(node, path.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            int category = categories[node];
+            if (category != NO_CATEGORY && (match == NO_CATEGORY || (int) match != PathCategory.STATEMENT.ordinal() || category == PathCategory.STATEMENT.ordinal())) {
+                match = ((long) (i + 1) << 32) | category;
+            }
+        }
+        return match;
+    }
+
+    private int child(int node, char label)
+    {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (labels[child] == label) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private static Optional<String> extractQueryIdFromQueryString(String queryString)
+    {
+        for (int start = queryString.length(); start >= 0; start--) {
+            if (start == 0
+                    || queryString.startsWith(PERCENT_ENCODED_SLASH, start - PERCENT_ENCODED_SLASH.length())
+                    || queryString.regionMatches(true, start - QUERY_ID_PARAMETER.length(), QUERY_ID_PARAMETER, 0, QUERY_ID_PARAMETER.length())
+                    || queryString.regionMatches(true, start - QUERYID_PARAMETER.length(), QUERYID_PARAMETER, 0, QUERYID_PARAMETER.length())) {
+                int end = queryIdEnd(queryString, start);
+                if (end >= 0) {
+                    return Optional.of(queryString.substring(start, end));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<String> extractQueryIdFromUiPath(String path)
+    {
+        for (int slash = path.lastIndexOf('/'); slash >= 0; slash = path.lastIndexOf('/', slash - 1)) {
+            int end = queryIdEnd(path, slash + 1);
+            if (end >= 0) {
+                return Optional.of(path.substring(slash + 1, end));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<String> extractQueryIdFromSegments(String path, int prefixLength)
+    {
+        // the segment after the prefix, and the segment after that for requests in a statement state
+        int start = path.indexOf('/', prefixLength) + 1;
+        if (start == 0) {
+            return Optional.empty();
+        }
+        int end = segmentEnd(path, start);
+        if (isStatementState(path, start, end)) {
+            if (end == path.length()) {
+                return Optional.empty();
+            }
+            start = end + 1;
+            end = segmentEnd(path, start);
+        }
+        if (start == end) {
+            return Optional.empty();
+        }
+        return Optional.of(path.substring(start, end));
+    }
+
+    private static int segmentEnd(String path, int start)
+    {
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.length() : end;
+    }
+
+    private static boolean isStatementState(String path, int start, int end)
+    {
+        for (String state : STATEMENT_STATES) {
+            if (end - start == state.length() && path.startsWith(state, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the end of the query id starting at {@code start}, or -1 if there is none. The
+     * query id extends to the end of the run of word characters, like the {@code \w+} of a
+     * regular expression.
+     */
+    private static int queryIdEnd(String value, int start)
+    {
+        int position = start;
+        for (int group = 0; group < 3; group++) {
+            int digitsStart = position;
+            while (position < value.length() && isDigit(value.charAt(position))) {
+                position++;
+            }
+            if (position == digitsStart || position == value.length() || value.charAt(position) != '_') {
+                return -1;
+            }
+            position++;
+        }
+        int wordStart = position;
+        while (position < value.length() && isWordCharacter(value.charAt(position))) {
+            position++;
+        }
+        return position == wordStart ? -1 : position;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordCharacter(char c)
+    {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static class TrieBuilder
+    {
+        private final List<Character> labels = new ArrayList<>();
+        private final List<Integer> firstChild = new ArrayList<>();
+        private final List<Integer> nextSibling = new ArrayList<>();
+        private final List<Integer> categories = new ArrayList<>();
+
+        private TrieBuilder()
+        {
+            addNode((char) 0);
+        }
+
+        private void add(String prefix, PathCategory category)
+        {
+            int node = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = getOrAddChild(node, prefix.charAt(i));
+            }
+            categories.set(node, category.ordinal());
+        }
+
+        private int getOrAddChild(int node, char label)
+        {
+            int last = -1;
+            for (int child = firstChild.get(node); child >= 0; child = nextSibling.get(child)) {
+                if (labels.get(child) == label) {
+                    return child;
+                }
+                last = child;
+            }
+            int child = addNode(label);
+            if (last < 0) {
+                firstChild.set(node, child);
+            }
+            else {
+                nextSibling.set(last, child);
+            }
+            return child;
+        }
+
+        private int addNode(char label)
+        {
+            labels.add(label);
+            firstChild.add(-1);
+            nextSibling.add(-1);
+            categories.add(NO_CATEGORY);
+            return labels.size() - 1;
+        }
+    }
+}
@@ -18,9 +18,11 @@ import io.airlift.log.Logger;
 import io.trino.gateway.ha.config.GatewayCookieConfigurationPropertiesProvider;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
 import io.trino.gateway.ha.router.GatewayCookie;
+import io.trino.gateway.ha.router.RequestAnalysisContext;
 import io.trino.gateway.ha.router.RoutingGroupSelector;
 import io.trino.gateway.ha.router.RoutingManager;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
 
 import java.util.Arrays;
 import java.util.List;
@@ -29,13 +31,7 @@ import java.util.regex.Pattern;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static io.trino.gateway.ha.handler.HttpUtils.OAUTH_PATH;
-import static io.trino.gateway.ha.handler.HttpUtils.TRINO_UI_PATH;
-import static io.trino.gateway.ha.handler.HttpUtils.UI_API_STATS_PATH;
 import static io.trino.gateway.ha.handler.HttpUtils.USER_HEADER;
-import static io.trino.gateway.ha.handler.HttpUtils.V1_INFO_PATH;
-import static io.trino.gateway.ha.handler.HttpUtils.V1_NODE_PATH;
-import static io.trino.gateway.ha.handler.HttpUtils.V1_QUERY_PATH;
 import static io.trino.gateway.ha.handler.ProxyUtils.buildUriWithNewCluster;
 import static io.trino.gateway.ha.handler.ProxyUtils.extractQueryIdIfPresent;
 import static java.util.Objects.requireNonNull;
@@ -45,11 +41,11 @@ public class RoutingTargetHandler
     private static final Logger log = Logger.get(RoutingTargetHandler.class);
     private final RoutingManager routingManager;
     private final RoutingGroupSelector routingGroupSelector;
-    private final List<String> statementPaths;
-    private final List<Pattern> extraWhitelistPaths;
+    private final RequestPathClassifier pathClassifier;
     private final boolean requestAnalyserClientsUseV2Format;
     private final int requestAnalyserMaxBodySize;
     private final boolean cookiesEnabled;
+    private final Optional<BackendToken> backendToken;
 
     @Inject
     public RoutingTargetHandler(
@@ -59,46 +55,109 @@ public class RoutingTargetHandler
     {
         this.routingManager = requireNonNull(routingManager);
         this.routingGroupSelector = requireNonNull(routingGroupSelector);
-        statementPaths = requireNonNull(haGatewayConfiguration.getStatementPaths());
-        extraWhitelistPaths = requireNonNull(haGatewayConfiguration.getExtraWhitelistPaths()).stream().map(Pattern::compile).collect(toImmutableList());
         requestAnalyserClientsUseV2Format = haGatewayConfiguration.getRequestAnalyzerConfig().isClientsUseV2Format();
         requestAnalyserMaxBodySize = haGatewayConfiguration.getRequestAnalyzerConfig().getMaxBodySize();
         cookiesEnabled = GatewayCookieConfigurationPropertiesProvider.getInstance().isEnabled();
+        backendToken = BackendToken.fromConfiguration(haGatewayConfiguration);
+        pathClassifier = new RequestPathClassifier(
+                requireNonNull(haGatewayConfiguration.getStatementPaths()),
+                requireNonNull(haGatewayConfiguration.getExtraWhitelistPaths()).stream().map(Pattern::compile).collect(toImmutableList()),
+                backendToken.isPresent());
     }
 
     public RoutingDestination getRoutingDestination(HttpServletRequest request)
     {
-        Optional<String> queryId = extractQueryIdIfPresent(request, statementPaths, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize);
+        Optional<BackendToken.TokenPath> tokenPath = backendToken.flatMap(_ -> BackendToken.parsePath(request.getRequestURI()));
+        if (tokenPath.isEmpty()) {
+            return getRoutingDestinationForRequest(request);
+        }
+        // the backend does not know the token, so it is removed from the path in all cases
+        HttpServletRequest backendRequest = withRequestUri(request, tokenPath.get().path());
+        if (!isExistingQueryPath(backendRequest)) {
+            log.debug("Backend token in [%s] does not belong to an existing query, routing by routing rules", request.getRequestURI());
+            return getRoutingDestinationForRequest(backendRequest);
+        }
+        Optional<BackendToken.Target> target = backendToken.get().decode(tokenPath.get().token());
+        if (target.isEmpty()) {
+            log.debug("Invalid backend token in [%s], routing by query id", request.getRequestURI());
+            return getRoutingDestinationForRequest(backendRequest);
+        }
+        String cluster = target.get().backend();
+        RoutingDestination routingDestination = new RoutingDestination(target.get().routingGroup(), cluster, buildUriWithNewCluster(cluster, backendRequest));
+        logRewrite(cluster, backendRequest);
+        return routingDestination;
+    }
+
+    /**
+     * Removes the backend token from the path of a request that does not belong to an existing
+     * query, such as a new query submission. Tokens do not expire, so a client could otherwise
+     * reuse the token of one of its queries to send new queries to the backend of its choice,
+     * bypassing the routing rules, rate limits and admission control. Requests of existing queries
+     * are returned unchanged, and are routed by their token in {@link #getRoutingDestination(HttpServletRequest)}.
+     */
+    public HttpServletRequest withoutBackendTokenOfNewQuery(HttpServletRequest request)
+    {
+        Optional<BackendToken.TokenPath> tokenPath = backendToken.flatMap(_ -> BackendToken.parsePath(request.getRequestURI()));
+        if (tokenPath.isEmpty()) {
+            return request;
+        }
+        HttpServletRequest backendRequest = withRequestUri(request, tokenPath.get().path());
+        return isExistingQueryPath(backendRequest) ? request : backendRequest;
+    }
+
+    /**
+     * Returns the routing group of a request that is routed by its routing group, such as a new
+     * query submission, or an empty result if the request belongs to a known query or backend.
+     */
+    public Optional<String> findRoutingGroupOfNewQuery(HttpServletRequest request)
+    {
+        HttpServletRequest routedRequest = withoutBackendTokenOfNewQuery(request);
+        // a token that was not removed routes the request to the backend of its query
+        if (backendToken.isPresent() && BackendToken.parsePath(routedRequest.getRequestURI()).isPresent()) {
+            return Optional.empty();
+        }
+        Optional<String> queryId = extractQueryIdIfPresent(routedRequest, pathClassifier, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize);
+        if (queryId.isPresent() || getPreviousCluster(queryId, routedRequest).isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(routingGroupSelector.findRoutingGroup(routedRequest).orElse("adhoc"));
+    }
+
+    /**
+     * Routes a request to a cluster of the routing group found by {@link #findRoutingGroupOfNewQuery}.
+     */
+    public RoutingDestination getRoutingDestination(HttpServletRequest request, String routingGroup)
+    {
+        RoutingDestination routingDestination = getClusterFromRoutingGroup(request, routingGroup);
+        logRewrite(routingDestination.clusterHost(), request);
+        return routingDestination;
+    }
+
+    private RoutingDestination getRoutingDestinationForRequest(HttpServletRequest request)
+    {
+        Optional<String> queryId = extractQueryIdIfPresent(request, pathClassifier, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize);
         Optional<String> previousCluster = getPreviousCluster(queryId, request);
         RoutingDestination routingDestination = previousCluster.map(cluster -> {
             String routingGroup = queryId.map(routingManager::findRoutingGroupForQueryId)
                     .orElse("adhoc");
             return new RoutingDestination(routingGroup, cluster, buildUriWithNewCluster(cluster, request));
-        }).orElse(getClusterFromRoutingGroup(request));
+        }).orElseGet(() -> getClusterFromRoutingGroup(request, routingGroupSelector.findRoutingGroup(request).orElse("adhoc")));
         logRewrite(routingDestination.clusterHost(), request);
         return routingDestination;
     }
 
-    private RoutingDestination getClusterFromRoutingGroup(HttpServletRequest request)
+    private RoutingDestination getClusterFromRoutingGroup(HttpServletRequest request, String routingGroup)
     {
-        Optional<String> routingGroup = routingGroupSelector.findRoutingGroup(request);
         String user = request.getHeader(USER_HEADER);
         // This falls back on adhoc routing group if there is no cluster found for the routing group.
-        String group = routingGroup.orElse("adhoc");
-        String clusterHost = routingManager.provideClusterForRoutingGroup(group, user);
-        return new RoutingDestination(group, clusterHost, buildUriWithNewCluster(clusterHost, request));
+        String clusterHost = routingManager.provideClusterForQuery(routingGroup, user, () ->
+                RequestAnalysisContext.forRequest(request, requestAnalyserClientsUseV2Format, requestAnalyserMaxBodySize).getTrinoQueryProperties());
+        return new RoutingDestination(routingGroup, clusterHost, buildUriWithNewCluster(clusterHost, request));
     }
 
     public boolean isPathWhiteListed(String path)
     {
-        return statementPaths.stream().anyMatch(path::startsWith)
-                || path.startsWith(V1_QUERY_PATH)
-                || path.startsWith(TRINO_UI_PATH)
-                || path.startsWith(V1_INFO_PATH)
-                || path.startsWith(V1_NODE_PATH)
-                || path.startsWith(UI_API_STATS_PATH)
-                || path.startsWith(OAUTH_PATH)
-                || extraWhitelistPaths.stream().anyMatch(pattern -> pattern.matcher(path).matches());
+        return pathClassifier.classify(path) != RequestPathClassifier.PathCategory.NONE;
     }
 
     private Optional<String> getPreviousCluster(Optional<String> queryId, HttpServletRequest request)
@@ -123,6 +182,33 @@ public class RoutingTargetHandler
         return Optional.empty();
     }
 
+    /**
+     * Returns whether the request belongs to an existing query, either by the query id in its path,
+     * such as {@code /v1/statement/executing/<id>/...} or {@code /v1/query/<id>}, or by the query
+     * id in the query string of a UI path, such as the {@code infoUri} of a query.
+     */
+    private boolean isExistingQueryPath(HttpServletRequest request)
+    {
+        String path = request.getRequestURI();
+        if (pathClassifier.extractQueryId(path, null).isPresent()) {
+            return true;
+        }
+        return pathClassifier.classify(path) == RequestPathClassifier.PathCategory.UI
+                && pathClassifier.extractQueryId(path, request.getQueryString()).isPresent();
+    }
+
+    private static HttpServletRequest withRequestUri(HttpServletRequest request, String requestUri)
+    {
+        return new HttpServletRequestWrapper(request)
+        {
+            @Override
+            public String getRequestURI()
+            {
+                return requestUri;
+            }
+        };
+    }
+
     private void logRewrite(String newBackend, HttpServletRequest request)
     {
         log.info("Rerouting [%s://%s:%s%s%s]--> [%s]",
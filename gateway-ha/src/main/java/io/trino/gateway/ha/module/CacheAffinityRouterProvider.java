@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.module;
+
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import io.airlift.http.client.HttpClient;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.router.CacheAffinityRouter;
+import io.trino.gateway.ha.router.ForRouter;
+import io.trino.gateway.ha.router.RoutingManager;
+
+import java.util.Optional;
+
+public class CacheAffinityRouterProvider
+        extends RouterBaseModule
+{
+    public CacheAffinityRouterProvider(HaGatewayConfiguration configuration)
+    {
+        super(configuration);
+    }
+
+    @Provides
+    @Singleton
+    public RoutingManager getRoutingManager(@ForRouter HttpClient httpClient)
+    {
+        return new CacheAffinityRouter(gatewayBackendManager, queryHistoryManager, Optional.of(coordinatorBackendRegistry), httpClient, routingConfiguration);
+    }
+}
@@ -41,6 +41,8 @@ import io.trino.gateway.ha.config.RoutingRulesConfiguration;
 import io.trino.gateway.ha.config.RulesExternalConfiguration;
 import io.trino.gateway.ha.config.UserConfiguration;
 import io.trino.gateway.ha.router.BackendStateManager;
+import io.trino.gateway.ha.router.ExternalRoutingGroupSelector;
+import io.trino.gateway.ha.router.FileBasedRoutingGroupSelector;
 import io.trino.gateway.ha.router.ForRouter;
 import io.trino.gateway.ha.router.RoutingGroupSelector;
 import io.trino.gateway.ha.router.RoutingManager;
@@ -59,7 +61,9 @@ import io.trino.gateway.ha.security.NoopFilter;
 import io.trino.gateway.ha.security.ResourceSecurityDynamicFeature;
 import io.trino.gateway.ha.security.util.Authorizer;
 import io.trino.gateway.ha.security.util.ChainedAuthFilter;
+import io.trino.gateway.proxyserver.AdmissionController;
 import jakarta.ws.rs.container.ContainerRequestFilter;
+import org.weakref.jmx.MBeanExporter;
 
 import java.util.List;
 import java.util.Map;
@@ -197,19 +201,25 @@ public class HaGatewayProviderModule
 
     @Provides
     @Singleton
-    public RoutingGroupSelector getRoutingGroupSelector(@ForRouter HttpClient httpClient)
+    public RoutingGroupSelector getRoutingGroupSelector(@ForRouter HttpClient httpClient, MBeanExporter exporter)
     {
         RoutingRulesConfiguration routingRulesConfig = configuration.getRoutingRules();
         if (routingRulesConfig.isRulesEngineEnabled()) {
             try {
                 return switch (routingRulesConfig.getRulesType()) {
-                    case FILE -> RoutingGroupSelector.byRoutingRulesEngine(
-                            routingRulesConfig.getRulesConfigPath(),
-                            routingRulesConfig.getRulesRefreshPeriod(),
-                            configuration.getRequestAnalyzerConfig());
+                    case FILE -> {
+                        RoutingGroupSelector selector = RoutingGroupSelector.byRoutingRulesEngine(
+                                routingRulesConfig.getRulesConfigPath(),
+                                routingRulesConfig.getRulesRefreshPeriod(),
+                                configuration.getRequestAnalyzerConfig());
+                        exporter.exportWithGeneratedName(selector, FileBasedRoutingGroupSelector.class);
+                        yield selector;
+                    }
                     case EXTERNAL -> {
                         RulesExternalConfiguration rulesExternalConfiguration = routingRulesConfig.getRulesExternalConfiguration();
-                        yield RoutingGroupSelector.byRoutingExternal(httpClient, rulesExternalConfiguration, configuration.getRequestAnalyzerConfig());
+                        RoutingGroupSelector selector = RoutingGroupSelector.byRoutingExternal(httpClient, rulesExternalConfiguration, configuration.getRequestAnalyzerConfig());
+                        exporter.exportWithGeneratedName(selector, ExternalRoutingGroupSelector.class);
+                        yield selector;
                     }
                 };
             }
@@ -246,11 +256,13 @@ public class HaGatewayProviderModule
     @Singleton
     public List<TrinoClusterStatsObserver> getClusterStatsObservers(
             RoutingManager mgr,
-            BackendStateManager backendStateManager)
+            BackendStateManager backendStateManager,
+            AdmissionController admissionController)
     {
         return ImmutableList.<TrinoClusterStatsObserver>builder()
                 .add(new HealthCheckObserver(mgr))
                 .add(new ClusterStatsObserver(backendStateManager))
+                .add(admissionController)
                 .build();
     }
 
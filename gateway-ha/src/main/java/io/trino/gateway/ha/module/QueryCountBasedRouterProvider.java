@@ -14,24 +14,27 @@
 package io.trino.gateway.ha.module;
 
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import io.airlift.http.client.HttpClient;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.router.ForRouter;
 import io.trino.gateway.ha.router.QueryCountBasedRouter;
 import io.trino.gateway.ha.router.RoutingManager;
 
+import java.util.Optional;
+
 public class QueryCountBasedRouterProvider
           extends RouterBaseModule
 {
-    private final QueryCountBasedRouter routingManager;
-
     public QueryCountBasedRouterProvider(HaGatewayConfiguration configuration)
     {
         super(configuration);
-        routingManager = new QueryCountBasedRouter(gatewayBackendManager, queryHistoryManager);
     }
 
     @Provides
-    public RoutingManager getRoutingManager()
+    @Singleton
+    public RoutingManager getRoutingManager(@ForRouter HttpClient httpClient)
     {
-        return this.routingManager;
+        return new QueryCountBasedRouter(gatewayBackendManager, queryHistoryManager, Optional.of(coordinatorBackendRegistry), httpClient, routingConfiguration);
     }
 }
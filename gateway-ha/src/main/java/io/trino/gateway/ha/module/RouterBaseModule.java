@@ -15,16 +15,27 @@ package io.trino.gateway.ha.module;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import io.trino.gateway.ha.config.DataStoreConfiguration;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
 import io.trino.gateway.ha.persistence.JdbcConnectionManager;
+import io.trino.gateway.ha.persistence.JdbcPoolStats;
+import io.trino.gateway.ha.router.CoordinatorBackendRegistry;
 import io.trino.gateway.ha.router.GatewayBackendManager;
 import io.trino.gateway.ha.router.HaGatewayManager;
 import io.trino.gateway.ha.router.HaQueryHistoryManager;
 import io.trino.gateway.ha.router.HaResourceGroupsManager;
 import io.trino.gateway.ha.router.QueryHistoryManager;
+import io.trino.gateway.ha.router.QueryHistoryWriter;
 import io.trino.gateway.ha.router.ResourceGroupsManager;
+import io.trino.gateway.ha.router.RoutingManager;
 import org.jdbi.v3.core.Jdbi;
 
+import java.util.Optional;
+
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
+
 public class RouterBaseModule
         extends AbstractModule
 {
@@ -32,17 +43,43 @@ public class RouterBaseModule
     final GatewayBackendManager gatewayBackendManager;
     final QueryHistoryManager queryHistoryManager;
     final JdbcConnectionManager connectionManager;
+    final QueryHistoryWriter queryHistoryWriter;
+    final JdbcPoolStats poolStats;
+    final RoutingConfiguration routingConfiguration;
+    final CoordinatorBackendRegistry coordinatorBackendRegistry;
 
     public RouterBaseModule(HaGatewayConfiguration configuration)
     {
-        Jdbi jdbi = Jdbi.create(configuration.getDataStore().getJdbcUrl(), configuration.getDataStore().getUser(), configuration.getDataStore().getPassword());
-        connectionManager = new JdbcConnectionManager(jdbi, configuration.getDataStore());
+        DataStoreConfiguration dataStore = configuration.getDataStore();
+        routingConfiguration = configuration.getRouting();
+        poolStats = new JdbcPoolStats();
+        connectionManager = new JdbcConnectionManager(JdbcConnectionManager.createDataSource(dataStore, dataStore.getJdbcUrl(), "gateway", poolStats), dataStore, poolStats);
+        Jdbi jdbi = connectionManager.getJdbi();
         resourceGroupsManager = new HaResourceGroupsManager(connectionManager);
-        gatewayBackendManager = new HaGatewayManager(jdbi);
-        queryHistoryManager = new HaQueryHistoryManager(jdbi, configuration.getDataStore().getJdbcUrl().startsWith("jdbc:oracle"));
+        gatewayBackendManager = new HaGatewayManager(jdbi, Optional.of(routingConfiguration.getBackendRefreshInterval()));
+        queryHistoryWriter = new QueryHistoryWriter(jdbi, dataStore);
+        queryHistoryManager = new HaQueryHistoryManager(jdbi, dataStore.getJdbcUrl().startsWith("jdbc:oracle"), Optional.of(queryHistoryWriter));
+        coordinatorBackendRegistry = new CoordinatorBackendRegistry(jdbi, Optional.of(routingConfiguration.getBackendRefreshInterval()));
+    }
+
+    @Override
+    protected void configure()
+    {
+        newExporter(binder()).export(QueryHistoryWriter.class).withGeneratedName();
+        newExporter(binder()).export(JdbcPoolStats.class).withGeneratedName();
+        newExporter(binder()).export(RoutingManager.class).withGeneratedName();
+        newExporter(binder()).export(CoordinatorBackendRegistry.class).withGeneratedName();
+    }
+
+    @Provides
+    @Singleton
+    public JdbcPoolStats getJdbcPoolStats()
+    {
+        return this.poolStats;
     }
 
     @Provides
+    @Singleton
     public JdbcConnectionManager getConnectionManager()
     {
         return this.connectionManager;
@@ -55,11 +92,28 @@ public class RouterBaseModule
     }
 
     @Provides
+    @Singleton
     public GatewayBackendManager getGatewayBackendManager()
     {
         return this.gatewayBackendManager;
     }
 
+    @Provides
+    @Singleton
+    public QueryHistoryWriter getQueryHistoryWriter(@SuppressWarnings("unused") JdbcConnectionManager connectionManager)
+    {
+        // Depending on the connection manager provisions it first. Instances are stopped in reverse
+        // order, so the writer flushes the queued history before the gateway database pool is closed
+        return this.queryHistoryWriter;
+    }
+
+    @Provides
+    @Singleton
+    public CoordinatorBackendRegistry getCoordinatorBackendRegistry()
+    {
+        return this.coordinatorBackendRegistry;
+    }
+
     @Provides
     public QueryHistoryManager getQueryHistoryManager()
     {
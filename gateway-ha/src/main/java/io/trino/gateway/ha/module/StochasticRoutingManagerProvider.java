@@ -14,30 +14,33 @@
 package io.trino.gateway.ha.module;
 
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import io.airlift.http.client.HttpClient;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.router.ForRouter;
 import io.trino.gateway.ha.router.RoutingManager;
 import io.trino.gateway.ha.router.StochasticRoutingManager;
 
+import java.util.Optional;
+
 public class StochasticRoutingManagerProvider
             extends RouterBaseModule
 {
-    private final StochasticRoutingManager routingManager;
-
     public StochasticRoutingManagerProvider(HaGatewayConfiguration configuration)
     {
         super(configuration);
-        routingManager = new StochasticRoutingManager(gatewayBackendManager, queryHistoryManager);
     }
 
     @Provides
-    public StochasticRoutingManager getHaRoutingManager()
+    @Singleton
+    public StochasticRoutingManager getHaRoutingManager(@ForRouter HttpClient httpClient)
     {
-        return this.routingManager;
+        return new StochasticRoutingManager(gatewayBackendManager, queryHistoryManager, Optional.of(coordinatorBackendRegistry), httpClient, routingConfiguration);
     }
 
     @Provides
-    public RoutingManager getRoutingManager()
+    public RoutingManager getRoutingManager(StochasticRoutingManager routingManager)
     {
-        return getHaRoutingManager();
+        return routingManager;
     }
 }
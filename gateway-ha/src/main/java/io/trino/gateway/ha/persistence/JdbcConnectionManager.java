@@ -13,13 +13,20 @@
  */
 package io.trino.gateway.ha.persistence;
 
+import com.zaxxer.hikari.HikariDataSource;
 import io.airlift.log.Logger;
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.DataStoreConfiguration;
+import io.trino.gateway.ha.persistence.dao.CoordinatorBackendDao;
 import io.trino.gateway.ha.persistence.dao.QueryHistoryDao;
 import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -31,19 +38,68 @@ public class JdbcConnectionManager
     private static final Logger log = Logger.get(JdbcConnectionManager.class);
 
     private final Jdbi jdbi;
+    private final Optional<HikariDataSource> gatewayDataSource;
     private final DataStoreConfiguration configuration;
+    private final JdbcPoolStats poolStats;
+    private final Map<String, HikariDataSource> routingGroupDataSources = new ConcurrentHashMap<>();
+    private final Map<String, Jdbi> routingGroupJdbis = new ConcurrentHashMap<>();
     private final ScheduledExecutorService executorService =
             Executors.newSingleThreadScheduledExecutor();
 
     public JdbcConnectionManager(Jdbi jdbi, DataStoreConfiguration configuration)
     {
+        this(jdbi, configuration, new JdbcPoolStats());
+    }
+
+    public JdbcConnectionManager(Jdbi jdbi, DataStoreConfiguration configuration, JdbcPoolStats poolStats)
+    {
+        this(jdbi, Optional.empty(), configuration, poolStats);
+    }
+
+    /**
+     * Uses the given pool for the gateway database, and closes it when stopped.
+     */
+    public JdbcConnectionManager(HikariDataSource gatewayDataSource, DataStoreConfiguration configuration, JdbcPoolStats poolStats)
+    {
+        this(Jdbi.create(gatewayDataSource), Optional.of(gatewayDataSource), configuration, poolStats);
+    }
+
+    private JdbcConnectionManager(Jdbi jdbi, Optional<HikariDataSource> gatewayDataSource, DataStoreConfiguration configuration, JdbcPoolStats poolStats)
+    {
+        this.gatewayDataSource = requireNonNull(gatewayDataSource, "gatewayDataSource is null");
         this.jdbi = requireNonNull(jdbi, "jdbi is null")
                 .installPlugin(new SqlObjectPlugin())
                 .registerRowMapper(new RecordAndAnnotatedConstructorMapper());
         this.configuration = configuration;
+        this.poolStats = requireNonNull(poolStats, "poolStats is null");
         startCleanUps();
     }
 
+    /**
+     * Creates a connection pool for the given database. The pool is started lazily
+     * on the first connection request, so that an unavailable database does not prevent
+     * the gateway from starting.
+     */
+    public static HikariDataSource createDataSource(DataStoreConfiguration configuration, String jdbcUrl, String poolName, JdbcPoolStats poolStats)
+    {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(poolName);
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUsername(configuration.getUser());
+        dataSource.setPassword(configuration.getPassword());
+        dataSource.setMaximumPoolSize(configuration.getMaxPoolSize());
+        dataSource.setMinimumIdle(configuration.getMinIdle());
+        dataSource.setConnectionTimeout(configuration.getConnectionTimeout().toMillis());
+        dataSource.setIdleTimeout(configuration.getIdleTimeout().toMillis());
+        dataSource.setMaxLifetime(configuration.getMaxLifetime().toMillis());
+        Duration leakDetectionThreshold = configuration.getLeakDetectionThreshold();
+        if (leakDetectionThreshold != null) {
+            dataSource.setLeakDetectionThreshold(leakDetectionThreshold.toMillis());
+        }
+        dataSource.setMetricsTrackerFactory(poolStats);
+        return dataSource;
+    }
+
     public Jdbi getJdbi()
     {
         return jdbi;
@@ -55,9 +111,23 @@ public class JdbcConnectionManager
             return jdbi;
         }
 
-        return Jdbi.create(buildJdbcUrl(routingGroupDatabase), configuration.getUser(), configuration.getPassword())
-                .installPlugin(new SqlObjectPlugin())
-                .registerRowMapper(new RecordAndAnnotatedConstructorMapper());
+        return routingGroupJdbis.computeIfAbsent(routingGroupDatabase, database -> {
+            HikariDataSource dataSource = createDataSource(configuration, buildJdbcUrl(database), "gateway-" + database, poolStats);
+            routingGroupDataSources.put(database, dataSource);
+            return Jdbi.create(dataSource)
+                    .installPlugin(new SqlObjectPlugin())
+                    .registerRowMapper(new RecordAndAnnotatedConstructorMapper());
+        });
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executorService.shutdownNow();
+        routingGroupJdbis.clear();
+        routingGroupDataSources.values().forEach(HikariDataSource::close);
+        routingGroupDataSources.clear();
+        gatewayDataSource.ifPresent(HikariDataSource::close);
     }
 
     private String buildJdbcUrl(@Nullable String routingGroupDatabase)
@@ -76,6 +146,7 @@ public class JdbcConnectionManager
                     log.info("Performing query history cleanup task");
                     long created = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(this.configuration.getQueryHistoryHoursRetention());
                     jdbi.onDemand(QueryHistoryDao.class).deleteOldHistory(created);
+                    jdbi.onDemand(CoordinatorBackendDao.class).deleteOlderThan(created);
                 },
                 1,
                 120,
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.persistence;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Aggregated statistics of all connection pools used to access the gateway database,
+ * including the pools of the routing group databases.
+ */
+public class JdbcPoolStats
+        implements MetricsTrackerFactory
+{
+    private final Map<String, PoolStats> pools = new ConcurrentHashMap<>();
+    private final TimeStat connectionAcquireTime = new TimeStat(MILLISECONDS);
+    private final TimeStat connectionUsageTime = new TimeStat(MILLISECONDS);
+    private final CounterStat connectionsCreated = new CounterStat();
+    private final CounterStat connectionTimeouts = new CounterStat();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats)
+    {
+        pools.put(requireNonNull(poolName, "poolName is null"), requireNonNull(poolStats, "poolStats is null"));
+        return new Tracker(poolName);
+    }
+
+    @Managed
+    public int getPools()
+    {
+        return pools.size();
+    }
+
+    @Managed
+    public int getTotalConnections()
+    {
+        return sum(PoolStats::getTotalConnections);
+    }
+
+    @Managed
+    public int getActiveConnections()
+    {
+        return sum(PoolStats::getActiveConnections);
+    }
+
+    @Managed
+    public int getIdleConnections()
+    {
+        return sum(PoolStats::getIdleConnections);
+    }
+
+    @Managed
+    public int getMaxConnections()
+    {
+        return sum(PoolStats::getMaxConnections);
+    }
+
+    @Managed(description = "Threads waiting for a connection")
+    public int getPendingThreads()
+    {
+        return sum(PoolStats::getPendingThreads);
+    }
+
+    @Managed(description = "Fraction of the maximum pool size currently in use")
+    public double getUtilization()
+    {
+        int maxConnections = getMaxConnections();
+        if (maxConnections == 0) {
+            return 0;
+        }
+        return (double) getActiveConnections() / maxConnections;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getConnectionAcquireTime()
+    {
+        return connectionAcquireTime;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getConnectionUsageTime()
+    {
+        return connectionUsageTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getConnectionsCreated()
+    {
+        return connectionsCreated;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getConnectionTimeouts()
+    {
+        return connectionTimeouts;
+    }
+
+    private int sum(ToIntFunction<PoolStats> stat)
+    {
+        return pools.values().stream()
+                .mapToInt(stat)
+                .sum();
+    }
+
+    private class Tracker
+            implements IMetricsTracker
+    {
+        private final String poolName;
+
+        private Tracker(String poolName)
+        {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis)
+        {
+            connectionsCreated.update(1);
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos)
+        {
+            connectionAcquireTime.addNanos(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis)
+        {
+            connectionUsageTime.add(elapsedBorrowedMillis, MILLISECONDS);
+        }
+
+        @Override
+        public void recordConnectionTimeout()
+        {
+            connectionTimeouts.update(1);
+        }
+
+        @Override
+        public void close()
+        {
+            pools.remove(poolName);
+        }
+    }
+}
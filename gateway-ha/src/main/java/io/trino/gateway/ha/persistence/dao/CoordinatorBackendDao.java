@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.persistence.dao;
+
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.util.List;
+
+public interface CoordinatorBackendDao
+{
+    @SqlQuery("SELECT coordinator_id, backend_url, updated FROM coordinator_backend")
+    List<CoordinatorBackend> findAll();
+
+    @SqlUpdate("""
+            INSERT INTO coordinator_backend (coordinator_id, backend_url, updated)
+            VALUES (:coordinatorId, :backendUrl, :updated)
+            """)
+    void create(String coordinatorId, String backendUrl, long updated);
+
+    @SqlUpdate("""
+            UPDATE coordinator_backend
+            SET backend_url = :backendUrl, updated = :updated
+            WHERE coordinator_id = :coordinatorId
+            """)
+    int update(String coordinatorId, String backendUrl, long updated);
+
+    @SqlUpdate("""
+            DELETE FROM coordinator_backend
+            WHERE updated < :updated
+            """)
+    void deleteOlderThan(long updated);
+}
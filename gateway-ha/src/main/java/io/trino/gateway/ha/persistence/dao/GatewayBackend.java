@@ -22,7 +22,8 @@ public record GatewayBackend(
         @ColumnName("routing_group") String routingGroup,
         @ColumnName("backend_url") String backendUrl,
         @ColumnName("external_url") String externalUrl,
-        @ColumnName("active") boolean active)
+        @ColumnName("active") boolean active,
+        @ColumnName("weight") int weight)
 {
     public GatewayBackend
     {
@@ -15,13 +15,17 @@ package io.trino.gateway.ha.persistence.dao;
 
 import org.jdbi.v3.core.mapper.MapMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindMethods;
 import org.jdbi.v3.sqlobject.customizer.Define;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 import org.jdbi.v3.sqlobject.statement.UseRowMapper;
+import org.jdbi.v3.sqlobject.transaction.Transaction;
 
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public interface QueryHistoryDao
 {
@@ -83,6 +87,13 @@ public interface QueryHistoryDao
             """)
     String findRoutingGroupByQueryId(String queryId);
 
+    @SqlQuery("""
+            SELECT query_id, backend_url, routing_group FROM query_history
+            WHERE created >= :created
+            ORDER BY created
+            """)
+    Stream<QueryRoute> streamQueryRoutes(long created);
+
     @SqlQuery("""
             SELECT * FROM query_history
             WHERE 1 = 1 <condition>
@@ -115,6 +126,14 @@ public interface QueryHistoryDao
             """)
     void insertHistory(String queryId, String queryText, String backendUrl, String userName, String source, long created, String routingGroup);
 
+    // in a single transaction, so that a failed batch leaves no rows behind for the row by row fallback
+    @Transaction
+    @SqlBatch("""
+            INSERT INTO query_history (query_id, query_text, backend_url, user_name, source, created, routing_group)
+            VALUES (:queryId, :queryText, :backendUrl, :userName, :source, :created, :routingGroup)
+            """)
+    void insertHistories(@BindMethods List<QueryHistory> histories);
+
     @SqlUpdate("""
             DELETE FROM query_history
             WHERE created < :created
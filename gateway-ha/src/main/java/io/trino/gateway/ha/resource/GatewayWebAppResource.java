@@ -113,6 +113,7 @@ public class GatewayWebAppResource
             backendResponse.setStatus(backendState.trinoStatus().toString());
             backendResponse.setRoutingGroup(b.getRoutingGroup());
             backendResponse.setExternalUrl(b.getExternalUrl());
+            backendResponse.setWeight(b.getWeight());
             return backendResponse;
         }).toList();
         return Response.ok(Result.ok(data)).build();
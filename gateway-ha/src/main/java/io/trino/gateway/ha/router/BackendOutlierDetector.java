@@ -0,0 +1,309 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.OutlierDetectionConfiguration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Ejects backends from routing based on the outcome of proxied requests, without waiting for the
+ * next health check of the cluster monitor. A backend is ejected after consecutive failures to
+ * connect, when the fraction of 5xx responses in an interval exceeds a threshold, or when its
+ * average submission latency is an outlier compared to the other backends. Ejected backends are
+ * re-admitted after an ejection time that doubles with every consecutive ejection.
+ *
+ * <p>Only new queries are affected, requests of running queries are still sent to their backend.
+ */
+public class BackendOutlierDetector
+{
+    private static final Logger log = Logger.get(BackendOutlierDetector.class);
+    // weight of a new sample in the moving average of the latency
+    private static final double LATENCY_WEIGHT = 0.1;
+    // latency outliers are only detected when comparing at least this many backends
+    private static final int LATENCY_MINIMUM_BACKENDS = 3;
+
+    private final boolean enabled;
+    private final int consecutiveConnectFailures;
+    private final double failureRateThreshold;
+    private final int failureRateMinimumRequests;
+    private final long intervalNanos;
+    private final double latencyOutlierFactor;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+    private final Ticker ticker;
+    private final Map<String, BackendHealth> backends = new ConcurrentHashMap<>();
+    private final CounterStat ejections = new CounterStat();
+    private final CounterStat skippedEjections = new CounterStat();
+
+    public BackendOutlierDetector(OutlierDetectionConfiguration configuration)
+    {
+        this(configuration, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    BackendOutlierDetector(OutlierDetectionConfiguration configuration, Ticker ticker)
+    {
+        checkArgument(configuration.getConsecutiveConnectFailures() > 0, "consecutiveConnectFailures must be positive");
+        checkArgument(configuration.getMaxEjectionPercent() >= 0 && configuration.getMaxEjectionPercent() <= 100, "maxEjectionPercent must be between 0 and 100");
+        enabled = configuration.isEnabled();
+        consecutiveConnectFailures = configuration.getConsecutiveConnectFailures();
+        failureRateThreshold = configuration.getFailureRateThreshold();
+        failureRateMinimumRequests = configuration.getFailureRateMinimumRequests();
+        intervalNanos = configuration.getInterval().roundTo(NANOSECONDS);
+        latencyOutlierFactor = configuration.getLatencyOutlierFactor();
+        baseEjectionNanos = configuration.getBaseEjectionTime().roundTo(NANOSECONDS);
+        maxEjectionNanos = configuration.getMaxEjectionTime().roundTo(NANOSECONDS);
+        maxEjectionPercent = configuration.getMaxEjectionPercent();
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    public boolean isEjected(String backend)
+    {
+        if (!enabled) {
+            return false;
+        }
+        BackendHealth health = backends.get(backend);
+        return health != null && health.isEjected(ticker.read());
+    }
+
+    /**
+     * Records a request that failed because the backend could not be connected to. Slow backends
+     * are detected by the latency of their query submissions instead.
+     */
+    public void recordConnectFailure(String backend)
+    {
+        if (!enabled) {
+            return;
+        }
+        long now = ticker.read();
+        BackendHealth health = health(backend);
+        if (health.recordConnectFailure(now)) {
+            eject(backend, health, now, "consecutive connect failures");
+        }
+    }
+
+    public void recordResponse(String backend, int statusCode)
+    {
+        if (!enabled) {
+            return;
+        }
+        long now = ticker.read();
+        BackendHealth health = health(backend);
+        if (health.recordResponse(now, statusCode >= 500)) {
+            eject(backend, health, now, "failure rate");
+        }
+    }
+
+    /**
+     * Records the latency of a query submission. Submissions are comparable between backends,
+     * unlike polls of running queries, which wait for results for a variable amount of time.
+     */
+    public void recordSubmissionLatency(String backend, long latencyNanos)
+    {
+        if (!enabled) {
+            return;
+        }
+        long now = ticker.read();
+        BackendHealth health = health(backend);
+        if (!health.recordLatency(now, latencyNanos)) {
+            return;
+        }
+        List<Double> others = new ArrayList<>();
+        for (BackendHealth other : backends.values()) {
+            if (other != health) {
+                other.latencyAverage().ifPresent(others::add);
+            }
+        }
+        if (others.size() + 1 < LATENCY_MINIMUM_BACKENDS) {
+            return;
+        }
+        Collections.sort(others);
+        double median = others.get(others.size() / 2);
+        if (health.latencyAverage().orElse(0) > median * latencyOutlierFactor) {
+            eject(backend, health, now, "latency outlier");
+        }
+    }
+
+    @Managed
+    public int getEjectedBackends()
+    {
+        long now = ticker.read();
+        return (int) backends.values().stream()
+                .filter(health -> health.isEjected(now))
+                .count();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getEjections()
+    {
+        return ejections;
+    }
+
+    @Managed(description = "Ejections skipped because of maxEjectionPercent")
+    @Nested
+    public CounterStat getSkippedEjections()
+    {
+        return skippedEjections;
+    }
+
+    private BackendHealth health(String backend)
+    {
+        return backends.computeIfAbsent(backend, _ -> new BackendHealth(ticker.read()));
+    }
+
+    private synchronized void eject(String backend, BackendHealth health, long now, String reason)
+    {
+        // at least one backend can always be ejected, the limit only protects against ejecting all of them
+        int maxEjected = Math.max(1, backends.size() * maxEjectionPercent / 100);
+        if (getEjectedBackends() >= maxEjected) {
+            skippedEjections.update(1);
+            health.reset(now);
+            log.warn("Not ejecting backend %s for %s, %s backends are already ejected", backend, reason, maxEjected);
+            return;
+        }
+        long ejectionNanos = health.eject(now, baseEjectionNanos, maxEjectionNanos);
+        ejections.update(1);
+        log.warn("Ejected backend %s for %s due to %s", backend, new Duration(ejectionNanos, NANOSECONDS).convertToMostSuccinctTimeUnit(), reason);
+    }
+
+    private final class BackendHealth
+    {
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+        private int ejectionCount;
+        private int connectFailures;
+        private long intervalStart;
+        private int intervalRequests;
+        private int intervalFailures;
+        private double latencyAverage;
+        private int latencySamples;
+        private long latencyCheckedAt;
+
+        private BackendHealth(long now)
+        {
+            reset(now);
+        }
+
+        private boolean isEjected(long now)
+        {
+            return ejected && now - ejectedUntil < 0;
+        }
+
+        private synchronized boolean recordConnectFailure(long now)
+        {
+            if (isEjected(now)) {
+                return false;
+            }
+            connectFailures++;
+            countRequest(now, true);
+            return connectFailures >= consecutiveConnectFailures;
+        }
+
+        private synchronized boolean recordResponse(long now, boolean failed)
+        {
+            if (isEjected(now)) {
+                return false;
+            }
+            connectFailures = 0;
+            countRequest(now, failed);
+            return intervalRequests >= failureRateMinimumRequests && intervalFailures >= intervalRequests * failureRateThreshold;
+        }
+
+        /**
+         * Returns whether the latency should be compared with the other backends, which is done
+         * at most once per interval, after enough submissions were seen.
+         */
+        private synchronized boolean recordLatency(long now, long latencyNanos)
+        {
+            latencyAverage = latencySamples == 0 ? latencyNanos : latencyAverage + LATENCY_WEIGHT * (latencyNanos - latencyAverage);
+            latencySamples++;
+            if (isEjected(now) || latencySamples < failureRateMinimumRequests || now - latencyCheckedAt < intervalNanos) {
+                return false;
+            }
+            latencyCheckedAt = now;
+            return true;
+        }
+
+        private synchronized OptionalDouble latencyAverage()
+        {
+            if (latencySamples < failureRateMinimumRequests) {
+                return OptionalDouble.empty();
+            }
+            return OptionalDouble.of(latencyAverage);
+        }
+
+        private void countRequest(long now, boolean failed)
+        {
+            if (now - intervalStart >= intervalNanos) {
+                intervalStart = now;
+                intervalRequests = 0;
+                intervalFailures = 0;
+            }
+            intervalRequests++;
+            if (failed) {
+                intervalFailures++;
+            }
+        }
+
+        /**
+         * Ejects the backend and returns the ejection time, which doubles with every ejection
+         * unless the backend stayed healthy for the maximum ejection time since it was re-admitted.
+         */
+        private synchronized long eject(long now, long baseEjectionNanos, long maxEjectionNanos)
+        {
+            if (ejectionCount > 0 && now - ejectedUntil > maxEjectionNanos) {
+                ejectionCount = 0;
+            }
+            long ejectionNanos = baseEjectionNanos;
+            for (int i = 0; i < ejectionCount && ejectionNanos < maxEjectionNanos; i++) {
+                ejectionNanos *= 2;
+            }
+            ejectionNanos = Math.min(ejectionNanos, maxEjectionNanos);
+            ejectionCount++;
+            reset(now);
+            ejectedUntil = now + ejectionNanos;
+            ejected = true;
+            return ejectionNanos;
+        }
+
+        private synchronized void reset(long now)
+        {
+            connectFailures = 0;
+            intervalStart = now;
+            intervalRequests = 0;
+            intervalFailures = 0;
+            latencySamples = 0;
+            latencyCheckedAt = now;
+        }
+    }
+}
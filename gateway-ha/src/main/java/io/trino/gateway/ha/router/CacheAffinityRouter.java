@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.airlift.http.client.HttpClient;
+import io.airlift.stats.CounterStat;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Routes queries reading the same tables to the same backend, so that the metadata, file listing
+ * and file system caches of each backend only hold a part of the data of the routing group. The
+ * backend is chosen with weighted rendezvous hashing of the tables of the query, using the capacity
+ * of the backends as their weight, so that adding or removing a backend only moves the tables of
+ * that backend. Queries without tables, such as {@code SELECT 1}, and queries that cannot be
+ * parsed are routed like in {@link CapacityWeightedRouter}.
+ *
+ * <p>A backend only takes a query when its load stays below {@code routing.affinityLoadFactor}
+ * times the average load of the candidates, rounded up to whole queries. Otherwise, the query goes to the next backend in the
+ * rendezvous order, which is the same for all queries reading the same tables, so that the
+ * overflow of popular tables also hits warm caches.
+ */
+public class CacheAffinityRouter
+        extends CapacityWeightedRouter
+{
+    private final double loadFactor;
+    private final CounterStat preferredBackendQueries = new CounterStat();
+    private final CounterStat overflowQueries = new CounterStat();
+
+    public CacheAffinityRouter(
+            GatewayBackendManager gatewayBackendManager,
+            QueryHistoryManager queryHistoryManager,
+            Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry,
+            HttpClient httpClient,
+            RoutingConfiguration routingConfiguration)
+    {
+        super(gatewayBackendManager, queryHistoryManager, coordinatorBackendRegistry, httpClient, routingConfiguration);
+        loadFactor = routingConfiguration.getAffinityLoadFactor();
+        checkArgument(loadFactor >= 1, "routing.affinityLoadFactor must be at least 1");
+    }
+
+    @Override
+    public String provideClusterForQuery(String routingGroup, String user, Supplier<TrinoQueryProperties> queryProperties)
+    {
+        Optional<Long> fingerprint = fingerprint(queryProperties.get());
+        if (fingerprint.isEmpty()) {
+            return provideClusterForRoutingGroup(routingGroup, user);
+        }
+        List<BackendLoad> candidates = getCandidates(routingGroup, ImmutableSet.of());
+        if (candidates.isEmpty()) {
+            candidates = getCandidates("adhoc", ImmutableSet.of());
+        }
+        if (candidates.isEmpty()) {
+            throw new RouterException("did not find any cluster for the adhoc routing group");
+        }
+        BackendLoad backend = selectByAffinity(candidates, fingerprint.get());
+        backend.recordRoutedQuery();
+        return backend.proxyTo();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getPreferredBackendQueries()
+    {
+        return preferredBackendQueries;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getOverflowQueries()
+    {
+        return overflowQueries;
+    }
+
+    /**
+     * Returns the candidate with the highest rendezvous score among the candidates below their
+     * bound. The bound of a candidate is its share of the capacity of the queries including the
+     * routed query, multiplied by the load factor and rounded up. The bounds add up to more than
+     * the current queries, so at least one candidate is below its bound.
+     */
+    private BackendLoad selectByAffinity(List<BackendLoad> candidates, long fingerprint)
+    {
+        long queryCount = 1;
+        double capacity = 0;
+        for (BackendLoad candidate : candidates) {
+            queryCount += candidate.queryCount();
+            capacity += candidate.capacity();
+        }
+        double maxLoad = loadFactor * queryCount / capacity;
+
+        BackendLoad preferred = null;
+        double preferredScore = Double.NEGATIVE_INFINITY;
+        BackendLoad selected = null;
+        double selectedScore = Double.NEGATIVE_INFINITY;
+        for (BackendLoad candidate : candidates) {
+            double score = score(fingerprint, candidate);
+            if (score > preferredScore) {
+                preferred = candidate;
+                preferredScore = score;
+            }
+            if (score > selectedScore && candidate.queryCount() < Math.ceil(maxLoad * candidate.capacity())) {
+                selected = candidate;
+                selectedScore = score;
+            }
+        }
+        if (selected == null) {
+            // only possible when the query counts change concurrently
+            selected = selectBackend(candidates);
+        }
+        (selected == preferred ? preferredBackendQueries : overflowQueries).update(1);
+        return selected;
+    }
+
+    /**
+     * Returns the weighted rendezvous score of the backend for the fingerprint. Each backend is
+     * preferred for a share of the fingerprints proportional to its capacity.
+     */
+    @VisibleForTesting
+    static double score(long fingerprint, BackendLoad backend)
+    {
+        long hash = mix(fingerprint ^ mix(backend.proxyTo().hashCode()));
+        // uniform in (0, 1)
+        double uniform = ((hash >>> 11) + 0.5) * 0x1.0p-53;
+        return backend.capacity() / -Math.log(uniform);
+    }
+
+    /**
+     * Returns a fingerprint of the tables of the query, or else of its schemas or catalogs.
+     */
+    @VisibleForTesting
+    static Optional<Long> fingerprint(TrinoQueryProperties queryProperties)
+    {
+        if (!queryProperties.isNewQuerySubmission() || !queryProperties.isQueryParsingSuccessful()) {
+            return Optional.empty();
+        }
+        if (!queryProperties.getTables().isEmpty()) {
+            return Optional.of(fingerprint(queryProperties.getTables().stream().map(Object::toString).toList()));
+        }
+        if (!queryProperties.getCatalogSchemas().isEmpty()) {
+            return Optional.of(fingerprint(queryProperties.getCatalogSchemas()));
+        }
+        if (!queryProperties.getCatalogs().isEmpty()) {
+            return Optional.of(fingerprint(queryProperties.getCatalogs()));
+        }
+        return Optional.empty();
+    }
+
+    private static long fingerprint(Collection<String> names)
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        names.stream()
+                .sorted()
+                .forEach(name -> hasher.putString(name, UTF_8).putByte((byte) 0));
+        return hasher.hash().asLong();
+    }
+
+    // finalizer of MurmurHash3, spreads the bits of the backend hash code and of the combined hash
+    private static long mix(long value)
+    {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
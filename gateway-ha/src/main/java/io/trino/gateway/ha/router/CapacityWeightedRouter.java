@@ -0,0 +1,199 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.HttpClient;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.ProxyBackendConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Routes queries by the load of a backend relative to its capacity. The load is the number of
+ * running and queued queries, and the capacity is the number of active workers multiplied by
+ * the weight of the backend, so that a backend with 200 workers takes twenty times as many
+ * queries as a backend with 10 workers before it is considered equally loaded.
+ *
+ * <p>Instead of always choosing the least loaded backend, which makes all gateway instances
+ * send every query to the same backend until the stats are refreshed, two backends are chosen
+ * at random and the query is routed to the less loaded one. Like {@link QueryCountBasedRouter},
+ * the query count of the chosen backend is incremented until the next stats refresh.
+ */
+public class CapacityWeightedRouter
+        extends StochasticRoutingManager
+{
+    // Replaced as a whole on every stats update, only the query counts change between updates
+    private volatile ImmutableListMultimap<String, BackendLoad> healthyBackendsByRoutingGroup = ImmutableListMultimap.of();
+
+    public CapacityWeightedRouter(
+            GatewayBackendManager gatewayBackendManager,
+            QueryHistoryManager queryHistoryManager,
+            Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry,
+            HttpClient httpClient,
+            RoutingConfiguration routingConfiguration)
+    {
+        super(gatewayBackendManager, queryHistoryManager, coordinatorBackendRegistry, httpClient, routingConfiguration);
+    }
+
+    @VisibleForTesting
+    static class BackendLoad
+    {
+        private final String proxyTo;
+        private final String routingGroup;
+        private final AtomicInteger queryCount;
+        private final double capacity;
+
+        BackendLoad(ClusterStats stats, int weight)
+        {
+            proxyTo = requireNonNull(stats.proxyTo(), "proxyTo is null");
+            routingGroup = stats.routingGroup();
+            queryCount = new AtomicInteger(stats.runningQueryCount() + stats.queuedQueryCount());
+            // monitors that do not report workers, and clusters scheduling on the coordinator, have no workers
+            capacity = (double) Math.max(1, stats.numWorkerNodes()) * Math.max(1, weight);
+        }
+
+        String proxyTo()
+        {
+            return proxyTo;
+        }
+
+        String routingGroup()
+        {
+            return routingGroup;
+        }
+
+        double capacity()
+        {
+            return capacity;
+        }
+
+        int queryCount()
+        {
+            return queryCount.get();
+        }
+
+        double load()
+        {
+            return queryCount.get() / capacity;
+        }
+
+        void recordRoutedQuery()
+        {
+            queryCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String provideAdhocCluster(String user)
+    {
+        return getBackendForRoutingGroup("adhoc", ImmutableSet.of())
+                .orElseThrow(() -> new RouterException("did not find any cluster for the adhoc routing group"));
+    }
+
+    @Override
+    public String provideClusterForRoutingGroup(String routingGroup, String user)
+    {
+        return getBackendForRoutingGroup(routingGroup, ImmutableSet.of())
+                .orElseGet(() -> provideAdhocCluster(user));
+    }
+
+    @Override
+    public Optional<String> provideFailoverCluster(String routingGroup, String user, Set<String> excludedBackends)
+    {
+        return getBackendForRoutingGroup(routingGroup, excludedBackends)
+                .or(() -> getBackendForRoutingGroup("adhoc", excludedBackends));
+    }
+
+    @Override
+    public void updateBackEndStats(List<ClusterStats> stats)
+    {
+        super.updateBackEndStats(stats);
+        // the weights are read from the backend snapshot, so changes apply with the next stats refresh
+        Map<String, Integer> weights = getGatewayBackendManager().getAllBackends().stream()
+                .collect(toImmutableMap(ProxyBackendConfiguration::getName, ProxyBackendConfiguration::getWeight));
+        healthyBackendsByRoutingGroup = stats.stream()
+                .filter(clusterStats -> clusterStats.trinoStatus() == TrinoStatus.HEALTHY)
+                .filter(clusterStats -> clusterStats.routingGroup() != null && clusterStats.proxyTo() != null)
+                .map(clusterStats -> new BackendLoad(clusterStats, weights.getOrDefault(clusterStats.clusterId(), 1)))
+                .collect(toImmutableListMultimap(BackendLoad::routingGroup, backend -> backend));
+    }
+
+    @VisibleForTesting
+    Map<String, Double> backendLoads()
+    {
+        return healthyBackendsByRoutingGroup.values().stream()
+                .collect(toImmutableMap(BackendLoad::proxyTo, BackendLoad::load));
+    }
+
+    private Optional<String> getBackendForRoutingGroup(String routingGroup, Set<String> excludedBackends)
+    {
+        List<BackendLoad> candidates = getCandidates(routingGroup, excludedBackends);
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        BackendLoad backend = selectBackend(candidates);
+        backend.recordRoutedQuery();
+        return Optional.of(backend.proxyTo());
+    }
+
+    /**
+     * Returns the healthy backends of the routing group, without the excluded and ejected backends.
+     */
+    List<BackendLoad> getCandidates(String routingGroup, Set<String> excludedBackends)
+    {
+        List<BackendLoad> backends = healthyBackendsByRoutingGroup.get(routingGroup);
+        List<BackendLoad> candidates = new ArrayList<>(backends.size());
+        for (BackendLoad backend : backends) {
+            if (!excludedBackends.contains(backend.proxyTo()) && !getOutlierDetector().isEjected(backend.proxyTo())) {
+                candidates.add(backend);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Chooses the less loaded of two random candidates. The list of candidates must not be empty.
+     */
+    BackendLoad selectBackend(List<BackendLoad> candidates)
+    {
+        if (candidates.size() == 1) {
+            return candidates.getFirst();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        // a second, distinct candidate
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        BackendLoad firstBackend = candidates.get(first);
+        BackendLoad secondBackend = candidates.get(second);
+        return secondBackend.load() < firstBackend.load() ? secondBackend : firstBackend;
+    }
+}
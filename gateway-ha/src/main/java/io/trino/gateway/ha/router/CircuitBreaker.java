@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.base.Ticker;
+import io.airlift.units.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Stops calls to a dependency after consecutive failures. Once the open time elapsed, a single
+ * trial call is let through, its success closes the breaker and its failure opens it again.
+ */
+final class CircuitBreaker
+{
+    enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInProgress;
+
+    CircuitBreaker(int failureThreshold, Duration openTime, Ticker ticker)
+    {
+        checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openTime.roundTo(NANOSECONDS);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    /**
+     * Returns whether a call may be made. A call that is allowed must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}, possibly shared with the other calls
+     * sent in the same request.
+     */
+    synchronized boolean tryAcquire()
+    {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (ticker.read() - openedAt < openNanos) {
+                    yield false;
+                }
+                state = State.HALF_OPEN;
+                trialInProgress = true;
+                yield true;
+            }
+            case HALF_OPEN -> {
+                if (trialInProgress) {
+                    yield false;
+                }
+                trialInProgress = true;
+                yield true;
+            }
+        };
+    }
+
+    synchronized void recordSuccess()
+    {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+        trialInProgress = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = ticker.read();
+        }
+    }
+
+    synchronized State getState()
+    {
+        return state;
+    }
+}
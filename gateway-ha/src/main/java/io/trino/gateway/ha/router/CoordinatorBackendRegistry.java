@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.persistence.dao.CoordinatorBackend;
+import io.trino.gateway.ha.persistence.dao.CoordinatorBackendDao;
+import jakarta.annotation.PreDestroy;
+import org.jdbi.v3.core.Jdbi;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Maps the coordinator id of Trino query ids to the backend running the coordinator. A query id
+ * such as {@code 20240101_123456_00042_abcde} ends with an id chosen by the coordinator when it
+ * starts, so a single entry resolves all queries of a coordinator, including queries the gateway
+ * did not route itself. Entries are learned from routed queries and shared with the other
+ * gateway instances through the {@code coordinator_backend} table, which is reloaded periodically.
+ * Learned entries are written by a background thread, so that routing a query never waits on the
+ * database, and only used once they are stored.
+ */
+public class CoordinatorBackendRegistry
+{
+    private static final Logger log = Logger.get(CoordinatorBackendRegistry.class);
+    // entries in use are written again at this interval, so that cleaning up the table only removes stopped coordinators
+    private static final long TOUCH_INTERVAL_MILLIS = HOURS.toMillis(1);
+
+    private final CoordinatorBackendDao dao;
+    private final Map<String, CoordinatorBackend> coordinators = new ConcurrentHashMap<>();
+    // coordinators with a write in progress, so that a write is only queued once per coordinator
+    private final Set<String> pendingWrites = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writeExecutor;
+    private final Optional<ScheduledExecutorService> refreshExecutor;
+    private final CounterStat hits = new CounterStat();
+    private final CounterStat misses = new CounterStat();
+    private final CounterStat failedWrites = new CounterStat();
+
+    public CoordinatorBackendRegistry(Jdbi jdbi, Optional<Duration> refreshInterval)
+    {
+        this(requireNonNull(jdbi, "jdbi is null").onDemand(CoordinatorBackendDao.class),
+                refreshInterval,
+                newSingleThreadExecutor(daemonThreadsNamed("coordinator-backend-writer")));
+    }
+
+    @VisibleForTesting
+    CoordinatorBackendRegistry(CoordinatorBackendDao dao, Optional<Duration> refreshInterval, ExecutorService writeExecutor)
+    {
+        this.dao = requireNonNull(dao, "dao is null");
+        this.writeExecutor = requireNonNull(writeExecutor, "writeExecutor is null");
+        refreshExecutor = requireNonNull(refreshInterval, "refreshInterval is null").map(interval -> {
+            ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("coordinator-backend-refresh"));
+            long intervalMillis = interval.toMillis();
+            executor.scheduleWithFixedDelay(this::refreshQuietly, 0, intervalMillis, MILLISECONDS);
+            return executor;
+        });
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        refreshExecutor.ifPresent(ScheduledExecutorService::shutdownNow);
+        // entries that were not written yet are learned again from later queries
+        writeExecutor.shutdownNow();
+    }
+
+    public Optional<String> findBackend(String queryId)
+    {
+        Optional<String> backend = coordinatorId(queryId)
+                .map(coordinators::get)
+                .map(CoordinatorBackend::backendUrl);
+        (backend.isPresent() ? hits : misses).update(1);
+        return backend;
+    }
+
+    /**
+     * Records the backend running the query. The database is only written when the coordinator is
+     * new or has moved, and when the entry is older than {@link #TOUCH_INTERVAL_MILLIS}. The write
+     * happens in the background, and the entry is used once it is stored, so that a failed write
+     * is retried by the next query of the coordinator.
+     */
+    public void learn(String queryId, String backend)
+    {
+        Optional<String> coordinatorId = coordinatorId(queryId);
+        if (coordinatorId.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        CoordinatorBackend existing = coordinators.get(coordinatorId.get());
+        if (existing != null && existing.backendUrl().equals(backend) && now - existing.updated() < TOUCH_INTERVAL_MILLIS) {
+            return;
+        }
+        if (!pendingWrites.add(coordinatorId.get())) {
+            return;
+        }
+        CoordinatorBackend coordinator = new CoordinatorBackend(coordinatorId.get(), backend, now);
+        try {
+            writeExecutor.execute(() -> write(coordinator));
+        }
+        catch (RejectedExecutionException e) {
+            // the registry is stopped
+            pendingWrites.remove(coordinator.coordinatorId());
+        }
+    }
+
+    private void write(CoordinatorBackend coordinator)
+    {
+        try {
+            if (dao.update(coordinator.coordinatorId(), coordinator.backendUrl(), coordinator.updated()) == 0) {
+                dao.create(coordinator.coordinatorId(), coordinator.backendUrl(), coordinator.updated());
+            }
+            coordinators.merge(coordinator.coordinatorId(), coordinator, CoordinatorBackendRegistry::newer);
+        }
+        catch (RuntimeException e) {
+            // for example, when another gateway created the entry concurrently, the entry is loaded by the next refresh
+            failedWrites.update(1);
+            log.warn(e, "Failed to store backend %s of coordinator %s", coordinator.backendUrl(), coordinator.coordinatorId());
+        }
+        finally {
+            pendingWrites.remove(coordinator.coordinatorId());
+        }
+    }
+
+    /**
+     * Adds the entries learned by other gateway instances, and drops local entries that were
+     * removed from the table by the query history cleanup.
+     */
+    public void refresh()
+    {
+        Map<String, CoordinatorBackend> stored = new HashMap<>();
+        for (CoordinatorBackend coordinator : dao.findAll()) {
+            stored.put(coordinator.coordinatorId(), coordinator);
+        }
+        long expired = System.currentTimeMillis() - 2 * TOUCH_INTERVAL_MILLIS;
+        coordinators.values().removeIf(coordinator -> !stored.containsKey(coordinator.coordinatorId()) && coordinator.updated() < expired);
+        stored.forEach((coordinatorId, coordinator) -> coordinators.merge(coordinatorId, coordinator, CoordinatorBackendRegistry::newer));
+    }
+
+    @Managed
+    public int getSize()
+    {
+        return coordinators.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHits()
+    {
+        return hits;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getMisses()
+    {
+        return misses;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFailedWrites()
+    {
+        return failedWrites;
+    }
+
+    private void refreshQuietly()
+    {
+        try {
+            refresh();
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Failed to refresh coordinator backends");
+        }
+    }
+
+    private static CoordinatorBackend newer(CoordinatorBackend local, CoordinatorBackend stored)
+    {
+        return local.updated() > stored.updated() ? local : stored;
+    }
+
+    /**
+     * Returns the last part of a query id made of four parts separated by underscores.
+     */
+    @VisibleForTesting
+    static Optional<String> coordinatorId(String queryId)
+    {
+        int separators = 0;
+        int last = -1;
+        for (int i = 0; i < queryId.length(); i++) {
+            if (queryId.charAt(i) == '_') {
+                separators++;
+                last = i;
+            }
+        }
+        if (separators != 3 || last == queryId.length() - 1) {
+            return Optional.empty();
+        }
+        return Optional.of(queryId.substring(last + 1));
+    }
+}
@@ -14,35 +14,78 @@
 package io.trino.gateway.ha.router;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.http.client.HttpClient;
-import io.airlift.http.client.JsonBodyGenerator;
 import io.airlift.http.client.JsonResponseHandler;
 import io.airlift.http.client.Request;
 import io.airlift.json.JsonCodec;
 import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.RequestAnalyzerConfig;
 import io.trino.gateway.ha.config.RulesExternalConfiguration;
 import io.trino.gateway.ha.router.schema.RoutingGroupExternalBody;
 import io.trino.gateway.ha.router.schema.RoutingGroupExternalResponse;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.HttpMethod;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
+import static com.google.common.base.CharMatcher.whitespace;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.hash.Hashing.sha256;
 import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
 import static com.google.common.net.MediaType.JSON_UTF_8;
+import static com.google.common.util.concurrent.Futures.catchingAsync;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.transform;
+import static com.google.common.util.concurrent.Futures.withTimeout;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
 import static io.airlift.http.client.JsonResponseHandler.createJsonResponseHandler;
 import static io.airlift.http.client.Request.Builder.preparePost;
 import static io.airlift.json.JsonCodec.jsonCodec;
+import static io.airlift.json.JsonCodec.mapJsonCodec;
+import static io.trino.gateway.ha.handler.HttpUtils.USER_HEADER;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.list;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+/**
+ * Routing group selector that asks an external service for the routing group of each query
+ * submission. Lookups are bounded by a deadline and stopped by a circuit breaker while the service
+ * fails, in both cases the routing group header is used instead. When a cache is configured,
+ * decisions are cached by a projection of the request, for the TTL returned by the service or
+ * the configured TTL, and concurrent lookups with the same projection share a single call. When a
+ * batch URL is configured, lookups are sent in batches by {@link RoutingLookupBatcher}.
+ */
 public class ExternalRoutingGroupSelector
         implements RoutingGroupSelector
 {
@@ -52,12 +95,53 @@ public class ExternalRoutingGroupSelector
     private final HttpClient httpClient;
     private final RequestAnalyzerConfig requestAnalyzerConfig;
     private final TrinoRequestUser.TrinoRequestUserProvider trinoRequestUserProvider;
+    private final Duration requestTimeout;
+    private final Optional<Cache<DecisionKey, CachedDecision>> cache;
+    private final long cacheTtlNanos;
+    private final boolean cacheKeyUser;
+    private final List<String> cacheKeyHeaders;
+    private final boolean cacheKeyQuery;
+    private final Map<DecisionKey, ListenableFuture<Decision>> inFlightLookups = new ConcurrentHashMap<>();
+    private final CircuitBreaker circuitBreaker;
+    private final Set<String> requestFields;
+    private final Optional<RoutingLookupBatcher> batcher;
+    private final Ticker ticker;
+    private final ScheduledExecutorService timeoutExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("external-routing-timeout"));
+    // Flushing a batch sends it, so it does not delay the timeouts of the lookups
+    private final ScheduledExecutorService batchFlushExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("external-routing-batch-flush"));
+    private final CounterStat cacheHits = new CounterStat();
+    private final CounterStat cacheMisses = new CounterStat();
+    private final CounterStat coalescedLookups = new CounterStat();
+    private final CounterStat failedLookups = new CounterStat();
+    private final CounterStat timedOutLookups = new CounterStat();
+    private final CounterStat rejectedLookups = new CounterStat();
     private static final JsonCodec<RoutingGroupExternalBody> ROUTING_GROUP_EXTERNAL_BODY_JSON_CODEC = jsonCodec(RoutingGroupExternalBody.class);
     private static final JsonResponseHandler<RoutingGroupExternalResponse> ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_RESPONSE_HANDLER =
             createJsonResponseHandler(jsonCodec(RoutingGroupExternalResponse.class));
+    private static final JsonCodec<Map<String, Object>> REQUEST_FIELDS_JSON_CODEC = mapJsonCodec(String.class, Object.class);
+    // The fields of RoutingGroupExternalBody, in the same order
+    private static final Map<String, Function<LookupRequest, Object>> REQUEST_FIELDS = ImmutableMap.<String, Function<LookupRequest, Object>>builder()
+            .put("trinoQueryProperties", LookupRequest::trinoQueryProperties)
+            .put("trinoRequestUser", LookupRequest::trinoRequestUser)
+            .put("contentType", request -> "application/json")
+            .put("remoteUser", request -> request.servletRequest().getRemoteUser())
+            .put("method", request -> request.servletRequest().getMethod())
+            .put("requestURI", request -> request.servletRequest().getRequestURI())
+            .put("queryString", request -> request.servletRequest().getQueryString())
+            .put("session", request -> request.servletRequest().getSession(false))
+            .put("remoteAddr", request -> request.servletRequest().getRemoteAddr())
+            .put("remoteHost", request -> request.servletRequest().getRemoteHost())
+            .put("parameters", request -> request.servletRequest().getParameterMap())
+            .buildOrThrow();
 
     @VisibleForTesting
     ExternalRoutingGroupSelector(HttpClient httpClient, RulesExternalConfiguration rulesExternalConfiguration, RequestAnalyzerConfig requestAnalyzerConfig)
+    {
+        this(httpClient, rulesExternalConfiguration, requestAnalyzerConfig, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ExternalRoutingGroupSelector(HttpClient httpClient, RulesExternalConfiguration rulesExternalConfiguration, RequestAnalyzerConfig requestAnalyzerConfig, Ticker ticker)
     {
         this.httpClient = requireNonNull(httpClient, "httpClient is null");
         this.excludeHeaders = ImmutableSet.<String>builder()
@@ -75,52 +159,247 @@ public class ExternalRoutingGroupSelector
             throw new RuntimeException("Invalid URL provided, using "
                     + "routing group header as default.", e);
         }
+
+        requestTimeout = requireNonNull(rulesExternalConfiguration.getRequestTimeout(), "requestTimeout is null");
+        int cacheMaxSize = rulesExternalConfiguration.getCacheMaxSize();
+        checkArgument(cacheMaxSize >= 0, "cacheMaxSize must not be negative");
+        checkArgument(cacheMaxSize == 0 || !rulesExternalConfiguration.isCacheKeyQuery() || requestAnalyzerConfig.isAnalyzeRequest(),
+                "cacheKeyQuery requires analyzeRequest to be enabled");
+        cache = cacheMaxSize == 0 ? Optional.empty() : Optional.of(CacheBuilder.newBuilder().maximumSize(cacheMaxSize).build());
+        cacheTtlNanos = rulesExternalConfiguration.getCacheTtl().roundTo(NANOSECONDS);
+        cacheKeyUser = rulesExternalConfiguration.isCacheKeyUser();
+        cacheKeyHeaders = ImmutableList.copyOf(rulesExternalConfiguration.getCacheKeyHeaders());
+        cacheKeyQuery = rulesExternalConfiguration.isCacheKeyQuery();
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        circuitBreaker = new CircuitBreaker(
+                rulesExternalConfiguration.getCircuitBreakerFailureThreshold(),
+                rulesExternalConfiguration.getCircuitBreakerOpenTime(),
+                ticker);
+        requestFields = ImmutableSet.copyOf(rulesExternalConfiguration.getRequestFields());
+        checkArgument(REQUEST_FIELDS.keySet().containsAll(requestFields), "Unknown requestFields %s, supported fields are %s", requestFields, REQUEST_FIELDS.keySet());
+        batcher = Optional.ofNullable(rulesExternalConfiguration.getBatchUrlPath())
+                .map(batchUrlPath -> new RoutingLookupBatcher(
+                        httpClient,
+                        URI.create(batchUrlPath),
+                        rulesExternalConfiguration.getBatchMaxSize(),
+                        rulesExternalConfiguration.getBatchMaxDelay(),
+                        requestTimeout,
+                        circuitBreaker,
+                        batchFlushExecutor));
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        timeoutExecutor.shutdownNow();
+        batchFlushExecutor.shutdownNow();
     }
 
     @Override
     public Optional<String> findRoutingGroup(HttpServletRequest servletRequest)
     {
+        Optional<String> headerRoutingGroup = Optional.ofNullable(servletRequest.getHeader(ROUTING_GROUP_HEADER));
+        if (!HttpMethod.POST.equals(servletRequest.getMethod())) {
+            // Only query submissions need a routing decision, requests such as GET /v1/info do not wait for the service
+            return headerRoutingGroup;
+        }
         try {
-            RoutingGroupExternalBody requestBody = createRequestBody(servletRequest);
-            JsonBodyGenerator<RoutingGroupExternalBody> requestBodyGenerator = jsonBodyGenerator(ROUTING_GROUP_EXTERNAL_BODY_JSON_CODEC, requestBody);
-            Request request = preparePost()
-                    .addHeader(CONTENT_TYPE, JSON_UTF_8.toString())
-                    .addHeaders(getValidHeaders(servletRequest))
-                    .setUri(uri)
-                    .setBodyGenerator(requestBodyGenerator)
-                    .build();
-
-            // Execute the request and get the response
-            RoutingGroupExternalResponse response = httpClient.execute(request, ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_RESPONSE_HANDLER);
-
-            // Check the response and return the routing group
-            if (response == null) {
-                throw new RuntimeException("Unexpected response: null");
+            Optional<TrinoQueryProperties> trinoQueryProperties = Optional.empty();
+            Optional<TrinoRequestUser> trinoRequestUser = Optional.empty();
+            if (requestAnalyzerConfig.isAnalyzeRequest()) {
+                RequestAnalysisContext context = RequestAnalysisContext.forRequest(servletRequest, requestAnalyzerConfig);
+                trinoQueryProperties = Optional.of(context.getTrinoQueryProperties());
+                trinoRequestUser = Optional.of(context.getTrinoRequestUser(trinoRequestUserProvider));
             }
-            else if (response.errors() != null && !response.errors().isEmpty()) {
-                throw new RuntimeException("Response with error: " + String.join(", ", response.errors()));
+
+            Optional<DecisionKey> key = Optional.empty();
+            if (cache.isPresent()) {
+                key = Optional.of(decisionKey(servletRequest, trinoQueryProperties, trinoRequestUser));
+                Optional<CachedDecision> cached = getCachedDecision(key.get());
+                if (cached.isPresent()) {
+                    cacheHits.update(1);
+                    return cached.get().routingGroup().or(() -> headerRoutingGroup);
+                }
+                cacheMisses.update(1);
             }
-            return Optional.ofNullable(response.routingGroup());
+
+            LookupRequest request = new LookupRequest(servletRequest, trinoQueryProperties, trinoRequestUser);
+            Optional<ListenableFuture<Decision>> decision = key.isPresent() ? coalescedLookup(key.get(), request) : lookup(request);
+            if (decision.isEmpty()) {
+                return headerRoutingGroup;
+            }
+            // The lookup completes within the request timeout, a coalesced lookup even earlier
+            return decision.get().get(requestTimeout.toMillis(), MILLISECONDS).routingGroup().or(() -> headerRoutingGroup);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         catch (Exception e) {
             log.error(e, "Error occurred while retrieving routing group "
                     + "from external routing rules processing at " + uri);
         }
-        return Optional.ofNullable(servletRequest.getHeader(ROUTING_GROUP_HEADER));
+        return headerRoutingGroup;
+    }
+
+    private Optional<CachedDecision> getCachedDecision(DecisionKey key)
+    {
+        Cache<DecisionKey, CachedDecision> decisions = cache.orElseThrow();
+        CachedDecision cached = decisions.getIfPresent(key);
+        if (cached == null) {
+            return Optional.empty();
+        }
+        if (ticker.read() - cached.expiresAt() >= 0) {
+            decisions.asMap().remove(key, cached);
+            return Optional.empty();
+        }
+        return Optional.of(cached);
+    }
+
+    private Optional<ListenableFuture<Decision>> coalescedLookup(DecisionKey key, LookupRequest request)
+    {
+        SettableFuture<Decision> decision = SettableFuture.create();
+        ListenableFuture<Decision> inFlightLookup = inFlightLookups.putIfAbsent(key, decision);
+        if (inFlightLookup != null) {
+            coalescedLookups.update(1);
+            return Optional.of(inFlightLookup);
+        }
+
+        Optional<ListenableFuture<Decision>> lookup;
+        try {
+            lookup = lookup(request);
+        }
+        catch (RuntimeException e) {
+            inFlightLookups.remove(key, decision);
+            decision.setException(e);
+            throw e;
+        }
+        if (lookup.isEmpty()) {
+            inFlightLookups.remove(key, decision);
+            decision.setException(new IllegalStateException("Circuit breaker of external routing rules processing is open"));
+            return Optional.empty();
+        }
+        // The decision is cached before the waiting requests see it
+        decision.setFuture(transform(lookup.get(), result -> {
+            long ttlNanos = result.cacheTtl().map(ttl -> ttl.roundTo(NANOSECONDS)).orElse(cacheTtlNanos);
+            if (ttlNanos > 0) {
+                cache.orElseThrow().put(key, new CachedDecision(result.routingGroup(), ticker.read() + ttlNanos));
+            }
+            return result;
+        }, directExecutor()));
+        decision.addListener(() -> inFlightLookups.remove(key, decision), directExecutor());
+        return Optional.of(decision);
     }
 
-    private RoutingGroupExternalBody createRequestBody(HttpServletRequest request)
+    private Optional<ListenableFuture<Decision>> lookup(LookupRequest request)
     {
-        TrinoQueryProperties trinoQueryProperties = null;
-        TrinoRequestUser trinoRequestUser = null;
-        if (requestAnalyzerConfig.isAnalyzeRequest()) {
-            trinoQueryProperties = new TrinoQueryProperties(request, requestAnalyzerConfig.isClientsUseV2Format(), requestAnalyzerConfig.getMaxBodySize());
-            trinoRequestUser = trinoRequestUserProvider.getInstance(request);
+        if (!circuitBreaker.tryAcquire()) {
+            rejectedLookups.update(1);
+            return Optional.empty();
+        }
+        ListenableFuture<RoutingGroupExternalResponse> response;
+        try {
+            response = withTimeout(
+                    send(request),
+                    requestTimeout.toMillis(),
+                    MILLISECONDS,
+                    timeoutExecutor);
         }
+        catch (RuntimeException e) {
+            // Recorded like any other failure, so that a half open breaker does not wait for its trial forever
+            response = immediateFailedFuture(e);
+        }
+        // The outcome is recorded before the waiting requests see it. The batcher records the
+        // outcome of a batch once for all of its lookups instead.
+        boolean recordOutcome = batcher.isEmpty();
+        ListenableFuture<Decision> decision = transform(response, result -> {
+            Decision value = toDecision(result);
+            if (recordOutcome) {
+                circuitBreaker.recordSuccess();
+            }
+            return value;
+        }, directExecutor());
+        return Optional.of(catchingAsync(decision, Exception.class, e -> {
+            if (recordOutcome) {
+                circuitBreaker.recordFailure();
+            }
+            failedLookups.update(1);
+            if (e instanceof TimeoutException) {
+                timedOutLookups.update(1);
+            }
+            return immediateFailedFuture(e);
+        }, directExecutor()));
+    }
 
+    private ListenableFuture<RoutingGroupExternalResponse> send(LookupRequest request)
+    {
+        if (batcher.isPresent()) {
+            Map<String, Object> lookup = getRequestFields(request);
+            lookup.put("headers", getValidHeaders(request.servletRequest()).asMap());
+            return batcher.get().submit(lookup);
+        }
+
+        Request.Builder httpRequest = preparePost()
+                .addHeader(CONTENT_TYPE, JSON_UTF_8.toString())
+                .addHeaders(getValidHeaders(request.servletRequest()))
+                .setUri(uri);
+        if (requestFields.isEmpty()) {
+            RoutingGroupExternalBody requestBody = createRequestBody(request.servletRequest(), request.trinoQueryProperties(), request.trinoRequestUser());
+            httpRequest.setBodyGenerator(jsonBodyGenerator(ROUTING_GROUP_EXTERNAL_BODY_JSON_CODEC, requestBody));
+        }
+        else {
+            httpRequest.setBodyGenerator(jsonBodyGenerator(REQUEST_FIELDS_JSON_CODEC, getRequestFields(request)));
+        }
+        return httpClient.executeAsync(httpRequest.build(), ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_RESPONSE_HANDLER);
+    }
+
+    /**
+     * Returns the request fields declared in the configuration, or all of them when none are declared.
+     */
+    private Map<String, Object> getRequestFields(LookupRequest request)
+    {
+        // Values may be null, as in the full request body
+        Map<String, Object> fields = new LinkedHashMap<>();
+        REQUEST_FIELDS.forEach((name, field) -> {
+            if (requestFields.isEmpty() || requestFields.contains(name)) {
+                fields.put(name, field.apply(request));
+            }
+        });
+        return fields;
+    }
+
+    private static Decision toDecision(RoutingGroupExternalResponse response)
+    {
+        // Check the response and return the routing group
+        if (response == null) {
+            throw new RuntimeException("Unexpected response: null");
+        }
+        else if (response.errors() != null && !response.errors().isEmpty()) {
+            throw new RuntimeException("Response with error: " + String.join(", ", response.errors()));
+        }
+        return new Decision(Optional.ofNullable(response.routingGroup()), Optional.ofNullable(response.cacheTtl()));
+    }
+
+    private DecisionKey decisionKey(HttpServletRequest request, Optional<TrinoQueryProperties> trinoQueryProperties, Optional<TrinoRequestUser> trinoRequestUser)
+    {
+        Optional<String> user = Optional.empty();
+        if (cacheKeyUser) {
+            user = trinoRequestUser.isPresent() ? trinoRequestUser.get().getUser() : Optional.ofNullable(request.getHeader(USER_HEADER));
+        }
+        List<Optional<String>> headers = cacheKeyHeaders.stream()
+                .map(name -> Optional.ofNullable(request.getHeader(name)))
+                .collect(toImmutableList());
+        Optional<String> queryFingerprint = Optional.empty();
+        if (cacheKeyQuery) {
+            queryFingerprint = trinoQueryProperties.map(properties -> sha256().hashString(whitespace().trimAndCollapseFrom(properties.getBody(), ' '), UTF_8).toString());
+        }
+        return new DecisionKey(user, headers, queryFingerprint);
+    }
+
+    private RoutingGroupExternalBody createRequestBody(HttpServletRequest request, Optional<TrinoQueryProperties> trinoQueryProperties, Optional<TrinoRequestUser> trinoRequestUser)
+    {
         return new RoutingGroupExternalBody(
-                Optional.ofNullable(trinoQueryProperties),
-                Optional.ofNullable(trinoRequestUser),
+                trinoQueryProperties,
+                trinoRequestUser,
                 "application/json",
                 request.getRemoteUser(),
                 request.getMethod(),
@@ -144,4 +423,95 @@ public class ExternalRoutingGroupSelector
         }
         return headers;
     }
+
+    @Managed
+    public long getBatches()
+    {
+        return batcher.map(lookupBatcher -> lookupBatcher.getBatches().getTotalCount()).orElse(0L);
+    }
+
+    @Managed
+    public String getCircuitBreakerState()
+    {
+        return circuitBreaker.getState().name();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCacheHits()
+    {
+        return cacheHits;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCacheMisses()
+    {
+        return cacheMisses;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCoalescedLookups()
+    {
+        return coalescedLookups;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFailedLookups()
+    {
+        return failedLookups;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getTimedOutLookups()
+    {
+        return timedOutLookups;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejectedLookups()
+    {
+        return rejectedLookups;
+    }
+
+    private record LookupRequest(HttpServletRequest servletRequest, Optional<TrinoQueryProperties> trinoQueryProperties, Optional<TrinoRequestUser> trinoRequestUser)
+    {
+        LookupRequest
+        {
+            requireNonNull(servletRequest, "servletRequest is null");
+            requireNonNull(trinoQueryProperties, "trinoQueryProperties is null");
+            requireNonNull(trinoRequestUser, "trinoRequestUser is null");
+        }
+    }
+
+    private record Decision(Optional<String> routingGroup, Optional<Duration> cacheTtl)
+    {
+        Decision
+        {
+            requireNonNull(routingGroup, "routingGroup is null");
+            requireNonNull(cacheTtl, "cacheTtl is null");
+        }
+    }
+
+    private record CachedDecision(Optional<String> routingGroup, long expiresAt)
+    {
+        CachedDecision
+        {
+            requireNonNull(routingGroup, "routingGroup is null");
+        }
+    }
+
+    private record DecisionKey(Optional<String> user, List<Optional<String>> headers, Optional<String> queryFingerprint)
+    {
+        DecisionKey
+        {
+            requireNonNull(user, "user is null");
+            headers = ImmutableList.copyOf(headers);
+            requireNonNull(queryFingerprint, "queryFingerprint is null");
+        }
+    }
 }
@@ -16,14 +16,20 @@ package io.trino.gateway.ha.router;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLParser;
-import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.airlift.log.Logger;
 import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -32,7 +38,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import static com.google.common.base.Suppliers.memoizeWithExpiration;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.sort;
 
@@ -44,7 +49,7 @@ public class FileBasedRoutingGroupSelector
 
     private static final ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
 
-    private final Supplier<List<RoutingRule>> rules;
+    private final RoutingRulesReloader<RoutingRuleIndex> rules;
     private final boolean analyzeRequest;
     private final boolean clientsUseV2Format;
     private final int maxBodySize;
@@ -57,7 +62,25 @@ public class FileBasedRoutingGroupSelector
         maxBodySize = requestAnalyzerConfig.getMaxBodySize();
         trinoRequestUserProvider = new TrinoRequestUser.TrinoRequestUserProvider(requestAnalyzerConfig);
 
-        rules = memoizeWithExpiration(() -> readRulesFromPath(Path.of(rulesPath)), rulesRefreshPeriod.toJavaTime());
+        // Rules are compiled and indexed on the reloader thread, rulesRefreshPeriod bounds the delay to detect changes
+        // that are not reported by the file system
+        rules = new RoutingRulesReloader<>(
+                Path.of(rulesPath),
+                content -> new RoutingRuleIndex(parseRules(content), analyzeRequest),
+                Optional.of(rulesRefreshPeriod));
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        rules.stop();
+    }
+
+    @Managed
+    @Nested
+    public RoutingRulesReloader<RoutingRuleIndex> getRulesReloader()
+    {
+        return rules;
     }
 
     @Override
@@ -66,32 +89,50 @@ public class FileBasedRoutingGroupSelector
         Map<String, String> result = new HashMap<>();
         Map<String, Object> state = new HashMap<>();
 
-        Map<String, Object> data;
+        ImmutableMap.Builder<String, Object> data = ImmutableMap.<String, Object>builder()
+                .put("request", request)
+                .put("result", result)
+                .put("state", state);
+        Optional<String> user = Optional.empty();
         if (analyzeRequest) {
-            TrinoQueryProperties trinoQueryProperties = new TrinoQueryProperties(
-                    request,
-                    clientsUseV2Format,
-                    maxBodySize);
-            TrinoRequestUser trinoRequestUser = trinoRequestUserProvider.getInstance(request);
-            data = ImmutableMap.of("request", request, "trinoQueryProperties", trinoQueryProperties, "trinoRequestUser", trinoRequestUser);
-        }
-        else {
-            data = ImmutableMap.of("request", request);
+            RequestAnalysisContext context = RequestAnalysisContext.forRequest(request, clientsUseV2Format, maxBodySize);
+            TrinoRequestUser trinoRequestUser = context.getTrinoRequestUser(trinoRequestUserProvider);
+            data.put("trinoQueryProperties", context.getTrinoQueryProperties());
+            data.put("trinoRequestUser", trinoRequestUser);
+            user = trinoRequestUser.getUser();
         }
+        // A single resolver factory serves every rule of the request, it caches the resolver of each variable
+        VariableResolverFactory variables = new MapVariableResolverFactory(data.buildOrThrow());
 
-        rules.get().forEach(rule -> {
-            if (rule.evaluateCondition(data, state)) {
+        // Rules whose indexed header or user predicate does not hold for the request are skipped
+        for (RoutingRule rule : rules.get().getCandidates(request, user)) {
+            if (rule.evaluateCondition(variables)) {
                 log.debug("%s evaluated to true on request: %s", rule, request);
-                rule.evaluateAction(result, data, state);
+                rule.evaluateAction(variables);
+                if (rule.isTerminal()) {
+                    break;
+                }
             }
-        });
+        }
         return Optional.ofNullable(result.get(RESULTS_ROUTING_GROUP_KEY));
     }
 
     public List<RoutingRule> readRulesFromPath(Path rulesPath)
     {
         try {
-            String content = Files.readString(rulesPath, UTF_8);
+            return parseRules(Files.readString(rulesPath, UTF_8));
+        }
+        catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Failed to read or parse routing rules configuration from path: " + rulesPath, e);
+        }
+    }
+
+    /**
+     * Parses and compiles the rules, sorted by priority. Fails if any rule is invalid.
+     */
+    static List<RoutingRule> parseRules(String content)
+    {
+        try {
             YAMLParser parser = new YAMLFactory().createParser(content);
             List<RoutingRule> routingRulesList = new ArrayList<>();
             while (parser.nextToken() != null) {
@@ -99,10 +140,10 @@ public class FileBasedRoutingGroupSelector
                 routingRulesList.add(routingRules);
             }
             sort(routingRulesList);
-            return routingRulesList;
+            return ImmutableList.copyOf(routingRulesList);
         }
         catch (IOException e) {
-            throw new RuntimeException("Failed to read or parse routing rules configuration from path: " + rulesPath, e);
+            throw new UncheckedIOException(e);
         }
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import io.trino.gateway.ha.persistence.dao.GatewayBackend;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable view of the {@code gateway_backend} table, indexed for routing.
+ * A new snapshot with a higher version replaces the previous one on every change.
+ */
+public final class GatewayBackendSnapshot
+{
+    public static final String ADHOC_ROUTING_GROUP = "adhoc";
+
+    private final long version;
+    private final List<GatewayBackend> allBackends;
+    private final List<GatewayBackend> activeBackends;
+    private final ImmutableListMultimap<String, GatewayBackend> activeBackendsByRoutingGroup;
+    private final ImmutableMap<String, GatewayBackend> backendsByName;
+
+    public GatewayBackendSnapshot(long version, List<GatewayBackend> backends)
+    {
+        this.version = version;
+        this.allBackends = ImmutableList.copyOf(requireNonNull(backends, "backends is null"));
+        this.activeBackends = allBackends.stream()
+                .filter(GatewayBackend::active)
+                .collect(toImmutableList());
+        ImmutableListMultimap.Builder<String, GatewayBackend> byRoutingGroup = ImmutableListMultimap.builder();
+        for (GatewayBackend backend : activeBackends) {
+            byRoutingGroup.put(backend.routingGroup(), backend);
+        }
+        this.activeBackendsByRoutingGroup = byRoutingGroup.build();
+        ImmutableMap.Builder<String, GatewayBackend> byName = ImmutableMap.builder();
+        for (GatewayBackend backend : allBackends) {
+            byName.put(backend.name(), backend);
+        }
+        // names are unique in the table, but do not fail routing should that ever not hold
+        this.backendsByName = byName.buildKeepingLast();
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public List<GatewayBackend> getAllBackends()
+    {
+        return allBackends;
+    }
+
+    public List<GatewayBackend> getActiveBackends()
+    {
+        return activeBackends;
+    }
+
+    public List<GatewayBackend> getActiveBackends(String routingGroup)
+    {
+        return activeBackendsByRoutingGroup.get(routingGroup);
+    }
+
+    public List<GatewayBackend> getActiveAdhocBackends()
+    {
+        return getActiveBackends(ADHOC_ROUTING_GROUP);
+    }
+
+    public Optional<GatewayBackend> getBackendByName(String name)
+    {
+        return Optional.ofNullable(backendsByName.get(name));
+    }
+}
@@ -13,128 +13,204 @@
  */
 package io.trino.gateway.ha.router;
 
-import com.google.common.collect.ImmutableList;
 import io.airlift.log.Logger;
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.ProxyBackendConfiguration;
 import io.trino.gateway.ha.persistence.dao.GatewayBackend;
 import io.trino.gateway.ha.persistence.dao.GatewayBackendDao;
+import jakarta.annotation.PreDestroy;
 import org.jdbi.v3.core.Jdbi;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static java.util.Objects.requireNonNull;
-
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Serves backends from an in-memory {@link GatewayBackendSnapshot}, so that routing a query
+ * does not access the database. The snapshot is reloaded after every change made through this
+ * manager, and periodically to pick up changes made by other gateway instances. When reloading
+ * fails, the previous snapshot is kept.
+ */
 public class HaGatewayManager
         implements GatewayBackendManager
 {
     private static final Logger log = Logger.get(HaGatewayManager.class);
 
     private final GatewayBackendDao dao;
+    private final Optional<ScheduledExecutorService> refreshExecutor;
+    private volatile GatewayBackendSnapshot snapshot;
 
     public HaGatewayManager(Jdbi jdbi)
+    {
+        this(jdbi, Optional.empty());
+    }
+
+    public HaGatewayManager(Jdbi jdbi, Optional<Duration> refreshInterval)
     {
         dao = requireNonNull(jdbi, "jdbi is null").onDemand(GatewayBackendDao.class);
+        refreshExecutor = requireNonNull(refreshInterval, "refreshInterval is null").map(interval -> {
+            ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("gateway-backend-refresh"));
+            long intervalMillis = interval.toMillis();
+            executor.scheduleWithFixedDelay(this::refreshQuietly, intervalMillis, intervalMillis, MILLISECONDS);
+            return executor;
+        });
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        refreshExecutor.ifPresent(ScheduledExecutorService::shutdownNow);
     }
 
     @Override
     public List<ProxyBackendConfiguration> getAllBackends()
     {
-        List<GatewayBackend> proxyBackendList = dao.findAll();
-        return upcast(proxyBackendList);
+        return upcast(getSnapshot().getAllBackends());
     }
 
     @Override
     public List<ProxyBackendConfiguration> getAllActiveBackends()
     {
-        List<GatewayBackend> proxyBackendList = dao.findActiveBackend();
-        return upcast(proxyBackendList);
+        return upcast(getSnapshot().getActiveBackends());
     }
 
     @Override
     public List<ProxyBackendConfiguration> getActiveAdhocBackends()
     {
         try {
-            List<GatewayBackend> proxyBackendList = dao.findActiveAdhocBackend();
-            return upcast(proxyBackendList);
+            return upcast(getSnapshot().getActiveAdhocBackends());
         }
         catch (Exception e) {
             log.info("Error fetching all backends: %s", e.getLocalizedMessage());
         }
-        return ImmutableList.of();
+        return new ArrayList<>();
     }
 
     @Override
     public List<ProxyBackendConfiguration> getActiveBackends(String routingGroup)
     {
-        List<GatewayBackend> proxyBackendList = dao.findActiveBackendByRoutingGroup(routingGroup);
-        return upcast(proxyBackendList);
+        return upcast(getSnapshot().getActiveBackends(routingGroup));
     }
 
     @Override
     public Optional<ProxyBackendConfiguration> getBackendByName(String name)
     {
-        List<GatewayBackend> proxyBackendList = dao.findByName(name);
-        return upcast(proxyBackendList).stream().findAny();
+        return getSnapshot().getBackendByName(name).map(HaGatewayManager::upcast);
     }
 
     @Override
     public void deactivateBackend(String backendName)
     {
         dao.deactivate(backendName);
+        refreshQuietly();
     }
 
     @Override
     public void activateBackend(String backendName)
     {
         dao.activate(backendName);
+        refreshQuietly();
     }
 
     @Override
     public ProxyBackendConfiguration addBackend(ProxyBackendConfiguration backend)
     {
+        checkArgument(backend.getWeight() > 0, "weight of backend %s must be positive", backend.getName());
         String backendProxyTo = removeTrailingSlash(backend.getProxyTo());
         String backendExternalUrl = removeTrailingSlash(backend.getExternalUrl());
-        dao.create(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive());
+        dao.create(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive(), backend.getWeight());
+        refreshQuietly();
         return backend;
     }
 
     @Override
     public ProxyBackendConfiguration updateBackend(ProxyBackendConfiguration backend)
     {
+        checkArgument(backend.getWeight() > 0, "weight of backend %s must be positive", backend.getName());
         String backendProxyTo = removeTrailingSlash(backend.getProxyTo());
         String backendExternalUrl = removeTrailingSlash(backend.getExternalUrl());
         GatewayBackend model = dao.findFirstByName(backend.getName());
         if (model == null) {
-            dao.create(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive());
+            dao.create(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive(), backend.getWeight());
         }
         else {
-            dao.update(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive());
+            dao.update(backend.getName(), backend.getRoutingGroup(), backendProxyTo, backendExternalUrl, backend.isActive(), backend.getWeight());
         }
+        refreshQuietly();
         return backend;
     }
 
     public void deleteBackend(String name)
     {
         dao.deleteByName(name);
+        refreshQuietly();
+    }
+
+    public long getSnapshotVersion()
+    {
+        GatewayBackendSnapshot current = snapshot;
+        return current == null ? 0 : current.getVersion();
+    }
+
+    public GatewayBackendSnapshot getSnapshot()
+    {
+        GatewayBackendSnapshot current = snapshot;
+        if (current == null) {
+            // first access, there is no previous snapshot to fall back to
+            current = refresh();
+        }
+        return current;
+    }
+
+    /**
+     * Reloads all backends from the database and atomically replaces the current snapshot.
+     */
+    public synchronized GatewayBackendSnapshot refresh()
+    {
+        long version = snapshot == null ? 1 : snapshot.getVersion() + 1;
+        GatewayBackendSnapshot refreshed = new GatewayBackendSnapshot(version, dao.findAll());
+        snapshot = refreshed;
+        return refreshed;
+    }
+
+    private void refreshQuietly()
+    {
+        try {
+            refresh();
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Failed to refresh backends, keeping snapshot version %s", getSnapshotVersion());
+        }
     }
 
     private static List<ProxyBackendConfiguration> upcast(List<GatewayBackend> gatewayBackendList)
     {
-        List<ProxyBackendConfiguration> proxyBackendConfigurations = new ArrayList<>();
+        List<ProxyBackendConfiguration> proxyBackendConfigurations = new ArrayList<>(gatewayBackendList.size());
         for (GatewayBackend model : gatewayBackendList) {
-            ProxyBackendConfiguration backendConfig = new ProxyBackendConfiguration();
-            backendConfig.setActive(model.active());
-            backendConfig.setRoutingGroup(model.routingGroup());
-            backendConfig.setProxyTo(model.backendUrl());
-            backendConfig.setExternalUrl(model.externalUrl());
-            backendConfig.setName(model.name());
-            proxyBackendConfigurations.add(backendConfig);
+            proxyBackendConfigurations.add(upcast(model));
         }
         return proxyBackendConfigurations;
     }
 
+    private static ProxyBackendConfiguration upcast(GatewayBackend model)
+    {
+        ProxyBackendConfiguration backendConfig = new ProxyBackendConfiguration();
+        backendConfig.setActive(model.active());
+        backendConfig.setRoutingGroup(model.routingGroup());
+        backendConfig.setProxyTo(model.backendUrl());
+        backendConfig.setExternalUrl(model.externalUrl());
+        backendConfig.setName(model.name());
+        backendConfig.setWeight(model.weight());
+        return backendConfig;
+    }
+
     public static String removeTrailingSlash(String url)
     {
         return url.replaceAll("/$", "");
@@ -19,6 +19,7 @@ import io.trino.gateway.ha.domain.request.QueryHistoryRequest;
 import io.trino.gateway.ha.domain.response.DistributionResponse;
 import io.trino.gateway.ha.persistence.dao.QueryHistory;
 import io.trino.gateway.ha.persistence.dao.QueryHistoryDao;
+import io.trino.gateway.ha.persistence.dao.QueryRoute;
 import org.jdbi.v3.core.Jdbi;
 
 import java.time.Instant;
@@ -26,10 +27,13 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Strings.nullToEmpty;
 import static java.util.Objects.requireNonNull;
 
 public class HaQueryHistoryManager
@@ -39,11 +43,18 @@ public class HaQueryHistoryManager
 
     private final QueryHistoryDao dao;
     private final boolean isOracleBackend;
+    private final Optional<QueryHistoryWriter> queryHistoryWriter;
 
     public HaQueryHistoryManager(Jdbi jdbi, boolean isOracleBackend)
+    {
+        this(jdbi, isOracleBackend, Optional.empty());
+    }
+
+    public HaQueryHistoryManager(Jdbi jdbi, boolean isOracleBackend, Optional<QueryHistoryWriter> queryHistoryWriter)
     {
         dao = requireNonNull(jdbi, "jdbi is null").onDemand(QueryHistoryDao.class);
         this.isOracleBackend = isOracleBackend;
+        this.queryHistoryWriter = requireNonNull(queryHistoryWriter, "queryHistoryWriter is null");
     }
 
     @Override
@@ -54,9 +65,23 @@ public class HaQueryHistoryManager
             return;
         }
 
+        // Both paths store a missing query text as empty, which is what history records hold
+        String queryText = nullToEmpty(queryDetail.getQueryText());
+        if (queryHistoryWriter.isPresent()) {
+            queryHistoryWriter.get().submit(new QueryHistory(
+                    queryDetail.getQueryId(),
+                    queryText,
+                    queryDetail.getBackendUrl(),
+                    queryDetail.getUser(),
+                    queryDetail.getSource(),
+                    queryDetail.getCaptureTime(),
+                    queryDetail.getRoutingGroup()));
+            return;
+        }
+
         dao.insertHistory(
                 queryDetail.getQueryId(),
-                queryDetail.getQueryText(),
+                queryText,
                 queryDetail.getBackendUrl(),
                 queryDetail.getUser(),
                 queryDetail.getSource(),
@@ -106,6 +131,21 @@ public class HaQueryHistoryManager
         return dao.findRoutingGroupByQueryId(queryId);
     }
 
+    @Override
+    public int forEachQueryRoute(long createdAfter, QueryRouteConsumer consumer)
+    {
+        int count = 0;
+        try (Stream<QueryRoute> routes = dao.streamQueryRoutes(createdAfter)) {
+            Iterator<QueryRoute> iterator = routes.iterator();
+            while (iterator.hasNext()) {
+                QueryRoute route = iterator.next();
+                consumer.accept(route.queryId(), route.backendUrl(), route.routingGroup());
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public TableData<QueryDetail> findQueryHistory(QueryHistoryRequest query)
     {
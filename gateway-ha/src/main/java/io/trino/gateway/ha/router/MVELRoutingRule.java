@@ -15,13 +15,13 @@ package io.trino.gateway.ha.router;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.collect.ImmutableMap;
 import org.mvel2.ParserContext;
 import org.mvel2.debug.DebugTools;
+import org.mvel2.integration.VariableResolverFactory;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.util.Objects.requireNonNull;
@@ -37,7 +37,10 @@ public class MVELRoutingRule
     String description;
     Integer priority;
     Serializable condition;
+    // Source of the condition, absent when the rule is created from a compiled expression
+    Optional<String> conditionExpression;
     List<Serializable> actions;
+    boolean terminal;
     ParserContext parserContext = new ParserContext();
 
     @JsonCreator
@@ -46,17 +49,28 @@ public class MVELRoutingRule
             @JsonProperty("description") String description,
             @JsonProperty("priority") Integer priority,
             @JsonProperty("condition") Serializable condition,
-            @JsonProperty("actions") List<Serializable> actions)
+            @JsonProperty("actions") List<Serializable> actions,
+            @JsonProperty("terminal") Boolean terminal)
     {
         initializeParserContext(parserContext);
 
         this.name = requireNonNull(name, "name is null");
         this.description = requireNonNullElse(description, "");
         this.priority = requireNonNullElse(priority, 0);
+        this.conditionExpression = condition instanceof String stringCondition ? Optional.of(stringCondition) : Optional.empty();
         this.condition = requireNonNull(
                 condition instanceof String stringCondition ? compileExpression(stringCondition, parserContext) : condition,
                 "condition is null");
         this.actions = actions.stream().map(this::compileExpressionIfNecessary).collect(toImmutableList());
+        this.terminal = requireNonNullElse(terminal, false);
+    }
+
+    /**
+     * Returns a copy of this rule that evaluates the given condition in place of its own.
+     */
+    MVELRoutingRule withCondition(String condition)
+    {
+        return new MVELRoutingRule(name, description, priority, condition, actions, terminal);
     }
 
     private Serializable compileExpressionIfNecessary(Serializable expression)
@@ -96,6 +110,12 @@ public class MVELRoutingRule
         return priority;
     }
 
+    @Override
+    public boolean isTerminal()
+    {
+        return terminal;
+    }
+
     @Override
     public int compareTo(RoutingRule o)
     {
@@ -106,22 +126,17 @@ public class MVELRoutingRule
     }
 
     @Override
-    public boolean evaluateCondition(Map<String, Object> data, Map<String, Object> state)
+    public boolean evaluateCondition(VariableResolverFactory variables)
     {
-        ImmutableMap.Builder<String, Object> variablesBuilder = ImmutableMap.builder();
-        variablesBuilder.putAll(data);
-        variablesBuilder.put("state", state);
-        return (boolean) executeExpression(condition, variablesBuilder.build());
+        return (boolean) executeExpression(condition, variables);
     }
 
     @Override
-    public void evaluateAction(Map<String, String> result, Map<String, Object> data, Map<String, Object> state)
+    public void evaluateAction(VariableResolverFactory variables)
     {
-        ImmutableMap.Builder<String, Object> variablesBuilder = ImmutableMap.builder();
-        variablesBuilder.putAll(data);
-        variablesBuilder.put("result", result);
-        variablesBuilder.put("state", state);
-        actions.forEach(action -> executeExpression(action, variablesBuilder.build()));
+        for (Serializable action : actions) {
+            executeExpression(action, variables);
+        }
     }
 
     @Override
@@ -133,6 +148,7 @@ public class MVELRoutingRule
                 ", priority=" + priority +
                 ", condition=" + decompile(condition) +
                 ", actions=" + String.join(",", actions.stream().map(DebugTools::decompile).toList()) +
+                ", terminal=" + terminal +
                 ", parserContext=" + parserContext +
                 '}';
     }
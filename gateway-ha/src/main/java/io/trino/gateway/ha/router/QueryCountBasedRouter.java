@@ -16,55 +16,74 @@ package io.trino.gateway.ha.router;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.errorprone.annotations.concurrent.GuardedBy;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.HttpClient;
 import io.airlift.log.Logger;
 import io.trino.gateway.ha.clustermonitor.ClusterStats;
 import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import jakarta.annotation.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
 
 public class QueryCountBasedRouter
         extends StochasticRoutingManager
 {
     private static final Logger log = Logger.get(QueryCountBasedRouter.class);
-    @GuardedBy("this")
-    private List<LocalStats> clusterStats;
+
+    // Replaced as a whole on every stats update, so routing never needs a lock. Only the
+    // counters inside LocalStats change between updates.
+    private volatile StatsSnapshot statsSnapshot = new StatsSnapshot(ImmutableList.of());
 
     @VisibleForTesting
-    synchronized List<LocalStats> clusterStats()
+    List<LocalStats> clusterStats()
+    {
+        return statsSnapshot.clusterStats();
+    }
+
+    private record StatsSnapshot(List<LocalStats> clusterStats, ImmutableListMultimap<String, LocalStats> healthyClustersByRoutingGroup)
     {
-        return ImmutableList.copyOf(clusterStats);
+        StatsSnapshot(List<LocalStats> clusterStats)
+        {
+            this(clusterStats, clusterStats.stream()
+                    .filter(stats -> stats.trinoStatus() == TrinoStatus.HEALTHY)
+                    .filter(stats -> stats.routingGroup() != null)
+                    .collect(toImmutableListMultimap(LocalStats::routingGroup, stats -> stats)));
+        }
     }
 
     static class LocalStats
     {
-        private int runningQueryCount;
-        private int queuedQueryCount;
-        private TrinoStatus trinoStatus;
-        private String proxyTo;
-        private String routingGroup;
-        private String clusterId;
-        private Map<String, Integer> userQueuedCount;
+        private final AtomicInteger runningQueryCount;
+        private final int queuedQueryCount;
+        private final TrinoStatus trinoStatus;
+        private final String proxyTo;
+        private final String routingGroup;
+        private final String clusterId;
+        private final Map<String, Integer> userQueuedCount;
 
         LocalStats(ClusterStats stats)
         {
             clusterId = stats.clusterId();
-            runningQueryCount = stats.runningQueryCount();
+            runningQueryCount = new AtomicInteger(stats.runningQueryCount());
             queuedQueryCount = stats.queuedQueryCount();
             trinoStatus = stats.trinoStatus();
             proxyTo = stats.proxyTo();
             routingGroup = stats.routingGroup();
             if (stats.userQueuedCount() != null) {
-                userQueuedCount = new HashMap<String, Integer>(stats.userQueuedCount());
+                userQueuedCount = new ConcurrentHashMap<>(stats.userQueuedCount());
             }
             else {
-                userQueuedCount = new HashMap<String, Integer>();
+                userQueuedCount = new ConcurrentHashMap<>();
             }
         }
 
@@ -75,12 +94,7 @@ public class QueryCountBasedRouter
 
         public int runningQueryCount()
         {
-            return this.runningQueryCount;
-        }
-
-        public void runningQueryCount(int runningQueryCount)
-        {
-            this.runningQueryCount = runningQueryCount;
+            return this.runningQueryCount.get();
         }
 
         public int queuedQueryCount()
@@ -88,65 +102,65 @@ public class QueryCountBasedRouter
             return this.queuedQueryCount;
         }
 
-        public void queuedQueryCount(int queuedQueryCount)
-        {
-            this.queuedQueryCount = queuedQueryCount;
-        }
-
         public TrinoStatus trinoStatus()
         {
             return this.trinoStatus;
         }
 
-        public void trinoStatus(TrinoStatus trinoStatus)
-        {
-            this.trinoStatus = trinoStatus;
-        }
-
         public String proxyTo()
         {
             return this.proxyTo;
         }
 
-        public void proxyTo(String proxyTo)
-        {
-            this.proxyTo = proxyTo;
-        }
-
         public String routingGroup()
         {
             return this.routingGroup;
         }
 
-        public void routingGroup(String routingGroup)
+        public Map<String, Integer> userQueuedCount()
         {
-            this.routingGroup = routingGroup;
+            return this.userQueuedCount;
         }
 
-        public Map<String, Integer> userQueuedCount()
+        int userQueuedCount(@Nullable String user)
         {
-            return this.userQueuedCount;
+            // Requests without a user header have no queue of their own
+            if (user == null) {
+                return 0;
+            }
+            return userQueuedCount.getOrDefault(user, 0);
         }
 
-        public void userQueuedCount(Map<String, Integer> userQueuedCount)
+        void recordRoutedQuery(@Nullable String user)
         {
-            this.userQueuedCount = userQueuedCount;
+            // The live stats refresh every few seconds, so we update the stats immediately
+            // so that they can be used for next queries to route
+            // We assume that if a user has queued queries then newly arriving queries
+            // for that user would also be queued
+            Integer queued = user == null ? null : userQueuedCount.computeIfPresent(user, (key, count) -> count > 0 ? count + 1 : count);
+            if (queued != null && queued > 0) {
+                return;
+            }
+            // Else the we assume that the query would be running
+            // so update the clusterstat with the +1 running queries
+            runningQueryCount.incrementAndGet();
         }
     }
 
     public QueryCountBasedRouter(
             GatewayBackendManager gatewayBackendManager,
-            QueryHistoryManager queryHistoryManager)
+            QueryHistoryManager queryHistoryManager,
+            Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry,
+            HttpClient httpClient,
+            RoutingConfiguration routingConfiguration)
     {
-        super(gatewayBackendManager, queryHistoryManager);
-        clusterStats = new ArrayList<>();
+        super(gatewayBackendManager, queryHistoryManager, coordinatorBackendRegistry, httpClient, routingConfiguration);
     }
 
     private int compareStats(LocalStats lhs, LocalStats rhs, String user)
     {
         // First check if the user has any queries queued
-        int compareUserQueue = Integer.compare(lhs.userQueuedCount().getOrDefault(user, 0),
-                rhs.userQueuedCount().getOrDefault(user, 0));
+        int compareUserQueue = Integer.compare(lhs.userQueuedCount(user), rhs.userQueuedCount(user));
 
         if (compareUserQueue != 0) {
             return compareUserQueue;
@@ -183,60 +197,54 @@ public class QueryCountBasedRouter
     // else we assume it would be scheduled immediately and we increment the stats for the running
     // queries
 
-    private synchronized Optional<LocalStats> getClusterToRoute(String user, String routingGroup)
+    private Optional<LocalStats> getClusterToRoute(String user, String routingGroup, Set<String> excludedBackends)
     {
         log.debug("sorting cluster stats for %s %s", user, routingGroup);
-        List<LocalStats> filteredList = clusterStats.stream()
-                    .filter(stats -> stats.trinoStatus() == TrinoStatus.HEALTHY)
-                    .filter(stats -> routingGroup.equals(stats.routingGroup()))
-                    .collect(Collectors.toList());
-
-        if (filteredList.isEmpty()) {
-            return Optional.empty();
+        List<LocalStats> candidates = statsSnapshot.healthyClustersByRoutingGroup().get(routingGroup);
+        LocalStats selected = null;
+        for (LocalStats candidate : candidates) {
+            if (excludedBackends.contains(candidate.proxyTo()) || getOutlierDetector().isEjected(candidate.proxyTo())) {
+                continue;
+            }
+            if (selected == null || compareStats(candidate, selected, user) < 0) {
+                selected = candidate;
+            }
         }
-
-        return Optional.of(Collections.min(filteredList, (lhs, rhs) -> compareStats(lhs, rhs, user)));
+        return Optional.ofNullable(selected);
     }
 
-    private void updateLocalStats(LocalStats stats, String user)
+    private Optional<String> getBackendForRoutingGroup(String routingGroup, String user, Set<String> excludedBackends)
     {
-        // The live stats refresh every few seconds, so we update the stats immediately
-        // so that they can be used for next queries to route
-        // We assume that if a user has queued queries then newly arriving queries
-        // for that user would also be queued
-        int count = stats.userQueuedCount() == null ? 0 : stats.userQueuedCount().getOrDefault(user, 0);
-        if (count > 0) {
-            stats.userQueuedCount().put(user, count + 1);
-            return;
-        }
-        // Else the we assume that the query would be running
-        // so update the clusterstat with the +1 running queries
-        stats.runningQueryCount(stats.runningQueryCount() + 1);
+        Optional<LocalStats> cluster = getClusterToRoute(user, routingGroup, excludedBackends);
+        cluster.ifPresent(c -> c.recordRoutedQuery(user));
+        return cluster.map(LocalStats::proxyTo);
     }
 
-    private synchronized Optional<String> getBackendForRoutingGroup(String routingGroup, String user)
+    @Override
+    public String provideAdhocCluster(String user)
     {
-        Optional<LocalStats> cluster = getClusterToRoute(user, routingGroup);
-        cluster.ifPresent(c -> updateLocalStats(c, user));
-        return cluster.map(c -> c.proxyTo());
+        return getBackendForRoutingGroup("adhoc", user, ImmutableSet.of()).orElseThrow(() -> new RouterException("did not find any cluster for the adhoc routing group"));
     }
 
     @Override
-    public String provideAdhocCluster(String user)
+    public String provideClusterForRoutingGroup(String routingGroup, String user)
     {
-        return getBackendForRoutingGroup("adhoc", user).orElseThrow(() -> new RouterException("did not find any cluster for the adhoc routing group"));
+        return getBackendForRoutingGroup(routingGroup, user, ImmutableSet.of())
+                .orElseGet(() -> provideAdhocCluster(user));
     }
 
     @Override
-    public String provideClusterForRoutingGroup(String routingGroup, String user)
+    public Optional<String> provideFailoverCluster(String routingGroup, String user, Set<String> excludedBackends)
     {
-        return getBackendForRoutingGroup(routingGroup, user)
-                .orElse(provideAdhocCluster(user));
+        return getBackendForRoutingGroup(routingGroup, user, excludedBackends)
+                .or(() -> getBackendForRoutingGroup("adhoc", user, excludedBackends));
     }
 
     @Override
-    public synchronized void updateBackEndStats(List<ClusterStats> stats)
+    public void updateBackEndStats(List<ClusterStats> stats)
     {
-        clusterStats = stats.stream().map(a -> new LocalStats(a)).collect(Collectors.toList());
+        statsSnapshot = new StatsSnapshot(stats.stream()
+                .map(LocalStats::new)
+                .collect(toImmutableList()));
     }
 }
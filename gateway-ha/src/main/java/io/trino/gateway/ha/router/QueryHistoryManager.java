@@ -17,6 +17,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import io.trino.gateway.ha.domain.TableData;
 import io.trino.gateway.ha.domain.request.QueryHistoryRequest;
 import io.trino.gateway.ha.domain.response.DistributionResponse;
+import jakarta.annotation.Nullable;
 
 import java.util.List;
 import java.util.Objects;
@@ -34,10 +35,22 @@ public interface QueryHistoryManager
 
     String getRoutingGroupForQueryId(String queryId);
 
+    /**
+     * Passes the query id, backend and routing group of every query created at or after the
+     * given time to the consumer, oldest first, and returns the number of queries.
+     */
+    int forEachQueryRoute(long createdAfter, QueryRouteConsumer consumer);
+
     TableData<QueryDetail> findQueryHistory(QueryHistoryRequest query);
 
     List<DistributionResponse.LineChart> findDistribution(Long ts);
 
+    @FunctionalInterface
+    interface QueryRouteConsumer
+    {
+        void accept(String queryId, String backendUrl, @Nullable String routingGroup);
+    }
+
     class QueryDetail
             implements Comparable<QueryDetail>
     {
@@ -0,0 +1,221 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.DataStoreConfiguration;
+import io.trino.gateway.ha.persistence.dao.QueryHistory;
+import io.trino.gateway.ha.persistence.dao.QueryHistoryDao;
+import jakarta.annotation.PreDestroy;
+import org.jdbi.v3.core.Jdbi;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Writes query history in the background, so that recording a query never waits on the database.
+ * Queries are buffered in a bounded queue and inserted in batches, either when a full batch is
+ * queued or when the flush interval elapses. When the queue is full, new entries are dropped.
+ * <p>
+ * With write-behind disabled, every entry is inserted synchronously by {@link #submit}.
+ */
+public class QueryHistoryWriter
+{
+    private static final Logger log = Logger.get(QueryHistoryWriter.class);
+
+    private final QueryHistoryDao dao;
+    private final boolean writeBehindEnabled;
+    private final BlockingQueue<QueryHistory> queue;
+    private final int batchSize;
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("query-history-writer"));
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final CounterStat submitted = new CounterStat();
+    private final CounterStat dropped = new CounterStat();
+    private final CounterStat written = new CounterStat();
+    private final CounterStat failed = new CounterStat();
+    private final CounterStat batches = new CounterStat();
+
+    public QueryHistoryWriter(Jdbi jdbi, DataStoreConfiguration configuration)
+    {
+        this(requireNonNull(jdbi, "jdbi is null").onDemand(QueryHistoryDao.class),
+                configuration.isQueryHistoryWriteBehindEnabled(),
+                configuration.getQueryHistoryQueueSize(),
+                configuration.getQueryHistoryBatchSize(),
+                configuration.getQueryHistoryFlushInterval());
+    }
+
+    public QueryHistoryWriter(QueryHistoryDao dao, boolean writeBehindEnabled, int queueSize, int batchSize, Duration flushInterval)
+    {
+        checkArgument(queueSize > 0, "queueSize must be positive");
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        this.dao = requireNonNull(dao, "dao is null");
+        this.writeBehindEnabled = writeBehindEnabled;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        if (writeBehindEnabled) {
+            long flushIntervalMillis = flushInterval.toMillis();
+            executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues the entry for writing. Returns {@code false} if the queue is full and the entry was dropped.
+     */
+    public boolean submit(QueryHistory queryHistory)
+    {
+        submitted.update(1);
+        if (!writeBehindEnabled) {
+            write(ImmutableList.of(queryHistory));
+            return true;
+        }
+        if (!queue.offer(queryHistory)) {
+            dropped.update(1);
+            log.debug("Query history queue is full, dropping entry for query %s", queryHistory.queryId());
+            return false;
+        }
+        if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Writes every queued entry to the database.
+     */
+    public synchronized void flush()
+    {
+        List<QueryHistory> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, SECONDS)) {
+                log.warn("Timed out waiting for query history writer to finish");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushQuietly()
+    {
+        try {
+            flush();
+        }
+        catch (RuntimeException e) {
+            log.error(e, "Failed to flush query history");
+        }
+    }
+
+    private void write(List<QueryHistory> batch)
+    {
+        batches.update(1);
+        try {
+            dao.insertHistories(batch);
+            written.update(batch.size());
+            return;
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Failed to insert batch of %s query history entries, inserting them one by one", batch.size());
+        }
+        // a single bad entry, for example a duplicate query id, must not discard the rest of the batch
+        for (QueryHistory queryHistory : batch) {
+            try {
+                dao.insertHistory(
+                        queryHistory.queryId(),
+                        queryHistory.queryText(),
+                        queryHistory.backendUrl(),
+                        queryHistory.userName(),
+                        queryHistory.source(),
+                        queryHistory.created(),
+                        queryHistory.routingGroup());
+                written.update(1);
+            }
+            catch (RuntimeException e) {
+                failed.update(1);
+                log.error(e, "Failed to insert query history for query %s", queryHistory.queryId());
+            }
+        }
+    }
+
+    @Managed
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSubmitted()
+    {
+        return submitted;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getDropped()
+    {
+        return dropped;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getWritten()
+    {
+        return written;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getFailed()
+    {
+        return failed;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getBatches()
+    {
+        return batches;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.airlift.stats.CounterStat;
+import jakarta.annotation.Nullable;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fixed size table mapping Trino query ids to the backend and routing group of the query.
+ *
+ * <p>Each entry takes 12 bytes: a 64-bit hash of the query id, and an int holding the index of
+ * the backend and of the routing group in small dictionaries of known values. Entries are
+ * grouped in buckets of {@value #BUCKET_SIZE} slots, and when a bucket is full an entry is
+ * evicted using the CLOCK algorithm, which spares entries accessed since the last eviction.
+ *
+ * <p>Two query ids with the same 64-bit hash share an entry. With millions of entries, the
+ * probability of that happening is still negligible.
+ */
+public final class QueryIdRoutingTable
+{
+    private static final int BUCKET_SIZE = 8;
+    private static final int LOCK_STRIPES = 1024;
+
+    private static final int BACKEND_BITS = 16;
+    private static final int BACKEND_MASK = (1 << BACKEND_BITS) - 1;
+    private static final int ROUTING_GROUP_BITS = 15;
+    private static final int ROUTING_GROUP_MASK = (1 << ROUTING_GROUP_BITS) - 1;
+    private static final int REFERENCED = 1 << 31;
+
+    private static final long EMPTY = 0;
+
+    private final long[] keys;
+    // backend index, routing group index, and the CLOCK referenced bit
+    private final int[] values;
+    private final byte[] clockHands;
+    private final int bucketMask;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final Dictionary backends = new Dictionary(BACKEND_MASK);
+    private final Dictionary routingGroups = new Dictionary(ROUTING_GROUP_MASK);
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final CounterStat hits = new CounterStat();
+    private final CounterStat misses = new CounterStat();
+    private final CounterStat evictions = new CounterStat();
+
+    public QueryIdRoutingTable(int capacity)
+    {
+        checkArgument(capacity > 0 && capacity <= 1 << 28, "capacity must be between 1 and 2^28");
+        // round up to a power of two, so that the bucket of a hash is found by masking
+        int buckets = Math.max(1, Integer.highestOneBit(Math.ceilDiv(capacity, BUCKET_SIZE) - 1) << 1);
+        keys = new long[buckets * BUCKET_SIZE];
+        values = new int[buckets * BUCKET_SIZE];
+        clockHands = new byte[buckets];
+        bucketMask = buckets - 1;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Nullable
+    public String getBackend(String queryId)
+    {
+        return lookup(backends, get(queryId) & BACKEND_MASK);
+    }
+
+    @Nullable
+    public String getRoutingGroup(String queryId)
+    {
+        return lookup(routingGroups, (get(queryId) >>> BACKEND_BITS) & ROUTING_GROUP_MASK);
+    }
+
+    public void setBackend(String queryId, String backend)
+    {
+        put(queryId, backends.indexOf(requireNonNull(backend, "backend is null")), 0);
+    }
+
+    public void setRoutingGroup(String queryId, String routingGroup)
+    {
+        put(queryId, 0, routingGroups.indexOf(requireNonNull(routingGroup, "routingGroup is null")));
+    }
+
+    public void set(String queryId, @Nullable String backend, @Nullable String routingGroup)
+    {
+        put(
+                queryId,
+                backend == null ? 0 : backends.indexOf(backend),
+                routingGroup == null ? 0 : routingGroups.indexOf(routingGroup));
+    }
+
+    @Managed
+    public int getSize()
+    {
+        return size.get();
+    }
+
+    @Managed
+    public int getCapacity()
+    {
+        return keys.length;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHits()
+    {
+        return hits;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getMisses()
+    {
+        return misses;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getEvictions()
+    {
+        return evictions;
+    }
+
+    private int get(String queryId)
+    {
+        long key = hash(queryId);
+        int bucket = bucket(key);
+        int start = bucket * BUCKET_SIZE;
+        synchronized (lock(bucket)) {
+            for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+                if (keys[slot] == key) {
+                    values[slot] |= REFERENCED;
+                    return values[slot];
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Nullable
+    private String lookup(Dictionary dictionary, int index)
+    {
+        if (index == 0) {
+            misses.update(1);
+            return null;
+        }
+        hits.update(1);
+        return dictionary.get(index);
+    }
+
+    private void put(String queryId, int backend, int routingGroup)
+    {
+        if (backend < 0 || routingGroup < 0) {
+            // the dictionary is full, which should never happen with real deployments
+            return;
+        }
+        long key = hash(queryId);
+        int bucket = bucket(key);
+        int start = bucket * BUCKET_SIZE;
+        synchronized (lock(bucket)) {
+            int emptySlot = -1;
+            for (int slot = start; slot < start + BUCKET_SIZE; slot++) {
+                if (keys[slot] == key) {
+                    int value = values[slot];
+                    if (backend != 0) {
+                        value = (value & ~BACKEND_MASK) | backend;
+                    }
+                    if (routingGroup != 0) {
+                        value = (value & ~(ROUTING_GROUP_MASK << BACKEND_BITS)) | (routingGroup << BACKEND_BITS);
+                    }
+                    values[slot] = value | REFERENCED;
+                    return;
+                }
+                if (emptySlot < 0 && keys[slot] == EMPTY) {
+                    emptySlot = slot;
+                }
+            }
+            if (emptySlot >= 0) {
+                size.incrementAndGet();
+            }
+            else {
+                emptySlot = evict(bucket);
+                evictions.update(1);
+            }
+            keys[emptySlot] = key;
+            values[emptySlot] = backend | (routingGroup << BACKEND_BITS);
+        }
+    }
+
+    private int evict(int bucket)
+    {
+        int start = bucket * BUCKET_SIZE;
+        int hand = clockHands[bucket];
+        while (true) {
+            int slot = start + hand;
+            hand = (hand + 1) % BUCKET_SIZE;
+            if ((values[slot] & REFERENCED) == 0) {
+                clockHands[bucket] = (byte) hand;
+                return slot;
+            }
+            values[slot] &= ~REFERENCED;
+        }
+    }
+
+    private int bucket(long key)
+    {
+        return (int) (key >>> 32) & bucketMask;
+    }
+
+    private Object lock(int bucket)
+    {
+        return locks[bucket & (LOCK_STRIPES - 1)];
+    }
+
+    @VisibleForTesting
+    static long hash(String queryId)
+    {
+        // FNV-1a followed by the murmur3 finalizer, which avoids allocating like the Guava hash functions
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < queryId.length(); i++) {
+            hash ^= queryId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Assigns small indexes to the few distinct backends and routing groups. Index 0 means absent.
+     */
+    private static final class Dictionary
+    {
+        private final int maxIndex;
+        private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[16];
+
+        private Dictionary(int maxIndex)
+        {
+            this.maxIndex = maxIndex;
+        }
+
+        @Nullable
+        String get(int index)
+        {
+            String[] current = values;
+            return index < current.length ? current[index] : null;
+        }
+
+        int indexOf(String value)
+        {
+            Integer index = indexes.get(value);
+            if (index != null) {
+                return index;
+            }
+            return add(value);
+        }
+
+        private synchronized int add(String value)
+        {
+            Integer existing = indexes.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            int index = indexes.size() + 1;
+            if (index > maxIndex) {
+                return -1;
+            }
+            String[] current = values;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, Math.min(current.length * 2, maxIndex + 1));
+            }
+            current[index] = value;
+            // publish the value before the index, so that readers never see an index without its value
+            values = current;
+            indexes.put(value, index);
+            return index;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import jakarta.servlet.http.HttpServletRequest;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Holds the results of analyzing a single request, so that the SQL parsing behind
+ * {@link TrinoQueryProperties} and the header and token decoding behind {@link TrinoRequestUser}
+ * happen at most once, no matter how many routing components ask for them.
+ * <p>
+ * The context is stored on the servlet request as the {@link #ATTRIBUTE} attribute.
+ */
+public final class RequestAnalysisContext
+{
+    public static final String ATTRIBUTE = RequestAnalysisContext.class.getName();
+
+    private final HttpServletRequest request;
+    private final boolean isClientsUseV2Format;
+    private final int maxBodySize;
+    private TrinoQueryProperties trinoQueryProperties;
+    private TrinoRequestUser trinoRequestUser;
+
+    private RequestAnalysisContext(HttpServletRequest request, boolean isClientsUseV2Format, int maxBodySize)
+    {
+        this.request = requireNonNull(request, "request is null");
+        this.isClientsUseV2Format = isClientsUseV2Format;
+        this.maxBodySize = maxBodySize;
+    }
+
+    public static RequestAnalysisContext forRequest(HttpServletRequest request, RequestAnalyzerConfig requestAnalyzerConfig)
+    {
+        return forRequest(request, requestAnalyzerConfig.isClientsUseV2Format(), requestAnalyzerConfig.getMaxBodySize());
+    }
+
+    public static RequestAnalysisContext forRequest(HttpServletRequest request, boolean isClientsUseV2Format, int maxBodySize)
+    {
+        if (request.getAttribute(ATTRIBUTE) instanceof RequestAnalysisContext context) {
+            return context;
+        }
+        RequestAnalysisContext context = new RequestAnalysisContext(request, isClientsUseV2Format, maxBodySize);
+        request.setAttribute(ATTRIBUTE, context);
+        return context;
+    }
+
+    public synchronized TrinoQueryProperties getTrinoQueryProperties()
+    {
+        if (trinoQueryProperties == null) {
+            trinoQueryProperties = new TrinoQueryProperties(request, isClientsUseV2Format, maxBodySize);
+        }
+        return trinoQueryProperties;
+    }
+
+    public synchronized TrinoRequestUser getTrinoRequestUser(TrinoRequestUser.TrinoRequestUserProvider trinoRequestUserProvider)
+    {
+        if (trinoRequestUser == null) {
+            trinoRequestUser = trinoRequestUserProvider.getInstance(request);
+        }
+        return trinoRequestUser;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.JsonResponseHandler;
+import io.airlift.http.client.Request;
+import io.airlift.json.JsonCodec;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.router.schema.RoutingGroupExternalBatchBody;
+import io.trino.gateway.ha.router.schema.RoutingGroupExternalBatchResponse;
+import io.trino.gateway.ha.router.schema.RoutingGroupExternalResponse;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.withTimeout;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
+import static io.airlift.http.client.JsonResponseHandler.createJsonResponseHandler;
+import static io.airlift.http.client.Request.Builder.preparePost;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Collects routing lookups for up to the maximum delay or the maximum batch size, sends them to
+ * the external service in one request, and completes each lookup with its decision. The outcome
+ * of each batch request is recorded once in the circuit breaker, however many lookups it carries.
+ */
+final class RoutingLookupBatcher
+{
+    private static final JsonCodec<RoutingGroupExternalBatchBody> BATCH_BODY_JSON_CODEC = jsonCodec(RoutingGroupExternalBatchBody.class);
+    private static final JsonResponseHandler<RoutingGroupExternalBatchResponse> BATCH_RESPONSE_JSON_RESPONSE_HANDLER =
+            createJsonResponseHandler(jsonCodec(RoutingGroupExternalBatchResponse.class));
+
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Duration requestTimeout;
+    private final CircuitBreaker circuitBreaker;
+    private final ScheduledExecutorService scheduler;
+    private final CounterStat batches = new CounterStat();
+
+    private List<PendingLookup> pendingLookups = new ArrayList<>();
+
+    RoutingLookupBatcher(
+            HttpClient httpClient,
+            URI uri,
+            int maxBatchSize,
+            Duration maxDelay,
+            Duration requestTimeout,
+            CircuitBreaker circuitBreaker,
+            ScheduledExecutorService scheduler)
+    {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.httpClient = requireNonNull(httpClient, "httpClient is null");
+        this.uri = requireNonNull(uri, "uri is null");
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.roundTo(NANOSECONDS);
+        this.requestTimeout = requireNonNull(requestTimeout, "requestTimeout is null");
+        this.circuitBreaker = requireNonNull(circuitBreaker, "circuitBreaker is null");
+        this.scheduler = requireNonNull(scheduler, "scheduler is null");
+    }
+
+    ListenableFuture<RoutingGroupExternalResponse> submit(Map<String, Object> lookup)
+    {
+        PendingLookup pendingLookup = new PendingLookup(lookup, SettableFuture.create());
+        List<PendingLookup> batch = ImmutableList.of();
+        synchronized (this) {
+            pendingLookups.add(pendingLookup);
+            if (pendingLookups.size() >= maxBatchSize) {
+                batch = drain();
+            }
+            else if (pendingLookups.size() == 1) {
+                // A flush scheduled for an earlier batch that filled up may send this batch sooner, never later
+                scheduler.schedule(this::flush, maxDelayNanos, NANOSECONDS);
+            }
+        }
+        send(batch);
+        return pendingLookup.response();
+    }
+
+    CounterStat getBatches()
+    {
+        return batches;
+    }
+
+    private void flush()
+    {
+        List<PendingLookup> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        send(batch);
+    }
+
+    private synchronized List<PendingLookup> drain()
+    {
+        List<PendingLookup> batch = pendingLookups;
+        pendingLookups = new ArrayList<>();
+        return batch;
+    }
+
+    private void send(List<PendingLookup> batch)
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+        batches.update(1);
+        // Failures to serialize the body fail the lookups as well, instead of the caller or the flush task
+        try {
+            RoutingGroupExternalBatchBody body = new RoutingGroupExternalBatchBody(batch.stream()
+                    .map(PendingLookup::lookup)
+                    .collect(toImmutableList()));
+            Request request = preparePost()
+                    .addHeader(CONTENT_TYPE, JSON_UTF_8.toString())
+                    .setUri(uri)
+                    .setBodyGenerator(jsonBodyGenerator(BATCH_BODY_JSON_CODEC, body))
+                    .build();
+            // A slow batch request counts as a single failure, like a slow single lookup
+            ListenableFuture<RoutingGroupExternalBatchResponse> batchResponse = withTimeout(
+                    httpClient.executeAsync(request, BATCH_RESPONSE_JSON_RESPONSE_HANDLER),
+                    requestTimeout.toMillis(),
+                    MILLISECONDS,
+                    scheduler);
+            // The outcome is recorded before the lookups see it
+            addCallback(batchResponse, new FutureCallback<>()
+            {
+                @Override
+                public void onSuccess(RoutingGroupExternalBatchResponse response)
+                {
+                    if (response == null || response.responses() == null || response.responses().size() != batch.size()) {
+                        onFailure(new RuntimeException("Unexpected batch response for %s lookups: %s".formatted(batch.size(), response)));
+                        return;
+                    }
+                    circuitBreaker.recordSuccess();
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).response().set(response.responses().get(i));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t)
+                {
+                    circuitBreaker.recordFailure();
+                    batch.forEach(pendingLookup -> pendingLookup.response().setException(t));
+                }
+            }, directExecutor());
+        }
+        catch (RuntimeException e) {
+            circuitBreaker.recordFailure();
+            batch.forEach(pendingLookup -> pendingLookup.response().setException(e));
+        }
+    }
+
+    private record PendingLookup(Map<String, Object> lookup, SettableFuture<RoutingGroupExternalResponse> response)
+    {
+        PendingLookup
+        {
+            requireNonNull(lookup, "lookup is null");
+            requireNonNull(response, "response is null");
+        }
+    }
+}
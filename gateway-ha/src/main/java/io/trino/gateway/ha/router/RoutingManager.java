@@ -13,27 +13,47 @@
  */
 package io.trino.gateway.ha.router;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.StatusResponseHandler.StatusResponse;
 import io.airlift.log.Logger;
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.clustermonitor.ClusterStats;
 import io.trino.gateway.ha.clustermonitor.TrinoStatus;
 import io.trino.gateway.ha.config.ProxyBackendConfiguration;
-import jakarta.ws.rs.HttpMethod;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.HttpStatus.OK;
+import static io.airlift.http.client.Request.Builder.prepareHead;
+import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * This class performs health check, stats counts for each backend and provides a backend given
@@ -43,45 +63,81 @@ public abstract class RoutingManager
 {
     private static final Random RANDOM = new Random();
     private static final Logger log = Logger.get(RoutingManager.class);
-    private final LoadingCache<String, String> queryIdBackendCache;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(5);
+    private final QueryIdRoutingTable queryIdRoutingTable;
+    private final Duration queryIdPreloadAge;
+    // Query ids no backend knows about, so that polling them does not search all backends every time
+    private final Cache<String, Boolean> unknownQueryIdCache;
+    private final ConcurrentHashMap<String, ListenableFuture<Optional<String>>> pendingQueryIdSearches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService queryIdSearchTimeoutExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("query-id-search-timeout"));
+    private final HttpClient httpClient;
+    private final Duration queryIdSearchTimeout;
     private final GatewayBackendManager gatewayBackendManager;
     private final ConcurrentHashMap<String, TrinoStatus> backendToStatus;
-    private final LoadingCache<String, String> queryIdRoutingGroupCache;
     private final QueryHistoryManager queryHistoryManager;
+    private final Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry;
+    private final BackendOutlierDetector outlierDetector;
 
-    public RoutingManager(GatewayBackendManager gatewayBackendManager, QueryHistoryManager queryHistoryManager)
+    public RoutingManager(
+            GatewayBackendManager gatewayBackendManager,
+            QueryHistoryManager queryHistoryManager,
+            Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry,
+            HttpClient httpClient,
+            RoutingConfiguration routingConfiguration)
     {
         this.gatewayBackendManager = gatewayBackendManager;
         this.queryHistoryManager = queryHistoryManager;
-        queryIdBackendCache =
-                CacheBuilder.newBuilder()
-                        .maximumSize(10000)
-                        .expireAfterAccess(30, TimeUnit.MINUTES)
-                        .build(
-                                new CacheLoader<String, String>()
-                                {
-                                    @Override
-                                    public String load(String queryId)
-                                    {
-                                        return findBackendForUnknownQueryId(queryId);
-                                    }
-                                });
-        queryIdRoutingGroupCache =
+        this.coordinatorBackendRegistry = requireNonNull(coordinatorBackendRegistry, "coordinatorBackendRegistry is null");
+        this.httpClient = requireNonNull(httpClient, "httpClient is null");
+        this.queryIdSearchTimeout = routingConfiguration.getQueryIdSearchTimeout();
+        this.queryIdRoutingTable = new QueryIdRoutingTable(routingConfiguration.getQueryIdCacheSize());
+        this.queryIdPreloadAge = routingConfiguration.getQueryIdCachePreloadAge();
+        unknownQueryIdCache =
                 CacheBuilder.newBuilder()
                         .maximumSize(10000)
-                        .expireAfterAccess(30, TimeUnit.MINUTES)
-                        .build(
-                                new CacheLoader<String, String>()
-                                {
-                                    @Override
-                                    public String load(String queryId)
-                                    {
-                                        return findRoutingGroupForUnknownQueryId(queryId);
-                                    }
-                                });
-
+                        .expireAfterWrite(routingConfiguration.getUnknownQueryIdCacheTtl().toMillis(), MILLISECONDS)
+                        .build();
         this.backendToStatus = new ConcurrentHashMap<>();
+        this.outlierDetector = new BackendOutlierDetector(routingConfiguration.getOutlierDetection());
+    }
+
+    /**
+     * Fills the query id routing table with the most recent queries from the query history,
+     * so that queries submitted before a restart are routed without searching all backends.
+     */
+    @PostConstruct
+    public void preloadQueryIdRoutingTable()
+    {
+        if (queryHistoryManager == null || queryIdPreloadAge.toMillis() == 0) {
+            return;
+        }
+        long createdAfter = System.currentTimeMillis() - queryIdPreloadAge.toMillis();
+        try {
+            int loaded = queryHistoryManager.forEachQueryRoute(createdAfter, queryIdRoutingTable::set);
+            log.info("Preloaded %s query ids from the query history", loaded);
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Failed to preload query ids from the query history");
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        queryIdSearchTimeoutExecutor.shutdownNow();
+    }
+
+    @Managed
+    @Nested
+    public QueryIdRoutingTable getQueryIdRoutingTable()
+    {
+        return queryIdRoutingTable;
+    }
+
+    @Managed
+    @Nested
+    public BackendOutlierDetector getOutlierDetector()
+    {
+        return outlierDetector;
     }
 
     protected GatewayBackendManager getGatewayBackendManager()
@@ -91,12 +147,13 @@ public abstract class RoutingManager
 
     public void setBackendForQueryId(String queryId, String backend)
     {
-        queryIdBackendCache.put(queryId, backend);
+        queryIdRoutingTable.setBackend(queryId, backend);
+        coordinatorBackendRegistry.ifPresent(registry -> registry.learn(queryId, backend));
     }
 
     public void setRoutingGroupForQueryId(String queryId, String routingGroup)
     {
-        queryIdRoutingGroupCache.put(queryId, routingGroup);
+        queryIdRoutingTable.setRoutingGroup(queryId, routingGroup);
     }
 
     /**
@@ -105,7 +162,7 @@ public abstract class RoutingManager
     public String provideAdhocCluster(String user)
     {
         List<ProxyBackendConfiguration> backends = this.gatewayBackendManager.getActiveAdhocBackends();
-        backends.removeIf(backend -> isBackendNotHealthy(backend.getName()));
+        backends.removeIf(this::isBackendNotRoutable);
         if (backends.size() == 0) {
             throw new IllegalStateException("Number of active backends found zero");
         }
@@ -121,7 +178,7 @@ public abstract class RoutingManager
     {
         List<ProxyBackendConfiguration> backends =
                 gatewayBackendManager.getActiveBackends(routingGroup);
-        backends.removeIf(backend -> isBackendNotHealthy(backend.getName()));
+        backends.removeIf(this::isBackendNotRoutable);
         if (backends.isEmpty()) {
             return provideAdhocCluster(user);
         }
@@ -130,17 +187,45 @@ public abstract class RoutingManager
     }
 
     /**
-     * Performs cache look up, if a backend not found, it checks with all backends and tries to find
-     * out which backend has info about given query id.
+     * Performs routing of a new query to a given cluster group. Routers choosing a backend based on
+     * the query itself override this method, the query properties are only parsed when they are
+     * requested. The default implementation ignores the query.
      */
-    public String findBackendForQueryId(String queryId)
+    public String provideClusterForQuery(String routingGroup, String user, Supplier<TrinoQueryProperties> queryProperties)
     {
-        String backendAddress = null;
-        try {
-            backendAddress = queryIdBackendCache.get(queryId);
+        return provideClusterForRoutingGroup(routingGroup, user);
+    }
+
+    /**
+     * Chooses a backend for retrying a query submission that failed on the excluded backends.
+     * Like {@link #provideClusterForRoutingGroup}, this falls back to an adhoc backend. The user
+     * is null for requests without a user header.
+     */
+    public Optional<String> provideFailoverCluster(String routingGroup, String user, Set<String> excludedBackends)
+    {
+        List<ProxyBackendConfiguration> backends = gatewayBackendManager.getActiveBackends(routingGroup);
+        backends.removeIf(backend -> isBackendNotRoutable(backend) || excludedBackends.contains(backend.getProxyTo()));
+        if (backends.isEmpty()) {
+            backends = gatewayBackendManager.getActiveAdhocBackends();
+            backends.removeIf(backend -> isBackendNotRoutable(backend) || excludedBackends.contains(backend.getProxyTo()));
         }
-        catch (ExecutionException e) {
-            log.error("Exception while loading queryId from cache %s", e.getLocalizedMessage());
+        if (backends.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(backends.get(RANDOM.nextInt(backends.size())).getProxyTo());
+    }
+
+    /**
+     * Performs cache look up, if a backend not found, it resolves the coordinator of the query id,
+     * and as a last resort checks with all backends and tries to find out which backend has info
+     * about given query id.
+     */
+    public String findBackendForQueryId(String queryId)
+    {
+        String backendAddress = queryIdRoutingTable.getBackend(queryId);
+        if (backendAddress == null) {
+            backendAddress = coordinatorBackendRegistry.flatMap(registry -> registry.findBackend(queryId))
+                    .orElseGet(() -> findBackendForUnknownQueryId(queryId));
         }
         return backendAddress;
     }
@@ -151,12 +236,9 @@ public abstract class RoutingManager
      */
     public String findRoutingGroupForQueryId(String queryId)
     {
-        String routingGroup = null;
-        try {
-            routingGroup = queryIdRoutingGroupCache.get(queryId);
-        }
-        catch (ExecutionException e) {
-            log.error("Exception while loading queryId from routing group cache %s", e.getLocalizedMessage());
+        String routingGroup = queryIdRoutingTable.getRoutingGroup(queryId);
+        if (routingGroup == null) {
+            routingGroup = findRoutingGroupForUnknownQueryId(queryId);
         }
         return routingGroup;
     }
@@ -180,53 +262,116 @@ public abstract class RoutingManager
      */
     protected String findBackendForUnknownQueryId(String queryId)
     {
-        List<ProxyBackendConfiguration> backends = gatewayBackendManager.getAllBackends();
-
-        Map<String, Future<Integer>> responseCodes = new HashMap<>();
-        try {
-            for (ProxyBackendConfiguration backend : backends) {
-                String target = backend.getProxyTo() + "/v1/query/" + queryId;
-
-                Future<Integer> call =
-                        executorService.submit(
-                                () -> {
-                                    URL url = new URL(target);
-                                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                                    conn.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(5));
-                                    conn.setReadTimeout((int) TimeUnit.SECONDS.toMillis(5));
-                                    conn.setRequestMethod(HttpMethod.HEAD);
-                                    return conn.getResponseCode();
-                                });
-                responseCodes.put(backend.getProxyTo(), call);
+        if (unknownQueryIdCache.getIfPresent(queryId) == null) {
+            // Concurrent requests for the same query id share a single search
+            ListenableFuture<Optional<String>> search = pendingQueryIdSearches.computeIfAbsent(queryId, this::searchBackends);
+            try {
+                Optional<String> backend = search.get();
+                if (backend.isPresent()) {
+                    setBackendForQueryId(queryId, backend.get());
+                    return backend.get();
+                }
+                unknownQueryIdCache.put(queryId, true);
+                log.warn("Query id [%s] not found", queryId);
             }
-            for (Map.Entry<String, Future<Integer>> entry : responseCodes.entrySet()) {
-                if (entry.getValue().isDone()) {
-                    int responseCode = entry.getValue().get();
-                    if (responseCode == 200) {
-                        log.info("Found query [%s] on backend [%s]", queryId, entry.getKey());
-                        setBackendForQueryId(queryId, entry.getKey());
-                        return entry.getKey();
-                    }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    log.warn("Timed out searching for query id [%s] after %s", queryId, queryIdSearchTimeout);
+                }
+                else {
+                    log.warn(e.getCause(), "Failed to search for query id [%s]", queryId);
                 }
             }
-        }
-        catch (Exception e) {
-            log.warn("Query id [%s] not found", queryId);
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while searching for query id [%s]", queryId);
+            }
+            finally {
+                pendingQueryIdSearches.remove(queryId, search);
+            }
         }
         // Fallback on first active backend if queryId mapping not found.
         return gatewayBackendManager.getActiveAdhocBackends().get(0).getProxyTo();
     }
 
+    /**
+     * Asks all backends for the query concurrently. Completes with the first backend that knows
+     * the query, with an empty result once all backends responded without knowing it, or fails
+     * with a {@link TimeoutException} after {@code routing.queryIdSearchTimeout}. Outstanding
+     * requests are cancelled as soon as the result is known.
+     */
+    private ListenableFuture<Optional<String>> searchBackends(String queryId)
+    {
+        List<ProxyBackendConfiguration> backends = gatewayBackendManager.getAllBackends();
+        if (backends.isEmpty()) {
+            return Futures.immediateFuture(Optional.empty());
+        }
+
+        SettableFuture<Optional<String>> result = SettableFuture.create();
+        AtomicInteger remaining = new AtomicInteger(backends.size());
+        List<ListenableFuture<StatusResponse>> requests = new ArrayList<>(backends.size());
+        for (ProxyBackendConfiguration backend : backends) {
+            String backendAddress = backend.getProxyTo();
+            FutureCallback<StatusResponse> callback = new FutureCallback<>()
+            {
+                @Override
+                public void onSuccess(StatusResponse response)
+                {
+                    if (response.getStatusCode() == OK.code() && result.set(Optional.of(backendAddress))) {
+                        log.info("Found query [%s] on backend [%s]", queryId, backendAddress);
+                        return;
+                    }
+                    backendResponded();
+                }
+
+                @Override
+                public void onFailure(Throwable throwable)
+                {
+                    backendResponded();
+                }
+
+                private void backendResponded()
+                {
+                    if (remaining.decrementAndGet() == 0) {
+                        result.set(Optional.empty());
+                    }
+                }
+            };
+            try {
+                Request request = prepareHead()
+                        .setUri(URI.create(backendAddress + "/v1/query/" + queryId))
+                        .build();
+                ListenableFuture<StatusResponse> response = httpClient.executeAsync(request, createStatusResponseHandler());
+                requests.add(response);
+                Futures.addCallback(response, callback, directExecutor());
+            }
+            catch (RuntimeException e) {
+                callback.onFailure(e);
+            }
+        }
+
+        ListenableFuture<Optional<String>> search = Futures.withTimeout(result, queryIdSearchTimeout.toMillis(), MILLISECONDS, queryIdSearchTimeoutExecutor);
+        search.addListener(() -> requests.forEach(request -> request.cancel(true)), directExecutor());
+        return search;
+    }
+
     /**
      * Attempts to look up the routing group associated with the query id from query history table
      */
     protected String findRoutingGroupForUnknownQueryId(String queryId)
     {
         String routingGroup = queryHistoryManager.getRoutingGroupForQueryId(queryId);
-        setRoutingGroupForQueryId(queryId, routingGroup);
+        if (routingGroup != null) {
+            setRoutingGroupForQueryId(queryId, routingGroup);
+        }
         return routingGroup;
     }
 
+    private boolean isBackendNotRoutable(ProxyBackendConfiguration backend)
+    {
+        return isBackendNotHealthy(backend.getName()) || outlierDetector.isEjected(backend.getProxyTo());
+    }
+
     // Predicate helper function to remove the backends from the list
     // We are returning the unhealthy (not healthy)
     private boolean isBackendNotHealthy(String backendId)
@@ -13,14 +13,28 @@
  */
 package io.trino.gateway.ha.router;
 
-import java.util.Map;
+import org.mvel2.integration.VariableResolverFactory;
 
 public interface RoutingRule
         extends Comparable<RoutingRule>
 {
-    boolean evaluateCondition(Map<String, Object> data, Map<String, Object> state);
+    /**
+     * Evaluates the condition against the variables of the request being routed. The same
+     * {@code variables} are passed to every rule evaluated for a request, so implementations
+     * must not retain them.
+     */
+    boolean evaluateCondition(VariableResolverFactory variables);
 
-    void evaluateAction(Map<String, String> result, Map<String, Object> data, Map<String, Object> state);
+    void evaluateAction(VariableResolverFactory variables);
 
     Integer getPriority();
+
+    /**
+     * Whether no further rules are evaluated for a request once this rule's condition holds. Rules
+     * are evaluated in ascending priority order, so this rule suppresses all higher-priority rules.
+     */
+    default boolean isTerminal()
+    {
+        return false;
+    }
 }
@@ -0,0 +1,419 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Narrows the routing rules evaluated for a request. When the rules are loaded, each condition is
+ * split into its top level conjuncts. A rule whose leading conjuncts include an equality, set
+ * membership, prefix or substring test of a request header, or an equality test of the user, is
+ * indexed by that predicate, and only its remaining conjuncts are left to MVEL. Rules without such
+ * a predicate are candidates for every request. Candidates are returned in the order of the rules.
+ */
+final class RoutingRuleIndex
+{
+    private static final String HEADER = "request\\.getHeader\\(\\s*\"([^\"\\\\]*)\"\\s*\\)";
+    private static final String LITERAL = "\"([^\"\\\\]*)\"";
+    private static final Pattern HEADER_EQUALS = Pattern.compile(HEADER + "\\s*==\\s*" + LITERAL);
+    private static final Pattern EQUALS_HEADER = Pattern.compile(LITERAL + "\\s*==\\s*" + HEADER);
+    private static final Pattern HEADER_STARTS_WITH = Pattern.compile(HEADER + "\\.startsWith\\(\\s*" + LITERAL + "\\s*\\)");
+    private static final Pattern HEADER_CONTAINS = Pattern.compile(HEADER + "\\s+contains\\s+" + LITERAL);
+    private static final Pattern USER_EQUALS = Pattern.compile("trinoRequestUser\\.userExistsAndEquals\\(\\s*" + LITERAL + "\\s*\\)");
+
+    private final List<RoutingRule> rules;
+    private final BitSet unindexedRules;
+    private final List<HeaderIndex> headerIndexes;
+    private final SetMultimap<String, Integer> userIndex;
+
+    /**
+     * @param indexUser whether the conditions may be evaluated with a {@code trinoRequestUser},
+     * user predicates are only indexed when the user is available
+     */
+    RoutingRuleIndex(List<RoutingRule> rules, boolean indexUser)
+    {
+        ImmutableList.Builder<RoutingRule> residualRules = ImmutableList.builder();
+        BitSet unindexedRules = new BitSet(rules.size());
+        Map<String, HeaderIndex.Builder> headerIndexes = new LinkedHashMap<>();
+        ImmutableSetMultimap.Builder<String, Integer> userIndex = ImmutableSetMultimap.builder();
+        for (int i = 0; i < rules.size(); i++) {
+            RoutingRule rule = rules.get(i);
+            Optional<IndexedCondition> indexedCondition = Optional.empty();
+            if (rule instanceof MVELRoutingRule mvelRule) {
+                indexedCondition = mvelRule.conditionExpression.flatMap(expression -> indexCondition(expression, indexUser));
+                if (indexedCondition.isPresent()) {
+                    rule = mvelRule.withCondition(indexedCondition.get().residualCondition());
+                }
+            }
+            residualRules.add(rule);
+
+            if (indexedCondition.isEmpty()) {
+                unindexedRules.set(i);
+                continue;
+            }
+            Predicate predicate = indexedCondition.get().predicate();
+            if (predicate.kind() == Kind.USER_EQUALS) {
+                for (String user : predicate.values()) {
+                    userIndex.put(user, i);
+                }
+            }
+            else {
+                String header = predicate.header().orElseThrow();
+                headerIndexes.computeIfAbsent(header.toLowerCase(ENGLISH), key -> new HeaderIndex.Builder(header))
+                        .add(predicate, i);
+            }
+        }
+        this.rules = residualRules.build();
+        this.unindexedRules = unindexedRules;
+        this.headerIndexes = headerIndexes.values().stream()
+                .map(HeaderIndex.Builder::build)
+                .collect(toImmutableList());
+        this.userIndex = userIndex.build();
+    }
+
+    /**
+     * Returns the rules whose indexed predicate holds for the request, along with the rules that
+     * are not indexed, in the order of the rules. The returned rules evaluate only the residual of
+     * their condition.
+     */
+    List<RoutingRule> getCandidates(HttpServletRequest request, Optional<String> user)
+    {
+        BitSet candidates = (BitSet) unindexedRules.clone();
+        for (HeaderIndex headerIndex : headerIndexes) {
+            String value = request.getHeader(headerIndex.header());
+            if (value != null) {
+                headerIndex.addMatches(value, candidates);
+            }
+        }
+        user.ifPresent(name -> userIndex.get(name).forEach(candidates::set));
+
+        List<RoutingRule> candidateRules = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            candidateRules.add(rules.get(i));
+        }
+        return candidateRules;
+    }
+
+    static Optional<IndexedCondition> indexCondition(String condition, boolean indexUser)
+    {
+        // A condition with a top level disjunction may still be a set membership test as a whole
+        List<String> conjuncts = splitTopLevel(condition, "&&").orElseGet(() -> ImmutableList.of(condition.strip()));
+        // Only leading predicates are indexed, so that skipping a rule never skips the side effects
+        // or failures of a conjunct that would have been evaluated before them
+        int indexed = -1;
+        Predicate predicate = null;
+        for (int i = 0; i < conjuncts.size(); i++) {
+            Optional<Predicate> candidate = parsePredicate(conjuncts.get(i))
+                    .filter(parsed -> indexUser || parsed.kind() != Kind.USER_EQUALS);
+            if (candidate.isEmpty()) {
+                break;
+            }
+            if (predicate == null || candidate.get().kind().ordinal() < predicate.kind().ordinal()) {
+                indexed = i;
+                predicate = candidate.get();
+            }
+        }
+        if (predicate == null) {
+            return Optional.empty();
+        }
+
+        List<String> residual = new ArrayList<>(conjuncts);
+        residual.remove(indexed);
+        return Optional.of(new IndexedCondition(predicate, residual.isEmpty() ? "true" : String.join(" && ", residual)));
+    }
+
+    private static Optional<Predicate> parsePredicate(String conjunct)
+    {
+        String expression = stripParentheses(conjunct);
+        List<String> disjuncts = splitTopLevel(expression, "||").orElse(ImmutableList.of());
+        if (disjuncts.isEmpty()) {
+            return Optional.empty();
+        }
+        // A disjunction of predicates of the same kind on the same header is a set membership test
+        Predicate predicate = null;
+        for (String disjunct : disjuncts) {
+            Optional<Predicate> parsed = parseSimplePredicate(stripParentheses(disjunct));
+            if (parsed.isEmpty()) {
+                return Optional.empty();
+            }
+            if (predicate == null) {
+                predicate = parsed.get();
+            }
+            else if (predicate.isCompatible(parsed.get())) {
+                predicate = predicate.union(parsed.get());
+            }
+            else {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(predicate);
+    }
+
+    private static Optional<Predicate> parseSimplePredicate(String expression)
+    {
+        Matcher matcher = HEADER_EQUALS.matcher(expression);
+        if (matcher.matches()) {
+            return Optional.of(new Predicate(Kind.HEADER_EQUALS, Optional.of(matcher.group(1)), ImmutableSet.of(matcher.group(2))));
+        }
+        matcher = EQUALS_HEADER.matcher(expression);
+        if (matcher.matches()) {
+            return Optional.of(new Predicate(Kind.HEADER_EQUALS, Optional.of(matcher.group(2)), ImmutableSet.of(matcher.group(1))));
+        }
+        matcher = HEADER_STARTS_WITH.matcher(expression);
+        if (matcher.matches()) {
+            return Optional.of(new Predicate(Kind.HEADER_PREFIX, Optional.of(matcher.group(1)), ImmutableSet.of(matcher.group(2))));
+        }
+        matcher = HEADER_CONTAINS.matcher(expression);
+        if (matcher.matches()) {
+            return Optional.of(new Predicate(Kind.HEADER_CONTAINS, Optional.of(matcher.group(1)), ImmutableSet.of(matcher.group(2))));
+        }
+        matcher = USER_EQUALS.matcher(expression);
+        if (matcher.matches()) {
+            return Optional.of(new Predicate(Kind.USER_EQUALS, Optional.empty(), ImmutableSet.of(matcher.group(1))));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Splits the expression on the top level occurrences of the operator. Returns empty if the
+     * expression has top level constructs that bind looser than the operator, such as statement
+     * separators, assignments, ternaries or the other boolean operator, or if it is malformed.
+     */
+    static Optional<List<String>> splitTopLevel(String expression, String operator)
+    {
+        String otherOperator = operator.equals("&&") ? "||" : "&&";
+        ImmutableList.Builder<String> operands = ImmutableList.builder();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                }
+                else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"', '\'' -> quote = c;
+                case '(', '[', '{' -> depth++;
+                case ')', ']', '}' -> {
+                    depth--;
+                    if (depth < 0) {
+                        return Optional.empty();
+                    }
+                }
+                default -> {
+                    if (depth > 0) {
+                        continue;
+                    }
+                    if (c == ';' || c == '?' || expression.startsWith(otherOperator, i)) {
+                        return Optional.empty();
+                    }
+                    if (c == '=') {
+                        if (expression.startsWith("==", i)) {
+                            i++;
+                        }
+                        else if (i == 0 || "!<>".indexOf(expression.charAt(i - 1)) < 0) {
+                            return Optional.empty();
+                        }
+                    }
+                    else if (expression.startsWith(operator, i)) {
+                        operands.add(expression.substring(start, i).strip());
+                        i += operator.length() - 1;
+                        start = i + 1;
+                    }
+                }
+            }
+        }
+        if (depth != 0 || quote != 0) {
+            return Optional.empty();
+        }
+        operands.add(expression.substring(start).strip());
+        List<String> result = operands.build();
+        if (result.stream().anyMatch(String::isEmpty)) {
+            return Optional.empty();
+        }
+        return Optional.of(result);
+    }
+
+    private static String stripParentheses(String expression)
+    {
+        String stripped = expression.strip();
+        while (stripped.startsWith("(") && stripped.endsWith(")") && isEnclosed(stripped)) {
+            stripped = stripped.substring(1, stripped.length() - 1).strip();
+        }
+        return stripped;
+    }
+
+    // Whether the opening parenthesis of the expression is closed by its last character
+    private static boolean isEnclosed(String expression)
+    {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < expression.length() - 1; i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                }
+                else if (c == quote) {
+                    quote = 0;
+                }
+            }
+            else if (c == '"' || c == '\'') {
+                quote = c;
+            }
+            else if (c == '(') {
+                depth++;
+            }
+            else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    enum Kind
+    {
+        // Declared from the most to the least selective, the most selective leading predicate is indexed
+        HEADER_EQUALS,
+        USER_EQUALS,
+        HEADER_PREFIX,
+        HEADER_CONTAINS,
+    }
+
+    record Predicate(Kind kind, Optional<String> header, Set<String> values)
+    {
+        Predicate
+        {
+            requireNonNull(kind, "kind is null");
+            requireNonNull(header, "header is null");
+            values = ImmutableSet.copyOf(values);
+        }
+
+        boolean isCompatible(Predicate other)
+        {
+            return kind == other.kind && header.map(name -> name.toLowerCase(ENGLISH)).equals(other.header.map(name -> name.toLowerCase(ENGLISH)));
+        }
+
+        Predicate union(Predicate other)
+        {
+            return new Predicate(kind, header, ImmutableSet.<String>builder().addAll(values).addAll(other.values).build());
+        }
+    }
+
+    record IndexedCondition(Predicate predicate, String residualCondition)
+    {
+        IndexedCondition
+        {
+            requireNonNull(predicate, "predicate is null");
+            requireNonNull(residualCondition, "residualCondition is null");
+        }
+    }
+
+    private record HeaderIndex(
+            String header,
+            SetMultimap<String, Integer> equalsIndex,
+            SetMultimap<String, Integer> prefixIndex,
+            int[] prefixLengths,
+            SetMultimap<String, Integer> substringIndex,
+            int[] substringLengths)
+    {
+        void addMatches(String value, BitSet candidates)
+        {
+            equalsIndex.get(value).forEach(candidates::set);
+            for (int length : prefixLengths) {
+                if (length > value.length()) {
+                    break;
+                }
+                prefixIndex.get(value.substring(0, length)).forEach(candidates::set);
+            }
+            for (int length : substringLengths) {
+                if (length > value.length()) {
+                    break;
+                }
+                for (int start = 0; start + length <= value.length(); start++) {
+                    substringIndex.get(value.substring(start, start + length)).forEach(candidates::set);
+                }
+            }
+        }
+
+        private static class Builder
+        {
+            private final String header;
+            private final ImmutableSetMultimap.Builder<String, Integer> equalsIndex = ImmutableSetMultimap.builder();
+            private final ImmutableSetMultimap.Builder<String, Integer> prefixIndex = ImmutableSetMultimap.builder();
+            private final ImmutableSetMultimap.Builder<String, Integer> substringIndex = ImmutableSetMultimap.builder();
+
+            Builder(String header)
+            {
+                this.header = requireNonNull(header, "header is null");
+            }
+
+            void add(Predicate predicate, int rule)
+            {
+                ImmutableSetMultimap.Builder<String, Integer> index = switch (predicate.kind()) {
+                    case HEADER_EQUALS -> equalsIndex;
+                    case HEADER_PREFIX -> prefixIndex;
+                    case HEADER_CONTAINS -> substringIndex;
+                    case USER_EQUALS -> throw new IllegalArgumentException("Not a header predicate: " + predicate);
+                };
+                for (String value : predicate.values()) {
+                    index.put(value, rule);
+                }
+            }
+
+            HeaderIndex build()
+            {
+                SetMultimap<String, Integer> prefixes = prefixIndex.build();
+                SetMultimap<String, Integer> substrings = substringIndex.build();
+                return new HeaderIndex(header, equalsIndex.build(), prefixes, lengths(prefixes), substrings, lengths(substrings));
+            }
+
+            private static int[] lengths(SetMultimap<String, Integer> index)
+            {
+                return index.keySet().stream()
+                        .mapToInt(String::length)
+                        .distinct()
+                        .sorted()
+                        .toArray();
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.fasterxml.jackson.dataformat.yaml.YAMLParser;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RoutingRulesConfiguration;
 import io.trino.gateway.ha.domain.RoutingRule;
 
 import java.io.IOException;
@@ -28,6 +29,7 @@ import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardOpenOption.READ;
@@ -36,39 +38,44 @@ import static java.nio.file.StandardOpenOption.WRITE;
 public class RoutingRulesManager
 {
     private final String rulesConfigPath;
+    private final Optional<RoutingRulesReloader<List<RoutingRule>>> routingRules;
 
     @Inject
     public RoutingRulesManager(HaGatewayConfiguration configuration)
     {
-        this.rulesConfigPath = configuration.getRoutingRules().getRulesConfigPath();
+        RoutingRulesConfiguration routingRulesConfiguration = configuration.getRoutingRules();
+        this.rulesConfigPath = routingRulesConfiguration.getRulesConfigPath();
+        // Loaded on demand, the rules used for routing are kept up to date by the routing group selector
+        this.routingRules = Optional.ofNullable(rulesConfigPath).map(path -> new RoutingRulesReloader<>(
+                Path.of(path),
+                RoutingRulesManager::parseRoutingRules,
+                Optional.empty()));
     }
 
+    /**
+     * Returns the rules of the file. The file is read on every call, so that changes made outside
+     * the gateway are visible, but it is only parsed again when its content changed.
+     */
     public List<RoutingRule> getRoutingRules()
     {
-        YAMLFactory yamlFactory = new YAMLFactory();
-        ObjectMapper yamlReader = new ObjectMapper(yamlFactory);
-        ImmutableList.Builder<RoutingRule> routingRulesBuilder = ImmutableList.builder();
+        RoutingRulesReloader<List<RoutingRule>> rules = routingRules.orElseThrow(() -> new IllegalStateException("Routing rules configuration path is not set"));
         try {
-            String content = Files.readString(Path.of(rulesConfigPath), UTF_8);
-            YAMLParser parser = yamlFactory.createParser(content);
-            while (parser.nextToken() != null) {
-                RoutingRule routingRule = yamlReader.readValue(parser, RoutingRule.class);
-                routingRulesBuilder.add(routingRule);
-            }
-            return routingRulesBuilder.build();
+            rules.reload();
         }
         catch (IOException e) {
-            throw new UncheckedIOException("Failed to read or parse routing rules configuration from path : " + rulesConfigPath, e);
+            throw new UncheckedIOException("Failed to read routing rules configuration from path: " + rulesConfigPath, e);
         }
+        return rules.get();
     }
 
     public synchronized List<RoutingRule> updateRoutingRule(RoutingRule routingRule)
     {
         ImmutableList.Builder<RoutingRule> updatedRoutingRulesBuilder = ImmutableList.builder();
-        List<RoutingRule> currentRoutingRulesList = getRoutingRules();
         Path path = Path.of(rulesConfigPath);
         try (FileChannel fileChannel = FileChannel.open(path, WRITE, READ);
                 FileLock lock = fileChannel.lock()) {
+            // Read the file rather than the loaded rules, which may not reflect changes made since the last reload
+            List<RoutingRule> currentRoutingRulesList = parseRoutingRules(Files.readString(path, UTF_8));
             ObjectMapper yamlWriter = new ObjectMapper(new YAMLFactory());
             StringBuilder yamlContent = new StringBuilder();
             for (RoutingRule rule : currentRoutingRulesList) {
@@ -83,10 +90,29 @@ public class RoutingRulesManager
             }
             Files.writeString(path, yamlContent.toString(), UTF_8);
             lock.release();
+            routingRules.orElseThrow().reload();
         }
         catch (IOException e) {
             throw new UncheckedIOException("Failed to parse or update routing rules configuration form path : " + rulesConfigPath, e);
         }
         return updatedRoutingRulesBuilder.build();
     }
+
+    private static List<RoutingRule> parseRoutingRules(String content)
+    {
+        YAMLFactory yamlFactory = new YAMLFactory();
+        ObjectMapper yamlReader = new ObjectMapper(yamlFactory);
+        ImmutableList.Builder<RoutingRule> routingRulesBuilder = ImmutableList.builder();
+        try {
+            YAMLParser parser = yamlFactory.createParser(content);
+            while (parser.nextToken() != null) {
+                RoutingRule routingRule = yamlReader.readValue(parser, RoutingRule.class);
+                routingRulesBuilder.add(routingRule);
+            }
+            return routingRulesBuilder.build();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,271 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.hash.HashCode;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static com.google.common.hash.Hashing.sha256;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Keeps the routing rules parsed from a file up to date. Changes are detected by watching the
+ * directory of the file, and by comparing the checksum of the file on every check interval in
+ * case the file system does not report changes, such as for mounted volumes. New rules are parsed
+ * on the reloader thread and published at once. When parsing fails, the previous rules are kept.
+ */
+public class RoutingRulesReloader<T>
+{
+    private static final Logger log = Logger.get(RoutingRulesReloader.class);
+    // Editors and config map updates touch the directory several times for a single change
+    private static final long WATCH_DEBOUNCE_MILLIS = 100;
+
+    private final Path rulesPath;
+    private final Function<String, T> parser;
+    private final Optional<ScheduledExecutorService> reloadExecutor;
+    private final Optional<ExecutorService> watchExecutor;
+    private final AtomicBoolean reloadScheduled = new AtomicBoolean();
+    private final CounterStat reloads = new CounterStat();
+    private final CounterStat reloadFailures = new CounterStat();
+    private final TimeStat reloadTime = new TimeStat(MILLISECONDS);
+
+    private volatile LoadedRules<T> loadedRules;
+    private volatile Optional<HashCode> failedChecksum = Optional.empty();
+    private volatile Optional<Exception> lastFailure = Optional.empty();
+    private volatile WatchService watchService;
+
+    /**
+     * @param checkInterval how often the checksum of the file is compared. When present, the rules
+     * are loaded in the background right away. When empty, the rules are only loaded on the first
+     * call to {@link #get()} and on calls to {@link #reload()}.
+     */
+    public RoutingRulesReloader(Path rulesPath, Function<String, T> parser, Optional<Duration> checkInterval)
+    {
+        this.rulesPath = requireNonNull(rulesPath, "rulesPath is null");
+        this.parser = requireNonNull(parser, "parser is null");
+        reloadExecutor = requireNonNull(checkInterval, "checkInterval is null").map(interval -> {
+            ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("routing-rules-reload"));
+            long intervalMillis = interval.toMillis();
+            executor.scheduleWithFixedDelay(this::reloadQuietly, 0, intervalMillis, MILLISECONDS);
+            return executor;
+        });
+        watchExecutor = reloadExecutor.map(executor -> newSingleThreadExecutor(daemonThreadsNamed("routing-rules-watch")));
+        watchExecutor.ifPresent(this::watch);
+    }
+
+    public void stop()
+    {
+        reloadExecutor.ifPresent(ScheduledExecutorService::shutdownNow);
+        watchExecutor.ifPresent(ExecutorService::shutdownNow);
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                log.warn(e, "Failed to stop watching %s", rulesPath);
+            }
+        }
+    }
+
+    /**
+     * Returns the last rules that were loaded successfully, loading them if that did not happen yet.
+     */
+    public T get()
+    {
+        LoadedRules<T> rules = loadedRules;
+        if (rules == null) {
+            reloadQuietly();
+            rules = loadedRules;
+            if (rules == null) {
+                throw new RuntimeException("Failed to read or parse routing rules configuration from path: " + rulesPath, lastFailure.orElse(null));
+            }
+        }
+        return rules.rules();
+    }
+
+    /**
+     * Loads the rules if the content of the file changed since they were last loaded. Returns
+     * whether new rules were published.
+     */
+    public synchronized boolean reload()
+            throws IOException
+    {
+        long start = System.nanoTime();
+        byte[] content;
+        try {
+            content = Files.readAllBytes(rulesPath);
+        }
+        catch (IOException e) {
+            reloadFailures.update(1);
+            lastFailure = Optional.of(e);
+            throw e;
+        }
+        HashCode checksum = sha256().hashBytes(content);
+        LoadedRules<T> current = loadedRules;
+        if (current != null && current.checksum().equals(checksum)) {
+            // The file may have been reverted to the loaded rules after a failed edit
+            failedChecksum = Optional.empty();
+            lastFailure = Optional.empty();
+            return false;
+        }
+        if (failedChecksum.equals(Optional.of(checksum))) {
+            return false;
+        }
+
+        T rules;
+        try {
+            rules = requireNonNull(parser.apply(new String(content, UTF_8)), "parsed rules are null");
+        }
+        catch (RuntimeException e) {
+            reloadFailures.update(1);
+            failedChecksum = Optional.of(checksum);
+            lastFailure = Optional.of(e);
+            throw e;
+        }
+        loadedRules = new LoadedRules<>(rules, checksum);
+        failedChecksum = Optional.empty();
+        lastFailure = Optional.empty();
+        reloads.update(1);
+        reloadTime.add(System.nanoTime() - start, NANOSECONDS);
+        log.info("Loaded routing rules from %s", rulesPath);
+        return true;
+    }
+
+    private void reloadQuietly()
+    {
+        try {
+            reload();
+        }
+        catch (IOException | RuntimeException e) {
+            if (loadedRules == null) {
+                log.error(e, "Failed to load routing rules from %s", rulesPath);
+            }
+            else {
+                log.error(e, "Failed to reload routing rules from %s, keeping the previous rules", rulesPath);
+            }
+        }
+    }
+
+    private void watch(ExecutorService executor)
+    {
+        Path directory = rulesPath.toAbsolutePath().getParent();
+        try {
+            WatchService watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            this.watchService = watchService;
+            executor.execute(() -> watchLoop(watchService));
+        }
+        catch (IOException | RuntimeException e) {
+            log.warn(e, "Failed to watch %s for routing rules changes, relying on the periodic check", directory);
+        }
+    }
+
+    private void watchLoop(WatchService watchService)
+    {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // Any change in the directory may concern the rules, for example when a symbolic link to them is swapped,
+                // an unchanged checksum makes the reload cheap
+                if (!key.pollEvents().isEmpty()) {
+                    scheduleReload();
+                }
+                if (!key.reset()) {
+                    log.warn("Stopped watching %s for routing rules changes, relying on the periodic check", rulesPath);
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e) {
+            // the reloader is stopped
+        }
+    }
+
+    private void scheduleReload()
+    {
+        ScheduledExecutorService executor = reloadExecutor.orElseThrow();
+        if (reloadScheduled.compareAndSet(false, true)) {
+            executor.schedule(() -> {
+                reloadScheduled.set(false);
+                reloadQuietly();
+            }, WATCH_DEBOUNCE_MILLIS, MILLISECONDS);
+        }
+    }
+
+    @Managed
+    public boolean isLastReloadFailed()
+    {
+        return lastFailure.isPresent();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getReloads()
+    {
+        return reloads;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getReloadFailures()
+    {
+        return reloadFailures;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getReloadTime()
+    {
+        return reloadTime;
+    }
+
+    private record LoadedRules<T>(T rules, HashCode checksum)
+    {
+        LoadedRules
+        {
+            requireNonNull(rules, "rules is null");
+            requireNonNull(checksum, "checksum is null");
+        }
+    }
+}
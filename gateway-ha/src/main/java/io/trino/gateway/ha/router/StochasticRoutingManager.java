@@ -14,7 +14,11 @@
 package io.trino.gateway.ha.router;
 
 import com.google.common.base.Strings;
+import io.airlift.http.client.HttpClient;
 import io.airlift.log.Logger;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+
+import java.util.Optional;
 
 public class StochasticRoutingManager
         extends RoutingManager
@@ -23,9 +27,13 @@ public class StochasticRoutingManager
     private final QueryHistoryManager queryHistoryManager;
 
     public StochasticRoutingManager(
-            GatewayBackendManager gatewayBackendManager, QueryHistoryManager queryHistoryManager)
+            GatewayBackendManager gatewayBackendManager,
+            QueryHistoryManager queryHistoryManager,
+            Optional<CoordinatorBackendRegistry> coordinatorBackendRegistry,
+            HttpClient httpClient,
+            RoutingConfiguration routingConfiguration)
     {
-        super(gatewayBackendManager, queryHistoryManager);
+        super(gatewayBackendManager, queryHistoryManager, coordinatorBackendRegistry, httpClient, routingConfiguration);
         this.queryHistoryManager = queryHistoryManager;
     }
 
@@ -26,6 +26,7 @@ import com.google.common.collect.ImmutableSet;
 import io.airlift.compress.v3.zstd.ZstdDecompressor;
 import io.airlift.json.JsonCodec;
 import io.airlift.log.Logger;
+import io.trino.gateway.ha.handler.RequestBody;
 import io.trino.sql.parser.ParsingException;
 import io.trino.sql.parser.SqlParser;
 import io.trino.sql.tree.AddColumn;
@@ -108,6 +109,9 @@ public class TrinoQueryProperties
     private Optional<String> queryId = Optional.empty();
     private final ZstdDecompressor decompressor = ZstdDecompressor.create();
 
+    private static final int INITIAL_BODY_CAPACITY = 1024;
+    private static final ThreadLocal<char[]> READ_BUFFER = ThreadLocal.withInitial(() -> new char[8192]);
+
     public static final String TRINO_CATALOG_HEADER_NAME = "X-Trino-Catalog";
     public static final String TRINO_SCHEMA_HEADER_NAME = "X-Trino-Schema";
     public static final String TRINO_PREPARED_STATEMENT_HEADER_NAME = "X-Trino-Prepared-Statement";
@@ -158,26 +162,15 @@ public class TrinoQueryProperties
 
     private void processRequestBody(HttpServletRequest request)
     {
-        try (BufferedReader reader = request.getReader()) {
-            if (reader == null) {
-                log.warn("HTTP request returned null reader");
-                body = "";
+        try {
+            Optional<String> queryText = readRequestBody(request);
+            if (queryText.isEmpty()) {
                 return;
             }
+            body = queryText.get();
 
             Map<String, String> preparedStatements = getPreparedStatements(request);
             SqlParser parser = new SqlParser();
-            reader.mark(maxBodySize);
-            char[] buffer = new char[maxBodySize];
-            int nChars = reader.read(buffer, 0, maxBodySize);
-            reader.reset();
-            if (nChars == maxBodySize) {
-                log.warn("Query length greater or equal to requestAnalyzerConfig.maxBodySize detected");
-                return;
-                //The body is truncated - there is a chance that it could still be syntactically valid SQL, for example if truncated on
-                //whitespace preceding a UNION. Exit out of caution
-            }
-            body = String.valueOf(buffer, 0, nChars);
 
             if (isClientsUseV2Format) {
                 try {
@@ -238,6 +231,48 @@ public class TrinoQueryProperties
         }
     }
 
+    private Optional<String> readRequestBody(HttpServletRequest request)
+            throws IOException
+    {
+        Optional<RequestBody> sharedBody = RequestBody.fromRequest(request);
+        if (sharedBody.isPresent()) {
+            // a UTF-8 body shorter than maxBodySize bytes is also shorter than maxBodySize chars,
+            // so only longer bodies need to be decoded up to the limit to check their length
+            RequestBody requestBody = sharedBody.get();
+            if (requestBody.length() >= maxBodySize && requestBody.textPrefix(maxBodySize).length() == maxBodySize) {
+                log.warn("Query length greater or equal to requestAnalyzerConfig.maxBodySize detected");
+                return Optional.empty();
+            }
+            return Optional.of(requestBody.text());
+        }
+
+        try (BufferedReader reader = request.getReader()) {
+            if (reader == null) {
+                log.warn("HTTP request returned null reader");
+                return Optional.empty();
+            }
+            int contentLength = request.getContentLength();
+            StringBuilder builder = new StringBuilder(contentLength > 0 ? Math.min(contentLength, maxBodySize) : INITIAL_BODY_CAPACITY);
+            char[] buffer = READ_BUFFER.get();
+            int remaining = maxBodySize;
+            while (remaining > 0) {
+                int nChars = reader.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (nChars < 0) {
+                    break;
+                }
+                builder.append(buffer, 0, nChars);
+                remaining -= nChars;
+            }
+            if (remaining == 0) {
+                log.warn("Query length greater or equal to requestAnalyzerConfig.maxBodySize detected");
+                return Optional.empty();
+                //The body is truncated - there is a chance that it could still be syntactically valid SQL, for example if truncated on
+                //whitespace preceding a UNION. Exit out of caution
+            }
+            return Optional.of(builder.toString());
+        }
+    }
+
     private Map<String, String> getPreparedStatements(HttpServletRequest request)
             throws RequestParsingException
     {
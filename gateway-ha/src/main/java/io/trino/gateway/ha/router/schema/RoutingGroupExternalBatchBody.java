@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router.schema;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @param requests the routing lookups of the batch, each with the request fields declared in the
+ * configuration and the request headers
+ */
+public record RoutingGroupExternalBatchBody(List<Map<String, Object>> requests)
+{
+    public RoutingGroupExternalBatchBody
+    {
+        requests = ImmutableList.copyOf(requireNonNull(requests, "requests is null"));
+    }
+}
@@ -13,6 +13,18 @@
  */
 package io.trino.gateway.ha.router.schema;
 
+import io.airlift.units.Duration;
+
 import java.util.List;
 
-public record RoutingGroupExternalResponse(String routingGroup, List<String> errors) {}
+/**
+ * @param cacheTtl how long the gateway may reuse the decision for requests with the same cache key,
+ * the configured cache TTL applies when absent
+ */
+public record RoutingGroupExternalResponse(String routingGroup, List<String> errors, Duration cacheTtl)
+{
+    public RoutingGroupExternalResponse(String routingGroup, List<String> errors)
+    {
+        this(routingGroup, errors, null);
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoClusterStatsObserver;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.AdmissionConfiguration;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.router.RequestAnalysisContext;
+import io.trino.gateway.ha.router.TrinoRequestUser;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Futures.withTimeout;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.time.ZoneOffset.UTC;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Holds query submissions in the gateway while every healthy cluster of their routing group has
+ * at least {@code maxQueuedQueriesPerCluster} queued queries. Held queries are admitted when the
+ * cluster stats show free capacity again, in weighted fair-share order of their users: the next
+ * query admitted belongs to the user with the fewest queued queries in the routing group, counting
+ * both the queued queries reported by the clusters and the queries admitted since the last stats
+ * refresh, divided by the weight of the user. Ties go to the user whose query has waited longest.
+ *
+ * <p>Submissions that pass straight through use up the free capacity of the last stats refresh,
+ * so that a burst of submissions between two refreshes cannot exceed it.
+ *
+ * <p>Held queries live in the memory of the gateway instance that received the submission, so
+ * clients must keep polling the same instance until the query is admitted.
+ */
+public class AdmissionController
+        implements TrinoClusterStatsObserver
+{
+    private static final Logger log = Logger.get(AdmissionController.class);
+    private static final DateTimeFormatter QUERY_ID_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").withZone(UTC);
+    private static final String INSTANCE_ID_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int SLUG_BYTES = 16;
+
+    private final boolean enabled;
+    private final List<String> statementPaths;
+    private final int maxQueuedQueriesPerCluster;
+    private final int maxHeldQueries;
+    private final int maxHeldQueriesPerUser;
+    private final long maxWaitNanos;
+    private final Duration pollWait;
+    private final Map<String, Integer> userWeights;
+    private final RequestAnalyzerConfig requestAnalyzerConfig;
+    private final TrinoRequestUser.TrinoRequestUserProvider trinoRequestUserProvider;
+    private final Ticker ticker;
+    private final SecureRandom random = new SecureRandom();
+    private final String instanceId;
+    private final AtomicInteger queryCounter = new AtomicInteger();
+    private final ScheduledExecutorService pollTimeoutExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("admission-poll-timeout"));
+    // held queries, and admitted queries until the client picks them up
+    private final Map<String, HeldQuery> queries = new ConcurrentHashMap<>();
+    @GuardedBy("this")
+    private final Map<String, GroupQueue> groupQueues = new HashMap<>();
+    @GuardedBy("this")
+    private Map<String, GroupCapacity> groupCapacities = ImmutableMap.of();
+    private final CounterStat heldQueries = new CounterStat();
+    private final CounterStat admittedQueries = new CounterStat();
+    private final CounterStat rejectedQueries = new CounterStat();
+    private final TimeStat waitTime = new TimeStat(MILLISECONDS);
+
+    @Inject
+    public AdmissionController(HaGatewayConfiguration haGatewayConfiguration)
+    {
+        this(haGatewayConfiguration.getAdmissionConfiguration(),
+                haGatewayConfiguration.getStatementPaths(),
+                haGatewayConfiguration.getRequestAnalyzerConfig(),
+                Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    AdmissionController(AdmissionConfiguration configuration, List<String> statementPaths, RequestAnalyzerConfig requestAnalyzerConfig, Ticker ticker)
+    {
+        checkArgument(configuration.getMaxQueuedQueriesPerCluster() > 0, "maxQueuedQueriesPerCluster must be positive");
+        checkArgument(configuration.getMaxHeldQueries() > 0, "maxHeldQueries must be positive");
+        checkArgument(configuration.getMaxHeldQueriesPerUser() > 0, "maxHeldQueriesPerUser must be positive");
+        configuration.getUserWeights().forEach((user, weight) -> checkArgument(weight > 0, "weight of user %s must be positive", user));
+        enabled = configuration.isEnabled();
+        this.statementPaths = ImmutableList.copyOf(requireNonNull(statementPaths, "statementPaths is null"));
+        maxQueuedQueriesPerCluster = configuration.getMaxQueuedQueriesPerCluster();
+        maxHeldQueries = configuration.getMaxHeldQueries();
+        maxHeldQueriesPerUser = configuration.getMaxHeldQueriesPerUser();
+        maxWaitNanos = configuration.getMaxWait().roundTo(NANOSECONDS);
+        pollWait = requireNonNull(configuration.getPollWait(), "pollWait is null");
+        userWeights = ImmutableMap.copyOf(configuration.getUserWeights());
+        this.requestAnalyzerConfig = requireNonNull(requestAnalyzerConfig, "requestAnalyzerConfig is null");
+        trinoRequestUserProvider = new TrinoRequestUser.TrinoRequestUserProvider(requestAnalyzerConfig);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        StringBuilder instanceId = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            instanceId.append(INSTANCE_ID_CHARACTERS.charAt(random.nextInt(INSTANCE_ID_CHARACTERS.length())));
+        }
+        this.instanceId = instanceId.toString();
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        pollTimeoutExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns whether a POST request to the path is a query submission subject to admission control.
+     */
+    public boolean isSubmission(String requestUri)
+    {
+        return enabled && statementPaths.stream().anyMatch(requestUri::startsWith);
+    }
+
+    /**
+     * Holds the submission of the request, with the user resolved like for routing and rate limits.
+     *
+     * @see #hold(String, String, HeldQuery.Submission)
+     */
+    public Optional<HeldQuery> hold(String routingGroup, HttpServletRequest request, HeldQuery.Submission submission)
+    {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String user = RequestAnalysisContext.forRequest(request, requestAnalyzerConfig)
+                .getTrinoRequestUser(trinoRequestUserProvider)
+                .getUser()
+                .orElse(null);
+        return hold(routingGroup, user, submission);
+    }
+
+    /**
+     * Holds the submission if its routing group has no capacity left, or if other queries of the
+     * routing group are already held. Returns an empty result if the query can be sent to a backend
+     * right away, in which case it takes up one query of the capacity, and otherwise a held query,
+     * which is already rejected if too many queries are held.
+     */
+    public Optional<HeldQuery> hold(String routingGroup, String user, HeldQuery.Submission submission)
+    {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String queueUser = user == null ? "" : user;
+        HeldQuery query;
+        synchronized (this) {
+            GroupQueue queue = groupQueues.get(routingGroup);
+            if ((queue == null || queue.isEmpty()) && tryTakeCapacity(routingGroup)) {
+                return Optional.empty();
+            }
+            long now = ticker.read();
+            query = new HeldQuery(nextQueryId(), nextSlug(), routingGroup, queueUser, submission, now);
+            if (queries.size() >= maxHeldQueries || (queue != null && queue.size(queueUser) >= maxHeldQueriesPerUser)) {
+                query.reject(HeldQuery.Rejection.QUEUE_FULL, now);
+                rejectedQueries.update(1);
+                return Optional.of(query);
+            }
+            groupQueues.computeIfAbsent(routingGroup, group -> new GroupQueue()).add(query);
+            queries.put(query.getQueryId(), query);
+        }
+        heldQueries.update(1);
+        return Optional.of(query);
+    }
+
+    /**
+     * Returns the query with the id, if the slug matches. The slug is only known to the client that
+     * submitted the query, so that other clients cannot pick up or cancel the query.
+     */
+    public Optional<HeldQuery> getQuery(String queryId, String slug)
+    {
+        HeldQuery query = queries.get(queryId);
+        if (query == null || !query.getSlug().equals(slug)) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            expire(query, ticker.read());
+        }
+        if (query.getState() == HeldQuery.State.REJECTED) {
+            // the failure is only returned once
+            queries.remove(queryId, query);
+        }
+        return Optional.of(query);
+    }
+
+    /**
+     * Returns a future completed when the query is resolved, or after the poll wait.
+     */
+    public ListenableFuture<HeldQuery.State> awaitResolution(HeldQuery query)
+    {
+        return withTimeout(query.whenResolved(), pollWait.toMillis(), MILLISECONDS, pollTimeoutExecutor);
+    }
+
+    /**
+     * Removes an admitted query, so that only one request sends it to a backend.
+     */
+    public boolean claim(HeldQuery query)
+    {
+        return query.getState() == HeldQuery.State.ADMITTED && queries.remove(query.getQueryId(), query);
+    }
+
+    public synchronized void cancel(HeldQuery query)
+    {
+        queries.remove(query.getQueryId(), query);
+        GroupQueue queue = groupQueues.get(query.getRoutingGroup());
+        if (queue != null) {
+            queue.remove(query);
+        }
+    }
+
+    public long getQueuedMillis(HeldQuery query)
+    {
+        return NANOSECONDS.toMillis(ticker.read() - query.getCreatedNanos());
+    }
+
+    @Override
+    public void observe(List<ClusterStats> stats)
+    {
+        if (!enabled) {
+            return;
+        }
+        Map<String, GroupCapacity> capacities = new HashMap<>();
+        for (ClusterStats cluster : stats) {
+            if (cluster.trinoStatus() != TrinoStatus.HEALTHY || cluster.routingGroup() == null) {
+                continue;
+            }
+            capacities.computeIfAbsent(cluster.routingGroup(), group -> new GroupCapacity())
+                    .add(Math.max(0, maxQueuedQueriesPerCluster - cluster.queuedQueryCount()), cluster.userQueuedCount());
+        }
+        synchronized (this) {
+            groupCapacities = ImmutableMap.copyOf(capacities);
+            long now = ticker.read();
+            // admitted and rejected queries the client did not pick up
+            queries.values().removeIf(query -> query.getState() != HeldQuery.State.HELD && now - query.getResolvedNanos() > maxWaitNanos);
+            Iterator<Map.Entry<String, GroupQueue>> iterator = groupQueues.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, GroupQueue> entry = iterator.next();
+                GroupQueue queue = entry.getValue();
+                for (HeldQuery query : queue.all()) {
+                    expire(query, now);
+                }
+                // a routing group without healthy clusters has no capacity to wait for, the router falls back to the adhoc group
+                GroupCapacity capacity = groupCapacities.getOrDefault(entry.getKey(), GroupCapacity.UNKNOWN);
+                queue.resetAdmitted();
+                while (!queue.isEmpty() && tryTakeCapacity(entry.getKey())) {
+                    HeldQuery query = queue.pollFairShare(capacity, this::weight);
+                    admit(query, now);
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes one query of the capacity of the routing group left since the last stats refresh.
+     * Routing groups without stats are never saturated.
+     */
+    @GuardedBy("this")
+    private boolean tryTakeCapacity(String routingGroup)
+    {
+        GroupCapacity capacity = groupCapacities.get(routingGroup);
+        if (capacity == null) {
+            return true;
+        }
+        if (capacity.remaining == 0) {
+            return false;
+        }
+        capacity.remaining--;
+        return true;
+    }
+
+    @GuardedBy("this")
+    private void admit(HeldQuery query, long now)
+    {
+        if (query.admit(now)) {
+            admittedQueries.update(1);
+            waitTime.add(now - query.getCreatedNanos(), NANOSECONDS);
+        }
+    }
+
+    @GuardedBy("this")
+    private void expire(HeldQuery query, long now)
+    {
+        if (query.getState() != HeldQuery.State.HELD || now - query.getCreatedNanos() <= maxWaitNanos) {
+            return;
+        }
+        if (query.reject(HeldQuery.Rejection.MAX_WAIT_EXCEEDED, now)) {
+            log.debug("Query %s of user %s waited too long for routing group %s", query.getQueryId(), query.getUser(), query.getRoutingGroup());
+            rejectedQueries.update(1);
+        }
+        // the client receives the failure on its next poll
+        GroupQueue queue = groupQueues.get(query.getRoutingGroup());
+        if (queue != null) {
+            queue.remove(query);
+        }
+    }
+
+    private int weight(String user)
+    {
+        return userWeights.getOrDefault(user, 1);
+    }
+
+    private String nextQueryId()
+    {
+        return "%s_%05d_%s".formatted(QUERY_ID_TIMESTAMP.format(Instant.now()), Math.floorMod(queryCounter.getAndIncrement(), 100_000), instanceId);
+    }
+
+    private String nextSlug()
+    {
+        byte[] slug = new byte[SLUG_BYTES];
+        random.nextBytes(slug);
+        return HexFormat.of().formatHex(slug);
+    }
+
+    @Managed
+    public int getCurrentlyHeldQueries()
+    {
+        return queries.size();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHeldQueries()
+    {
+        return heldQueries;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getAdmittedQueries()
+    {
+        return admittedQueries;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejectedQueries()
+    {
+        return rejectedQueries;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getWaitTime()
+    {
+        return waitTime;
+    }
+
+    private static class GroupCapacity
+    {
+        private static final GroupCapacity UNKNOWN = new GroupCapacity();
+
+        // the headroom reported by the clusters, less the queries sent to them since
+        private int remaining;
+        private final Map<String, Integer> userQueuedCount = new HashMap<>();
+
+        private void add(int clusterHeadroom, Map<String, Integer> clusterUserQueuedCount)
+        {
+            remaining += clusterHeadroom;
+            if (clusterUserQueuedCount != null) {
+                clusterUserQueuedCount.forEach((user, count) -> userQueuedCount.merge(user, count, Integer::sum));
+            }
+        }
+
+        private int queued(String user)
+        {
+            return userQueuedCount.getOrDefault(user, 0);
+        }
+    }
+
+    /**
+     * The held queries of a routing group, in arrival order per user.
+     */
+    private static class GroupQueue
+    {
+        private final Map<String, ArrayDeque<HeldQuery>> userQueues = new LinkedHashMap<>();
+        // queries admitted since the last stats refresh, which the cluster stats do not include yet
+        private final Map<String, Integer> admitted = new HashMap<>();
+
+        private void add(HeldQuery query)
+        {
+            userQueues.computeIfAbsent(query.getUser(), user -> new ArrayDeque<>()).add(query);
+        }
+
+        private void remove(HeldQuery query)
+        {
+            ArrayDeque<HeldQuery> userQueue = userQueues.get(query.getUser());
+            if (userQueue != null && userQueue.remove(query) && userQueue.isEmpty()) {
+                userQueues.remove(query.getUser());
+            }
+        }
+
+        private boolean isEmpty()
+        {
+            return userQueues.isEmpty();
+        }
+
+        private int size(String user)
+        {
+            ArrayDeque<HeldQuery> userQueue = userQueues.get(user);
+            return userQueue == null ? 0 : userQueue.size();
+        }
+
+        private List<HeldQuery> all()
+        {
+            List<HeldQuery> all = new ArrayList<>();
+            userQueues.values().forEach(all::addAll);
+            return all;
+        }
+
+        private void resetAdmitted()
+        {
+            admitted.clear();
+        }
+
+        private HeldQuery pollFairShare(GroupCapacity capacity, ToIntFunction<String> weight)
+        {
+            String selected = null;
+            double selectedShare = Double.MAX_VALUE;
+            long selectedCreated = 0;
+            for (Map.Entry<String, ArrayDeque<HeldQuery>> entry : userQueues.entrySet()) {
+                String user = entry.getKey();
+                double share = (capacity.queued(user) + admitted.getOrDefault(user, 0)) / (double) weight.applyAsInt(user);
+                long created = entry.getValue().getFirst().getCreatedNanos();
+                if (selected == null || share < selectedShare || (share == selectedShare && created - selectedCreated < 0)) {
+                    selected = user;
+                    selectedShare = share;
+                    selectedCreated = created;
+                }
+            }
+            ArrayDeque<HeldQuery> userQueue = userQueues.get(selected);
+            HeldQuery query = userQueue.removeFirst();
+            if (userQueue.isEmpty()) {
+                userQueues.remove(selected);
+            }
+            admitted.merge(selected, 1, Integer::sum);
+            return query;
+        }
+    }
+}
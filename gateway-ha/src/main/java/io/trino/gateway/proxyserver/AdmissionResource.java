@@ -0,0 +1,313 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.trino.gateway.ha.handler.RoutingDestination;
+import io.trino.gateway.ha.handler.RoutingTargetHandler;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.Response;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.HttpHeaders.HOST;
+import static com.google.common.net.HttpHeaders.X_FORWARDED_HOST;
+import static com.google.common.net.HttpHeaders.X_FORWARDED_PROTO;
+import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN;
+import static jakarta.ws.rs.core.Response.Status.NOT_FOUND;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Serves the {@code nextUri} of queries held by the {@link AdmissionController}. Clients poll held
+ * queries like queued Trino queries, and each poll waits up to the poll wait for the query to be
+ * admitted. The poll that finds the query admitted sends the original submission to a cluster of
+ * the routing group, and returns the response of the cluster, so that the client continues with
+ * the {@code nextUri} of the cluster.
+ */
+@Path(AdmissionResource.PATH)
+public class AdmissionResource
+{
+    public static final String PATH = "/trino-gateway/admission";
+
+    private static final Logger log = Logger.get(AdmissionResource.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final AdmissionController admissionController;
+    private final RoutingTargetHandler routingTargetHandler;
+    private final ProxyRequestHandler proxyRequestHandler;
+    private final Executor executor;
+
+    @Inject
+    public AdmissionResource(
+            AdmissionController admissionController,
+            RoutingTargetHandler routingTargetHandler,
+            ProxyRequestHandler proxyRequestHandler,
+            ProxyLanes proxyLanes)
+    {
+        this.admissionController = requireNonNull(admissionController);
+        this.routingTargetHandler = requireNonNull(routingTargetHandler);
+        this.proxyRequestHandler = requireNonNull(proxyRequestHandler);
+        this.executor = proxyLanes.select(true, HttpMethod.POST).getExecutor();
+    }
+
+    @GET
+    @Path("{queryId}/{slug}")
+    public void getQuery(
+            @PathParam("queryId") String queryId,
+            @PathParam("slug") String slug,
+            @Context HttpServletRequest servletRequest,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        Optional<HeldQuery> query = admissionController.getQuery(queryId, slug);
+        if (query.isEmpty()) {
+            asyncResponse.resume(queryNotFound());
+            return;
+        }
+        admissionController.awaitResolution(query.get())
+                .addListener(() -> respond(query.get(), servletRequest, asyncResponse), executor);
+    }
+
+    @DELETE
+    @Path("{queryId}/{slug}")
+    public Response cancelQuery(
+            @PathParam("queryId") String queryId,
+            @PathParam("slug") String slug)
+    {
+        Optional<HeldQuery> query = admissionController.getQuery(queryId, slug);
+        if (query.isEmpty()) {
+            return queryNotFound();
+        }
+        admissionController.cancel(query.get());
+        return Response.noContent().build();
+    }
+
+    private void respond(HeldQuery query, HttpServletRequest servletRequest, AsyncResponse asyncResponse)
+    {
+        try {
+            if (query.getState() != HeldQuery.State.ADMITTED) {
+                asyncResponse.resume(queryResultsResponse(admissionController, query, servletRequest));
+                return;
+            }
+            if (!admissionController.claim(query)) {
+                asyncResponse.resume(queryNotFound());
+                return;
+            }
+            MultiReadHttpServletRequest submission = new MultiReadHttpServletRequest(
+                    new SubmissionRequest(servletRequest, query.getSubmission()),
+                    query.getSubmission().body());
+            RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(submission, query.getRoutingGroup());
+            proxyRequestHandler.postRequest(submission.getContent().bytes(), submission, asyncResponse, routingDestination);
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Failed to submit admitted query %s", query.getQueryId());
+            asyncResponse.resume(e);
+        }
+    }
+
+    /**
+     * Returns the response to the submission or a poll of a held query, in the format of Trino
+     * query results: a queued query with a {@code nextUri} while the query is held, and a failed
+     * query if it was rejected.
+     */
+    static Response queryResultsResponse(AdmissionController admissionController, HeldQuery query, HttpServletRequest servletRequest)
+    {
+        String results = queryResults(query, baseUri(servletRequest), admissionController.getQueuedMillis(query));
+        return Response.ok(results, APPLICATION_JSON).build();
+    }
+
+    @VisibleForTesting
+    static String queryResults(HeldQuery query, URI baseUri, long queuedMillis)
+    {
+        boolean rejected = query.getState() == HeldQuery.State.REJECTED;
+        ImmutableMap.Builder<String, Object> stats = ImmutableMap.<String, Object>builder()
+                .put("state", rejected ? "FAILED" : "QUEUED")
+                .put("queued", !rejected)
+                .put("scheduled", false)
+                .put("progressPercentage", 0.0)
+                .put("runningPercentage", 0.0)
+                .put("nodes", 0)
+                .put("totalSplits", 0)
+                .put("queuedSplits", 0)
+                .put("runningSplits", 0)
+                .put("completedSplits", 0)
+                .put("cpuTimeMillis", 0)
+                .put("wallTimeMillis", 0)
+                .put("queuedTimeMillis", queuedMillis)
+                .put("elapsedTimeMillis", queuedMillis)
+                .put("processedRows", 0)
+                .put("processedBytes", 0)
+                .put("physicalInputBytes", 0)
+                .put("physicalWrittenBytes", 0)
+                .put("peakMemoryBytes", 0)
+                .put("spilledBytes", 0);
+        ImmutableMap.Builder<String, Object> results = ImmutableMap.<String, Object>builder()
+                .put("id", query.getQueryId())
+                .put("infoUri", baseUri.resolve("/").toString());
+        if (rejected) {
+            HeldQuery.Rejection rejection = query.getRejection().orElseThrow();
+            results.put("error", ImmutableMap.of(
+                    "message", rejection.getMessage(query.getRoutingGroup()),
+                    "errorCode", rejection.getErrorCode(),
+                    "errorName", rejection.getErrorName(),
+                    "errorType", "INSUFFICIENT_RESOURCES"));
+        }
+        else {
+            results.put("nextUri", baseUri.resolve(PATH + "/" + query.getQueryId() + "/" + query.getSlug()).toString());
+        }
+        results.put("stats", stats.buildOrThrow())
+                .put("warnings", ImmutableList.of());
+        try {
+            return OBJECT_MAPPER.writeValueAsString(results.buildOrThrow());
+        }
+        catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the URI of the gateway as seen by the client, which may be behind a load balancer.
+     */
+    private static URI baseUri(HttpServletRequest request)
+    {
+        String scheme = firstNonNull(request.getHeader(X_FORWARDED_PROTO), request.getScheme());
+        String host = request.getHeader(X_FORWARDED_HOST);
+        if (host == null) {
+            host = firstNonNull(request.getHeader(HOST), request.getServerName() + ":" + request.getServerPort());
+        }
+        return URI.create(scheme + "://" + host);
+    }
+
+    private static Response queryNotFound()
+    {
+        return Response.status(NOT_FOUND).type(TEXT_PLAIN).entity("Query not found").build();
+    }
+
+    /**
+     * A poll of an admitted query, presented as the original submission of the query.
+     */
+    private static class SubmissionRequest
+            extends HttpServletRequestWrapper
+    {
+        private final HeldQuery.Submission submission;
+
+        private SubmissionRequest(HttpServletRequest request, HeldQuery.Submission submission)
+        {
+            super(request);
+            this.submission = requireNonNull(submission, "submission is null");
+        }
+
+        @Override
+        public String getMethod()
+        {
+            return HttpMethod.POST;
+        }
+
+        @Override
+        public String getRequestURI()
+        {
+            return submission.requestUri();
+        }
+
+        @Override
+        public StringBuffer getRequestURL()
+        {
+            return new StringBuffer(getScheme() + "://" + getServerName() + ":" + getServerPort() + getRequestURI());
+        }
+
+        @Override
+        public String getQueryString()
+        {
+            return submission.queryString();
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            List<String> values = headerValues(name);
+            return values.isEmpty() ? null : values.getFirst();
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name)
+        {
+            return Collections.enumeration(headerValues(name));
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames()
+        {
+            return Collections.enumeration(submission.headers().keySet());
+        }
+
+        @Override
+        public int getIntHeader(String name)
+        {
+            String value = getHeader(name);
+            return value == null ? -1 : Integer.parseInt(value);
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return getHeader(CONTENT_TYPE);
+        }
+
+        @Override
+        public int getContentLength()
+        {
+            return getIntHeader(CONTENT_LENGTH);
+        }
+
+        @Override
+        public long getContentLengthLong()
+        {
+            return getContentLength();
+        }
+
+        private List<String> headerValues(String name)
+        {
+            for (String header : submission.headers().keySet()) {
+                if (header.equalsIgnoreCase(name)) {
+                    return submission.headers().get(header);
+                }
+            }
+            return ImmutableList.of();
+        }
+    }
+}
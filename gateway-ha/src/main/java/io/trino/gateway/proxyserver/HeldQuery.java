@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.trino.gateway.ha.handler.RequestBody;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Optional;
+
+import static com.google.common.util.concurrent.Futures.nonCancellationPropagating;
+import static java.util.Collections.list;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A query submission held by the {@link AdmissionController} until its routing group has capacity.
+ * The submission is kept as received, so that it can be sent to the backend unchanged once the
+ * query is admitted.
+ */
+public final class HeldQuery
+{
+    public enum State
+    {
+        HELD,
+        ADMITTED,
+        REJECTED,
+    }
+
+    public enum Rejection
+    {
+        QUEUE_FULL("QUERY_QUEUE_FULL", 0x0002_0002, "Too many queries are waiting for capacity in routing group %s"),
+        MAX_WAIT_EXCEEDED("EXCEEDED_TIME_LIMIT", 0x0002_0003, "Query exceeded the maximum time waiting for capacity in routing group %s");
+
+        private final String errorName;
+        private final int errorCode;
+        private final String messageFormat;
+
+        Rejection(String errorName, int errorCode, String messageFormat)
+        {
+            this.errorName = errorName;
+            this.errorCode = errorCode;
+            this.messageFormat = messageFormat;
+        }
+
+        public String getErrorName()
+        {
+            return errorName;
+        }
+
+        public int getErrorCode()
+        {
+            return errorCode;
+        }
+
+        public String getMessage(String routingGroup)
+        {
+            return messageFormat.formatted(routingGroup);
+        }
+    }
+
+    private final String queryId;
+    private final String slug;
+    private final String routingGroup;
+    private final String user;
+    private final Submission submission;
+    private final long createdNanos;
+    private final SettableFuture<State> resolved = SettableFuture.create();
+    private volatile State state = State.HELD;
+    private volatile Optional<Rejection> rejection = Optional.empty();
+    private volatile long resolvedNanos;
+
+    HeldQuery(String queryId, String slug, String routingGroup, String user, Submission submission, long createdNanos)
+    {
+        this.queryId = requireNonNull(queryId, "queryId is null");
+        this.slug = requireNonNull(slug, "slug is null");
+        this.routingGroup = requireNonNull(routingGroup, "routingGroup is null");
+        this.user = requireNonNull(user, "user is null");
+        this.submission = requireNonNull(submission, "submission is null");
+        this.createdNanos = createdNanos;
+    }
+
+    public String getQueryId()
+    {
+        return queryId;
+    }
+
+    public String getSlug()
+    {
+        return slug;
+    }
+
+    public String getRoutingGroup()
+    {
+        return routingGroup;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public Submission getSubmission()
+    {
+        return submission;
+    }
+
+    public long getCreatedNanos()
+    {
+        return createdNanos;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public Optional<Rejection> getRejection()
+    {
+        return rejection;
+    }
+
+    public long getResolvedNanos()
+    {
+        return resolvedNanos;
+    }
+
+    /**
+     * Returns a future completed when the query is admitted or rejected. Cancelling the returned
+     * future does not affect the query.
+     */
+    public ListenableFuture<State> whenResolved()
+    {
+        return nonCancellationPropagating(resolved);
+    }
+
+    boolean admit(long now)
+    {
+        return resolve(State.ADMITTED, Optional.empty(), now);
+    }
+
+    boolean reject(Rejection rejection, long now)
+    {
+        return resolve(State.REJECTED, Optional.of(rejection), now);
+    }
+
+    private synchronized boolean resolve(State newState, Optional<Rejection> newRejection, long now)
+    {
+        if (state != State.HELD) {
+            return false;
+        }
+        rejection = newRejection;
+        resolvedNanos = now;
+        state = newState;
+        resolved.set(newState);
+        return true;
+    }
+
+    /**
+     * The request line, headers and body of a query submission.
+     */
+    public record Submission(String requestUri, String queryString, ImmutableListMultimap<String, String> headers, RequestBody body)
+    {
+        public Submission
+        {
+            requireNonNull(requestUri, "requestUri is null");
+            requireNonNull(headers, "headers is null");
+            requireNonNull(body, "body is null");
+        }
+
+        public static Submission fromRequest(HttpServletRequest request, RequestBody body)
+        {
+            ImmutableListMultimap.Builder<String, String> headers = ImmutableListMultimap.builder();
+            for (String name : list(request.getHeaderNames())) {
+                headers.putAll(name, list(request.getHeaders(name)));
+            }
+            return new Submission(request.getRequestURI(), request.getQueryString(), headers.build(), body);
+        }
+    }
+}
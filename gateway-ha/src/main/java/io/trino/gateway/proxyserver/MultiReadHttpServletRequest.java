@@ -13,45 +13,58 @@
  */
 package io.trino.gateway.proxyserver;
 
+import io.trino.gateway.ha.handler.RequestBody;
 import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletRequestWrapper;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
+
+import static java.util.Objects.requireNonNull;
 
 public class MultiReadHttpServletRequest
         extends HttpServletRequestWrapper
 {
-    private final byte[] content;
+    private final RequestBody content;
 
-    public MultiReadHttpServletRequest(HttpServletRequest request, String body)
+    public MultiReadHttpServletRequest(HttpServletRequest request, RequestBody body)
     {
         super(request);
-        content = body.getBytes(StandardCharsets.UTF_8);
+        content = requireNonNull(body, "body is null");
+        request.setAttribute(RequestBody.ATTRIBUTE, content);
+    }
+
+    public RequestBody getContent()
+    {
+        return content;
     }
 
     @Override
     public ServletInputStream getInputStream()
             throws IOException
     {
-        final ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(content);
+        final InputStream inputStream = content.openStream();
         return new ServletInputStream()
         {
             @Override
             public boolean isFinished()
             {
-                return byteArrayInputStream.available() > 0;
+                try {
+                    return inputStream.available() == 0;
+                }
+                catch (IOException e) {
+                    return true;
+                }
             }
 
             @Override
             public boolean isReady()
             {
-                return false;
+                return true;
             }
 
             @Override
@@ -61,7 +74,14 @@ public class MultiReadHttpServletRequest
             public int read()
                     throws IOException
             {
-                return byteArrayInputStream.read();
+                return inputStream.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+                    throws IOException
+            {
+                return inputStream.read(buffer, offset, length);
             }
         };
     }
@@ -70,6 +90,6 @@ public class MultiReadHttpServletRequest
     public BufferedReader getReader()
             throws IOException
     {
-        return new BufferedReader(new StringReader(new String(content, StandardCharsets.UTF_8)));
+        return new BufferedReader(new StringReader(content.text()));
     }
 }
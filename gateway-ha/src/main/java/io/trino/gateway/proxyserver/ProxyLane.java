@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Admits a bounded number of proxied requests of one kind, and runs their response handling on
+ * a dedicated thread pool, so that a slow kind of request cannot exhaust the threads or the
+ * memory used by the others. The work queue is not bounded itself, since every admitted request
+ * submits a small, fixed number of tasks.
+ *
+ * <p>Streamed requests block a thread until the backend sent the response headers, which can take
+ * as long as a long poll, so they run on a separate pool that grows with the requests in flight
+ * instead. Since every such request holds a slot, the in-flight limit also bounds that pool.
+ */
+public class ProxyLane
+{
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor blockingExecutor;
+    private final CounterStat rejected = new CounterStat();
+    private final TimeStat latency = new TimeStat(MILLISECONDS);
+
+    public ProxyLane(String name, int maxInFlight, int threads)
+    {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        checkArgument(threads > 0, "threads must be positive");
+        this.maxInFlight = maxInFlight;
+        executor = new ThreadPoolExecutor(threads, threads, 1, MINUTES, new LinkedBlockingQueue<>(), daemonThreadsNamed("proxy-" + name + "-%s"));
+        executor.allowCoreThreadTimeOut(true);
+        blockingExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, MINUTES, new SynchronousQueue<>(), daemonThreadsNamed("proxy-" + name + "-blocking-%s"));
+    }
+
+    /**
+     * Admits a request, unless the maximum number of requests is already in flight. Every
+     * admitted request must be completed with {@link #release(long)}.
+     */
+    public boolean tryAcquire()
+    {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) {
+                rejected.update(1);
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long startNanos)
+    {
+        inFlight.decrementAndGet();
+        latency.addNanos(System.nanoTime() - startNanos);
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Returns the executor for tasks that block for the duration of an admitted request. Tasks must
+     * only be submitted while holding a slot.
+     */
+    public Executor getBlockingExecutor()
+    {
+        return blockingExecutor;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        blockingExecutor.shutdownNow();
+    }
+
+    @Managed
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @Managed
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    @Managed(description = "Tasks waiting for a thread of the lane")
+    public int getQueuedTasks()
+    {
+        return executor.getQueue().size();
+    }
+
+    @Managed
+    public int getActiveThreads()
+    {
+        return executor.getActiveCount();
+    }
+
+    @Managed(description = "Threads blocked on streamed requests")
+    public int getActiveBlockingThreads()
+    {
+        return blockingExecutor.getActiveCount();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejected()
+    {
+        return rejected;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getLatency()
+    {
+        return latency;
+    }
+}
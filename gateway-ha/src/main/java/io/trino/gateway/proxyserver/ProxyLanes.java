@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.inject.Inject;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.ProxyLaneConfiguration;
+import jakarta.annotation.PreDestroy;
+import jakarta.ws.rs.HttpMethod;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Separates proxied requests into query submissions, polls of running queries, and all other
+ * requests, such as the Trino UI and REST API. Polls are cheap and keep running queries alive, so
+ * they must not wait behind submissions, which are parsed and recorded in the query history.
+ */
+public class ProxyLanes
+{
+    private final ProxyLane submission;
+    private final ProxyLane poll;
+    private final ProxyLane api;
+    private final Duration retryAfter;
+
+    @Inject
+    public ProxyLanes(HaGatewayConfiguration haGatewayConfiguration)
+    {
+        this(haGatewayConfiguration.getProxyLaneConfiguration());
+    }
+
+    public ProxyLanes(ProxyLaneConfiguration configuration)
+    {
+        submission = new ProxyLane("submission", configuration.getSubmissionMaxInFlight(), configuration.getThreadsPerLane());
+        poll = new ProxyLane("poll", configuration.getPollMaxInFlight(), configuration.getThreadsPerLane());
+        api = new ProxyLane("api", configuration.getApiMaxInFlight(), configuration.getThreadsPerLane());
+        retryAfter = requireNonNull(configuration.getRetryAfter(), "retryAfter is null");
+    }
+
+    public ProxyLane select(boolean isStatementRequest, String method)
+    {
+        if (!isStatementRequest) {
+            return api;
+        }
+        return method.equals(HttpMethod.POST) ? submission : poll;
+    }
+
+    /**
+     * Returns the delay in seconds for the {@code Retry-After} header of rejected requests.
+     */
+    public long getRetryAfterSeconds()
+    {
+        return Math.max(1, (long) Math.ceil(retryAfter.getValue(SECONDS)));
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        submission.shutdown();
+        poll.shutdown();
+        api.shutdown();
+    }
+
+    @Managed
+    @Nested
+    public ProxyLane getSubmission()
+    {
+        return submission;
+    }
+
+    @Managed
+    @Nested
+    public ProxyLane getPoll()
+    {
+        return poll;
+    }
+
+    @Managed
+    @Nested
+    public ProxyLane getApi()
+    {
+        return api;
+    }
+}
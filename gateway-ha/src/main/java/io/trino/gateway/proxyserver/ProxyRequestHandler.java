@@ -14,73 +14,113 @@
 package io.trino.gateway.proxyserver;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Inject;
+import io.airlift.http.client.HeaderName;
 import io.airlift.http.client.HttpClient;
 import io.airlift.http.client.Request;
 import io.airlift.http.client.StaticBodyGenerator;
+import io.airlift.http.client.StreamingResponse;
 import io.airlift.log.Logger;
 import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.GatewayCookieConfigurationPropertiesProvider;
 import io.trino.gateway.ha.config.HaGatewayConfiguration;
 import io.trino.gateway.ha.config.ProxyResponseConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.handler.BackendToken;
+import io.trino.gateway.ha.handler.RequestBody;
 import io.trino.gateway.ha.handler.RoutingDestination;
+import io.trino.gateway.ha.router.BackendOutlierDetector;
 import io.trino.gateway.ha.router.GatewayCookie;
 import io.trino.gateway.ha.router.OAuth2GatewayCookie;
 import io.trino.gateway.ha.router.QueryHistoryManager;
+import io.trino.gateway.ha.router.RequestAnalysisContext;
 import io.trino.gateway.ha.router.RoutingManager;
 import io.trino.gateway.ha.router.TrinoRequestUser;
 import io.trino.gateway.proxyserver.ProxyResponseHandler.ProxyResponse;
-import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Nullable;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.HttpMethod;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
 import jakarta.ws.rs.core.NewCookie;
 import jakarta.ws.rs.core.Response;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
 import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.net.HttpHeaders.CONNECTION;
+import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.PROXY_AUTHENTICATE;
+import static com.google.common.net.HttpHeaders.PROXY_AUTHORIZATION;
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
+import static com.google.common.net.HttpHeaders.TE;
+import static com.google.common.net.HttpHeaders.TRAILER;
+import static com.google.common.net.HttpHeaders.TRANSFER_ENCODING;
+import static com.google.common.net.HttpHeaders.UPGRADE;
 import static com.google.common.net.HttpHeaders.VIA;
 import static com.google.common.net.HttpHeaders.X_FORWARDED_FOR;
 import static com.google.common.net.HttpHeaders.X_FORWARDED_HOST;
 import static com.google.common.net.HttpHeaders.X_FORWARDED_PORT;
 import static com.google.common.net.HttpHeaders.X_FORWARDED_PROTO;
+import static com.google.common.util.concurrent.Futures.getDone;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
-import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static io.airlift.http.client.Request.Builder.prepareDelete;
 import static io.airlift.http.client.Request.Builder.prepareGet;
 import static io.airlift.http.client.Request.Builder.preparePost;
 import static io.airlift.http.client.Request.Builder.preparePut;
 import static io.airlift.http.client.StaticBodyGenerator.createStaticBodyGenerator;
 import static io.airlift.jaxrs.AsyncResponseHandler.bindAsyncResponse;
+import static io.trino.gateway.ha.handler.HttpUtils.USER_HEADER;
 import static io.trino.gateway.ha.handler.ProxyUtils.QUERY_TEXT_LENGTH_FOR_HISTORY;
 import static io.trino.gateway.ha.handler.ProxyUtils.SOURCE_HEADER;
 import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN_TYPE;
 import static jakarta.ws.rs.core.Response.Status.BAD_GATEWAY;
 import static jakarta.ws.rs.core.Response.Status.OK;
+import static jakarta.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static java.lang.Math.toIntExact;
 import static java.lang.String.format;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.list;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class ProxyRequestHandler
 {
     private static final Logger log = Logger.get(ProxyRequestHandler.class);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    // responses to submissions that did not create a query, because the backend is not available
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = ImmutableSet.of(BAD_GATEWAY.getStatusCode(), SERVICE_UNAVAILABLE.getStatusCode());
+    // hop-by-hop and framing headers of the backend response, which do not apply to the streamed response
+    private static final Set<HeaderName> STREAMING_EXCLUDED_HEADERS = Stream.of(CONNECTION, "Keep-Alive", PROXY_AUTHENTICATE, PROXY_AUTHORIZATION, TE, TRAILER, TRANSFER_ENCODING, UPGRADE, CONTENT_LENGTH)
+            .map(HeaderName::of)
+            .collect(toImmutableSet());
 
     private final Duration asyncTimeout;
-    private final ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("proxy-%s"));
     private final HttpClient httpClient;
     private final RoutingManager routingManager;
     private final QueryHistoryManager queryHistoryManager;
@@ -88,32 +128,35 @@ public class ProxyRequestHandler
     private final boolean addXForwardedHeaders;
     private final List<String> statementPaths;
     private final boolean includeClusterInfoInResponse;
+    private final RequestAnalyzerConfig requestAnalyzerConfig;
     private final TrinoRequestUser.TrinoRequestUserProvider trinoRequestUserProvider;
     private final ProxyResponseConfiguration proxyResponseConfiguration;
+    private final Optional<BackendToken> backendToken;
+    private final ProxyLanes proxyLanes;
+    private final int submissionMaxAttempts;
 
     @Inject
     public ProxyRequestHandler(
             @ForProxy HttpClient httpClient,
             RoutingManager routingManager,
             QueryHistoryManager queryHistoryManager,
+            ProxyLanes proxyLanes,
             HaGatewayConfiguration haGatewayConfiguration)
     {
         this.httpClient = requireNonNull(httpClient, "httpClient is null");
         this.routingManager = requireNonNull(routingManager, "routingManager is null");
         this.queryHistoryManager = requireNonNull(queryHistoryManager, "queryHistoryManager is null");
-        trinoRequestUserProvider = new TrinoRequestUser.TrinoRequestUserProvider(haGatewayConfiguration.getRequestAnalyzerConfig());
+        this.proxyLanes = requireNonNull(proxyLanes, "proxyLanes is null");
+        requestAnalyzerConfig = haGatewayConfiguration.getRequestAnalyzerConfig();
+        trinoRequestUserProvider = new TrinoRequestUser.TrinoRequestUserProvider(requestAnalyzerConfig);
         cookiesEnabled = GatewayCookieConfigurationPropertiesProvider.getInstance().isEnabled();
         asyncTimeout = haGatewayConfiguration.getRouting().getAsyncTimeout();
         addXForwardedHeaders = haGatewayConfiguration.getRouting().isAddXForwardedHeaders();
         statementPaths = haGatewayConfiguration.getStatementPaths();
         this.includeClusterInfoInResponse = haGatewayConfiguration.isIncludeClusterHostInResponse();
         proxyResponseConfiguration = haGatewayConfiguration.getProxyResponseConfiguration();
-    }
-
-    @PreDestroy
-    public void shutdown()
-    {
-        executor.shutdownNow();
+        backendToken = BackendToken.fromConfiguration(haGatewayConfiguration);
+        submissionMaxAttempts = haGatewayConfiguration.getRouting().getSubmissionMaxAttempts();
     }
 
     public void deleteRequest(
@@ -135,24 +178,24 @@ public class ProxyRequestHandler
     }
 
     public void postRequest(
-            String statement,
+            byte[] statement,
             HttpServletRequest servletRequest,
             AsyncResponse asyncResponse,
             RoutingDestination routingDestination)
     {
         Request.Builder request = preparePost()
-                .setBodyGenerator(createStaticBodyGenerator(statement, UTF_8));
+                .setBodyGenerator(createStaticBodyGenerator(statement));
         performRequest(routingDestination, servletRequest, asyncResponse, request);
     }
 
     public void putRequest(
-            String statement,
+            byte[] statement,
             HttpServletRequest servletRequest,
             AsyncResponse asyncResponse,
             RoutingDestination routingDestination)
     {
         Request.Builder request = preparePut()
-                .setBodyGenerator(createStaticBodyGenerator(statement, UTF_8));
+                .setBodyGenerator(createStaticBodyGenerator(statement));
         performRequest(routingDestination, servletRequest, asyncResponse, request);
     }
 
@@ -180,27 +223,297 @@ public class ProxyRequestHandler
             addXForwardedHeaders(servletRequest, requestBuilder);
         }
 
-        ImmutableList.Builder<NewCookie> cookieBuilder = ImmutableList.builder();
-        cookieBuilder.addAll(getOAuth2GatewayCookie(remoteUri, servletRequest));
+        ImmutableList<NewCookie> cookies = getOAuth2GatewayCookie(remoteUri, servletRequest);
 
         Request request = requestBuilder
                 .setFollowRedirects(false)
                 .build();
 
-        FluentFuture<ProxyResponse> future = executeHttp(request);
+        boolean isStatementRequest = statementPaths.stream().anyMatch(request.getUri().getPath()::startsWith);
+        boolean isStatementSubmission = isStatementRequest && request.getMethod().equals(HttpMethod.POST);
+        ProxyLane lane = proxyLanes.select(isStatementRequest, request.getMethod());
+        if (!lane.tryAcquire()) {
+            // rejecting immediately lets clients retry elsewhere, instead of waiting for the async timeout
+            asyncResponse.resume(Response.status(SERVICE_UNAVAILABLE)
+                    .header(RETRY_AFTER, proxyLanes.getRetryAfterSeconds())
+                    .type(TEXT_PLAIN_TYPE)
+                    .entity("Trino Gateway is overloaded, retry later")
+                    .build());
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Executor executor = lane.getExecutor();
 
-        if (statementPaths.stream().anyMatch(request.getUri().getPath()::startsWith) && request.getMethod().equals(HttpMethod.POST)) {
-            Optional<String> username = trinoRequestUserProvider.getInstance(servletRequest).getUser();
-            future = future.transform(response -> recordBackendForQueryId(request, response, username, routingDestination), executor);
-            if (includeClusterInfoInResponse) {
-                cookieBuilder.add(new NewCookie.Builder("trinoClusterHost").value(remoteUri.getHost()).build());
-            }
+        FluentFuture<Response> future;
+        try {
+            future = executeRequest(request, routingDestination, servletRequest, cookies, isStatementRequest, isStatementSubmission, startNanos, lane);
+        }
+        catch (Throwable t) {
+            // the slot is otherwise released when the future completes
+            lane.release(startNanos);
+            throw t;
         }
 
+        if (proxyResponseConfiguration.isStreamingEnabled()) {
+            // the backend connection stays open while the body is streamed, so the slot is held until it is closed
+            releaseAfterStreaming(future, () -> lane.release(startNanos));
+            closeUnsentStreamingResponse(asyncResponse, future);
+        }
+        else {
+            future.addListener(() -> lane.release(startNanos), directExecutor());
+        }
         setupAsyncResponse(
                 asyncResponse,
-                future.transform(response -> buildResponse(response, cookieBuilder.build()), executor)
-                        .catching(ProxyException.class, e -> handleProxyException(request, e), directExecutor()));
+                future.catching(ProxyException.class, e -> handleProxyException(request, e), directExecutor()),
+                executor);
+    }
+
+    private FluentFuture<Response> executeRequest(
+            Request request,
+            RoutingDestination routingDestination,
+            HttpServletRequest servletRequest,
+            ImmutableList<NewCookie> cookies,
+            boolean isStatementRequest,
+            boolean isStatementSubmission,
+            long startNanos,
+            ProxyLane lane)
+    {
+        Executor executor = lane.getExecutor();
+        Optional<String> username = Optional.empty();
+        Optional<SubmissionFailover> failover = Optional.empty();
+        if (isStatementSubmission) {
+            username = RequestAnalysisContext.forRequest(servletRequest, requestAnalyzerConfig)
+                    .getTrinoRequestUser(trinoRequestUserProvider)
+                    .getUser();
+            if (submissionMaxAttempts > 1) {
+                failover = Optional.of(new SubmissionFailover(servletRequest.getHeader(USER_HEADER), startNanos + asyncTimeout.roundTo(NANOSECONDS)));
+            }
+        }
+
+        Attempt attempt = new Attempt(request, routingDestination);
+        if (proxyResponseConfiguration.isStreamingEnabled()) {
+            return executeStreaming(attempt, failover, isStatementSubmission, username, cookies, lane.getBlockingExecutor());
+        }
+        FluentFuture<ProxiedResponse> proxiedResponse;
+        if (failover.isPresent()) {
+            proxiedResponse = executeWithFailover(attempt, failover.get(), executor);
+        }
+        else {
+            proxiedResponse = executeHttp(attempt, isStatementSubmission).transform(response -> new ProxiedResponse(attempt, response), directExecutor());
+        }
+        if (isStatementSubmission) {
+            Optional<String> user = username;
+            proxiedResponse = proxiedResponse.transform(proxied -> recordBackendForQueryId(proxied, user), executor);
+        }
+        if (isStatementRequest && backendToken.isPresent()) {
+            proxiedResponse = proxiedResponse.transform(this::addBackendToken, executor);
+        }
+        return proxiedResponse.transform(proxied -> buildResponse(proxied.response(), responseCookies(cookies, isStatementSubmission, proxied.attempt())), executor);
+    }
+
+    /**
+     * Sends a query submission, and sends it again to another backend if the backend could not
+     * be connected to, or responded with a status code indicating that no query was created.
+     */
+    private FluentFuture<ProxiedResponse> executeWithFailover(Attempt attempt, SubmissionFailover failover, Executor executor)
+    {
+        FluentFuture<ProxyResponse> response = executeHttp(attempt, true);
+        return response
+                .transform(proxyResponse -> RETRYABLE_STATUS_CODES.contains(proxyResponse.statusCode()) ? failover.next(attempt) : Optional.<Attempt>empty(), executor)
+                .catching(ProxyException.class, e -> {
+                    Optional<Attempt> next = isConnectFailure(e) ? failover.next(attempt) : Optional.empty();
+                    if (next.isEmpty()) {
+                        throw e;
+                    }
+                    return next;
+                }, executor)
+                .transformAsync(next -> next.isPresent()
+                        ? executeWithFailover(next.get(), failover, executor)
+                        : response.transform(proxyResponse -> new ProxiedResponse(attempt, proxyResponse), directExecutor()), directExecutor());
+    }
+
+    private FluentFuture<Response> executeStreaming(
+            Attempt firstAttempt,
+            Optional<SubmissionFailover> failover,
+            boolean isStatementSubmission,
+            Optional<String> username,
+            ImmutableList<NewCookie> cookies,
+            Executor blockingExecutor)
+    {
+        SettableFuture<Response> result = SettableFuture.create();
+        // blocks until the backend sent the response headers, which can take as long as a long poll
+        blockingExecutor.execute(() -> {
+            try {
+                Response response = proxyStreaming(firstAttempt, failover, isStatementSubmission, username, cookies);
+                if (!result.set(response)) {
+                    // the request was cancelled, for example by the async timeout, so the response is never sent
+                    closeStreamingEntity(response);
+                }
+            }
+            catch (Throwable t) {
+                result.setException(t);
+            }
+        });
+        return FluentFuture.from(result);
+    }
+
+    private Response proxyStreaming(
+            Attempt firstAttempt,
+            Optional<SubmissionFailover> failover,
+            boolean isStatementSubmission,
+            Optional<String> username,
+            ImmutableList<NewCookie> cookies)
+    {
+        int bufferSize = toIntExact(proxyResponseConfiguration.getStreamingBufferSize().toBytes());
+        Attempt attempt = firstAttempt;
+        StreamingResponse response;
+        while (true) {
+            long startNanos = System.nanoTime();
+            Optional<Attempt> next;
+            try {
+                response = httpClient.executeStreaming(attempt.request());
+            }
+            catch (RuntimeException e) {
+                next = Optional.empty();
+                if (isConnectFailure(e)) {
+                    routingManager.getOutlierDetector().recordConnectFailure(attempt.destination().clusterHost());
+                    next = nextAttempt(failover, attempt);
+                }
+                if (next.isEmpty()) {
+                    throw new ProxyException("Request to remote Trino server failed", e);
+                }
+                attempt = next.get();
+                continue;
+            }
+            recordBackendResponse(attempt.destination().clusterHost(), response.getStatusCode(), isStatementSubmission, startNanos);
+            next = RETRYABLE_STATUS_CODES.contains(response.getStatusCode()) ? nextAttempt(failover, attempt) : Optional.empty();
+            if (next.isEmpty()) {
+                break;
+            }
+            response.close();
+            attempt = next.get();
+        }
+        Request request = attempt.request();
+        try {
+            StreamingProxyResponse streamingResponse = new StreamingProxyResponse(response, bufferSize);
+            if (isStatementSubmission) {
+                Optional<String> queryId = Optional.empty();
+                if (response.getStatusCode() == OK.getStatusCode()) {
+                    queryId = streamingResponse.extractQueryId();
+                    if (queryId.isEmpty()) {
+                        log.error("Failed to get QueryId from the first %s bytes of the response to [%s]", bufferSize, request.getUri());
+                    }
+                }
+                else {
+                    log.error("Non OK HTTP Status code for request [%s] , Status code [%s]", request.getUri(), response.getStatusCode());
+                }
+                recordBackendForQueryId(request, queryId, username, attempt.destination());
+            }
+            Response.ResponseBuilder builder = Response.status(response.getStatusCode()).entity(streamingResponse);
+            // the container frames the streamed body itself
+            response.getHeaders().forEach((headerName, value) -> {
+                if (!STREAMING_EXCLUDED_HEADERS.contains(headerName)) {
+                    builder.header(headerName.toString(), value);
+                }
+            });
+            responseCookies(cookies, isStatementSubmission, attempt).forEach(builder::cookie);
+            return builder.build();
+        }
+        catch (RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs {@code release} once the streamed body was relayed or discarded, or right away when
+     * no streaming response was produced.
+     */
+    private static void releaseAfterStreaming(ListenableFuture<Response> future, Runnable release)
+    {
+        future.addListener(() -> streamingEntity(future).ifPresentOrElse(
+                streamingResponse -> streamingResponse.addCloseListener(release),
+                release), directExecutor());
+    }
+
+    /**
+     * Closes the backend response of a streaming response that was not sent. The entity closes
+     * itself after it was written, so closing it again when the async response completed is a no-op.
+     */
+    private static void closeUnsentStreamingResponse(AsyncResponse asyncResponse, ListenableFuture<Response> future)
+    {
+        AtomicBoolean completed = new AtomicBoolean();
+        Runnable close = () -> {
+            if (future.isDone()) {
+                streamingEntity(future).ifPresent(StreamingProxyResponse::close);
+            }
+        };
+        asyncResponse.register((CompletionCallback) throwable -> {
+            completed.set(true);
+            close.run();
+        });
+        future.addListener(() -> {
+            if (completed.get()) {
+                close.run();
+            }
+        }, directExecutor());
+    }
+
+    private static Optional<StreamingProxyResponse> streamingEntity(ListenableFuture<Response> future)
+    {
+        if (future.isCancelled()) {
+            return Optional.empty();
+        }
+        try {
+            if (getDone(future).getEntity() instanceof StreamingProxyResponse streamingResponse) {
+                return Optional.of(streamingResponse);
+            }
+        }
+        catch (ExecutionException ignored) {
+            // no response was produced
+        }
+        return Optional.empty();
+    }
+
+    private static void closeStreamingEntity(Response response)
+    {
+        if (response.getEntity() instanceof StreamingProxyResponse streamingResponse) {
+            streamingResponse.close();
+        }
+    }
+
+    private static Optional<Attempt> nextAttempt(Optional<SubmissionFailover> failover, Attempt attempt)
+    {
+        if (failover.isEmpty()) {
+            return Optional.empty();
+        }
+        return failover.get().next(attempt);
+    }
+
+    private static boolean isConnectFailure(Throwable throwable)
+    {
+        return Throwables.getCausalChain(throwable).stream()
+                .anyMatch(cause -> cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException);
+    }
+
+    private ImmutableList<NewCookie> responseCookies(ImmutableList<NewCookie> cookies, boolean isStatementSubmission, Attempt attempt)
+    {
+        if (!isStatementSubmission || !includeClusterInfoInResponse) {
+            return cookies;
+        }
+        return ImmutableList.<NewCookie>builder()
+                .addAll(cookies)
+                .add(new NewCookie.Builder("trinoClusterHost").value(attempt.destination().clusterUri().getHost()).build())
+                .build();
+    }
+
+    private void recordBackendResponse(String backend, int statusCode, boolean isStatementSubmission, long startNanos)
+    {
+        BackendOutlierDetector outlierDetector = routingManager.getOutlierDetector();
+        outlierDetector.recordResponse(backend, statusCode);
+        if (isStatementSubmission) {
+            outlierDetector.recordSubmissionLatency(backend, System.nanoTime() - startNanos);
+        }
     }
 
     private ImmutableList<NewCookie> getOAuth2GatewayCookie(URI remoteUri, HttpServletRequest servletRequest)
@@ -230,6 +543,25 @@ public class ProxyRequestHandler
         return format("%s://%s", remoteUri.getScheme(), remoteUri.getAuthority());
     }
 
+    private ProxiedResponse addBackendToken(ProxiedResponse proxied)
+    {
+        ProxyResponse response = proxied.response();
+        RoutingDestination routingDestination = proxied.attempt().destination();
+        if (response.statusCode() != OK.getStatusCode()) {
+            return proxied;
+        }
+        Optional<String> body = backendToken.orElseThrow().rewriteQueryResults(response.body(), routingDestination.clusterHost(), routingDestination.routingGroup());
+        if (body.isEmpty()) {
+            return proxied;
+        }
+        // the length of the body changed, and is set again when sending the response
+        HeaderName contentLength = HeaderName.of(CONTENT_LENGTH);
+        ImmutableListMultimap<HeaderName, String> headers = response.headers().entries().stream()
+                .filter(header -> !header.getKey().equals(contentLength))
+                .collect(toImmutableListMultimap(Map.Entry::getKey, Map.Entry::getValue));
+        return new ProxiedResponse(proxied.attempt(), new ProxyResponse(response.statusCode(), headers, body.get()));
+    }
+
     private Response buildResponse(ProxyResponse response, ImmutableList<NewCookie> cookie)
     {
         Response.ResponseBuilder builder = Response.status(response.statusCode()).entity(response.body());
@@ -238,7 +570,7 @@ public class ProxyRequestHandler
         return builder.build();
     }
 
-    private void setupAsyncResponse(AsyncResponse asyncResponse, ListenableFuture<Response> future)
+    private void setupAsyncResponse(AsyncResponse asyncResponse, ListenableFuture<Response> future, Executor executor)
     {
         bindAsyncResponse(asyncResponse, future, executor)
                 .withTimeout(asyncTimeout, () -> Response
@@ -248,9 +580,30 @@ public class ProxyRequestHandler
                         .build());
     }
 
-    private FluentFuture<ProxyResponse> executeHttp(Request request)
+    private FluentFuture<ProxyResponse> executeHttp(Attempt attempt, boolean isStatementSubmission)
     {
-        return FluentFuture.from(httpClient.executeAsync(request, new ProxyResponseHandler(proxyResponseConfiguration)));
+        long startNanos = System.nanoTime();
+        String backend = attempt.destination().clusterHost();
+        FluentFuture<ProxyResponse> response = FluentFuture.from(httpClient.executeAsync(attempt.request(), new ProxyResponseHandler(proxyResponseConfiguration)));
+        response.addCallback(new FutureCallback<>()
+        {
+            @Override
+            public void onSuccess(ProxyResponse proxyResponse)
+            {
+                recordBackendResponse(backend, proxyResponse.statusCode(), isStatementSubmission, startNanos);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable)
+            {
+                // like for streamed requests, only failures to connect are counted, since timeouts and
+                // failures while reading the response can also be caused by the query or the client
+                if (throwable instanceof ProxyException && isConnectFailure(throwable)) {
+                    routingManager.getOutlierDetector().recordConnectFailure(backend);
+                }
+            }
+        }, directExecutor());
+        return response;
     }
 
     private static Response handleProxyException(Request request, ProxyException e)
@@ -268,22 +621,18 @@ public class ProxyRequestHandler
                         .build());
     }
 
-    private ProxyResponse recordBackendForQueryId(Request request, ProxyResponse response, Optional<String> username,
-            RoutingDestination routingDestination)
+    private ProxiedResponse recordBackendForQueryId(ProxiedResponse proxied, Optional<String> username)
     {
+        Request request = proxied.attempt().request();
+        ProxyResponse response = proxied.response();
+        RoutingDestination routingDestination = proxied.attempt().destination();
         log.debug("For Request [%s] got Response [%s]", request.getUri(), response.body());
 
-        QueryHistoryManager.QueryDetail queryDetail = getQueryDetailsFromRequest(request, username);
-
-        log.debug("Extracting proxy destination : [%s] for request : [%s]", queryDetail.getBackendUrl(), request.getUri());
-
+        Optional<String> queryId = Optional.empty();
         if (response.statusCode() == OK.getStatusCode()) {
             try {
                 HashMap<String, String> results = OBJECT_MAPPER.readValue(response.body(), HashMap.class);
-                queryDetail.setQueryId(results.get("id"));
-                routingManager.setBackendForQueryId(queryDetail.getQueryId(), queryDetail.getBackendUrl());
-                routingManager.setRoutingGroupForQueryId(queryDetail.getQueryId(), routingDestination.routingGroup());
-                log.debug("QueryId [%s] mapped with proxy [%s]", queryDetail.getQueryId(), queryDetail.getBackendUrl());
+                queryId = Optional.ofNullable(results.get("id"));
             }
             catch (IOException e) {
                 log.error("Failed to get QueryId from response [%s] , Status code [%s]", response.body(), response.statusCode());
@@ -292,9 +641,25 @@ public class ProxyRequestHandler
         else {
             log.error("Non OK HTTP Status code with response [%s] , Status code [%s]", response.body(), response.statusCode());
         }
+        recordBackendForQueryId(request, queryId, username, routingDestination);
+        return proxied;
+    }
+
+    private void recordBackendForQueryId(Request request, Optional<String> queryId, Optional<String> username,
+            RoutingDestination routingDestination)
+    {
+        QueryHistoryManager.QueryDetail queryDetail = getQueryDetailsFromRequest(request, username);
+
+        log.debug("Extracting proxy destination : [%s] for request : [%s]", queryDetail.getBackendUrl(), request.getUri());
+
+        if (queryId.isPresent()) {
+            queryDetail.setQueryId(queryId.get());
+            routingManager.setBackendForQueryId(queryDetail.getQueryId(), queryDetail.getBackendUrl());
+            routingManager.setRoutingGroupForQueryId(queryDetail.getQueryId(), routingDestination.routingGroup());
+            log.debug("QueryId [%s] mapped with proxy [%s]", queryDetail.getQueryId(), queryDetail.getBackendUrl());
+        }
         queryDetail.setRoutingGroup(routingDestination.routingGroup());
         queryHistoryManager.submitQueryDetail(queryDetail);
-        return response;
     }
 
     public static QueryHistoryManager.QueryDetail getQueryDetailsFromRequest(Request request, Optional<String> username)
@@ -305,7 +670,7 @@ public class ProxyRequestHandler
         username.ifPresent(queryDetail::setUser);
         queryDetail.setSource(request.getHeader(SOURCE_HEADER));
 
-        String queryText = new String(((StaticBodyGenerator) request.getBodyGenerator()).getBody(), UTF_8);
+        String queryText = new RequestBody(((StaticBodyGenerator) request.getBodyGenerator()).getBody()).textPrefix(QUERY_TEXT_LENGTH_FOR_HISTORY + 1);
         queryDetail.setQueryText(
                 queryText.length() > QUERY_TEXT_LENGTH_FOR_HISTORY
                         ? queryText.substring(0, QUERY_TEXT_LENGTH_FOR_HISTORY) + "..."
@@ -323,4 +688,49 @@ public class ProxyRequestHandler
             requestBuilder.addHeader(X_FORWARDED_HOST, serverName);
         }
     }
+
+    private record Attempt(Request request, RoutingDestination destination) {}
+
+    private record ProxiedResponse(Attempt attempt, ProxyResponse response) {}
+
+    /**
+     * Chooses the backends for retrying a query submission, until the maximum number of attempts
+     * is reached or the async timeout expired. Attempts are made one after another, so the state
+     * needs no synchronization.
+     */
+    private final class SubmissionFailover
+    {
+        // absent for requests without a user header, which the routers count as a user without queued queries
+        @Nullable
+        private final String user;
+        private final long deadlineNanos;
+        private final Set<String> failedBackends = new HashSet<>();
+        private int attempts = 1;
+
+        private SubmissionFailover(@Nullable String user, long deadlineNanos)
+        {
+            this.user = user;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private Optional<Attempt> next(Attempt failed)
+        {
+            RoutingDestination destination = failed.destination();
+            failedBackends.add(destination.clusterHost());
+            if (attempts >= submissionMaxAttempts || System.nanoTime() - deadlineNanos >= 0) {
+                return Optional.empty();
+            }
+            Optional<String> backend = routingManager.provideFailoverCluster(destination.routingGroup(), user, failedBackends);
+            if (backend.isEmpty()) {
+                return Optional.empty();
+            }
+            attempts++;
+            URI uri = destination.clusterUri();
+            URI retryUri = URI.create(backend.get() + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+            log.warn("Query submission to %s failed, retrying on %s", destination.clusterHost(), backend.get());
+            return Optional.of(new Attempt(
+                    Request.Builder.fromRequest(failed.request()).setUri(retryUri).build(),
+                    new RoutingDestination(destination.routingGroup(), backend.get(), retryUri)));
+        }
+    }
 }
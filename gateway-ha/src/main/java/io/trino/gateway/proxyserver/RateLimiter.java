@@ -0,0 +1,375 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.stats.CounterStat;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RateLimitConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.config.RoutingGroupRateLimits;
+import io.trino.gateway.ha.router.RequestAnalysisContext;
+import io.trino.gateway.ha.router.TrinoRequestUser;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import org.weakref.jmx.MBeanExporter;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.trino.gateway.ha.handler.ProxyUtils.SOURCE_HEADER;
+import static java.util.Locale.ENGLISH;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Limits the rate of query submissions per user and per source with token buckets, configured
+ * per routing group. Buckets are created on the first submission of a user or source, and dropped
+ * once they have been full for the idle timeout. Once the maximum number of buckets exists, users
+ * and sources without a bucket share one overflow bucket per kind and routing group, so that
+ * clients sending many distinct names cannot grow the buckets without limit. The number of
+ * throttled submissions of a user or source is exported over JMX while its bucket exists, for at
+ * most the maximum number of exported buckets.
+ */
+public class RateLimiter
+{
+    private static final Logger log = Logger.get(RateLimiter.class);
+    private static final CharMatcher OBJECT_NAME_SAFE_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf("-._@"));
+    private static final int MAX_OBJECT_NAME_VALUE_LENGTH = 100;
+    // not a valid object name value, so it is never confused with a user or source
+    private static final String OVERFLOW_NAME = "<overflow>";
+
+    private final boolean enabled;
+    private final List<String> statementPaths;
+    private final long idleTimeoutNanos;
+    private final int maxBuckets;
+    private final int maxExportedBuckets;
+    private final RoutingGroupRateLimits defaultLimits;
+    private final Map<String, RoutingGroupRateLimits> routingGroupLimits;
+    private final RequestAnalyzerConfig requestAnalyzerConfig;
+    private final TrinoRequestUser.TrinoRequestUserProvider trinoRequestUserProvider;
+    private final MBeanExporter exporter;
+    private final Ticker ticker;
+    private final Map<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<BucketKey, Bucket> overflowBuckets = new ConcurrentHashMap<>();
+    private final AtomicInteger exportedBuckets = new AtomicInteger();
+    private final AtomicLong nextEviction;
+    private final CounterStat throttledQueries = new CounterStat();
+    private final CounterStat overflowQueries = new CounterStat();
+
+    @Inject
+    public RateLimiter(HaGatewayConfiguration haGatewayConfiguration, MBeanExporter exporter)
+    {
+        this(haGatewayConfiguration.getRateLimitConfiguration(),
+                haGatewayConfiguration.getStatementPaths(),
+                haGatewayConfiguration.getRequestAnalyzerConfig(),
+                exporter,
+                Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RateLimiter(
+            RateLimitConfiguration configuration,
+            List<String> statementPaths,
+            RequestAnalyzerConfig requestAnalyzerConfig,
+            MBeanExporter exporter,
+            Ticker ticker)
+    {
+        checkArgument(configuration.getMaxBuckets() > 0, "maxBuckets must be positive");
+        checkArgument(configuration.getMaxExportedBuckets() >= 0, "maxExportedBuckets must not be negative");
+        validate("default", configuration.getDefaultLimits());
+        configuration.getRoutingGroupLimits().forEach((routingGroup, limits) -> validate(routingGroup, limits));
+        enabled = configuration.isEnabled();
+        this.statementPaths = ImmutableList.copyOf(requireNonNull(statementPaths, "statementPaths is null"));
+        idleTimeoutNanos = configuration.getIdleTimeout().roundTo(NANOSECONDS);
+        maxBuckets = configuration.getMaxBuckets();
+        maxExportedBuckets = configuration.getMaxExportedBuckets();
+        defaultLimits = requireNonNull(configuration.getDefaultLimits(), "defaultLimits is null");
+        routingGroupLimits = ImmutableMap.copyOf(configuration.getRoutingGroupLimits());
+        this.requestAnalyzerConfig = requireNonNull(requestAnalyzerConfig, "requestAnalyzerConfig is null");
+        trinoRequestUserProvider = new TrinoRequestUser.TrinoRequestUserProvider(requestAnalyzerConfig);
+        this.exporter = requireNonNull(exporter, "exporter is null");
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        nextEviction = new AtomicLong(ticker.read() + idleTimeoutNanos);
+    }
+
+    private static void validate(String routingGroup, RoutingGroupRateLimits limits)
+    {
+        checkArgument(limits.getUserQueriesPerSecond() >= 0 && limits.getSourceQueriesPerSecond() >= 0, "rate limits of routing group %s must not be negative", routingGroup);
+        checkArgument(limits.getUserBurst() > 0 && limits.getSourceBurst() > 0, "bursts of routing group %s must be positive", routingGroup);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        buckets.keySet().forEach(key -> buckets.computeIfPresent(key, (ignored, bucket) -> {
+            unexport(bucket);
+            return null;
+        }));
+        overflowBuckets.clear();
+    }
+
+    /**
+     * Returns whether a POST request to the path is a query submission subject to rate limits.
+     */
+    public boolean isSubmission(String requestUri)
+    {
+        return enabled && statementPaths.stream().anyMatch(requestUri::startsWith);
+    }
+
+    /**
+     * Takes a token from the buckets of the user and the source of a query submission. Returns an
+     * empty result if the query can be submitted, and otherwise the limit that was exceeded, in
+     * which case no token is taken.
+     */
+    public Optional<Throttle> tryAcquire(HttpServletRequest request, String routingGroup)
+    {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        long now = ticker.read();
+        evictIdleBuckets(now);
+        RoutingGroupRateLimits limits = routingGroupLimits.getOrDefault(routingGroup, defaultLimits);
+
+        Bucket userBucket = null;
+        if (limits.getUserQueriesPerSecond() > 0) {
+            String user = RequestAnalysisContext.forRequest(request, requestAnalyzerConfig)
+                    .getTrinoRequestUser(trinoRequestUserProvider)
+                    .getUser()
+                    .orElse("");
+            userBucket = bucket(new BucketKey(Kind.USER, routingGroup, user), limits.getUserQueriesPerSecond(), limits.getUserBurst(), now);
+            long wait = userBucket.tokens.tryAcquire(now);
+            if (wait > 0) {
+                return Optional.of(throttle(userBucket, wait));
+            }
+        }
+        String source = request.getHeader(SOURCE_HEADER);
+        if (source != null && limits.getSourceQueriesPerSecond() > 0) {
+            Bucket sourceBucket = bucket(new BucketKey(Kind.SOURCE, routingGroup, source), limits.getSourceQueriesPerSecond(), limits.getSourceBurst(), now);
+            long wait = sourceBucket.tokens.tryAcquire(now);
+            if (wait > 0) {
+                if (userBucket != null) {
+                    userBucket.tokens.release(now);
+                }
+                return Optional.of(throttle(sourceBucket, wait));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private Bucket bucket(BucketKey key, double queriesPerSecond, int burst, long now)
+    {
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxBuckets) {
+            overflowQueries.update(1);
+            return overflowBuckets.computeIfAbsent(
+                    new BucketKey(key.kind(), key.routingGroup(), OVERFLOW_NAME),
+                    newKey -> new Bucket(newKey, new TokenBucket(queriesPerSecond, burst, now)));
+        }
+        return buckets.computeIfAbsent(key, newKey -> new Bucket(newKey, new TokenBucket(queriesPerSecond, burst, now)));
+    }
+
+    private Throttle throttle(Bucket bucket, long waitNanos)
+    {
+        throttledQueries.update(1);
+        bucket.throttled.update(1);
+        if (!bucket.exportAttempted && exportedBuckets.get() < maxExportedBuckets) {
+            // exporting under the lock of the entry ensures that an evicted bucket is never exported
+            buckets.computeIfPresent(bucket.key, (key, current) -> {
+                if (current == bucket) {
+                    export(current);
+                }
+                return current;
+            });
+        }
+        return new Throttle(bucket.key, waitNanos);
+    }
+
+    /**
+     * Drops the buckets that have been full for the idle timeout. Only one caller per idle timeout
+     * scans the buckets, the others return right away.
+     */
+    private void evictIdleBuckets(long now)
+    {
+        long eviction = nextEviction.get();
+        if (now - eviction < 0 || !nextEviction.compareAndSet(eviction, now + idleTimeoutNanos)) {
+            return;
+        }
+        buckets.keySet().forEach(key -> buckets.computeIfPresent(key, (ignored, bucket) -> {
+            if (!bucket.tokens.isIdle(now, idleTimeoutNanos)) {
+                return bucket;
+            }
+            unexport(bucket);
+            return null;
+        }));
+        overflowBuckets.values().removeIf(bucket -> bucket.tokens.isIdle(now, idleTimeoutNanos));
+    }
+
+    /**
+     * Exports the throttle counter of a bucket when it is throttled for the first time, unless the
+     * maximum number of counters is exported. Called with the lock of the bucket entry held, like
+     * {@link #unexport(Bucket)}.
+     */
+    private void export(Bucket bucket)
+    {
+        if (bucket.exportAttempted) {
+            return;
+        }
+        if (exportedBuckets.incrementAndGet() > maxExportedBuckets) {
+            // the bucket is exported when it is throttled again after other counters were removed
+            exportedBuckets.decrementAndGet();
+            return;
+        }
+        bucket.exportAttempted = true;
+        try {
+            exporter.exportWithGeneratedName(bucket.throttled, RateLimiter.class, bucket.key.objectNameProperties());
+            bucket.exported = true;
+        }
+        catch (RuntimeException e) {
+            // for example, when another name maps to the same object name
+            exportedBuckets.decrementAndGet();
+            log.debug(e, "Failed to export throttle counter of %s", bucket.key);
+        }
+    }
+
+    private void unexport(Bucket bucket)
+    {
+        if (bucket.exported) {
+            exportedBuckets.decrementAndGet();
+            try {
+                exporter.unexportWithGeneratedName(RateLimiter.class, bucket.key.objectNameProperties());
+            }
+            catch (RuntimeException e) {
+                log.debug(e, "Failed to unexport throttle counter of %s", bucket.key);
+            }
+        }
+    }
+
+    @Managed
+    public int getBucketCount()
+    {
+        return buckets.size();
+    }
+
+    @Managed
+    public int getExportedBucketCount()
+    {
+        return exportedBuckets.get();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getThrottledQueries()
+    {
+        return throttledQueries;
+    }
+
+    @Managed(description = "Submissions limited by an overflow bucket, because the maximum number of buckets existed")
+    @Nested
+    public CounterStat getOverflowQueries()
+    {
+        return overflowQueries;
+    }
+
+    public enum Kind
+    {
+        USER,
+        SOURCE,
+    }
+
+    public record BucketKey(Kind kind, String routingGroup, String name)
+    {
+        public BucketKey
+        {
+            requireNonNull(kind, "kind is null");
+            requireNonNull(routingGroup, "routingGroup is null");
+            requireNonNull(name, "name is null");
+        }
+
+        private Map<String, String> objectNameProperties()
+        {
+            return ImmutableMap.of(
+                    "type", RateLimiter.class.getSimpleName(),
+                    "kind", kind.name().toLowerCase(ENGLISH),
+                    "routingGroup", objectNameValue(routingGroup),
+                    "name", objectNameValue(name));
+        }
+
+        /**
+         * Replaces the characters of client supplied names that are not safe in an object name.
+         */
+        private static String objectNameValue(String value)
+        {
+            String truncated = value.length() > MAX_OBJECT_NAME_VALUE_LENGTH ? value.substring(0, MAX_OBJECT_NAME_VALUE_LENGTH) : value;
+            return OBJECT_NAME_SAFE_CHARACTERS.negate().replaceFrom(truncated, '_');
+        }
+    }
+
+    public record Throttle(BucketKey key, long waitNanos)
+    {
+        public Throttle
+        {
+            requireNonNull(key, "key is null");
+        }
+
+        public long retryAfterSeconds()
+        {
+            return Math.max(1, (long) Math.ceil(waitNanos / (double) SECONDS.toNanos(1)));
+        }
+
+        public String message()
+        {
+            return "Query submission rate of %s %s in routing group %s exceeded, retry later".formatted(
+                    key.kind().name().toLowerCase(ENGLISH),
+                    key.name(),
+                    key.routingGroup());
+        }
+    }
+
+    private static final class Bucket
+    {
+        private final BucketKey key;
+        private final TokenBucket tokens;
+        private final CounterStat throttled = new CounterStat();
+        // written with the lock of the bucket entry held
+        private volatile boolean exportAttempted;
+        private volatile boolean exported;
+
+        private Bucket(BucketKey key, TokenBucket tokens)
+        {
+            this.key = key;
+            this.tokens = tokens;
+        }
+    }
+}
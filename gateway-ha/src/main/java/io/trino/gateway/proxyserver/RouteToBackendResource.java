@@ -15,6 +15,7 @@ package io.trino.gateway.proxyserver;
 
 import com.google.inject.Inject;
 import io.trino.gateway.ha.handler.ProxyHandlerStats;
+import io.trino.gateway.ha.handler.RequestBody;
 import io.trino.gateway.ha.handler.RoutingDestination;
 import io.trino.gateway.ha.handler.RoutingTargetHandler;
 import jakarta.servlet.http.HttpServletRequest;
@@ -26,9 +27,15 @@ import jakarta.ws.rs.Path;
 import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.Response;
 
+import java.util.Optional;
+
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
 import static io.trino.gateway.ha.handler.HttpUtils.V1_STATEMENT_PATH;
 import static io.trino.gateway.proxyserver.RouterPreMatchContainerRequestFilter.ROUTE_TO_BACKEND;
+import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN_TYPE;
+import static jakarta.ws.rs.core.Response.Status.TOO_MANY_REQUESTS;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -42,30 +49,65 @@ public class RouteToBackendResource
     private final ProxyHandlerStats proxyHandlerStats;
     private final ProxyRequestHandler proxyRequestHandler;
     private final RoutingTargetHandler routingTargetHandler;
+    private final AdmissionController admissionController;
+    private final RateLimiter rateLimiter;
 
     @Inject
     public RouteToBackendResource(
             ProxyHandlerStats proxyHandlerStats,
             ProxyRequestHandler proxyRequestHandler,
-            RoutingTargetHandler routingTargetHandler)
+            RoutingTargetHandler routingTargetHandler,
+            AdmissionController admissionController,
+            RateLimiter rateLimiter)
     {
         this.proxyHandlerStats = requireNonNull(proxyHandlerStats);
         this.proxyRequestHandler = requireNonNull(proxyRequestHandler);
         this.routingTargetHandler = requireNonNull(routingTargetHandler);
+        this.admissionController = requireNonNull(admissionController);
+        this.rateLimiter = requireNonNull(rateLimiter);
     }
 
     @POST
     public void postHandler(
-            String body,
+            byte[] body,
             @Context HttpServletRequest servletRequest,
             @Suspended AsyncResponse asyncResponse)
     {
-        MultiReadHttpServletRequest multiReadHttpServletRequest = new MultiReadHttpServletRequest(servletRequest, body);
-        if (multiReadHttpServletRequest.getRequestURI().startsWith(V1_STATEMENT_PATH)) {
+        MultiReadHttpServletRequest multiReadHttpServletRequest = new MultiReadHttpServletRequest(servletRequest, new RequestBody(body));
+        // A new query submitted with the backend token of another query is handled like any other submission
+        HttpServletRequest request = routingTargetHandler.withoutBackendTokenOfNewQuery(multiReadHttpServletRequest);
+        String requestUri = request.getRequestURI();
+        if (requestUri.startsWith(V1_STATEMENT_PATH)) {
             proxyHandlerStats.recordRequest();
         }
-        RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(multiReadHttpServletRequest);
-        proxyRequestHandler.postRequest(body, multiReadHttpServletRequest, asyncResponse, routingDestination);
+        Optional<String> routingGroup = Optional.empty();
+        if (rateLimiter.isSubmission(requestUri) || admissionController.isSubmission(requestUri)) {
+            routingGroup = routingTargetHandler.findRoutingGroupOfNewQuery(request);
+        }
+        if (routingGroup.isEmpty()) {
+            RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(request);
+            proxyRequestHandler.postRequest(body, request, asyncResponse, routingDestination);
+            return;
+        }
+        Optional<RateLimiter.Throttle> throttle = rateLimiter.tryAcquire(request, routingGroup.get());
+        if (throttle.isPresent()) {
+            asyncResponse.resume(Response.status(TOO_MANY_REQUESTS)
+                    .header(RETRY_AFTER, throttle.get().retryAfterSeconds())
+                    .type(TEXT_PLAIN_TYPE)
+                    .entity(throttle.get().message())
+                    .build());
+            return;
+        }
+        Optional<HeldQuery> heldQuery = admissionController.hold(
+                routingGroup.get(),
+                request,
+                HeldQuery.Submission.fromRequest(request, multiReadHttpServletRequest.getContent()));
+        if (heldQuery.isPresent()) {
+            asyncResponse.resume(AdmissionResource.queryResultsResponse(admissionController, heldQuery.get(), request));
+            return;
+        }
+        RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(request, routingGroup.get());
+        proxyRequestHandler.postRequest(body, request, asyncResponse, routingDestination);
     }
 
     @GET
@@ -88,11 +130,11 @@ public class RouteToBackendResource
 
     @PUT
     public void putHandler(
-            String body,
+            byte[] body,
             @Context HttpServletRequest servletRequest,
             @Suspended AsyncResponse asyncResponse)
     {
-        MultiReadHttpServletRequest multiReadHttpServletRequest = new MultiReadHttpServletRequest(servletRequest, body);
+        MultiReadHttpServletRequest multiReadHttpServletRequest = new MultiReadHttpServletRequest(servletRequest, new RequestBody(body));
         RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(multiReadHttpServletRequest);
         proxyRequestHandler.putRequest(body, multiReadHttpServletRequest, asyncResponse, routingDestination);
     }
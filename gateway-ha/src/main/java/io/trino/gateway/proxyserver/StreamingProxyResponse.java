@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.http.client.StreamingResponse;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Relays the body of a backend response to the client in chunks of at most {@code bufferSize} bytes,
+ * without holding the whole body in memory. Only the first chunk can be inspected, which is enough
+ * to find the query id at the start of a Trino {@code QueryResults} document.
+ */
+public class StreamingProxyResponse
+        implements StreamingOutput, Closeable
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final StreamingResponse response;
+    private final int bufferSize;
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final SettableFuture<Void> closed = SettableFuture.create();
+    private byte[] prefix;
+
+    public StreamingProxyResponse(StreamingResponse response, int bufferSize)
+    {
+        this.response = requireNonNull(response, "response is null");
+        checkArgument(bufferSize > 0, "bufferSize must be positive");
+        this.bufferSize = bufferSize;
+    }
+
+    public StreamingResponse getResponse()
+    {
+        return response;
+    }
+
+    public synchronized Optional<String> extractQueryId()
+    {
+        try {
+            if (prefix == null) {
+                prefix = response.getInputStream().readNBytes(bufferSize);
+            }
+        }
+        catch (IOException e) {
+            throw new ProxyException("Failed reading response from remote Trino server", e);
+        }
+        return extractQueryId(prefix);
+    }
+
+    @Override
+    public synchronized void write(OutputStream output)
+            throws IOException
+    {
+        try (StreamingProxyResponse ignored = this) {
+            if (prefix != null) {
+                output.write(prefix);
+            }
+            InputStream input = response.getInputStream();
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                output.flush();
+            }
+        }
+    }
+
+    /**
+     * Releases the backend connection. Called after the body was written, and when the response is
+     * not sent, for example after the async timeout or when the client disconnected.
+     */
+    @Override
+    public void close()
+    {
+        if (closing.compareAndSet(false, true)) {
+            try {
+                response.close();
+            }
+            finally {
+                closed.set(null);
+            }
+        }
+    }
+
+    /**
+     * Runs the listener once the response is closed, or right away if it is already closed.
+     */
+    public void addCloseListener(Runnable listener)
+    {
+        closed.addListener(listener, directExecutor());
+    }
+
+    /**
+     * Returns the top level {@code id} field of a possibly truncated JSON object, if it appears within the given bytes.
+     */
+    static Optional<String> extractQueryId(byte[] prefix)
+    {
+        try (JsonParser parser = JSON_FACTORY.createParser(prefix)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Optional.empty();
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (fieldName.equals("id") && value == JsonToken.VALUE_STRING) {
+                    return Optional.of(parser.getText());
+                }
+                parser.skipChildren();
+            }
+        }
+        catch (IOException e) {
+            // the prefix ends before the id field, or the body is not JSON
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A token bucket implemented as a generic cell rate algorithm. Instead of a token count and the
+ * time of the last refill, the only state is the time at which the bucket is full again, which is
+ * updated with a compare-and-set, so that taking a token never blocks.
+ */
+final class TokenBucket
+{
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullAt;
+
+    TokenBucket(double tokensPerSecond, int burst, long now)
+    {
+        checkArgument(tokensPerSecond > 0, "tokensPerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+        intervalNanos = Math.max(1, Math.round(SECONDS.toNanos(1) / tokensPerSecond));
+        capacityNanos = intervalNanos * burst;
+        fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token, and returns zero, or returns the time in nanoseconds until a token is
+     * available without taking a token.
+     */
+    long tryAcquire(long now)
+    {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long wait = next - now - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire}.
+     */
+    void release(long now)
+    {
+        while (true) {
+            long current = fullAt.get();
+            if (current <= now || fullAt.compareAndSet(current, Math.max(now, current - intervalNanos))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the bucket has been full for the given time, so that dropping it and
+     * creating a new one later makes no difference.
+     */
+    boolean isIdle(long now, long idleNanos)
+    {
+        return now - fullAt.get() > idleNanos;
+    }
+}
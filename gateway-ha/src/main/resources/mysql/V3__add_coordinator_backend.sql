@@ -0,0 +1,5 @@
+CREATE TABLE coordinator_backend (
+    coordinator_id VARCHAR(256) PRIMARY KEY,
+    backend_url VARCHAR(256) NOT NULL,
+    updated BIGINT NOT NULL
+);
@@ -0,0 +1,2 @@
+ALTER TABLE gateway_backend
+    ADD weight INT NOT NULL DEFAULT 1;
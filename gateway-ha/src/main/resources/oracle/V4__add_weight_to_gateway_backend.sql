@@ -0,0 +1,2 @@
+ALTER TABLE gateway_backend
+    ADD weight NUMBER DEFAULT 1 NOT NULL;
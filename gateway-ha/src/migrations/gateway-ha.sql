@@ -5,7 +5,8 @@ name VARCHAR(256) PRIMARY KEY,
 routing_group VARCHAR (256),
 backend_url VARCHAR (256),
 external_url VARCHAR (256),
-active BOOLEAN
+active BOOLEAN,
+weight INT NOT NULL DEFAULT 1
 );
 
 CREATE TABLE IF NOT EXISTS query_history (
@@ -18,6 +19,12 @@ source VARCHAR(256)
 );
 CREATE INDEX query_history_created_idx ON query_history(created);
 
+CREATE TABLE IF NOT EXISTS coordinator_backend (
+coordinator_id VARCHAR(256) PRIMARY KEY,
+backend_url VARCHAR (256) NOT NULL,
+updated bigint NOT NULL
+);
+
 CREATE TABLE IF NOT EXISTS resource_groups (
     resource_group_id BIGINT NOT NULL AUTO_INCREMENT,
     name VARCHAR(250) NOT NULL UNIQUE,
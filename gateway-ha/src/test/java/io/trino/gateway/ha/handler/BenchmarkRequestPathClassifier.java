@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static io.trino.gateway.ha.handler.HttpUtils.OAUTH_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.TRINO_UI_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_INFO_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_NODE_PATH;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_QUERY_PATH;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Compares {@link RequestPathClassifier} with the regular expression and {@code String.split}
+ * based implementation it replaced, for the request shapes seen by the gateway. Run with
+ * {@code -prof gc} to compare the allocation rate.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkRequestPathClassifier
+{
+    private static final List<String> STATEMENT_PATHS = ImmutableList.of("/v1/statement");
+    private static final Pattern QUERY_ID_PATH_PATTERN = Pattern.compile(".*/(\\d+_\\d+_\\d+_\\w+).*");
+    private static final Pattern QUERY_ID_PARAM_PATTERN = Pattern.compile(".*(?:%2F|(?i)query_?id(?-i)=|^)(\\d+_\\d+_\\d+_\\w+).*");
+
+    @Param({"statement", "query", "ui"})
+    private String shape;
+
+    private final RequestPathClassifier classifier = new RequestPathClassifier(STATEMENT_PATHS, ImmutableList.of(), false);
+    private String path;
+    private String queryString;
+
+    @Setup
+    public void setup()
+    {
+        switch (shape) {
+            case "statement" -> {
+                path = "/v1/statement/executing/20200416_160256_03078_6b4yt/ya7e884929c67cdf86207a80e7a77ab2166fa2e7b/1368";
+                queryString = null;
+            }
+            case "query" -> {
+                path = "/v1/query/20200416_160256_03078_6b4yt";
+                queryString = "pretty";
+            }
+            case "ui" -> {
+                path = "/ui/query.html";
+                queryString = "20200416_160256_03078_6b4yt";
+            }
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+    }
+
+    @Benchmark
+    public Optional<String> classifier()
+    {
+        if (classifier.classify(path) == RequestPathClassifier.PathCategory.NONE) {
+            return Optional.empty();
+        }
+        return classifier.extractQueryId(path, queryString);
+    }
+
+    @Benchmark
+    public Optional<String> legacy()
+    {
+        if (!legacyIsPathWhiteListed(path)) {
+            return Optional.empty();
+        }
+        return legacyExtractQueryId(path, queryString);
+    }
+
+    private static boolean legacyIsPathWhiteListed(String path)
+    {
+        return STATEMENT_PATHS.stream().anyMatch(path::startsWith)
+                || path.startsWith(V1_QUERY_PATH)
+                || path.startsWith(TRINO_UI_PATH)
+                || path.startsWith(V1_INFO_PATH)
+                || path.startsWith(V1_NODE_PATH)
+                || path.startsWith(OAUTH_PATH);
+    }
+
+    private static Optional<String> legacyExtractQueryId(String path, String queryParams)
+    {
+        Optional<String> matchingStatementPath = STATEMENT_PATHS.stream().filter(path::startsWith).findAny();
+        if (!isNullOrEmpty(queryParams)) {
+            Matcher matcher = QUERY_ID_PARAM_PATTERN.matcher(queryParams);
+            if (matcher.matches()) {
+                return Optional.of(matcher.group(1));
+            }
+        }
+        if (matchingStatementPath.isPresent() || path.startsWith(V1_QUERY_PATH)) {
+            String[] tokens = path.replace(matchingStatementPath.orElse(V1_QUERY_PATH), "").split("/");
+            if (tokens.length >= 2) {
+                if (tokens[1].equals("queued")
+                        || tokens[1].equals("scheduled")
+                        || tokens[1].equals("executing")
+                        || tokens[1].equals("partialCancel")) {
+                    return Optional.of(tokens[2]);
+                }
+                return Optional.of(tokens[1]);
+            }
+        }
+        else if (path.startsWith(TRINO_UI_PATH)) {
+            Matcher matcher = QUERY_ID_PATH_PATTERN.matcher(path);
+            if (matcher.matches()) {
+                return Optional.of(matcher.group(1));
+            }
+        }
+        return Optional.empty();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRequestPathClassifier.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
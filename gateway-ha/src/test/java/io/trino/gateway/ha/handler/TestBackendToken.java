@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class TestBackendToken
+{
+    private static final String BACKEND = "http://trino1:8080";
+
+    @Test
+    void testEncodeAndDecode()
+    {
+        BackendToken backendToken = new BackendToken("secret");
+        String token = backendToken.encode(BACKEND, "etl");
+        assertThat(token).doesNotContain("/");
+        assertThat(backendToken.decode(token)).contains(new BackendToken.Target(BACKEND, "etl"));
+        // decoding does not depend on the state of the instance that issued the token
+        assertThat(new BackendToken("secret").decode(token)).contains(new BackendToken.Target(BACKEND, "etl"));
+    }
+
+    @Test
+    void testInvalidToken()
+    {
+        BackendToken backendToken = new BackendToken("secret");
+        String token = backendToken.encode(BACKEND, "etl");
+        String forged = new BackendToken("other secret").encode("http://attacker:8080", "etl");
+        String payload = forged.substring(0, forged.indexOf('.'));
+        String signature = token.substring(token.indexOf('.'));
+
+        assertThat(backendToken.decode(forged)).isEmpty();
+        assertThat(backendToken.decode(payload + signature)).isEmpty();
+        assertThat(backendToken.decode("no-signature")).isEmpty();
+        assertThat(backendToken.decode("!!!.???")).isEmpty();
+    }
+
+    @Test
+    void testParsePath()
+    {
+        assertThat(BackendToken.parsePath("/trino-gateway/backend/abc.def/v1/statement/executing/20240101_123456_00001_abcde/y1/1"))
+                .contains(new BackendToken.TokenPath("abc.def", "/v1/statement/executing/20240101_123456_00001_abcde/y1/1"));
+        assertThat(BackendToken.parsePath("/trino-gateway/backend/abc.def")).isEmpty();
+        assertThat(BackendToken.parsePath("/v1/statement")).isEmpty();
+    }
+
+    @Test
+    void testRewriteQueryResults()
+    {
+        BackendToken backendToken = new BackendToken("secret");
+        String token = backendToken.encode(BACKEND, "etl");
+        String body = "{\"id\":\"20240101_123456_00001_abcde\"," +
+                "\"infoUri\":\"http://gateway:8080/ui/query.html?20240101_123456_00001_abcde\"," +
+                "\"partialCancelUri\":\"http://gateway:8080/v1/statement/executing/partialCancel/20240101_123456_00001_abcde/0/y1/1\"," +
+                "\"nextUri\":\"http://gateway:8080/v1/statement/executing/20240101_123456_00001_abcde/y1/1\"," +
+                "\"data\":[[\"\\\"nextUri\\\":\\\"http://other/\"]]}";
+
+        assertThat(backendToken.rewriteQueryResults(body, BACKEND, "etl")).contains(
+                "{\"id\":\"20240101_123456_00001_abcde\"," +
+                        "\"infoUri\":\"http://gateway:8080/trino-gateway/backend/" + token + "/ui/query.html?20240101_123456_00001_abcde\"," +
+                        "\"partialCancelUri\":\"http://gateway:8080/trino-gateway/backend/" + token + "/v1/statement/executing/partialCancel/20240101_123456_00001_abcde/0/y1/1\"," +
+                        "\"nextUri\":\"http://gateway:8080/trino-gateway/backend/" + token + "/v1/statement/executing/20240101_123456_00001_abcde/y1/1\"," +
+                        "\"data\":[[\"\\\"nextUri\\\":\\\"http://other/\"]]}");
+
+        // URIs pointing directly to the backend are not rewritten
+        String direct = "{\"nextUri\":\"http://trino1:8080/v1/statement/executing/20240101_123456_00001_abcde/y1/1\"}";
+        assertThat(backendToken.rewriteQueryResults(direct, BACKEND, "etl")).isEmpty();
+        assertThat(backendToken.rewriteQueryResults("{\"id\":\"20240101_123456_00001_abcde\"}", BACKEND, "etl")).isEmpty();
+    }
+
+    @Test
+    void testRewriteFinalPageWithMapColumn()
+    {
+        BackendToken backendToken = new BackendToken("secret");
+        // the last page has no URIs to rewrite, and map values are written as JSON objects
+        String body = "{\"id\":\"20240101_123456_00001_abcde\"," +
+                "\"infoUri\":\"http://gateway:8080/ui/query.html?20240101_123456_00001_abcde\"," +
+                "\"columns\":[{\"name\":\"links\",\"type\":\"map(varchar, varchar)\"}]," +
+                "\"data\":[[{\"nextUri\":\"http://example.com/page/2\",\"partialCancelUri\":\"http://example.com/cancel\"}]]," +
+                "\"stats\":{\"state\":\"FINISHED\"}}";
+        String token = backendToken.encode(BACKEND, "etl");
+
+        assertThat(backendToken.rewriteQueryResults(body, BACKEND, "etl")).contains(body.replace(
+                "http://gateway:8080/ui/query.html",
+                "http://gateway:8080/trino-gateway/backend/" + token + "/ui/query.html"));
+        // data without column metadata is not rewritten either
+        String dataOnly = "{\"id\":\"20240101_123456_00001_abcde\",\"data\":[[{\"nextUri\":\"http://example.com/page/2\"}]]}";
+        assertThat(backendToken.rewriteQueryResults(dataOnly, BACKEND, "etl")).isEmpty();
+    }
+
+    @Test
+    void testFromConfiguration()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        RoutingConfiguration routingConfiguration = configuration.getRouting();
+        assertThat(BackendToken.fromConfiguration(configuration)).isEqualTo(Optional.empty());
+
+        routingConfiguration.setBackendTokenEnabled(true);
+        assertThatThrownBy(() -> BackendToken.fromConfiguration(configuration))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        routingConfiguration.setBackendTokenSigningSecret("secret");
+        assertThat(BackendToken.fromConfiguration(configuration)).isPresent();
+
+        // streamed responses cannot carry the token
+        configuration.getProxyResponseConfiguration().setStreamingEnabled(true);
+        assertThatThrownBy(() -> BackendToken.fromConfiguration(configuration))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("streamingEnabled");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+final class TestRequestBody
+{
+    @Test
+    void testContainsAsciiIgnoreCase()
+    {
+        RequestBody body = requestBody("SELECT * FROM tpch.tiny.nation");
+        assertThat(body.containsAsciiIgnoreCase("from tpch")).isTrue();
+        assertThat(body.containsAsciiIgnoreCase("NATION")).isTrue();
+        assertThat(body.containsAsciiIgnoreCase("SELECT")).isTrue();
+        assertThat(body.containsAsciiIgnoreCase("delete")).isFalse();
+        assertThat(body.containsAsciiIgnoreCase("SELECT * FROM tpch.tiny.nation.region")).isFalse();
+
+        // multi-byte characters do not match ASCII characters
+        RequestBody multiByte = requestBody("SELECT 'é€😀' FROM nation");
+        assertThat(multiByte.containsAsciiIgnoreCase("' from NATION")).isTrue();
+        assertThat(multiByte.containsAsciiIgnoreCase("e")).isTrue();
+        assertThat(multiByte.containsAsciiIgnoreCase("'e")).isFalse();
+    }
+
+    @Test
+    void testTextPrefixAscii()
+    {
+        RequestBody body = requestBody("SELECT 1");
+        assertThat(body.textPrefix(0)).isEmpty();
+        assertThat(body.textPrefix(3)).isEqualTo("SEL");
+        assertThat(body.textPrefix(8)).isEqualTo("SELECT 1");
+        assertThat(body.textPrefix(100)).isEqualTo("SELECT 1");
+    }
+
+    @Test
+    void testTextPrefixMultiByte()
+    {
+        String text = "é€😀a€";
+        for (int maxChars = 0; maxChars <= text.length() + 1; maxChars++) {
+            String expected = expectedPrefix(text, maxChars);
+            assertThat(requestBody(text).textPrefix(maxChars)).as("prefix of %s chars", maxChars).isEqualTo(expected);
+
+            // the cached text is cut the same way
+            RequestBody decoded = requestBody(text);
+            assertThat(decoded.text()).isEqualTo(text);
+            assertThat(decoded.textPrefix(maxChars)).as("prefix of %s chars of the decoded text", maxChars).isEqualTo(expected);
+        }
+
+        // the surrogate pair of the emoji is not split
+        assertThat(requestBody(text).textPrefix(3)).isEqualTo("é€");
+        assertThat(requestBody(text).textPrefix(4)).isEqualTo("é€😀");
+        // a character cut at the end of the decoded bytes is not returned
+        assertThat(requestBody("€€€€").textPrefix(2)).isEqualTo("€€");
+        assertThat(requestBody("a€€€").textPrefix(2)).isEqualTo("a€");
+    }
+
+    @Test
+    void testEmptyBody()
+            throws IOException
+    {
+        RequestBody body = requestBody("");
+        assertThat(body.length()).isZero();
+        assertThat(body.text()).isEmpty();
+        assertThat(body.textPrefix(10)).isEmpty();
+        assertThat(body.containsAsciiIgnoreCase("select")).isFalse();
+        try (InputStream input = body.openStream()) {
+            assertThat(input.readAllBytes()).isEmpty();
+        }
+    }
+
+    @Test
+    void testSharedBuffer()
+            throws IOException
+    {
+        byte[] bytes = "SELECT 1".getBytes(UTF_8);
+        RequestBody body = new RequestBody(bytes);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getAttribute(RequestBody.ATTRIBUTE)).thenReturn(body);
+
+        // routing and proxying read the same buffer, each stream starts at the beginning of the body
+        RequestBody shared = RequestBody.fromRequest(request).orElseThrow();
+        assertThat(shared).isSameAs(body);
+        assertThat(shared.bytes()).isSameAs(bytes);
+        try (InputStream routing = shared.openStream(); InputStream proxying = shared.openStream()) {
+            assertThat(routing.readAllBytes()).isEqualTo(bytes);
+            assertThat(proxying.readAllBytes()).isEqualTo(bytes);
+        }
+        assertThat(RequestBody.fromRequest(mock(HttpServletRequest.class))).isEmpty();
+    }
+
+    private static String expectedPrefix(String text, int maxChars)
+    {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int end = maxChars > 0 && Character.isHighSurrogate(text.charAt(maxChars - 1)) ? maxChars - 1 : maxChars;
+        return text.substring(0, end);
+    }
+
+    private static RequestBody requestBody(String text)
+    {
+        return new RequestBody(text.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import com.google.common.collect.ImmutableList;
+import io.trino.gateway.ha.handler.RequestPathClassifier.PathCategory;
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+final class TestRequestPathClassifier
+{
+    private static final String QUERY_ID = "20200416_160256_03078_6b4yt";
+
+    private final RequestPathClassifier classifier = new RequestPathClassifier(
+            ImmutableList.of("/v1/statement", "/custom/api/statement"),
+            ImmutableList.of(Pattern.compile("/api/v1/.*"), Pattern.compile(".*/extra")),
+            true);
+
+    @Test
+    void testClassify()
+    {
+        assertThat(classifier.classify("/v1/statement")).isEqualTo(PathCategory.STATEMENT);
+        assertThat(classifier.classify("/v1/statement/executing/" + QUERY_ID + "/y1/1")).isEqualTo(PathCategory.STATEMENT);
+        assertThat(classifier.classify("/custom/api/statement/queued/" + QUERY_ID + "/y1/1")).isEqualTo(PathCategory.STATEMENT);
+        assertThat(classifier.classify("/v1/query/" + QUERY_ID)).isEqualTo(PathCategory.QUERY);
+        assertThat(classifier.classify("/ui/api/stats")).isEqualTo(PathCategory.UI);
+        assertThat(classifier.classify("/ui/query.html")).isEqualTo(PathCategory.UI);
+        assertThat(classifier.classify("/v1/info")).isEqualTo(PathCategory.INFO);
+        assertThat(classifier.classify("/v1/node/failed")).isEqualTo(PathCategory.NODE);
+        assertThat(classifier.classify("/oauth2/token")).isEqualTo(PathCategory.OAUTH);
+        assertThat(classifier.classify("/trino-gateway/backend/abc.def/v1/statement")).isEqualTo(PathCategory.BACKEND_TOKEN);
+        assertThat(classifier.classify("/api/v1/anything")).isEqualTo(PathCategory.EXTRA);
+        assertThat(classifier.classify("/some/extra")).isEqualTo(PathCategory.EXTRA);
+
+        assertThat(classifier.classify("")).isEqualTo(PathCategory.NONE);
+        assertThat(classifier.classify("/")).isEqualTo(PathCategory.NONE);
+        assertThat(classifier.classify("/v1")).isEqualTo(PathCategory.NONE);
+        assertThat(classifier.classify("/v1/stat")).isEqualTo(PathCategory.NONE);
+        assertThat(classifier.classify("/custom/api")).isEqualTo(PathCategory.NONE);
+        assertThat(classifier.classify("/api/v2/anything")).isEqualTo(PathCategory.NONE);
+        assertThat(new RequestPathClassifier(ImmutableList.of(), ImmutableList.of(), false).classify("/trino-gateway/backend/abc.def/v1/statement"))
+                .isEqualTo(PathCategory.NONE);
+    }
+
+    @Test
+    void testStatementPathPrecedence()
+    {
+        RequestPathClassifier shortStatementPath = new RequestPathClassifier(ImmutableList.of("/v1"), ImmutableList.of(), false);
+        assertThat(shortStatementPath.classify("/v1/query/" + QUERY_ID)).isEqualTo(PathCategory.STATEMENT);
+        assertThat(shortStatementPath.classify("/ui/query.html")).isEqualTo(PathCategory.UI);
+        assertThat(shortStatementPath.extractQueryId("/v1/executing/" + QUERY_ID + "/y1/1", null)).hasValue(QUERY_ID);
+
+        RequestPathClassifier sameStatementPath = new RequestPathClassifier(ImmutableList.of("/v1/query"), ImmutableList.of(), false);
+        assertThat(sameStatementPath.classify("/v1/query/" + QUERY_ID)).isEqualTo(PathCategory.STATEMENT);
+    }
+
+    @Test
+    void testExtractQueryIdFromPath()
+    {
+        assertThat(classifier.extractQueryId("/v1/statement/executing/" + QUERY_ID + "/y1/1", null)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/v1/statement/partialCancel/" + QUERY_ID + "/0/y1/1", null)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/v1/statement/" + QUERY_ID, "")).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/v1/query/" + QUERY_ID + "/killed", null)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/ui/api/query/" + QUERY_ID + "/killed", null)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/ui/api/query/20200416_160256_03078_aaaaa/" + QUERY_ID, null)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/ui/api/query/" + QUERY_ID + ".json", null)).hasValue(QUERY_ID);
+
+        assertThat(classifier.extractQueryId("/v1/statement", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/v1/statement/", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/v1/statement/executing", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/v1/statement/executing/", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/v1/statement/queued//y1/1", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/ui/api/query/2020_1_2_", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/ui/api/query/2020_1__x", null)).isEmpty();
+        assertThat(classifier.extractQueryId("/v1/info/" + QUERY_ID, null)).isEmpty();
+        assertThat(classifier.extractQueryId("/other/" + QUERY_ID, null)).isEmpty();
+        assertThat(classifier.extractQueryId(null, QUERY_ID)).isEmpty();
+    }
+
+    @Test
+    void testExtractQueryIdFromQueryString()
+    {
+        assertThat(classifier.extractQueryId("/ui/query.html", QUERY_ID)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/ui/troubleshooting", "queryId=" + QUERY_ID)).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/ui/troubleshooting", "lang=en&QUERY_ID=" + QUERY_ID + "&p=1")).hasValue(QUERY_ID);
+        assertThat(classifier.extractQueryId("/login", "redirect=%2Fui%2Fapi%2Fquery%2F" + QUERY_ID)).hasValue(QUERY_ID);
+        // the last query id is used, like the greedy regular expression used before
+        assertThat(classifier.extractQueryId("/ui/troubleshooting", "queryId=20200416_160256_03078_aaaaa&queryId=" + QUERY_ID)).hasValue(QUERY_ID);
+        // the query string takes precedence over the path
+        assertThat(classifier.extractQueryId("/v1/query/20200416_160256_03078_aaaaa", "queryId=" + QUERY_ID)).hasValue(QUERY_ID);
+
+        assertThat(classifier.extractQueryId("/ui/", "lang=en&p=1&id=0_1_2_a")).isEmpty();
+        assertThat(classifier.extractQueryId("/ui/", "x" + QUERY_ID)).isEmpty();
+        assertThat(classifier.extractQueryId("/ui/", "%2F")).isEmpty();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.handler;
+
+import io.trino.gateway.ha.config.GatewayCookieConfiguration;
+import io.trino.gateway.ha.config.GatewayCookieConfigurationPropertiesProvider;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import io.trino.gateway.ha.router.RoutingGroupSelector;
+import io.trino.gateway.ha.router.RoutingManager;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.HttpMethod;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.net.URI;
+import java.util.Optional;
+
+import static io.trino.gateway.ha.handler.HttpUtils.V1_STATEMENT_PATH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@TestInstance(PER_CLASS)
+final class TestRoutingTargetHandler
+{
+    private static final String TOKEN_BACKEND = "http://trino1:8080";
+    private static final String ROUTED_BACKEND = "http://trino2:8080";
+    private static final String QUERY_ID = "20240101_123456_00001_abcde";
+
+    private final BackendToken backendToken = new BackendToken("secret");
+    private final String tokenPrefix = BackendToken.PATH_PREFIX + backendToken.encode(TOKEN_BACKEND, "adhoc");
+    private RoutingTargetHandler routingTargetHandler;
+
+    @BeforeAll
+    void setup()
+    {
+        GatewayCookieConfigurationPropertiesProvider.getInstance().initialize(new GatewayCookieConfiguration());
+        RoutingConfiguration routingConfiguration = new RoutingConfiguration();
+        routingConfiguration.setBackendTokenEnabled(true);
+        routingConfiguration.setBackendTokenSigningSecret("secret");
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.setRouting(routingConfiguration);
+        RoutingManager routingManager = mock(RoutingManager.class);
+        when(routingManager.provideClusterForQuery(eq("etl"), any(), any())).thenReturn(ROUTED_BACKEND);
+        RoutingGroupSelector routingGroupSelector = mock(RoutingGroupSelector.class);
+        when(routingGroupSelector.findRoutingGroup(any())).thenReturn(Optional.of("etl"));
+        routingTargetHandler = new RoutingTargetHandler(routingManager, routingGroupSelector, configuration);
+    }
+
+    @Test
+    void testTokenizedSubmissionIsRoutedByRules()
+    {
+        HttpServletRequest request = prepareRequest(HttpMethod.POST, tokenPrefix + V1_STATEMENT_PATH, null);
+
+        // the token of another query does not pin a new query to its backend
+        assertThat(routingTargetHandler.withoutBackendTokenOfNewQuery(request).getRequestURI()).isEqualTo(V1_STATEMENT_PATH);
+        assertThat(routingTargetHandler.findRoutingGroupOfNewQuery(request)).contains("etl");
+        RoutingDestination routingDestination = routingTargetHandler.getRoutingDestination(request);
+        assertThat(routingDestination.routingGroup()).isEqualTo("etl");
+        assertThat(routingDestination.clusterHost()).isEqualTo(ROUTED_BACKEND);
+        assertThat(routingDestination.clusterUri()).isEqualTo(URI.create(ROUTED_BACKEND + V1_STATEMENT_PATH));
+    }
+
+    @Test
+    void testTokenizedQueryRequestIsRoutedByToken()
+    {
+        String path = "/v1/statement/executing/" + QUERY_ID + "/y1/1";
+        HttpServletRequest request = prepareRequest(HttpMethod.GET, tokenPrefix + path, null);
+
+        assertThat(routingTargetHandler.withoutBackendTokenOfNewQuery(request)).isSameAs(request);
+        assertThat(routingTargetHandler.findRoutingGroupOfNewQuery(request)).isEmpty();
+        assertThat(routingTargetHandler.getRoutingDestination(request))
+                .isEqualTo(new RoutingDestination("adhoc", TOKEN_BACKEND, URI.create(TOKEN_BACKEND + path)));
+
+        // the infoUri has the query id in its query string
+        HttpServletRequest infoRequest = prepareRequest(HttpMethod.GET, tokenPrefix + "/ui/query.html", QUERY_ID);
+        assertThat(routingTargetHandler.withoutBackendTokenOfNewQuery(infoRequest)).isSameAs(infoRequest);
+        assertThat(routingTargetHandler.getRoutingDestination(infoRequest).clusterHost()).isEqualTo(TOKEN_BACKEND);
+    }
+
+    private static HttpServletRequest prepareRequest(String method, String requestUri, String queryString)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getRequestURI()).thenReturn(requestUri);
+        when(request.getQueryString()).thenReturn(queryString);
+        when(request.getScheme()).thenReturn("http");
+        when(request.getAttribute(RequestBody.ATTRIBUTE)).thenReturn(new RequestBody("SELECT 1".getBytes(UTF_8)));
+        return request;
+    }
+}
@@ -107,6 +107,7 @@ public abstract class BaseTestDatabaseMigrations
         verifyResultSetCount("SELECT name FROM resource_groups", 0);
         verifyResultSetCount("SELECT user_regex FROM selectors", 0);
         verifyResultSetCount("SELECT environment FROM exact_match_source_selectors", 0);
+        verifyResultSetCount("SELECT coordinator_id FROM coordinator_backend", 0);
     }
 
     protected void verifyResultSetCount(String sql, int expectedCount)
@@ -124,16 +125,18 @@ public abstract class BaseTestDatabaseMigrations
         String resourceGroupsTable = "DROP TABLE IF EXISTS resource_groups";
         String selectorsTable = "DROP TABLE IF EXISTS selectors";
         String exactMatchTable = "DROP TABLE IF EXISTS exact_match_source_selectors";
+        String coordinatorBackendTable = "DROP TABLE IF EXISTS coordinator_backend";
         String flywayHistoryTable = "DROP TABLE IF EXISTS flyway_schema_history";
         Handle jdbiHandle = jdbi.open();
         String sql = format("SELECT 1 FROM information_schema.tables WHERE table_schema = '%s'", schema);
-        verifyResultSetCount(sql, 7);
+        verifyResultSetCount(sql, 8);
         jdbiHandle.execute(gatewayBackendTable);
         jdbiHandle.execute(queryHistoryTable);
         jdbiHandle.execute(propertiesTable);
         jdbiHandle.execute(selectorsTable);
         jdbiHandle.execute(resourceGroupsTable);
         jdbiHandle.execute(exactMatchTable);
+        jdbiHandle.execute(coordinatorBackendTable);
         jdbiHandle.execute(flywayHistoryTable);
         verifyResultSetCount(sql, 0);
         jdbiHandle.close();
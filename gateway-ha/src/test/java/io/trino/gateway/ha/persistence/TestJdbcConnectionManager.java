@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.persistence;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.trino.gateway.ha.config.DataStoreConfiguration;
+import org.jdbi.v3.core.Jdbi;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+final class TestJdbcConnectionManager
+{
+    @Test
+    void testPoolStats()
+            throws Exception
+    {
+        DataStoreConfiguration configuration = new DataStoreConfiguration("jdbc:h2:mem:test_pool_stats", "sa", "sa", "org.h2.Driver", 4, false);
+        configuration.setMaxPoolSize(4);
+        JdbcPoolStats poolStats = new JdbcPoolStats();
+
+        try (HikariDataSource dataSource = JdbcConnectionManager.createDataSource(configuration, configuration.getJdbcUrl(), "test", poolStats)) {
+            assertThat(poolStats.getPools()).isZero();
+            try (Connection connection = dataSource.getConnection()) {
+                assertThat(connection.isValid(1)).isTrue();
+                assertThat(poolStats.getPools()).isEqualTo(1);
+                assertThat(poolStats.getActiveConnections()).isEqualTo(1);
+                assertThat(poolStats.getMaxConnections()).isEqualTo(4);
+                assertThat(poolStats.getUtilization()).isEqualTo(0.25);
+            }
+            assertThat(poolStats.getActiveConnections()).isZero();
+            assertThat(poolStats.getConnectionAcquireTime().getAllTime().getCount()).isEqualTo(1);
+        }
+        assertThat(poolStats.getPools()).isZero();
+    }
+
+    @Test
+    void testRoutingGroupDatabasePoolsAreReused(@TempDir Path directory)
+    {
+        DataStoreConfiguration configuration = new DataStoreConfiguration("jdbc:h2:" + directory.resolve("gateway"), "sa", "sa", "org.h2.Driver", 4, false);
+        JdbcPoolStats poolStats = new JdbcPoolStats();
+        JdbcConnectionManager connectionManager = new JdbcConnectionManager(Jdbi.create(configuration.getJdbcUrl(), "sa", "sa"), configuration, poolStats);
+        try {
+            Jdbi first = connectionManager.getJdbi("test_routing_group");
+            assertThat(connectionManager.getJdbi("test_routing_group")).isSameAs(first);
+            assertThat(connectionManager.getJdbi("other_routing_group")).isNotSameAs(first);
+            assertThat(connectionManager.getJdbi(null)).isSameAs(connectionManager.getJdbi());
+
+            int result = first.withHandle(handle -> handle.createQuery("SELECT 1").mapTo(Integer.class).one());
+            assertThat(result).isEqualTo(1);
+            assertThat(poolStats.getPools()).isEqualTo(1);
+        }
+        finally {
+            connectionManager.stop();
+        }
+        assertThat(poolStats.getPools()).isZero();
+    }
+
+    @Test
+    void testGatewayPoolIsClosed()
+    {
+        DataStoreConfiguration configuration = new DataStoreConfiguration("jdbc:h2:mem:test_gateway_pool", "sa", "sa", "org.h2.Driver", 4, false);
+        JdbcPoolStats poolStats = new JdbcPoolStats();
+        HikariDataSource dataSource = JdbcConnectionManager.createDataSource(configuration, configuration.getJdbcUrl(), "gateway", poolStats);
+        JdbcConnectionManager connectionManager = new JdbcConnectionManager(dataSource, configuration, poolStats);
+
+        int result = connectionManager.getJdbi().withHandle(handle -> handle.createQuery("SELECT 1").mapTo(Integer.class).one());
+        assertThat(result).isEqualTo(1);
+        assertThat(poolStats.getPools()).isEqualTo(1);
+
+        connectionManager.stop();
+        assertThat(dataSource.isClosed()).isTrue();
+        assertThat(poolStats.getPools()).isZero();
+    }
+}
@@ -13,10 +13,13 @@
  */
 package io.trino.gateway.ha.router;
 
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.DataStoreConfiguration;
 import io.trino.gateway.ha.domain.response.DistributionResponse;
 import io.trino.gateway.ha.persistence.FlywayMigration;
 import io.trino.gateway.ha.persistence.JdbcConnectionManager;
+import io.trino.gateway.ha.persistence.dao.QueryHistoryDao;
+import org.jdbi.v3.core.Jdbi;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -24,17 +27,23 @@ import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.testcontainers.containers.JdbcDatabaseContainer;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 import static io.trino.gateway.ha.TestingJdbcConnectionManager.createTestingJdbcConnectionManager;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @TestInstance(Lifecycle.PER_CLASS)
 abstract class BaseTestQueryHistoryManager
 {
     protected final JdbcDatabaseContainer<?> container = startContainer();
+    private Jdbi jdbi;
     private QueryHistoryManager queryHistoryManager;
+    private QueryHistoryDao queryHistoryDao;
+    private QueryHistoryWriter queryHistoryWriter;
+    private QueryHistoryManager writeBehindQueryHistoryManager;
 
     protected abstract JdbcDatabaseContainer<?> startContainer();
 
@@ -50,12 +59,26 @@ abstract class BaseTestQueryHistoryManager
                 true);
         FlywayMigration.migrate(config);
         JdbcConnectionManager jdbcConnectionManager = createTestingJdbcConnectionManager(container, config);
+        jdbi = jdbcConnectionManager.getJdbi();
         queryHistoryManager = new HaQueryHistoryManager(jdbcConnectionManager.getJdbi(), container.getJdbcUrl().startsWith("jdbc:oracle"));
+        queryHistoryDao = jdbcConnectionManager.getJdbi().onDemand(QueryHistoryDao.class);
+        queryHistoryWriter = new QueryHistoryWriter(
+                queryHistoryDao,
+                true,
+                100,
+                // larger than the entries of a test, so that only explicit flushes write them
+                100,
+                new Duration(1, HOURS));
+        writeBehindQueryHistoryManager = new HaQueryHistoryManager(
+                jdbcConnectionManager.getJdbi(),
+                container.getJdbcUrl().startsWith("jdbc:oracle"),
+                Optional.of(queryHistoryWriter));
     }
 
     @AfterAll
     public final void close()
     {
+        queryHistoryWriter.stop();
         container.close();
     }
 
@@ -114,6 +137,84 @@ abstract class BaseTestQueryHistoryManager
         assertThat(resList).hasSize(1);
     }
 
+    @Test
+    void testWriteBehindQueryHistory()
+    {
+        String user = "write-behind-user";
+        for (int i = 0; i < 7; i++) {
+            QueryHistoryManager.QueryDetail queryDetail = new QueryHistoryManager.QueryDetail();
+            queryDetail.setBackendUrl("http://localhost:9999");
+            queryDetail.setSource("sqlWorkbench");
+            queryDetail.setUser(user);
+            queryDetail.setQueryText("select " + i);
+            queryDetail.setQueryId("write_behind_" + i);
+            // far in the past, so that the entries can be removed without affecting other tests
+            queryDetail.setCaptureTime(i);
+            writeBehindQueryHistoryManager.submitQueryDetail(queryDetail);
+        }
+        // a duplicate query id must not prevent the rest of its batch from being written
+        QueryHistoryManager.QueryDetail duplicate = new QueryHistoryManager.QueryDetail();
+        duplicate.setBackendUrl("http://localhost:9999");
+        duplicate.setUser(user);
+        duplicate.setQueryText("select duplicate");
+        duplicate.setQueryId("write_behind_0");
+        duplicate.setCaptureTime(0);
+        writeBehindQueryHistoryManager.submitQueryDetail(duplicate);
+
+        queryHistoryWriter.flush();
+
+        assertThat(queryHistoryManager.fetchQueryHistory(Optional.of(user))).hasSize(7);
+        assertThat(queryHistoryWriter.getWritten().getTotalCount()).isEqualTo(7);
+        assertThat(queryHistoryWriter.getFailed().getTotalCount()).isEqualTo(1);
+        assertThat(queryHistoryWriter.getQueueSize()).isZero();
+
+        queryHistoryDao.deleteOldHistory(1000);
+        assertThat(queryHistoryManager.fetchQueryHistory(Optional.of(user))).isEmpty();
+    }
+
+    @Test
+    void testMissingQueryText()
+    {
+        submitWithoutQueryText(queryHistoryManager, "missing_text_sync");
+        submitWithoutQueryText(writeBehindQueryHistoryManager, "missing_text_write_behind");
+        queryHistoryWriter.flush();
+
+        // the stored value does not depend on whether the history is written behind
+        assertThat(storedQueryText("missing_text_sync")).hasSize(1);
+        assertThat(storedQueryText("missing_text_write_behind")).isEqualTo(storedQueryText("missing_text_sync"));
+
+        queryHistoryDao.deleteOldHistory(1000);
+    }
+
+    @Test
+    void testForEachQueryRoute()
+    {
+        for (int i = 0; i < 3; i++) {
+            QueryHistoryManager.QueryDetail queryDetail = new QueryHistoryManager.QueryDetail();
+            queryDetail.setBackendUrl("http://localhost:999" + i);
+            queryDetail.setUser("query-route-user");
+            queryDetail.setQueryText("select " + i);
+            queryDetail.setQueryId("query_route_" + i);
+            queryDetail.setRoutingGroup(i == 0 ? null : "etl");
+            // far in the past, so that the entries can be removed without affecting other tests
+            queryDetail.setCaptureTime(100 + i);
+            queryHistoryManager.submitQueryDetail(queryDetail);
+        }
+
+        List<String> routes = new ArrayList<>();
+        int count = queryHistoryManager.forEachQueryRoute(101, (queryId, backendUrl, routingGroup) -> {
+            if (queryId.startsWith("query_route_")) {
+                routes.add(queryId + " " + backendUrl + " " + routingGroup);
+            }
+        });
+        assertThat(count).isGreaterThanOrEqualTo(2);
+        assertThat(routes).containsExactly(
+                "query_route_1 http://localhost:9991 etl",
+                "query_route_2 http://localhost:9992 etl");
+
+        queryHistoryDao.deleteOldHistory(1000);
+    }
+
     @Test
     void testTimestampParsing()
     {
@@ -129,4 +230,23 @@ abstract class BaseTestQueryHistoryManager
         long parsedLongTimestamp2 = (long) Float.parseFloat(mysqlTimestamp);
         assertThat(parsedLongTimestamp2).isEqualTo(result);
     }
+
+    private static void submitWithoutQueryText(QueryHistoryManager queryHistoryManager, String queryId)
+    {
+        QueryHistoryManager.QueryDetail queryDetail = new QueryHistoryManager.QueryDetail();
+        queryDetail.setBackendUrl("http://localhost:9999");
+        queryDetail.setUser("missing-text-user");
+        queryDetail.setQueryId(queryId);
+        // far in the past, so that the entries can be removed without affecting other tests
+        queryDetail.setCaptureTime(0);
+        queryHistoryManager.submitQueryDetail(queryDetail);
+    }
+
+    private List<String> storedQueryText(String queryId)
+    {
+        return jdbi.withHandle(handle -> handle.createQuery("SELECT query_text FROM query_history WHERE query_id = :queryId")
+                .bind("queryId", queryId)
+                .mapTo(String.class)
+                .list());
+    }
 }
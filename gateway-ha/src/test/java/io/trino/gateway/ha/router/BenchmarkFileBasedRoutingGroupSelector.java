@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import jakarta.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.trino.gateway.ha.router.FileBasedRoutingGroupSelector.RESULTS_ROUTING_GROUP_KEY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.mvel2.MVEL.executeExpression;
+
+/**
+ * Measures routing a request through {@code ruleCount} file based routing rules, where the request
+ * matches the rule in the middle of the list. {@code findRoutingGroup} narrows the rules to the
+ * candidates of the header index and evaluates them against a single resolver factory per request,
+ * {@code findRoutingGroupLegacy} reproduces the previous evaluation that ran every condition and
+ * built a variables map for every condition and action. With
+ * {@code terminal} set, the matching rule stops the evaluation of the remaining rules. Run with
+ * {@code -prof gc} to compare the bytes allocated per request.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkFileBasedRoutingGroupSelector
+{
+    private static final String SOURCE_HEADER = "X-Trino-Source";
+
+    @Param({"10", "100", "1000"})
+    private int ruleCount;
+
+    @Param({"false", "true"})
+    private boolean terminal;
+
+    private Path rulesFile;
+    private FileBasedRoutingGroupSelector selector;
+    private List<RoutingRule> rules;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < ruleCount; i++) {
+            content.append("---\n")
+                    .append("name: \"rule-").append(i).append("\"\n")
+                    .append("priority: ").append(i).append("\n")
+                    .append("terminal: ").append(terminal).append("\n")
+                    .append("condition: 'request.getHeader(\"").append(SOURCE_HEADER).append("\") == \"source-").append(i).append("\"'\n")
+                    .append("actions:\n")
+                    .append("  - 'result.put(\"routingGroup\", \"group-").append(i).append("\")'\n");
+        }
+        rulesFile = Files.createTempFile("routing_rules", ".yml");
+        Files.writeString(rulesFile, content, UTF_8);
+
+        RequestAnalyzerConfig requestAnalyzerConfig = new RequestAnalyzerConfig();
+        requestAnalyzerConfig.setAnalyzeRequest(false);
+        selector = new FileBasedRoutingGroupSelector(rulesFile.toString(), new Duration(1, HOURS), requestAnalyzerConfig);
+        rules = selector.readRulesFromPath(rulesFile);
+        request = request("source-" + ruleCount / 2);
+    }
+
+    @TearDown
+    public void tearDown()
+            throws IOException
+    {
+        Files.deleteIfExists(rulesFile);
+    }
+
+    @Benchmark
+    public Optional<String> findRoutingGroup()
+    {
+        return selector.findRoutingGroup(request);
+    }
+
+    @Benchmark
+    public Optional<String> findRoutingGroupLegacy()
+    {
+        Map<String, String> result = new HashMap<>();
+        Map<String, Object> state = new HashMap<>();
+        Map<String, Object> data = ImmutableMap.of("request", request);
+        for (RoutingRule rule : rules) {
+            MVELRoutingRule mvelRule = (MVELRoutingRule) rule;
+            Map<String, Object> conditionVariables = ImmutableMap.<String, Object>builder()
+                    .putAll(data)
+                    .put("state", state)
+                    .buildOrThrow();
+            if ((boolean) executeExpression(mvelRule.condition, conditionVariables)) {
+                for (Serializable action : mvelRule.actions) {
+                    Map<String, Object> actionVariables = ImmutableMap.<String, Object>builder()
+                            .putAll(data)
+                            .put("result", result)
+                            .put("state", state)
+                            .buildOrThrow();
+                    executeExpression(action, actionVariables);
+                }
+            }
+        }
+        return Optional.ofNullable(result.get(RESULTS_ROUTING_GROUP_KEY));
+    }
+
+    private static HttpServletRequest request(String source)
+    {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                BenchmarkFileBasedRoutingGroupSelector.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getHeader" -> SOURCE_HEADER.equals(args[0]) ? source : null;
+                    default -> null;
+                });
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkFileBasedRoutingGroupSelector.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
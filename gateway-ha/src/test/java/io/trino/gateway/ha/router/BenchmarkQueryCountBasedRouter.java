@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures routing throughput of {@link QueryCountBasedRouter} with several routing groups.
+ * Run with an increasing number of threads, for example {@code -t 1}, {@code -t 4} and
+ * {@code -t max}, to verify that throughput scales with the number of cores.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(SECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkQueryCountBasedRouter
+{
+    private static final int ROUTING_GROUPS = 8;
+    private static final int USERS = 100;
+
+    @Param({"1", "10", "100"})
+    private int clustersPerRoutingGroup;
+
+    private final String[] routingGroups = new String[ROUTING_GROUPS];
+    private final String[] users = new String[USERS];
+    private QueryCountBasedRouter router;
+
+    @Setup
+    public void setup()
+    {
+        for (int i = 0; i < ROUTING_GROUPS; i++) {
+            routingGroups[i] = "group" + i;
+        }
+        for (int i = 0; i < USERS; i++) {
+            users[i] = "user" + i;
+        }
+        router = new QueryCountBasedRouter(null, null, Optional.empty(), new TestingHttpClient(_ -> {
+            throw new UnsupportedOperationException();
+        }), new RoutingConfiguration());
+        router.updateBackEndStats(clusterStats());
+    }
+
+    @Benchmark
+    public String routeQuery()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return router.provideClusterForRoutingGroup(routingGroups[random.nextInt(ROUTING_GROUPS)], users[random.nextInt(USERS)]);
+    }
+
+    private ImmutableList<ClusterStats> clusterStats()
+    {
+        ImmutableList.Builder<ClusterStats> stats = ImmutableList.builder();
+        for (int group = 0; group < ROUTING_GROUPS; group++) {
+            for (int cluster = 0; cluster < clustersPerRoutingGroup; cluster++) {
+                String name = "group" + group + "-cluster" + cluster;
+                stats.add(ClusterStats.builder(name)
+                        .proxyTo("http://" + name + ":8080")
+                        .trinoStatus(TrinoStatus.HEALTHY)
+                        .routingGroup("group" + group)
+                        .runningQueryCount(cluster)
+                        .queuedQueryCount(cluster % 3)
+                        .userQueuedCount(ImmutableMap.of("user" + cluster % USERS, 1))
+                        .build());
+            }
+        }
+        // the adhoc group is the fallback when a routing group has no cluster
+        stats.add(ClusterStats.builder("adhoc")
+                .proxyTo("http://adhoc:8080")
+                .trinoStatus(TrinoStatus.HEALTHY)
+                .routingGroup("adhoc")
+                .build());
+        return stats.build();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkQueryCountBasedRouter.class.getSimpleName())
+                .threads(Runtime.getRuntime().availableProcessors())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.HttpMethod;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures the cost of analyzing a query submission read from the servlet request. Run with the
+ * GC profiler, {@code gc.alloc.rate.norm} shows the bytes allocated per analyzed request, which
+ * should grow with the query length rather than with {@code requestAnalyzerConfig.maxBodySize}.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkTrinoQueryProperties
+{
+    private static final int MAX_BODY_SIZE = 1_000_000;
+
+    @Param({"40", "4000", "400000"})
+    private int queryLength;
+
+    private String query;
+
+    @Setup
+    public void setup()
+    {
+        StringBuilder builder = new StringBuilder("SELECT c1 FROM c.s.t1 WHERE c2 IN (0");
+        while (builder.length() < queryLength - 1) {
+            builder.append(", 0");
+        }
+        query = builder.append(")").toString();
+    }
+
+    @Benchmark
+    public TrinoQueryProperties analyzeRequest()
+    {
+        return new TrinoQueryProperties(postRequest(query), false, MAX_BODY_SIZE);
+    }
+
+    private static HttpServletRequest postRequest(String query)
+    {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                BenchmarkTrinoQueryProperties.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getMethod" -> HttpMethod.POST;
+                    case "getContentLength" -> query.length();
+                    case "getReader" -> new BufferedReader(new StringReader(query));
+                    case "getHeaders" -> Collections.emptyEnumeration();
+                    default -> null;
+                });
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkTrinoQueryProperties.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
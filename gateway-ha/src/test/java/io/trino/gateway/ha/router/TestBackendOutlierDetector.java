@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.base.Ticker;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.OutlierDetectionConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+final class TestBackendOutlierDetector
+{
+    private static final String BACKEND1 = "http://trino1:8080";
+    private static final String BACKEND2 = "http://trino2:8080";
+    private static final String BACKEND3 = "http://trino3:8080";
+
+    private final TestingTicker ticker = new TestingTicker();
+
+    @Test
+    void testDisabled()
+    {
+        BackendOutlierDetector detector = new BackendOutlierDetector(new OutlierDetectionConfiguration(), ticker);
+        for (int i = 0; i < 10; i++) {
+            detector.recordConnectFailure(BACKEND1);
+        }
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+    }
+
+    @Test
+    void testConsecutiveConnectFailures()
+    {
+        BackendOutlierDetector detector = new BackendOutlierDetector(enabledConfiguration(), ticker);
+        detector.recordResponse(BACKEND2, 200);
+        detector.recordConnectFailure(BACKEND1);
+        detector.recordConnectFailure(BACKEND1);
+        // a response resets the consecutive failures
+        detector.recordResponse(BACKEND1, 200);
+        detector.recordConnectFailure(BACKEND1);
+        detector.recordConnectFailure(BACKEND1);
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+
+        detector.recordConnectFailure(BACKEND1);
+        assertThat(detector.isEjected(BACKEND1)).isTrue();
+        assertThat(detector.isEjected(BACKEND2)).isFalse();
+        assertThat(detector.getEjectedBackends()).isEqualTo(1);
+
+        ticker.advance(10, SECONDS);
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+
+        // the second ejection lasts twice as long
+        for (int i = 0; i < 3; i++) {
+            detector.recordConnectFailure(BACKEND1);
+        }
+        ticker.advance(19, SECONDS);
+        assertThat(detector.isEjected(BACKEND1)).isTrue();
+        ticker.advance(1, SECONDS);
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+
+        // the ejection time is reset once the backend stayed healthy for the maximum ejection time
+        ticker.advance(6, MINUTES);
+        for (int i = 0; i < 3; i++) {
+            detector.recordConnectFailure(BACKEND1);
+        }
+        ticker.advance(10, SECONDS);
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+        assertThat(detector.getEjections().getTotalCount()).isEqualTo(3);
+    }
+
+    @Test
+    void testFailureRate()
+    {
+        BackendOutlierDetector detector = new BackendOutlierDetector(enabledConfiguration(), ticker);
+        detector.recordResponse(BACKEND2, 200);
+        for (int i = 0; i < 9; i++) {
+            detector.recordResponse(BACKEND1, 200);
+            detector.recordResponse(BACKEND1, 503);
+        }
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+
+        // failures in a previous interval are not counted
+        ticker.advance(10, SECONDS);
+        detector.recordResponse(BACKEND1, 200);
+        detector.recordResponse(BACKEND1, 503);
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+
+        for (int i = 0; i < 9; i++) {
+            detector.recordResponse(BACKEND1, 200);
+            detector.recordResponse(BACKEND1, 503);
+        }
+        assertThat(detector.isEjected(BACKEND1)).isTrue();
+    }
+
+    @Test
+    void testLatencyOutlier()
+    {
+        BackendOutlierDetector detector = new BackendOutlierDetector(enabledConfiguration(), ticker);
+        for (int i = 0; i < 20; i++) {
+            detector.recordSubmissionLatency(BACKEND1, MILLISECONDS.toNanos(100));
+            detector.recordSubmissionLatency(BACKEND2, MILLISECONDS.toNanos(120));
+        }
+        ticker.advance(10, SECONDS);
+        for (int i = 0; i < 20; i++) {
+            detector.recordSubmissionLatency(BACKEND3, MILLISECONDS.toNanos(400));
+        }
+        assertThat(detector.isEjected(BACKEND3)).isFalse();
+
+        ticker.advance(10, SECONDS);
+        detector.recordSubmissionLatency(BACKEND3, SECONDS.toNanos(30));
+        assertThat(detector.isEjected(BACKEND3)).isTrue();
+        assertThat(detector.isEjected(BACKEND1)).isFalse();
+    }
+
+    @Test
+    void testMaxEjectionPercent()
+    {
+        BackendOutlierDetector detector = new BackendOutlierDetector(enabledConfiguration(), ticker);
+        for (int i = 0; i < 3; i++) {
+            detector.recordConnectFailure(BACKEND1);
+            detector.recordConnectFailure(BACKEND2);
+        }
+        // at least one backend can be ejected, but not both of them
+        assertThat(detector.isEjected(BACKEND1)).isTrue();
+        assertThat(detector.isEjected(BACKEND2)).isFalse();
+        assertThat(detector.getSkippedEjections().getTotalCount()).isEqualTo(1);
+    }
+
+    private static OutlierDetectionConfiguration enabledConfiguration()
+    {
+        OutlierDetectionConfiguration configuration = new OutlierDetectionConfiguration();
+        configuration.setEnabled(true);
+        configuration.setBaseEjectionTime(new Duration(10, SECONDS));
+        return configuration;
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
+}
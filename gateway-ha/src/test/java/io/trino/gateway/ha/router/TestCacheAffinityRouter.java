@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+final class TestCacheAffinityRouter
+{
+    private static final List<String> BACKENDS = ImmutableList.of("http://c1", "http://c2", "http://c3");
+
+    private CacheAffinityRouter router;
+
+    @BeforeEach
+    void setUp()
+    {
+        router = new CacheAffinityRouter(mock(GatewayBackendManager.class), null, Optional.empty(), new TestingHttpClient(_ -> {
+            throw new UnsupportedOperationException();
+        }), new RoutingConfiguration());
+    }
+
+    @Test
+    void testFingerprint()
+    {
+        assertThat(CacheAffinityRouter.fingerprint(query("cat.s.t1", "cat.s.t2")))
+                .isEqualTo(CacheAffinityRouter.fingerprint(query("cat.s.t2", "cat.s.t1")))
+                .isNotEqualTo(CacheAffinityRouter.fingerprint(query("cat.s.t1")))
+                .isPresent();
+        assertThat(CacheAffinityRouter.fingerprint(query())).isEmpty();
+        assertThat(CacheAffinityRouter.fingerprint(new TrinoQueryProperties(
+                "SHOW TABLES", "ShowTables", "DESCRIBE", ImmutableList.of(), Optional.empty(), Optional.empty(),
+                ImmutableSet.of("cat"), ImmutableSet.of("s"), ImmutableSet.of("cat.s"), true, Optional.empty())))
+                .isPresent();
+    }
+
+    @Test
+    void testSameTablesRouteToSameBackend()
+    {
+        Set<String> routed = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            String table = "cat.s.t" + i;
+            updateStats(30);
+            String backend = router.provideClusterForQuery("adhoc", "user", () -> query(table));
+            for (int j = 0; j < 5; j++) {
+                assertThat(router.provideClusterForQuery("adhoc", "user", () -> query(table))).isEqualTo(backend);
+            }
+            routed.add(backend);
+        }
+        // different tables are spread over the backends
+        assertThat(routed).containsExactlyInAnyOrderElementsOf(BACKENDS);
+    }
+
+    @Test
+    void testLoadBound()
+    {
+        updateStats(30);
+        String preferred = router.provideClusterForQuery("adhoc", "user", () -> query("cat.s.t1"));
+        for (int i = 0; i < 100; i++) {
+            router.provideClusterForQuery("adhoc", "user", () -> query("cat.s.t1"));
+        }
+        // the preferred backend takes queries up to the load factor, the others take the overflow
+        double averageLoad = (3 * 30 + 101) / 30.0;
+        assertThat(router.backendLoads()).containsOnlyKeys(BACKENDS);
+        assertThat(router.backendLoads().get(preferred)).isGreaterThan(averageLoad);
+        assertThat(router.backendLoads().values()).allSatisfy(load -> assertThat(load).isLessThanOrEqualTo(1.25 * averageLoad + 0.1));
+        assertThat(router.getOverflowQueries().getTotalCount()).isPositive();
+    }
+
+    @Test
+    void testQueriesWithoutTables()
+    {
+        updateStats(0);
+        assertThat(router.provideClusterForQuery("etl", "user", TestCacheAffinityRouter::query)).isIn(BACKENDS);
+        assertThat(router.getPreferredBackendQueries().getTotalCount()).isZero();
+    }
+
+    private void updateStats(int queryCount)
+    {
+        router.updateBackEndStats(BACKENDS.stream()
+                .map(backend -> ClusterStats.builder(backend)
+                        .proxyTo(backend)
+                        .routingGroup("adhoc")
+                        .trinoStatus(TrinoStatus.HEALTHY)
+                        .runningQueryCount(queryCount)
+                        .numWorkerNodes(10)
+                        .build())
+                .toList());
+    }
+
+    private static TrinoQueryProperties query(String... tables)
+    {
+        Set<String> catalogs = new HashSet<>();
+        Set<String> catalogSchemas = new HashSet<>();
+        for (String table : tables) {
+            catalogs.add(table.substring(0, table.indexOf('.')));
+            catalogSchemas.add(table.substring(0, table.lastIndexOf('.')));
+        }
+        return new TrinoQueryProperties(
+                "SELECT", "Query", "SELECT", ImmutableList.copyOf(tables), Optional.empty(), Optional.empty(),
+                catalogs, ImmutableSet.of(), catalogSchemas, true, Optional.empty());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.ProxyBackendConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
+import io.trino.gateway.ha.persistence.JdbcConnectionManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.trino.gateway.ha.TestingJdbcConnectionManager.createTestingJdbcConnectionManager;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class TestCapacityWeightedRouter
+{
+    private HaGatewayManager backendManager;
+    private CapacityWeightedRouter router;
+
+    @BeforeEach
+    void setUp()
+    {
+        JdbcConnectionManager connectionManager = createTestingJdbcConnectionManager();
+        backendManager = new HaGatewayManager(connectionManager.getJdbi());
+        router = new CapacityWeightedRouter(backendManager, null, Optional.empty(), new TestingHttpClient(_ -> {
+            throw new UnsupportedOperationException();
+        }), new RoutingConfiguration());
+    }
+
+    @Test
+    void testLoadPerWorker()
+    {
+        addBackend("small", "adhoc", 1);
+        addBackend("large", "adhoc", 1);
+        router.updateBackEndStats(ImmutableList.of(
+                stats("small", "adhoc", 20, 10),
+                stats("large", "adhoc", 100, 200)));
+
+        // with two backends both are compared, and the large backend has the lower load per worker
+        assertThat(router.backendLoads()).containsEntry("http://small", 2.0).containsEntry("http://large", 0.5);
+        assertThat(router.provideAdhocCluster("user")).isEqualTo("http://large");
+    }
+
+    @Test
+    void testWeight()
+    {
+        addBackend("light", "etl", 1);
+        addBackend("heavy", "etl", 4);
+        router.updateBackEndStats(ImmutableList.of(
+                stats("light", "etl", 10, 10),
+                stats("heavy", "etl", 20, 10)));
+
+        assertThat(router.backendLoads()).containsEntry("http://light", 1.0).containsEntry("http://heavy", 0.5);
+        assertThat(router.provideClusterForRoutingGroup("etl", "user")).isEqualTo("http://heavy");
+
+        ProxyBackendConfiguration invalid = backend("invalid", "etl", 0);
+        assertThatThrownBy(() -> backendManager.addBackend(invalid))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testRoutedQueriesBalanceLoad()
+    {
+        addBackend("c1", "adhoc", 1);
+        addBackend("c2", "adhoc", 1);
+        addBackend("c3", "adhoc", 1);
+        router.updateBackEndStats(ImmutableList.of(
+                stats("c1", "adhoc", 0, 10),
+                stats("c2", "adhoc", 0, 10),
+                stats("c3", "adhoc", 0, 30)));
+
+        Map<String, Integer> routed = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            routed.merge(router.provideAdhocCluster("user"), 1, Integer::sum);
+        }
+        // the routed queries are counted, so the backends end up with a similar load per worker
+        assertThat(routed).containsOnlyKeys("http://c1", "http://c2", "http://c3");
+        assertThat(router.backendLoads().values()).allSatisfy(load -> assertThat(load).isBetween(8.0, 12.0));
+        assertThat(routed.get("http://c3")).isGreaterThan(routed.get("http://c1") + routed.get("http://c2"));
+    }
+
+    @Test
+    void testUnavailableBackends()
+    {
+        addBackend("c1", "adhoc", 1);
+        addBackend("c2", "adhoc", 1);
+        addBackend("etl", "etl", 1);
+        router.updateBackEndStats(ImmutableList.of(
+                stats("c1", "adhoc", 0, 10),
+                ClusterStats.builder("c2").proxyTo("http://c2").routingGroup("adhoc").trinoStatus(TrinoStatus.UNHEALTHY).build(),
+                ClusterStats.builder("etl").proxyTo("http://etl").routingGroup("etl").trinoStatus(TrinoStatus.UNHEALTHY).build()));
+
+        assertThat(router.provideAdhocCluster("user")).isEqualTo("http://c1");
+        // falls back to adhoc when the routing group has no healthy backend
+        assertThat(router.provideClusterForRoutingGroup("etl", "user")).isEqualTo("http://c1");
+        assertThat(router.provideFailoverCluster("etl", "user", ImmutableSet.of("http://c1"))).isEmpty();
+    }
+
+    private void addBackend(String name, String routingGroup, int weight)
+    {
+        backendManager.addBackend(backend(name, routingGroup, weight));
+    }
+
+    private static ProxyBackendConfiguration backend(String name, String routingGroup, int weight)
+    {
+        ProxyBackendConfiguration backend = new ProxyBackendConfiguration();
+        backend.setName(name);
+        backend.setProxyTo("http://" + name);
+        backend.setRoutingGroup(routingGroup);
+        backend.setWeight(weight);
+        return backend;
+    }
+
+    private static ClusterStats stats(String name, String routingGroup, int queryCount, int workers)
+    {
+        return ClusterStats.builder(name)
+                .proxyTo("http://" + name)
+                .routingGroup(routingGroup)
+                .trinoStatus(TrinoStatus.HEALTHY)
+                .runningQueryCount(queryCount)
+                .numWorkerNodes(workers)
+                .build();
+    }
+}
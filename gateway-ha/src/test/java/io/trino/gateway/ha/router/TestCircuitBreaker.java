@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.base.Ticker;
+import io.airlift.units.Duration;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.trino.gateway.ha.router.CircuitBreaker.State.CLOSED;
+import static io.trino.gateway.ha.router.CircuitBreaker.State.HALF_OPEN;
+import static io.trino.gateway.ha.router.CircuitBreaker.State.OPEN;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+final class TestCircuitBreaker
+{
+    private final TestingTicker ticker = new TestingTicker();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(2, new Duration(10, SECONDS), ticker);
+
+    @Test
+    void testOpensAfterConsecutiveFailures()
+    {
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.recordSuccess();
+
+        // A success resets the consecutive failures
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void testSingleTrialAfterOpenTime()
+    {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        ticker.advance(9, SECONDS);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        ticker.advance(1, SECONDS);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(HALF_OPEN);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        // A failed trial opens the breaker for another open time
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(OPEN);
+        ticker.advance(5, SECONDS);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        ticker.advance(5, SECONDS);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.recordSuccess();
+        assertThat(circuitBreaker.getState()).isEqualTo(CLOSED);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
+}
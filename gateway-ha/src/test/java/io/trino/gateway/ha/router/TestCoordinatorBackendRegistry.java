@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import io.trino.gateway.ha.persistence.JdbcConnectionManager;
+import io.trino.gateway.ha.persistence.dao.CoordinatorBackendDao;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static io.trino.gateway.ha.TestingJdbcConnectionManager.createTestingJdbcConnectionManager;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+final class TestCoordinatorBackendRegistry
+{
+    @Test
+    void testCoordinatorId()
+    {
+        assertThat(CoordinatorBackendRegistry.coordinatorId("20240101_123456_00042_abcde")).contains("abcde");
+        assertThat(CoordinatorBackendRegistry.coordinatorId("20240101_123456_00042_")).isEmpty();
+        assertThat(CoordinatorBackendRegistry.coordinatorId("20240101_123456_abcde")).isEmpty();
+        assertThat(CoordinatorBackendRegistry.coordinatorId("known_query")).isEmpty();
+    }
+
+    @Test
+    void testLearnAndShare()
+    {
+        JdbcConnectionManager connectionManager = createTestingJdbcConnectionManager();
+        CoordinatorBackendDao dao = connectionManager.getJdbi().onDemand(CoordinatorBackendDao.class);
+        CoordinatorBackendRegistry registry = new CoordinatorBackendRegistry(dao, Optional.empty(), newDirectExecutorService());
+        CoordinatorBackendRegistry otherRegistry = new CoordinatorBackendRegistry(dao, Optional.empty(), newDirectExecutorService());
+
+        registry.learn("20240101_123456_00001_abcde", "http://trino1:8080");
+        registry.learn("20240101_123456_00001_fghij", "http://trino2:8080");
+        // another query of the same coordinator does not add an entry
+        registry.learn("20240101_123456_00002_abcde", "http://trino1:8080");
+        assertThat(registry.getSize()).isEqualTo(2);
+        assertThat(registry.findBackend("20240101_123456_00099_abcde")).contains("http://trino1:8080");
+        assertThat(registry.findBackend("20240101_123456_00099_klmno")).isEmpty();
+
+        assertThat(otherRegistry.findBackend("20240101_123456_00099_fghij")).isEmpty();
+        otherRegistry.refresh();
+        assertThat(otherRegistry.findBackend("20240101_123456_00099_abcde")).contains("http://trino1:8080");
+        assertThat(otherRegistry.findBackend("20240101_123456_00099_fghij")).contains("http://trino2:8080");
+
+        // a coordinator id reused on another backend replaces the entry
+        otherRegistry.learn("20240101_123456_00100_abcde", "http://trino3:8080");
+        registry.refresh();
+        assertThat(registry.findBackend("20240101_123456_00101_abcde")).contains("http://trino3:8080");
+    }
+
+    @Test
+    void testWriteInBackground()
+    {
+        CoordinatorBackendDao dao = mock(CoordinatorBackendDao.class);
+        List<Runnable> writes = new ArrayList<>();
+        ExecutorService writeExecutor = mock(ExecutorService.class);
+        doAnswer(invocation -> writes.add(invocation.getArgument(0))).when(writeExecutor).execute(any());
+        CoordinatorBackendRegistry registry = new CoordinatorBackendRegistry(dao, Optional.empty(), writeExecutor);
+
+        registry.learn("20240101_123456_00001_abcde", "http://trino1:8080");
+        // further queries of the coordinator do not queue another write
+        registry.learn("20240101_123456_00002_abcde", "http://trino1:8080");
+        assertThat(writes).hasSize(1);
+        verifyNoInteractions(dao);
+        assertThat(registry.findBackend("20240101_123456_00099_abcde")).isEmpty();
+
+        // a failed write is not used, and retried by the next query
+        when(dao.update(any(), any(), anyLong())).thenThrow(new RuntimeException("database unavailable"));
+        writes.removeFirst().run();
+        assertThat(registry.findBackend("20240101_123456_00099_abcde")).isEmpty();
+        assertThat(registry.getFailedWrites().getTotalCount()).isEqualTo(1);
+
+        registry.learn("20240101_123456_00003_abcde", "http://trino1:8080");
+        assertThat(writes).hasSize(1);
+        reset(dao);
+        writes.removeFirst().run();
+        verify(dao).create(eq("abcde"), eq("http://trino1:8080"), anyLong());
+        assertThat(registry.findBackend("20240101_123456_00099_abcde")).contains("http://trino1:8080");
+    }
+}
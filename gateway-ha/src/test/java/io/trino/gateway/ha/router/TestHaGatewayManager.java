@@ -15,6 +15,7 @@ package io.trino.gateway.ha.router;
 
 import io.trino.gateway.ha.config.ProxyBackendConfiguration;
 import io.trino.gateway.ha.persistence.JdbcConnectionManager;
+import io.trino.gateway.ha.persistence.dao.GatewayBackendDao;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -109,4 +110,35 @@ final class TestHaGatewayManager
         assertThat(haGatewayManager.getBackendByName("new-etl1").map(ProxyBackendConfiguration::getProxyTo).orElseThrow()).isEqualTo("https://etl2.trino.gateway.io:443");
         assertThat(haGatewayManager.getBackendByName("new-etl1").map(ProxyBackendConfiguration::getExternalUrl).orElseThrow()).isEqualTo("https://etl2.trino.gateway.io:443");
     }
+
+    @Test
+    void testBackendSnapshot()
+    {
+        JdbcConnectionManager connectionManager = createTestingJdbcConnectionManager();
+        HaGatewayManager gatewayManager = new HaGatewayManager(connectionManager.getJdbi());
+
+        ProxyBackendConfiguration etl = new ProxyBackendConfiguration();
+        etl.setRoutingGroup("etl");
+        etl.setName("snapshot-etl");
+        etl.setProxyTo("https://etl.trino.gateway.io");
+        etl.setExternalUrl("https://etl.trino.gateway.io");
+        gatewayManager.addBackend(etl);
+        long version = gatewayManager.getSnapshotVersion();
+        assertThat(gatewayManager.getActiveBackends("etl")).hasSize(1);
+
+        // changes made by another gateway instance are only visible after a refresh
+        connectionManager.getJdbi().onDemand(GatewayBackendDao.class).deactivate("snapshot-etl");
+        assertThat(gatewayManager.getActiveBackends("etl")).hasSize(1);
+        assertThat(gatewayManager.refresh().getVersion()).isEqualTo(version + 1);
+        assertThat(gatewayManager.getActiveBackends("etl")).isEmpty();
+
+        // changes made through the manager are visible immediately
+        gatewayManager.activateBackend("snapshot-etl");
+        assertThat(gatewayManager.getSnapshotVersion()).isEqualTo(version + 2);
+        assertThat(gatewayManager.getActiveBackends("etl")).hasSize(1);
+
+        // returned lists can be modified by the caller without affecting the snapshot
+        gatewayManager.getActiveBackends("etl").clear();
+        assertThat(gatewayManager.getActiveBackends("etl")).hasSize(1);
+    }
 }
@@ -14,14 +14,18 @@
 package io.trino.gateway.ha.router;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.testing.TestingHttpClient;
 import io.trino.gateway.ha.clustermonitor.ClusterStats;
 import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.RoutingConfiguration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -155,7 +159,9 @@ final class TestQueryCountBasedRouter
                 .addAll(getClusterStatsList("etl"))
                 .build();
 
-        queryCountBasedRouter = new QueryCountBasedRouter(null, null);
+        queryCountBasedRouter = new QueryCountBasedRouter(null, null, Optional.empty(), new TestingHttpClient(_ -> {
+            throw new UnsupportedOperationException();
+        }), new RoutingConfiguration());
         queryCountBasedRouter.updateBackEndStats(clusters);
     }
 
@@ -210,6 +216,16 @@ final class TestQueryCountBasedRouter
         assertThat(BACKEND_URL_3).isEqualTo(proxyTo);
     }
 
+    @Test
+    void testRequestWithoutUser()
+    {
+        // Requests without a user header are routed like a user with no queued queries
+        String proxyTo = queryCountBasedRouter.provideAdhocCluster(null);
+        assertThat(BACKEND_URL_3).isEqualTo(proxyTo);
+        assertThat(queryCountBasedRouter.provideFailoverCluster("etl", null, ImmutableSet.of(BACKEND_URL_3)))
+                .contains(BACKEND_URL_1);
+    }
+
     @Test
     void testAdhocRoutingGroupFailOver()
     {
@@ -219,6 +235,17 @@ final class TestQueryCountBasedRouter
         assertThat(BACKEND_URL_UNHEALTHY).isNotEqualTo(proxyTo);
     }
 
+    @Test
+    void testFailoverCluster()
+    {
+        assertThat(queryCountBasedRouter.provideFailoverCluster("etl", "u1", ImmutableSet.of(BACKEND_URL_3)))
+                .contains(BACKEND_URL_1);
+        assertThat(queryCountBasedRouter.provideFailoverCluster("etl", "u1", ImmutableSet.of(BACKEND_URL_1, BACKEND_URL_3)))
+                .contains(BACKEND_URL_2);
+        assertThat(queryCountBasedRouter.provideFailoverCluster("etl", "u1", ImmutableSet.of(BACKEND_URL_1, BACKEND_URL_2, BACKEND_URL_3)))
+                .isEmpty();
+    }
+
     @Test
     void testClusterWithLeastQueueCount()
     {
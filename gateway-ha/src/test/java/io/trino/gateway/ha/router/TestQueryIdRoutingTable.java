@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class TestQueryIdRoutingTable
+{
+    @Test
+    void testSetAndGet()
+    {
+        QueryIdRoutingTable table = new QueryIdRoutingTable(100);
+        assertThat(table.getBackend("20240101_123456_00001_abcde")).isNull();
+
+        table.setBackend("20240101_123456_00001_abcde", "http://trino1:8080");
+        assertThat(table.getBackend("20240101_123456_00001_abcde")).isEqualTo("http://trino1:8080");
+        assertThat(table.getRoutingGroup("20240101_123456_00001_abcde")).isNull();
+
+        table.setRoutingGroup("20240101_123456_00001_abcde", "etl");
+        assertThat(table.getBackend("20240101_123456_00001_abcde")).isEqualTo("http://trino1:8080");
+        assertThat(table.getRoutingGroup("20240101_123456_00001_abcde")).isEqualTo("etl");
+
+        table.set("20240101_123456_00002_abcde", "http://trino2:8080", null);
+        assertThat(table.getBackend("20240101_123456_00002_abcde")).isEqualTo("http://trino2:8080");
+        assertThat(table.getRoutingGroup("20240101_123456_00002_abcde")).isNull();
+        assertThat(table.getSize()).isEqualTo(2);
+
+        assertThat(table.getHits().getTotalCount()).isEqualTo(4);
+        assertThat(table.getMisses().getTotalCount()).isEqualTo(3);
+    }
+
+    @Test
+    void testEviction()
+    {
+        QueryIdRoutingTable table = new QueryIdRoutingTable(16);
+        assertThat(table.getCapacity()).isEqualTo(16);
+
+        table.setBackend("query_0", "http://trino:8080");
+        for (int i = 1; i < 1000; i++) {
+            // keep the first query in use, so that it is never evicted
+            assertThat(table.getBackend("query_0")).isEqualTo("http://trino:8080");
+            table.setBackend("query_" + i, "http://trino:8080");
+        }
+        assertThat(table.getSize()).isEqualTo(16);
+        assertThat(table.getEvictions().getTotalCount()).isEqualTo(1000 - 16);
+        assertThat(table.getBackend("query_0")).isEqualTo("http://trino:8080");
+        assertThat(table.getBackend("query_999")).isEqualTo("http://trino:8080");
+    }
+
+    @Test
+    void testInvalidCapacity()
+    {
+        assertThatThrownBy(() -> new QueryIdRoutingTable(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
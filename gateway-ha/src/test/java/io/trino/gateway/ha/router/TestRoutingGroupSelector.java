@@ -38,6 +38,9 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -45,8 +48,14 @@ import static io.trino.gateway.ha.router.RoutingGroupSelector.ROUTING_GROUP_HEAD
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @TestInstance(Lifecycle.PER_CLASS)
@@ -286,6 +295,23 @@ final class TestRoutingGroupSelector
         assertThat(routingGroupSelector.findRoutingGroup(mockRequest)).isEmpty();
     }
 
+    @Test
+    void testByRoutingRulesEngineTerminalRule()
+    {
+        RoutingGroupSelector routingGroupSelector =
+                RoutingGroupSelector.byRoutingRulesEngine("src/test/resources/rules/routing_rules_terminal.yml", oneHourRefreshPeriod, requestAnalyzerConfig);
+
+        HttpServletRequest mockRequest = prepareMockRequest();
+        when(mockRequest.getHeader(TRINO_CLIENT_TAGS_HEADER)).thenReturn("label=special");
+        assertThat(routingGroupSelector.findRoutingGroup(mockRequest))
+                .contains("special");
+
+        // the terminal airflow rule suppresses the higher-priority special rule, which would otherwise win
+        when(mockRequest.getHeader(TRINO_SOURCE_HEADER)).thenReturn("airflow");
+        assertThat(routingGroupSelector.findRoutingGroup(mockRequest))
+                .contains("etl");
+    }
+
     @Test
     void testByRoutingRulesEngineFileChange()
             throws Exception
@@ -321,11 +347,16 @@ final class TestRoutingGroupSelector
                             + "actions:\n"
                             + "  - \"result.put(\\\"routingGroup\\\", \\\"etl2\\\")\""); // change from etl to etl2
         }
-        Thread.sleep(2 * refreshPeriod.toMillis());
+        // the rules are reloaded in the background
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (!routingGroupSelector.findRoutingGroup(mockRequest).equals(Optional.of("etl2")) && System.nanoTime() < deadline) {
+            Thread.sleep(refreshPeriod.toMillis());
+        }
 
         when(mockRequest.getHeader(TRINO_SOURCE_HEADER)).thenReturn("airflow");
         assertThat(routingGroupSelector.findRoutingGroup(mockRequest))
                 .contains("etl2");
+        ((FileBasedRoutingGroupSelector) routingGroupSelector).stop();
         file.deleteOnExit();
     }
 
@@ -487,6 +518,32 @@ final class TestRoutingGroupSelector
         return mockRequest;
     }
 
+    @Test
+    void testRequestAnalysisIsSharedBetweenSelectors()
+            throws IOException
+    {
+        RoutingGroupSelector routingGroupSelector =
+                RoutingGroupSelector.byRoutingRulesEngine(
+                        "src/test/resources/rules/routing_rules_trino_query_properties.yml",
+                        oneHourRefreshPeriod,
+                        requestAnalyzerConfig);
+        HttpServletRequest mockRequest = prepareMockRequest();
+        when(mockRequest.getReader()).thenReturn(new BufferedReader(new StringReader("SELECT x.*, y.*, z.* FROM catx.schemx.tblx x, schemy.tbly y, tblz z")));
+        when(mockRequest.getHeader(TrinoQueryProperties.TRINO_CATALOG_HEADER_NAME)).thenReturn("cat_default");
+        when(mockRequest.getHeader(TrinoQueryProperties.TRINO_SCHEMA_HEADER_NAME)).thenReturn("schem_\\\"default");
+        Map<String, Object> attributes = new HashMap<>();
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(mockRequest).setAttribute(anyString(), any());
+        when(mockRequest.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+
+        assertThat(routingGroupSelector.findRoutingGroup(mockRequest)).contains("tbl-group");
+        assertThat(routingGroupSelector.findRoutingGroup(mockRequest)).contains("tbl-group");
+
+        RequestAnalysisContext context = RequestAnalysisContext.forRequest(mockRequest, requestAnalyzerConfig);
+        assertThat(context.getTrinoQueryProperties().tablesContains("catx.schemx.tblx")).isTrue();
+        verify(mockRequest, times(1)).getReader();
+    }
+
     @Test
     void testLongQuery()
             throws IOException
@@ -13,12 +13,19 @@
  */
 package io.trino.gateway.ha.router;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.Multimap;
+import com.google.common.net.MediaType;
 import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpStatus;
 import io.airlift.http.client.JsonBodyGenerator;
 import io.airlift.http.client.JsonResponseHandler;
 import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
 import io.airlift.json.JsonCodec;
+import io.airlift.units.Duration;
 import io.trino.gateway.ha.config.RequestAnalyzerConfig;
 import io.trino.gateway.ha.config.RulesExternalConfiguration;
 import io.trino.gateway.ha.router.schema.RoutingGroupExternalBody;
@@ -42,7 +49,14 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Optional;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static io.airlift.http.client.JsonResponseHandler.createJsonResponseHandler;
 import static io.airlift.http.client.Request.Builder.preparePost;
 import static io.airlift.json.JsonCodec.jsonCodec;
@@ -50,11 +64,18 @@ import static io.trino.gateway.ha.handler.HttpUtils.USER_HEADER;
 import static io.trino.gateway.ha.router.RoutingGroupSelector.ROUTING_GROUP_HEADER;
 import static io.trino.gateway.ha.router.TrinoQueryProperties.TRINO_CATALOG_HEADER_NAME;
 import static io.trino.gateway.ha.router.TrinoQueryProperties.TRINO_SCHEMA_HEADER_NAME;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -67,6 +88,7 @@ final class TestRoutingGroupSelectorExternal
     private HttpClient httpClient;
     private static final JsonResponseHandler<RoutingGroupExternalResponse> ROUTING_GROUP_REST_API_JSON_RESPONSE_HANDLER =
             createJsonResponseHandler(jsonCodec(RoutingGroupExternalResponse.class));
+    private static final JsonCodec<RoutingGroupExternalResponse> ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_CODEC = jsonCodec(RoutingGroupExternalResponse.class);
 
     @BeforeAll
     void initialize()
@@ -132,23 +154,19 @@ final class TestRoutingGroupSelectorExternal
     void testApiFailure()
     {
         RulesExternalConfiguration rulesExternalConfiguration = provideRoutingRuleExternalConfig();
+        // Create a mock response that returns error in List<String>
+        RoutingGroupExternalResponse mockResponse = new RoutingGroupExternalResponse("fail-group", List.of("test-api-failure", "400 error"));
+        HttpClient testingHttpClient = new TestingHttpClient(request -> TestingResponse.mockResponse(
+                HttpStatus.OK,
+                MediaType.JSON_UTF_8,
+                ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_CODEC.toJson(mockResponse)));
         RoutingGroupSelector routingGroupSelector =
-                RoutingGroupSelector.byRoutingExternal(httpClient, rulesExternalConfiguration, requestAnalyzerConfig);
+                RoutingGroupSelector.byRoutingExternal(testingHttpClient, rulesExternalConfiguration, requestAnalyzerConfig);
 
         HttpServletRequest mockRequest = prepareMockRequest();
         setMockHeaders(mockRequest);
         // Set a mock header for ROUTING_GROUP_HEADER
         when(mockRequest.getHeader(ROUTING_GROUP_HEADER)).thenReturn("default-group-api-failure");
-        // Create a mock response that returns error in List<String>
-        RoutingGroupExternalResponse mockResponse = new RoutingGroupExternalResponse("fail-group", List.of("test-api-failure", "400 error"));
-
-        // Create ArgumentCaptor
-        ArgumentCaptor<Request> requestCaptor = ArgumentCaptor.forClass(Request.class);
-        @SuppressWarnings("unchecked")
-        ArgumentCaptor<JsonResponseHandler<RoutingGroupExternalResponse>> handlerCaptor = ArgumentCaptor.forClass(JsonResponseHandler.class);
-
-        // Mock the behavior of httpClient.execute
-        when(httpClient.execute(requestCaptor.capture(), handlerCaptor.capture())).thenReturn(mockResponse);
 
         // Verify the response
         assertThat(routingGroupSelector.findRoutingGroup(mockRequest))
@@ -196,6 +214,229 @@ final class TestRoutingGroupSelectorExternal
         assertThat(validHeaders.size()).isEqualTo(1);
     }
 
+    @Test
+    void testCachedDecisions()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideCachingRuleExternalConfig();
+        AtomicInteger lookups = new AtomicInteger();
+        HttpClient testingHttpClient = new TestingHttpClient(request -> {
+            lookups.incrementAndGet();
+            return routingGroupResponse(new RoutingGroupExternalResponse("etl", null));
+        });
+        TestingTicker ticker = new TestingTicker();
+        ExternalRoutingGroupSelector routingGroupSelector =
+                new ExternalRoutingGroupSelector(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig(), ticker);
+
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        assertThat(lookups.get()).isEqualTo(1);
+
+        // Requests that differ in the cache key projection are looked up separately
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("bob", "airflow"))).contains("etl");
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "superset"))).contains("etl");
+        assertThat(lookups.get()).isEqualTo(3);
+
+        ticker.advance(1, MINUTES);
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        assertThat(lookups.get()).isEqualTo(4);
+        assertThat(routingGroupSelector.getCacheHits().getTotalCount()).isEqualTo(1);
+        assertThat(routingGroupSelector.getCacheMisses().getTotalCount()).isEqualTo(4);
+        routingGroupSelector.stop();
+    }
+
+    @Test
+    void testCacheTtlFromResponse()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideCachingRuleExternalConfig();
+        AtomicInteger lookups = new AtomicInteger();
+        HttpClient testingHttpClient = new TestingHttpClient(request -> {
+            lookups.incrementAndGet();
+            return routingGroupResponse(new RoutingGroupExternalResponse("etl", null, new Duration(5, SECONDS)));
+        });
+        TestingTicker ticker = new TestingTicker();
+        ExternalRoutingGroupSelector routingGroupSelector =
+                new ExternalRoutingGroupSelector(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig(), ticker);
+
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        ticker.advance(4, SECONDS);
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        assertThat(lookups.get()).isEqualTo(1);
+        ticker.advance(1, SECONDS);
+        assertThat(routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow"))).contains("etl");
+        assertThat(lookups.get()).isEqualTo(2);
+        routingGroupSelector.stop();
+    }
+
+    @Test
+    void testCoalescedLookups()
+            throws Exception
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideCachingRuleExternalConfig();
+        rulesExternalConfiguration.setRequestTimeout(new Duration(10, SECONDS));
+        AtomicInteger lookups = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("test-external-routing-%s"));
+        try {
+            HttpClient testingHttpClient = new TestingHttpClient(request -> {
+                lookups.incrementAndGet();
+                release.await();
+                return routingGroupResponse(new RoutingGroupExternalResponse("etl", null));
+            }, executor);
+            ExternalRoutingGroupSelector routingGroupSelector =
+                    new ExternalRoutingGroupSelector(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig());
+
+            Future<Optional<String>> first = executor.submit(() -> routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow")));
+            while (lookups.get() == 0) {
+                Thread.sleep(10);
+            }
+            Future<Optional<String>> second = executor.submit(() -> routingGroupSelector.findRoutingGroup(prepareSubmission("alice", "airflow")));
+            while (routingGroupSelector.getCoalescedLookups().getTotalCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertThat(first.get(10, SECONDS)).contains("etl");
+            assertThat(second.get(10, SECONDS)).contains("etl");
+            assertThat(lookups.get()).isEqualTo(1);
+            routingGroupSelector.stop();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testTimeoutAndCircuitBreaker()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideRoutingRuleExternalConfig();
+        rulesExternalConfiguration.setRequestTimeout(new Duration(100, MILLISECONDS));
+        rulesExternalConfiguration.setCircuitBreakerFailureThreshold(2);
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicBoolean slow = new AtomicBoolean(true);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("test-external-routing-%s"));
+        try {
+            HttpClient testingHttpClient = new TestingHttpClient(request -> {
+                lookups.incrementAndGet();
+                if (slow.get()) {
+                    release.await();
+                }
+                return routingGroupResponse(new RoutingGroupExternalResponse("etl", null));
+            }, executor);
+            TestingTicker ticker = new TestingTicker();
+            ExternalRoutingGroupSelector routingGroupSelector =
+                    new ExternalRoutingGroupSelector(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig(), ticker);
+
+            HttpServletRequest request = prepareSubmission("alice", "airflow");
+            when(request.getHeader(ROUTING_GROUP_HEADER)).thenReturn("default-group");
+            assertThat(routingGroupSelector.findRoutingGroup(request)).contains("default-group");
+            assertThat(routingGroupSelector.findRoutingGroup(request)).contains("default-group");
+            assertThat(routingGroupSelector.getTimedOutLookups().getTotalCount()).isEqualTo(2);
+            assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("OPEN");
+
+            // The open breaker answers with the header without calling the service
+            assertThat(routingGroupSelector.findRoutingGroup(request)).contains("default-group");
+            assertThat(lookups.get()).isEqualTo(2);
+            assertThat(routingGroupSelector.getRejectedLookups().getTotalCount()).isEqualTo(1);
+
+            slow.set(false);
+            ticker.advance(30, SECONDS);
+            assertThat(routingGroupSelector.findRoutingGroup(request)).contains("etl");
+            assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("CLOSED");
+            routingGroupSelector.stop();
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSendFailure()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideCachingRuleExternalConfig();
+        rulesExternalConfiguration.setCircuitBreakerFailureThreshold(1);
+        HttpClient testingHttpClient = spy(new TestingHttpClient(request -> routingGroupResponse(new RoutingGroupExternalResponse("etl", null))));
+        doThrow(new IllegalStateException("Client is closed"))
+                .doThrow(new IllegalStateException("Client is closed"))
+                .doCallRealMethod()
+                .when(testingHttpClient).executeAsync(any(), any());
+        TestingTicker ticker = new TestingTicker();
+        ExternalRoutingGroupSelector routingGroupSelector =
+                new ExternalRoutingGroupSelector(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig(), ticker);
+
+        HttpServletRequest request = prepareSubmission("alice", "airflow");
+        when(request.getHeader(ROUTING_GROUP_HEADER)).thenReturn("default-group");
+        assertThat(routingGroupSelector.findRoutingGroup(request)).contains("default-group");
+        assertThat(routingGroupSelector.getFailedLookups().getTotalCount()).isEqualTo(1);
+        assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("OPEN");
+
+        // The failed trial opens the breaker again, instead of leaving it waiting for the trial
+        ticker.advance(30, SECONDS);
+        assertThat(routingGroupSelector.findRoutingGroup(request)).contains("default-group");
+        assertThat(routingGroupSelector.getFailedLookups().getTotalCount()).isEqualTo(2);
+        assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("OPEN");
+
+        // The failed lookups are not coalesced with later ones
+        ticker.advance(30, SECONDS);
+        assertThat(routingGroupSelector.findRoutingGroup(request)).contains("etl");
+        assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("CLOSED");
+        assertThat(routingGroupSelector.getCoalescedLookups().getTotalCount()).isZero();
+        routingGroupSelector.stop();
+    }
+
+    @Test
+    void testNonSubmissionSkipsLookup()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideRoutingRuleExternalConfig();
+        HttpClient testingHttpClient = new TestingHttpClient(request -> {
+            throw new AssertionError("Unexpected lookup");
+        });
+        RoutingGroupSelector routingGroupSelector =
+                RoutingGroupSelector.byRoutingExternal(testingHttpClient, rulesExternalConfiguration, new RequestAnalyzerConfig());
+
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        when(mockRequest.getMethod()).thenReturn(HttpMethod.GET);
+        when(mockRequest.getHeader(ROUTING_GROUP_HEADER)).thenReturn("default-group");
+        assertThat(routingGroupSelector.findRoutingGroup(mockRequest)).contains("default-group");
+    }
+
+    @Test
+    void testCacheKeyQueryRequiresAnalysis()
+    {
+        RulesExternalConfiguration rulesExternalConfiguration = provideCachingRuleExternalConfig();
+        rulesExternalConfiguration.setCacheKeyQuery(true);
+
+        assertThatThrownBy(() -> RoutingGroupSelector.byRoutingExternal(httpClient, rulesExternalConfiguration, new RequestAnalyzerConfig()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("cacheKeyQuery requires analyzeRequest to be enabled");
+    }
+
+    private static RulesExternalConfiguration provideCachingRuleExternalConfig()
+    {
+        RulesExternalConfiguration restConfig = provideRoutingRuleExternalConfig();
+        restConfig.setCacheMaxSize(100);
+        restConfig.setCacheKeyQuery(false);
+        return restConfig;
+    }
+
+    private static Response routingGroupResponse(RoutingGroupExternalResponse response)
+    {
+        return TestingResponse.mockResponse(HttpStatus.OK, MediaType.JSON_UTF_8, ROUTING_GROUP_EXTERNAL_RESPONSE_JSON_CODEC.toJson(response));
+    }
+
+    private HttpServletRequest prepareSubmission(String user, String source)
+    {
+        HttpServletRequest mockRequest = prepareMockRequest();
+        // Cache hits and disabled caching do not read every header
+        lenient().when(mockRequest.getHeader(USER_HEADER)).thenReturn(user);
+        lenient().when(mockRequest.getHeader("X-Trino-Source")).thenReturn(source);
+        lenient().when(mockRequest.getHeaderNames()).thenAnswer(invocation -> Collections.enumeration(List.of(USER_HEADER, "X-Trino-Source")));
+        lenient().when(mockRequest.getHeaders(USER_HEADER)).thenAnswer(invocation -> Collections.enumeration(List.of(user)));
+        lenient().when(mockRequest.getHeaders("X-Trino-Source")).thenAnswer(invocation -> Collections.enumeration(List.of(source)));
+        return mockRequest;
+    }
+
     private HttpServletRequest prepareMockRequest()
     {
         HttpServletRequest mockRequest = mock(HttpServletRequest.class);
@@ -244,4 +485,21 @@ final class TestRoutingGroupSelectorExternal
                 request.getRemoteHost(),
                 request.getParameterMap());
     }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
 }
@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpClientConfig;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.JsonBodyGenerator;
+import io.airlift.http.client.jetty.JettyHttpClient;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.config.RulesExternalConfiguration;
+import io.trino.gateway.ha.router.schema.RoutingGroupExternalResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.HttpMethod;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.trino.gateway.ha.handler.HttpUtils.USER_HEADER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+final class TestRoutingLookupBatcher
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int SUBMISSIONS = 200;
+    private static final int CONCURRENCY = 32;
+    // The stub service handles one request at a time with a fixed cost per request, so lookups pile up into batches
+    private static final long SERVICE_TIME_MILLIS = 5;
+
+    private final MockWebServer routingService = new MockWebServer();
+    private final Object serviceLock = new Object();
+    private final HttpClient httpClient = new JettyHttpClient(new HttpClientConfig());
+    private final ScheduledExecutorService scheduler = newSingleThreadScheduledExecutor(daemonThreadsNamed("test-routing-lookup-batcher"));
+
+    @BeforeAll
+    void setup()
+            throws IOException
+    {
+        routingService.setDispatcher(new Dispatcher()
+        {
+            @Override
+            public MockResponse dispatch(RecordedRequest request)
+                    throws InterruptedException
+            {
+                synchronized (serviceLock) {
+                    Thread.sleep(SERVICE_TIME_MILLIS);
+                }
+                JsonNode body = readTree(request.getBody().readUtf8());
+                if (request.getPath().equals("/batch")) {
+                    List<Map<String, String>> responses = new ArrayList<>();
+                    for (JsonNode lookup : body.get("requests")) {
+                        // Only the declared fields and the headers are sent
+                        assertThat(lookup.has("parameters")).isFalse();
+                        responses.add(ImmutableMap.of("routingGroup", "group-" + lookup.get("headers").get(USER_HEADER).get(0).asText()));
+                    }
+                    return jsonResponse(ImmutableMap.of("responses", responses));
+                }
+                return jsonResponse(ImmutableMap.of("routingGroup", "group-" + request.getHeader(USER_HEADER)));
+            }
+        });
+        routingService.start();
+    }
+
+    @AfterAll
+    void cleanup()
+            throws IOException
+    {
+        routingService.shutdown();
+        scheduler.shutdownNow();
+        httpClient.close();
+    }
+
+    @Test
+    void testBatchingReducesRequests()
+            throws Exception
+    {
+        RulesExternalConfiguration singleConfiguration = provideRoutingRuleExternalConfig();
+        routeSubmissions(singleConfiguration);
+        int singleRequests = routingService.getRequestCount();
+        assertThat(singleRequests).isEqualTo(SUBMISSIONS);
+
+        RulesExternalConfiguration batchConfiguration = provideRoutingRuleExternalConfig();
+        batchConfiguration.setBatchUrlPath(routingService.url("/batch").toString());
+        batchConfiguration.setBatchMaxSize(50);
+        batchConfiguration.setBatchMaxDelay(new Duration(5, MILLISECONDS));
+        batchConfiguration.setRequestFields(ImmutableList.of("trinoRequestUser", "method"));
+        routeSubmissions(batchConfiguration);
+        int batchRequests = routingService.getRequestCount() - singleRequests;
+
+        assertThat(batchRequests).isLessThan(SUBMISSIONS / 4);
+    }
+
+    @Test
+    void testDemultiplexesResponses()
+            throws Exception
+    {
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request -> {
+            JsonNode body = readTree(new String(((JsonBodyGenerator<?>) request.getBodyGenerator()).getBody(), UTF_8));
+            List<Map<String, String>> responses = new ArrayList<>();
+            for (JsonNode lookup : body.get("requests")) {
+                responses.add(ImmutableMap.of("routingGroup", lookup.get("name").asText()));
+            }
+            return TestingResponse.mockResponse(HttpStatus.OK, JSON_UTF_8, OBJECT_MAPPER.writeValueAsString(ImmutableMap.of("responses", responses)));
+        });
+        RoutingLookupBatcher batcher = new RoutingLookupBatcher(testingHttpClient, routingService.url("/batch").uri(), 2, new Duration(1, MINUTES), new Duration(1, MINUTES), circuitBreaker(), scheduler);
+
+        ListenableFuture<RoutingGroupExternalResponse> first = batcher.submit(ImmutableMap.of("name", "first"));
+        assertThat(first).isNotDone();
+        ListenableFuture<RoutingGroupExternalResponse> second = batcher.submit(ImmutableMap.of("name", "second"));
+        assertThat(first.get(10, SECONDS).routingGroup()).isEqualTo("first");
+        assertThat(second.get(10, SECONDS).routingGroup()).isEqualTo("second");
+        assertThat(batcher.getBatches().getTotalCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testFlushesAfterMaxDelay()
+            throws Exception
+    {
+        AtomicInteger batchSizes = new AtomicInteger();
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request -> {
+            JsonNode body = readTree(new String(((JsonBodyGenerator<?>) request.getBodyGenerator()).getBody(), UTF_8));
+            batchSizes.addAndGet(body.get("requests").size());
+            return TestingResponse.mockResponse(HttpStatus.OK, JSON_UTF_8, "{\"responses\": [{\"routingGroup\": \"etl\"}]}");
+        });
+        RoutingLookupBatcher batcher = new RoutingLookupBatcher(testingHttpClient, routingService.url("/batch").uri(), 100, new Duration(10, MILLISECONDS), new Duration(1, MINUTES), circuitBreaker(), scheduler);
+
+        assertThat(batcher.submit(ImmutableMap.of()).get(10, SECONDS).routingGroup()).isEqualTo("etl");
+        assertThat(batchSizes.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testFailsLookupsOfUnserializableBatch()
+    {
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request -> {
+            throw new AssertionError("Unexpected batch");
+        });
+        RoutingLookupBatcher batcher = new RoutingLookupBatcher(testingHttpClient, routingService.url("/batch").uri(), 2, new Duration(1, MINUTES), new Duration(1, MINUTES), circuitBreaker(), scheduler);
+
+        ListenableFuture<RoutingGroupExternalResponse> first = batcher.submit(ImmutableMap.of());
+        ListenableFuture<RoutingGroupExternalResponse> second = batcher.submit(ImmutableMap.of("value", new UnserializableValue()));
+        assertThat(first).isDone();
+        assertThat(second).isDone();
+        assertThatThrownBy(first::get).isInstanceOf(ExecutionException.class);
+        assertThatThrownBy(second::get).isInstanceOf(ExecutionException.class);
+    }
+
+    @Test
+    void testFailsLookupsOfMismatchedBatch()
+    {
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request ->
+                TestingResponse.mockResponse(HttpStatus.OK, JSON_UTF_8, "{\"responses\": [{\"routingGroup\": \"etl\"}]}"));
+        RoutingLookupBatcher batcher = new RoutingLookupBatcher(testingHttpClient, routingService.url("/batch").uri(), 2, new Duration(1, MINUTES), new Duration(1, MINUTES), circuitBreaker(), scheduler);
+
+        ListenableFuture<RoutingGroupExternalResponse> first = batcher.submit(ImmutableMap.of());
+        ListenableFuture<RoutingGroupExternalResponse> second = batcher.submit(ImmutableMap.of());
+        assertThatThrownBy(() -> first.get(10, SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasMessageContaining("Unexpected batch response for 2 lookups");
+        assertThatThrownBy(() -> second.get(10, SECONDS))
+                .isInstanceOf(ExecutionException.class);
+    }
+
+    @Test
+    void testRecordsOneBreakerOutcomePerBatch()
+            throws Exception
+    {
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request -> {
+            throw new UncheckedIOException(new IOException("Connection refused"));
+        });
+        RoutingLookupBatcher batcher = new RoutingLookupBatcher(testingHttpClient, routingService.url("/batch").uri(), 2, new Duration(1, MINUTES), new Duration(1, MINUTES), circuitBreaker, scheduler);
+
+        ListenableFuture<RoutingGroupExternalResponse> first = batcher.submit(ImmutableMap.of());
+        ListenableFuture<RoutingGroupExternalResponse> second = batcher.submit(ImmutableMap.of());
+        assertThatThrownBy(() -> first.get(10, SECONDS)).isInstanceOf(ExecutionException.class);
+        assertThatThrownBy(() -> second.get(10, SECONDS)).isInstanceOf(ExecutionException.class);
+        // One failed batch of two lookups stays below the threshold of two failures
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        batcher.submit(ImmutableMap.of());
+        batcher.submit(ImmutableMap.of());
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void testSelectorRecordsOneBreakerOutcomePerBatch()
+            throws Exception
+    {
+        TestingHttpClient testingHttpClient = new TestingHttpClient(request -> {
+            throw new UncheckedIOException(new IOException("Connection refused"));
+        });
+        RulesExternalConfiguration configuration = provideRoutingRuleExternalConfig();
+        configuration.setBatchUrlPath(routingService.url("/batch").toString());
+        configuration.setBatchMaxSize(2);
+        configuration.setBatchMaxDelay(new Duration(1, MINUTES));
+        configuration.setCircuitBreakerFailureThreshold(2);
+        ExternalRoutingGroupSelector routingGroupSelector = new ExternalRoutingGroupSelector(testingHttpClient, configuration, new RequestAnalyzerConfig());
+        ExecutorService executor = newFixedThreadPool(2, daemonThreadsNamed("test-routing-submission-%s"));
+        try {
+            Future<Optional<String>> first = executor.submit(() -> routingGroupSelector.findRoutingGroup(prepareSubmission("alice")));
+            Future<Optional<String>> second = executor.submit(() -> routingGroupSelector.findRoutingGroup(prepareSubmission("bob")));
+            assertThat(first.get(10, SECONDS)).isEmpty();
+            assertThat(second.get(10, SECONDS)).isEmpty();
+            assertThat(routingGroupSelector.getCircuitBreakerState()).isEqualTo("CLOSED");
+        }
+        finally {
+            executor.shutdownNow();
+            routingGroupSelector.stop();
+        }
+    }
+
+    private static CircuitBreaker circuitBreaker()
+    {
+        return new CircuitBreaker(2, new Duration(1, MINUTES), Ticker.systemTicker());
+    }
+
+    private RulesExternalConfiguration provideRoutingRuleExternalConfig()
+    {
+        RulesExternalConfiguration configuration = new RulesExternalConfiguration();
+        configuration.setUrlPath(routingService.url("/route").toString());
+        configuration.setExcludeHeaders(ImmutableList.of());
+        configuration.setRequestTimeout(new Duration(1, MINUTES));
+        return configuration;
+    }
+
+    private void routeSubmissions(RulesExternalConfiguration configuration)
+            throws Exception
+    {
+        ExternalRoutingGroupSelector routingGroupSelector = new ExternalRoutingGroupSelector(httpClient, configuration, new RequestAnalyzerConfig());
+        ExecutorService executor = newFixedThreadPool(CONCURRENCY, daemonThreadsNamed("test-routing-submission-%s"));
+        try {
+            List<Callable<Optional<String>>> submissions = new ArrayList<>();
+            for (int i = 0; i < SUBMISSIONS; i++) {
+                HttpServletRequest request = prepareSubmission("user-" + i);
+                submissions.add(() -> routingGroupSelector.findRoutingGroup(request));
+            }
+            List<Future<Optional<String>>> routingGroups = executor.invokeAll(submissions);
+            for (int i = 0; i < SUBMISSIONS; i++) {
+                assertThat(routingGroups.get(i).get()).contains("group-user-" + i);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            routingGroupSelector.stop();
+        }
+    }
+
+    private static HttpServletRequest prepareSubmission(String user)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(HttpMethod.POST);
+        when(request.getHeader(USER_HEADER)).thenReturn(user);
+        when(request.getHeaderNames()).thenAnswer(invocation -> Collections.enumeration(List.of(USER_HEADER)));
+        when(request.getHeaders(USER_HEADER)).thenAnswer(invocation -> Collections.enumeration(List.of(user)));
+        return request;
+    }
+
+    private static MockResponse jsonResponse(Object body)
+    {
+        try {
+            return new MockResponse().setResponseCode(200)
+                    .setHeader(CONTENT_TYPE, JSON_UTF_8.toString())
+                    .setBody(OBJECT_MAPPER.writeValueAsString(body));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static JsonNode readTree(String json)
+    {
+        try {
+            return OBJECT_MAPPER.readTree(json);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static class UnserializableValue
+    {
+        public String getValue()
+        {
+            throw new IllegalStateException("Not serializable");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.trino.gateway.ha.router.RoutingRuleIndex.IndexedCondition;
+import io.trino.gateway.ha.router.RoutingRuleIndex.Kind;
+import io.trino.gateway.ha.router.RoutingRuleIndex.Predicate;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+final class TestRoutingRuleIndex
+{
+    private static final String SOURCE_HEADER = "X-Trino-Source";
+    private static final String CLIENT_TAGS_HEADER = "X-Trino-Client-Tags";
+
+    @Test
+    void testIndexCondition()
+    {
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\") == \"airflow\"", false))
+                .contains(new IndexedCondition(headerPredicate(Kind.HEADER_EQUALS, SOURCE_HEADER, "airflow"), "true"));
+        assertThat(RoutingRuleIndex.indexCondition("\"airflow\" == request.getHeader(\"X-Trino-Source\")", false))
+                .contains(new IndexedCondition(headerPredicate(Kind.HEADER_EQUALS, SOURCE_HEADER, "airflow"), "true"));
+
+        // The most selective leading predicate is indexed, the other conjuncts are left to MVEL
+        assertThat(RoutingRuleIndex.indexCondition(
+                "request.getHeader(\"X-Trino-Client-Tags\") contains \"label=special\"\n&& request.getHeader(\"X-Trino-Source\") == \"airflow\"\n&& trinoQueryProperties.getQueryType() == \"SELECT\"",
+                false))
+                .contains(new IndexedCondition(
+                        headerPredicate(Kind.HEADER_EQUALS, SOURCE_HEADER, "airflow"),
+                        "request.getHeader(\"X-Trino-Client-Tags\") contains \"label=special\" && trinoQueryProperties.getQueryType() == \"SELECT\""));
+
+        // Disjunctions of equalities on the same header are set membership tests
+        assertThat(RoutingRuleIndex.indexCondition(
+                "(request.getHeader(\"X-Trino-Source\") == \"airflow\" || request.getHeader(\"x-trino-source\") == \"dbt\") && state.isEmpty()",
+                false))
+                .contains(new IndexedCondition(headerPredicate(Kind.HEADER_EQUALS, SOURCE_HEADER, "airflow", "dbt"), "state.isEmpty()"));
+        assertThat(RoutingRuleIndex.indexCondition("trinoRequestUser.userExistsAndEquals(\"alice\") || trinoRequestUser.userExistsAndEquals(\"bob\")", true))
+                .contains(new IndexedCondition(new Predicate(Kind.USER_EQUALS, Optional.empty(), ImmutableSet.of("alice", "bob")), "true"));
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\").startsWith(\"jdbc-\")", false))
+                .contains(new IndexedCondition(headerPredicate(Kind.HEADER_PREFIX, SOURCE_HEADER, "jdbc-"), "true"));
+    }
+
+    @Test
+    void testConditionNotIndexed()
+    {
+        // the user is only available when requests are analyzed
+        assertThat(RoutingRuleIndex.indexCondition("trinoRequestUser.userExistsAndEquals(\"alice\")", false)).isEmpty();
+        // conjuncts before an indexable predicate must still be evaluated
+        assertThat(RoutingRuleIndex.indexCondition("state.put(\"seen\", true) == null && request.getHeader(\"X-Trino-Source\") == \"airflow\"", false)).isEmpty();
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\") == \"airflow\" || state.isEmpty()", false)).isEmpty();
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\") == \"airflow\" || request.getHeader(\"X-Trino-User\") == \"alice\"", false)).isEmpty();
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\") == \"airflow\" ? true : false", false)).isEmpty();
+        assertThat(RoutingRuleIndex.indexCondition("source = request.getHeader(\"X-Trino-Source\"); source == \"airflow\"", false)).isEmpty();
+        assertThat(RoutingRuleIndex.indexCondition("request.getHeader(\"X-Trino-Source\") != \"airflow\"", false)).isEmpty();
+    }
+
+    @Test
+    void testSplitTopLevel()
+    {
+        assertThat(RoutingRuleIndex.splitTopLevel("a && (b || c) && d(\"&&\", '||') && e <= f", "&&"))
+                .contains(ImmutableList.of("a", "(b || c)", "d(\"&&\", '||')", "e <= f"));
+        assertThat(RoutingRuleIndex.splitTopLevel("a && b || c", "&&")).isEmpty();
+        assertThat(RoutingRuleIndex.splitTopLevel("a && (b", "&&")).isEmpty();
+        assertThat(RoutingRuleIndex.splitTopLevel("a && ", "&&")).isEmpty();
+    }
+
+    @Test
+    void testCandidates()
+    {
+        List<RoutingRule> rules = ImmutableList.of(
+                rule("airflow", "request.getHeader(\"X-Trino-Source\") == \"airflow\""),
+                rule("always", "true"),
+                rule("jdbc", "request.getHeader(\"X-Trino-Source\").startsWith(\"jdbc-\") && state.isEmpty()"),
+                rule("special", "request.getHeader(\"X-Trino-Client-Tags\") contains \"label=special\""),
+                rule("alice", "trinoRequestUser.userExistsAndEquals(\"alice\")"),
+                rule("airflow or dbt", "request.getHeader(\"X-Trino-Source\") == \"airflow\" || request.getHeader(\"X-Trino-Source\") == \"dbt\""));
+        RoutingRuleIndex index = new RoutingRuleIndex(rules, true);
+
+        assertThat(candidateNames(index, request(null, null), Optional.empty()))
+                .containsExactly("always");
+        assertThat(candidateNames(index, request("airflow", "email=test@example.com,label=special"), Optional.of("alice")))
+                .containsExactly("airflow", "always", "special", "alice", "airflow or dbt");
+        assertThat(candidateNames(index, request("dbt", "label=specialized"), Optional.of("bob")))
+                .containsExactly("always", "special", "airflow or dbt");
+        assertThat(candidateNames(index, request("jdbc-driver", "label=other"), Optional.empty()))
+                .containsExactly("always", "jdbc");
+
+        // Only the residual of the condition is evaluated
+        assertThat(((MVELRoutingRule) index.getCandidates(request("airflow", null), Optional.empty()).getFirst()).conditionExpression)
+                .contains("true");
+    }
+
+    @Test
+    void testRulesWithoutIndexablePredicate()
+    {
+        List<RoutingRule> rules = ImmutableList.of(
+                rule("state", "state.get(\"triggeredRules\") != null && request.getHeader(\"X-Trino-Source\") == \"airflow\""),
+                rule("user", "trinoRequestUser.userExistsAndEquals(\"alice\")"));
+        RoutingRuleIndex index = new RoutingRuleIndex(rules, false);
+
+        assertThat(candidateNames(index, request(null, null), Optional.empty()))
+                .containsExactly("state", "user");
+    }
+
+    private static List<String> candidateNames(RoutingRuleIndex index, HttpServletRequest request, Optional<String> user)
+    {
+        return index.getCandidates(request, user).stream()
+                .map(rule -> ((MVELRoutingRule) rule).name)
+                .toList();
+    }
+
+    private static Predicate headerPredicate(Kind kind, String header, String... values)
+    {
+        return new Predicate(kind, Optional.of(header), ImmutableSet.copyOf(values));
+    }
+
+    private static MVELRoutingRule rule(String name, String condition)
+    {
+        return new MVELRoutingRule(name, null, 0, condition, ImmutableList.of("result.put(\"routingGroup\", \"" + name + "\")"), false);
+    }
+
+    private static HttpServletRequest request(String source, String clientTags)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader(SOURCE_HEADER)).thenReturn(source);
+        when(request.getHeader(CLIENT_TAGS_HEADER)).thenReturn(clientTags);
+        return request;
+    }
+}
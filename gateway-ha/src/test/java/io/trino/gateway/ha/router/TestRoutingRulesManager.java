@@ -20,11 +20,14 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -60,6 +63,29 @@ final class TestRoutingRulesManager
                         "request.getHeader(\"X-Trino-Source\") == \"airflow\" && request.getHeader(\"X-Trino-Client-Tags\") contains \"label=special\""));
     }
 
+    @Test
+    void testGetRoutingRulesAfterExternalChange()
+            throws IOException
+    {
+        Path rulesFile = Files.createTempFile("routing_rules", ".yml");
+        try {
+            Files.writeString(rulesFile, "---\nname: \"first\"\ncondition: \"true\"\nactions: []\n", UTF_8);
+            HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+            RoutingRulesConfiguration routingRulesConfiguration = new RoutingRulesConfiguration();
+            routingRulesConfiguration.setRulesConfigPath(rulesFile.toString());
+            configuration.setRoutingRules(routingRulesConfiguration);
+            RoutingRulesManager routingRulesManager = new RoutingRulesManager(configuration);
+            assertThat(routingRulesManager.getRoutingRules()).extracting(RoutingRule::name).containsExactly("first");
+
+            // the rules are loaded on demand, without a background reload
+            Files.writeString(rulesFile, "---\nname: \"second\"\ncondition: \"true\"\nactions: []\n", UTF_8);
+            assertThat(routingRulesManager.getRoutingRules()).extracting(RoutingRule::name).containsExactly("second");
+        }
+        finally {
+            Files.deleteIfExists(rulesFile);
+        }
+    }
+
     @Test
     void testRoutingRulesNoSuchFileException()
     {
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.ha.router;
+
+import io.airlift.units.Duration;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class TestRoutingRulesReloader
+{
+    private static final Function<String, String> PARSER = content -> {
+        checkArgument(!content.contains("invalid"), "invalid rules");
+        return content.strip();
+    };
+
+    @Test
+    void testKeepLastGoodRules()
+            throws IOException
+    {
+        Path rulesFile = Files.createTempFile("routing_rules", ".yml");
+        try {
+            Files.writeString(rulesFile, "first", UTF_8);
+            RoutingRulesReloader<String> reloader = new RoutingRulesReloader<>(rulesFile, PARSER, Optional.empty());
+            assertThat(reloader.get()).isEqualTo("first");
+            assertThat(reloader.reload()).isFalse();
+
+            Files.writeString(rulesFile, "invalid", UTF_8);
+            assertThatThrownBy(reloader::reload).hasMessage("invalid rules");
+            assertThat(reloader.get()).isEqualTo("first");
+            assertThat(reloader.isLastReloadFailed()).isTrue();
+            assertThat(reloader.getReloadFailures().getTotalCount()).isEqualTo(1);
+
+            // the same invalid content is not parsed again
+            assertThat(reloader.reload()).isFalse();
+            assertThat(reloader.getReloadFailures().getTotalCount()).isEqualTo(1);
+
+            // reverting the file to the loaded rules clears the failure
+            Files.writeString(rulesFile, "first", UTF_8);
+            assertThat(reloader.reload()).isFalse();
+            assertThat(reloader.isLastReloadFailed()).isFalse();
+
+            Files.writeString(rulesFile, "second", UTF_8);
+            assertThat(reloader.reload()).isTrue();
+            assertThat(reloader.get()).isEqualTo("second");
+            assertThat(reloader.isLastReloadFailed()).isFalse();
+            assertThat(reloader.getReloads().getTotalCount()).isEqualTo(2);
+        }
+        finally {
+            Files.deleteIfExists(rulesFile);
+        }
+    }
+
+    @Test
+    void testInvalidInitialRules()
+            throws IOException
+    {
+        RoutingRulesReloader<String> missing = new RoutingRulesReloader<>(Path.of("src/test/resources/rules/missing.yml"), PARSER, Optional.empty());
+        assertThatThrownBy(missing::get).hasRootCauseInstanceOf(NoSuchFileException.class);
+
+        Path rulesFile = Files.createTempFile("routing_rules", ".yml");
+        try {
+            Files.writeString(rulesFile, "invalid", UTF_8);
+            RoutingRulesReloader<String> reloader = new RoutingRulesReloader<>(rulesFile, PARSER, Optional.empty());
+            assertThatThrownBy(reloader::get).hasRootCauseMessage("invalid rules");
+
+            Files.writeString(rulesFile, "valid", UTF_8);
+            assertThat(reloader.get()).isEqualTo("valid");
+        }
+        finally {
+            Files.deleteIfExists(rulesFile);
+        }
+    }
+
+    @Test
+    void testReloadOnFileChange()
+            throws Exception
+    {
+        Path rulesFile = Files.createTempFile("routing_rules", ".yml");
+        // the check interval is too long to matter, changes are picked up by watching the directory
+        RoutingRulesReloader<String> reloader = new RoutingRulesReloader<>(rulesFile, PARSER, Optional.of(new Duration(1, HOURS)));
+        try {
+            Files.writeString(rulesFile, "first", UTF_8);
+            assertThat(awaitRules(reloader, "first")).isEqualTo("first");
+
+            Files.writeString(rulesFile, "second", UTF_8);
+            assertThat(awaitRules(reloader, "second")).isEqualTo("second");
+        }
+        finally {
+            reloader.stop();
+            Files.deleteIfExists(rulesFile);
+        }
+    }
+
+    private static String awaitRules(RoutingRulesReloader<String> reloader, String expected)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + SECONDS.toNanos(10);
+        while (!expected.equals(reloader.get()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return reloader.get();
+    }
+}
@@ -13,14 +13,23 @@
  */
 package io.trino.gateway.ha.router;
 
+import com.google.common.net.MediaType;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
 import io.trino.gateway.ha.clustermonitor.TrinoStatus;
 import io.trino.gateway.ha.config.ProxyBackendConfiguration;
+import io.trino.gateway.ha.config.RoutingConfiguration;
 import io.trino.gateway.ha.persistence.JdbcConnectionManager;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static io.trino.gateway.ha.TestingJdbcConnectionManager.createTestingJdbcConnectionManager;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -37,7 +46,9 @@ final class TestStochasticRoutingManager
         JdbcConnectionManager connectionManager = createTestingJdbcConnectionManager();
         backendManager = new HaGatewayManager(connectionManager.getJdbi());
         historyManager = new HaQueryHistoryManager(connectionManager.getJdbi(), false);
-        haRoutingManager = new StochasticRoutingManager(backendManager, historyManager);
+        HttpClient httpClient = new TestingHttpClient(_ -> TestingResponse
+                .mockResponse(HttpStatus.NOT_FOUND, MediaType.PLAIN_TEXT_UTF_8, "Not Found"));
+        haRoutingManager = new StochasticRoutingManager(backendManager, historyManager, Optional.empty(), httpClient, new RoutingConfiguration());
     }
 
     @Test
@@ -70,4 +81,45 @@ final class TestStochasticRoutingManager
         assertThat(haRoutingManager.provideClusterForRoutingGroup(groupName, ""))
                 .isEqualTo("test_group0.trino.example.com");
     }
+
+    @Test
+    void testFindBackendForUnknownQueryId()
+    {
+        JdbcConnectionManager connectionManager = createTestingJdbcConnectionManager();
+        GatewayBackendManager gatewayBackendManager = new HaGatewayManager(connectionManager.getJdbi());
+        for (int i = 0; i < 3; i++) {
+            ProxyBackendConfiguration proxyBackend = new ProxyBackendConfiguration();
+            proxyBackend.setName("adhoc" + i);
+            proxyBackend.setProxyTo("http://adhoc" + i + ".trino.example.com");
+            proxyBackend.setExternalUrl("http://adhoc" + i + ".trino.example.com");
+            gatewayBackendManager.addBackend(proxyBackend);
+        }
+
+        AtomicInteger requests = new AtomicInteger();
+        HttpClient httpClient = new TestingHttpClient(request -> {
+            requests.incrementAndGet();
+            if (request.getUri().toString().equals("http://adhoc2.trino.example.com/v1/query/known_query")) {
+                return TestingResponse.mockResponse(HttpStatus.OK, MediaType.JSON_UTF_8, "{}");
+            }
+            return TestingResponse.mockResponse(HttpStatus.NOT_FOUND, MediaType.PLAIN_TEXT_UTF_8, "Not Found");
+        });
+        RoutingManager routingManager = new StochasticRoutingManager(
+                gatewayBackendManager,
+                new HaQueryHistoryManager(connectionManager.getJdbi(), false),
+                Optional.empty(),
+                httpClient,
+                new RoutingConfiguration());
+
+        assertThat(routingManager.findBackendForQueryId("known_query")).isEqualTo("http://adhoc2.trino.example.com");
+        // the result is cached
+        int requestCount = requests.get();
+        assertThat(routingManager.findBackendForQueryId("known_query")).isEqualTo("http://adhoc2.trino.example.com");
+        assertThat(requests.get()).isEqualTo(requestCount);
+
+        // unknown query ids fall back to the first adhoc backend, and are not searched again
+        assertThat(routingManager.findBackendForQueryId("unknown_query")).isEqualTo("http://adhoc0.trino.example.com");
+        requestCount = requests.get();
+        assertThat(routingManager.findBackendForQueryId("unknown_query")).isEqualTo("http://adhoc0.trino.example.com");
+        assertThat(requests.get()).isEqualTo(requestCount);
+    }
 }
@@ -16,11 +16,20 @@ package io.trino.gateway.ha.router;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import io.airlift.json.JsonCodec;
+import io.trino.gateway.ha.handler.RequestBody;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.HttpMethod;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Optional;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 final class TestTrinoQueryProperties
 {
@@ -91,4 +100,49 @@ final class TestTrinoQueryProperties
         assertThat(deserializedTrinoQueryProperties.isQueryParsingSuccessful()).isEqualTo(trinoQueryProperties.isQueryParsingSuccessful());
         assertThat(deserializedTrinoQueryProperties.getErrorMessage()).isEqualTo(trinoQueryProperties.getErrorMessage());
     }
+
+    @Test
+    void testMaxBodySize()
+            throws IOException
+    {
+        String query = "SELECT c1 from c.s.t1";
+
+        TrinoQueryProperties withinLimit = new TrinoQueryProperties(mockRequest(query, false), false, query.length() + 1);
+        assertThat(withinLimit.getBody()).isEqualTo(query);
+        assertThat(withinLimit.tablesContains("c.s.t1")).isTrue();
+
+        TrinoQueryProperties atLimit = new TrinoQueryProperties(mockRequest(query, false), false, query.length());
+        assertThat(atLimit.getBody()).isEmpty();
+        assertThat(atLimit.getQueryType()).isEmpty();
+    }
+
+    @Test
+    void testMaxBodySizeWithSharedBody()
+            throws IOException
+    {
+        String query = "SELECT c1 from c.s.t1";
+
+        TrinoQueryProperties withinLimit = new TrinoQueryProperties(mockRequest(query, true), false, query.length() + 1);
+        assertThat(withinLimit.getBody()).isEqualTo(query);
+        assertThat(withinLimit.tablesContains("c.s.t1")).isTrue();
+
+        TrinoQueryProperties atLimit = new TrinoQueryProperties(mockRequest(query, true), false, query.length());
+        assertThat(atLimit.getBody()).isEmpty();
+        assertThat(atLimit.getQueryType()).isEmpty();
+    }
+
+    private static HttpServletRequest mockRequest(String query, boolean sharedBody)
+            throws IOException
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(HttpMethod.POST);
+        if (sharedBody) {
+            when(request.getAttribute(RequestBody.ATTRIBUTE)).thenReturn(new RequestBody(query.getBytes(UTF_8)));
+        }
+        else {
+            when(request.getContentLength()).thenReturn(query.length());
+            when(request.getReader()).thenReturn(new BufferedReader(new StringReader(query)));
+        }
+        return request;
+    }
 }
@@ -0,0 +1,273 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import io.trino.client.QueryResults;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.AdmissionConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.handler.RequestBody;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.trino.client.JsonCodec.jsonCodec;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_STATEMENT_PATH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+final class TestAdmissionController
+{
+    private static final HeldQuery.Submission SUBMISSION = new HeldQuery.Submission(
+            V1_STATEMENT_PATH,
+            null,
+            ImmutableListMultimap.of("X-Trino-User", "alice"),
+            new RequestBody("SELECT 1".getBytes(UTF_8)));
+
+    private final TestingTicker ticker = new TestingTicker();
+
+    @Test
+    void testPassThroughWithCapacity()
+    {
+        AdmissionController controller = createController(new AdmissionConfiguration());
+        assertThat(controller.isSubmission(V1_STATEMENT_PATH)).isTrue();
+        assertThat(controller.isSubmission("/v1/query")).isFalse();
+
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 99, ImmutableMap.of())));
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isEmpty();
+        // unknown routing groups are not held
+        assertThat(controller.hold("adhoc", "alice", SUBMISSION)).isEmpty();
+    }
+
+    @Test
+    void testPassThroughUsesCapacity()
+    {
+        AdmissionController controller = createController(new AdmissionConfiguration());
+        controller.observe(ImmutableList.of(
+                clusterStats("trino1", "etl", 99, ImmutableMap.of()),
+                clusterStats("trino2", "etl", 99, ImmutableMap.of())));
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isEmpty();
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isEmpty();
+        // the submissions since the last stats refresh used up the capacity
+        HeldQuery held = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        assertThat(held.getState()).isEqualTo(HeldQuery.State.HELD);
+
+        // the next refresh includes the submissions that passed through
+        controller.observe(ImmutableList.of(
+                clusterStats("trino1", "etl", 99, ImmutableMap.of()),
+                clusterStats("trino2", "etl", 100, ImmutableMap.of())));
+        assertThat(held.getState()).isEqualTo(HeldQuery.State.ADMITTED);
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isPresent();
+    }
+
+    @Test
+    void testHoldResolvedUser()
+    {
+        AdmissionConfiguration configuration = new AdmissionConfiguration();
+        configuration.setMaxHeldQueriesPerUser(1);
+        AdmissionController controller = createController(configuration);
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 100, ImmutableMap.of())));
+
+        // the user is taken from the credentials when the request has no user header
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("Authorization")).thenReturn("Basic " + Base64.getEncoder().encodeToString("bob:secret".getBytes(UTF_8)));
+        HeldQuery query = controller.hold("etl", request, SUBMISSION).orElseThrow();
+        assertThat(query.getUser()).isEqualTo("bob");
+        assertThat(controller.hold("etl", request, SUBMISSION).orElseThrow().getState()).isEqualTo(HeldQuery.State.REJECTED);
+        assertThat(controller.hold("etl", "alice", SUBMISSION).orElseThrow().getState()).isEqualTo(HeldQuery.State.HELD);
+    }
+
+    @Test
+    void testDisabled()
+    {
+        AdmissionConfiguration configuration = new AdmissionConfiguration();
+        configuration.setEnabled(false);
+        AdmissionController controller = new AdmissionController(configuration, ImmutableList.of(V1_STATEMENT_PATH), new RequestAnalyzerConfig(), ticker);
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 1000, ImmutableMap.of())));
+        assertThat(controller.isSubmission(V1_STATEMENT_PATH)).isFalse();
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isEmpty();
+    }
+
+    @Test
+    void testHoldUntilCapacity()
+    {
+        AdmissionController controller = createController(new AdmissionConfiguration());
+        controller.observe(ImmutableList.of(
+                clusterStats("trino1", "etl", 100, ImmutableMap.of()),
+                clusterStats("trino2", "etl", 150, ImmutableMap.of()),
+                clusterStats("trino3", "adhoc", 0, ImmutableMap.of())));
+        HeldQuery first = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        HeldQuery second = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        assertThat(first.getState()).isEqualTo(HeldQuery.State.HELD);
+        assertThat(controller.getCurrentlyHeldQueries()).isEqualTo(2);
+        assertThat(controller.hold("adhoc", "alice", SUBMISSION)).isEmpty();
+        assertThat(controller.getQuery(first.getQueryId(), first.getSlug())).contains(first);
+        assertThat(controller.getQuery(first.getQueryId(), "wrong")).isEmpty();
+
+        // one query fits below the threshold
+        controller.observe(ImmutableList.of(
+                clusterStats("trino1", "etl", 99, ImmutableMap.of()),
+                clusterStats("trino2", "etl", 150, ImmutableMap.of())));
+        assertThat(first.getState()).isEqualTo(HeldQuery.State.ADMITTED);
+        assertThat(first.whenResolved()).isDone();
+        assertThat(second.getState()).isEqualTo(HeldQuery.State.HELD);
+        // new submissions wait behind held queries
+        assertThat(controller.hold("etl", "bob", SUBMISSION)).isPresent();
+
+        assertThat(controller.claim(first)).isTrue();
+        assertThat(controller.claim(first)).isFalse();
+        assertThat(controller.claim(second)).isFalse();
+        assertThat(controller.getQuery(first.getQueryId(), first.getSlug())).isEmpty();
+
+        controller.cancel(second);
+        assertThat(controller.getQuery(second.getQueryId(), second.getSlug())).isEmpty();
+    }
+
+    @Test
+    void testFairShare()
+    {
+        AdmissionConfiguration configuration = new AdmissionConfiguration();
+        configuration.setUserWeights(ImmutableMap.of("etl_service", 3));
+        AdmissionController controller = createController(configuration);
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 100, ImmutableMap.of("alice", 60, "bob", 10, "etl_service", 30))));
+
+        List<HeldQuery> aliceQueries = new ArrayList<>();
+        List<HeldQuery> bobQueries = new ArrayList<>();
+        List<HeldQuery> serviceQueries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            aliceQueries.add(controller.hold("etl", "alice", SUBMISSION).orElseThrow());
+            bobQueries.add(controller.hold("etl", "bob", SUBMISSION).orElseThrow());
+            serviceQueries.add(controller.hold("etl", "etl_service", SUBMISSION).orElseThrow());
+        }
+
+        // 10 free slots: bob first catches up with the share of etl_service, which is 30 / 3 = 10
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 90, ImmutableMap.of("alice", 56, "bob", 4, "etl_service", 30))));
+        assertThat(admitted(aliceQueries)).isEqualTo(0);
+        assertThat(admitted(bobQueries)).isEqualTo(7);
+        assertThat(admitted(serviceQueries)).isEqualTo(3);
+
+        // with equal shares, etl_service receives three times as many slots as bob
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 84, ImmutableMap.of("alice", 40, "bob", 11, "etl_service", 33))));
+        assertThat(admitted(aliceQueries)).isEqualTo(0);
+        assertThat(admitted(bobQueries)).isEqualTo(11);
+        assertThat(admitted(serviceQueries)).isEqualTo(15);
+    }
+
+    @Test
+    void testLimits()
+    {
+        AdmissionConfiguration configuration = new AdmissionConfiguration();
+        configuration.setMaxHeldQueries(3);
+        configuration.setMaxHeldQueriesPerUser(2);
+        AdmissionController controller = createController(configuration);
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 100, ImmutableMap.of())));
+
+        HeldQuery first = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isPresent();
+        HeldQuery rejected = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        assertThat(rejected.getState()).isEqualTo(HeldQuery.State.REJECTED);
+        assertThat(rejected.getRejection()).contains(HeldQuery.Rejection.QUEUE_FULL);
+        assertThat(controller.hold("etl", "bob", SUBMISSION).orElseThrow().getState()).isEqualTo(HeldQuery.State.HELD);
+        assertThat(controller.hold("etl", "carol", SUBMISSION).orElseThrow().getState()).isEqualTo(HeldQuery.State.REJECTED);
+        assertThat(controller.getRejectedQueries().getTotalCount()).isEqualTo(2);
+
+        // queries are rejected after the maximum wait
+        ticker.advance(6, MINUTES);
+        assertThat(controller.getQuery(first.getQueryId(), first.getSlug()).map(HeldQuery::getState)).contains(HeldQuery.State.REJECTED);
+        assertThat(first.getRejection()).contains(HeldQuery.Rejection.MAX_WAIT_EXCEEDED);
+        // the failure is only returned once
+        assertThat(controller.getQuery(first.getQueryId(), first.getSlug())).isEmpty();
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 0, ImmutableMap.of())));
+        assertThat(controller.hold("etl", "alice", SUBMISSION)).isEmpty();
+    }
+
+    @Test
+    void testQueryResults()
+            throws Exception
+    {
+        AdmissionController controller = createController(new AdmissionConfiguration());
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 100, ImmutableMap.of())));
+        HeldQuery query = controller.hold("etl", "alice", SUBMISSION).orElseThrow();
+        URI gateway = URI.create("https://gateway:8443");
+
+        QueryResults queued = jsonCodec(QueryResults.class).fromJson(AdmissionResource.queryResults(query, gateway, 1500));
+        assertThat(queued.getId()).isEqualTo(query.getQueryId());
+        assertThat(queued.getNextUri()).isEqualTo(URI.create("https://gateway:8443/trino-gateway/admission/" + query.getQueryId() + "/" + query.getSlug()));
+        assertThat(queued.getStats().getState()).isEqualTo("QUEUED");
+        assertThat(queued.getStats().isQueued()).isTrue();
+        assertThat(queued.getStats().getQueuedTimeMillis()).isEqualTo(1500);
+        assertThat(queued.getError()).isNull();
+
+        ticker.advance(6, MINUTES);
+        controller.observe(ImmutableList.of(clusterStats("trino1", "etl", 100, ImmutableMap.of())));
+        QueryResults failed = jsonCodec(QueryResults.class).fromJson(AdmissionResource.queryResults(query, gateway, 360_000));
+        assertThat(failed.getNextUri()).isNull();
+        assertThat(failed.getStats().getState()).isEqualTo("FAILED");
+        assertThat(failed.getError().getErrorName()).isEqualTo("EXCEEDED_TIME_LIMIT");
+        assertThat(failed.getError().getErrorType()).isEqualTo("INSUFFICIENT_RESOURCES");
+    }
+
+    private AdmissionController createController(AdmissionConfiguration configuration)
+    {
+        configuration.setEnabled(true);
+        return new AdmissionController(configuration, ImmutableList.of(V1_STATEMENT_PATH), new RequestAnalyzerConfig(), ticker);
+    }
+
+    private static long admitted(List<HeldQuery> queries)
+    {
+        return queries.stream().filter(query -> query.getState() == HeldQuery.State.ADMITTED).count();
+    }
+
+    private static ClusterStats clusterStats(String name, String routingGroup, int queuedQueryCount, Map<String, Integer> userQueuedCount)
+    {
+        return ClusterStats.builder(name)
+                .trinoStatus(TrinoStatus.HEALTHY)
+                .proxyTo("http://" + name + ":8080")
+                .routingGroup(routingGroup)
+                .queuedQueryCount(queuedQueryCount)
+                .userQueuedCount(userQueuedCount)
+                .build();
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import io.airlift.http.client.HeaderName;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.StaticBodyGenerator;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.trino.gateway.ha.clustermonitor.ClusterStats;
+import io.trino.gateway.ha.clustermonitor.TrinoStatus;
+import io.trino.gateway.ha.config.AdmissionConfiguration;
+import io.trino.gateway.ha.config.GatewayCookieConfiguration;
+import io.trino.gateway.ha.config.GatewayCookieConfigurationPropertiesProvider;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.OutlierDetectionConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.handler.RequestBody;
+import io.trino.gateway.ha.handler.RoutingDestination;
+import io.trino.gateway.ha.handler.RoutingTargetHandler;
+import io.trino.gateway.ha.router.BackendOutlierDetector;
+import io.trino.gateway.ha.router.QueryHistoryManager;
+import io.trino.gateway.ha.router.RoutingManager;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.mockito.ArgumentCaptor;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static io.trino.gateway.ha.handler.HttpUtils.V1_STATEMENT_PATH;
+import static jakarta.ws.rs.core.Response.Status.NOT_FOUND;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@TestInstance(PER_CLASS)
+final class TestAdmissionResource
+{
+    private static final String BACKEND = "http://backend1:8080";
+    private static final String QUERY_ID = "20240101_000000_00000_aaaaa";
+
+    @BeforeAll
+    void setup()
+    {
+        GatewayCookieConfigurationPropertiesProvider.getInstance().initialize(new GatewayCookieConfiguration());
+    }
+
+    @Test
+    void testSubmitAdmittedQuery()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        List<Request> requests = new CopyOnWriteArrayList<>();
+        try {
+            AdmissionConfiguration admissionConfiguration = new AdmissionConfiguration();
+            admissionConfiguration.setEnabled(true);
+            AdmissionController controller = new AdmissionController(admissionConfiguration, ImmutableList.of(V1_STATEMENT_PATH), new RequestAnalyzerConfig(), Ticker.systemTicker());
+            RoutingTargetHandler routingTargetHandler = mock(RoutingTargetHandler.class);
+            when(routingTargetHandler.getRoutingDestination(any(), eq("etl"))).thenReturn(new RoutingDestination("etl", BACKEND, URI.create(BACKEND + V1_STATEMENT_PATH)));
+            RoutingManager routingManager = mock(RoutingManager.class);
+            when(routingManager.getOutlierDetector()).thenReturn(new BackendOutlierDetector(new OutlierDetectionConfiguration()));
+            ProxyRequestHandler proxyRequestHandler = new ProxyRequestHandler(new TestingHttpClient(request -> {
+                requests.add(request);
+                return TestingResponse.mockResponse(HttpStatus.OK, JSON_UTF_8, "{\"id\": \"" + QUERY_ID + "\"}");
+            }), routingManager, mock(QueryHistoryManager.class), lanes, configuration);
+            AdmissionResource resource = new AdmissionResource(controller, routingTargetHandler, proxyRequestHandler, lanes);
+
+            HeldQuery.Submission submission = new HeldQuery.Submission(
+                    V1_STATEMENT_PATH,
+                    null,
+                    ImmutableListMultimap.of("X-Trino-User", "alice", "X-Trino-Source", "cli", "X-Trino-Session", "a=1", "X-Trino-Session", "b=2"),
+                    new RequestBody("SELECT 1".getBytes(UTF_8)));
+            controller.observe(ImmutableList.of(clusterStats(100)));
+            HeldQuery query = controller.hold("etl", "alice", submission).orElseThrow();
+            controller.observe(ImmutableList.of(clusterStats(99)));
+            assertThat(query.getState()).isEqualTo(HeldQuery.State.ADMITTED);
+
+            // the poll that finds the query admitted sends the original submission
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            resource.getQuery(query.getQueryId(), query.getSlug(), pollRequest(), asyncResponse);
+
+            ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+            verify(asyncResponse, timeout(10_000)).resume(response.capture());
+            assertThat(response.getValue().getStatus()).isEqualTo(OK.getStatusCode());
+            assertThat(requests).hasSize(1);
+            Request request = requests.getFirst();
+            assertThat(request.getMethod()).isEqualTo("POST");
+            assertThat(request.getUri()).isEqualTo(URI.create(BACKEND + V1_STATEMENT_PATH));
+            assertThat(request.getHeader("X-Trino-User")).isEqualTo("alice");
+            assertThat(request.getHeader("X-Trino-Source")).isEqualTo("cli");
+            assertThat(request.getHeaders().get(HeaderName.of("X-Trino-Session"))).containsExactly("a=1", "b=2");
+            assertThat(new String(((StaticBodyGenerator) request.getBodyGenerator()).getBody(), UTF_8)).isEqualTo("SELECT 1");
+            verify(routingManager).setBackendForQueryId(QUERY_ID, BACKEND);
+
+            // the query is only submitted once
+            AsyncResponse secondPoll = mock(AsyncResponse.class);
+            resource.getQuery(query.getQueryId(), query.getSlug(), pollRequest(), secondPoll);
+            ArgumentCaptor<Response> notFound = ArgumentCaptor.forClass(Response.class);
+            verify(secondPoll, timeout(10_000)).resume(notFound.capture());
+            assertThat(notFound.getValue().getStatus()).isEqualTo(NOT_FOUND.getStatusCode());
+            assertThat(requests).hasSize(1);
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    private static HttpServletRequest pollRequest()
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getHeaderNames()).thenReturn(Collections.emptyEnumeration());
+        when(request.getProtocol()).thenReturn("HTTP/1.1");
+        when(request.getScheme()).thenReturn("http");
+        when(request.getServerName()).thenReturn("gateway");
+        when(request.getServerPort()).thenReturn(8080);
+        return request;
+    }
+
+    private static ClusterStats clusterStats(int queuedQueryCount)
+    {
+        return ClusterStats.builder("trino1")
+                .trinoStatus(TrinoStatus.HEALTHY)
+                .proxyTo(BACKEND)
+                .routingGroup("etl")
+                .queuedQueryCount(queuedQueryCount)
+                .build();
+    }
+}
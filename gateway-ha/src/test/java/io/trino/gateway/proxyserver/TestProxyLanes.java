@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.ProxyLaneConfiguration;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+final class TestProxyLanes
+{
+    @Test
+    void testSelect()
+    {
+        ProxyLanes lanes = new ProxyLanes(new ProxyLaneConfiguration());
+        try {
+            assertThat(lanes.select(true, "POST")).isSameAs(lanes.getSubmission());
+            assertThat(lanes.select(true, "GET")).isSameAs(lanes.getPoll());
+            assertThat(lanes.select(true, "DELETE")).isSameAs(lanes.getPoll());
+            assertThat(lanes.select(false, "GET")).isSameAs(lanes.getApi());
+            assertThat(lanes.select(false, "POST")).isSameAs(lanes.getApi());
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testShedLoad()
+    {
+        ProxyLaneConfiguration configuration = new ProxyLaneConfiguration();
+        configuration.setSubmissionMaxInFlight(2);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        try {
+            ProxyLane submission = lanes.getSubmission();
+            assertThat(submission.tryAcquire()).isTrue();
+            assertThat(submission.tryAcquire()).isTrue();
+            assertThat(submission.tryAcquire()).isFalse();
+            assertThat(submission.getRejected().getTotalCount()).isEqualTo(1);
+            // other lanes are not affected
+            assertThat(lanes.getPoll().tryAcquire()).isTrue();
+
+            submission.release(System.nanoTime());
+            assertThat(submission.getInFlight()).isEqualTo(1);
+            assertThat(submission.tryAcquire()).isTrue();
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testRetryAfter()
+    {
+        ProxyLaneConfiguration configuration = new ProxyLaneConfiguration();
+        assertThat(new ProxyLanes(configuration).getRetryAfterSeconds()).isEqualTo(1);
+        configuration.setRetryAfter(new Duration(100, MILLISECONDS));
+        assertThat(new ProxyLanes(configuration).getRetryAfterSeconds()).isEqualTo(1);
+        configuration.setRetryAfter(new Duration(2500, MILLISECONDS));
+        assertThat(new ProxyLanes(configuration).getRetryAfterSeconds()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.StreamingResponse;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.units.Duration;
+import io.trino.gateway.ha.config.GatewayCookieConfiguration;
+import io.trino.gateway.ha.config.GatewayCookieConfigurationPropertiesProvider;
+import io.trino.gateway.ha.config.HaGatewayConfiguration;
+import io.trino.gateway.ha.config.OutlierDetectionConfiguration;
+import io.trino.gateway.ha.handler.RoutingDestination;
+import io.trino.gateway.ha.router.BackendOutlierDetector;
+import io.trino.gateway.ha.router.QueryHistoryManager;
+import io.trino.gateway.ha.router.RoutingManager;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.google.common.net.HttpHeaders.RETRY_AFTER;
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static com.google.common.net.MediaType.PLAIN_TEXT_UTF_8;
+import static jakarta.ws.rs.core.Response.Status.OK;
+import static jakarta.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@TestInstance(PER_CLASS)
+final class TestProxyRequestHandlerFailures
+{
+    private static final String BACKEND_1 = "http://backend1:8080";
+    private static final String BACKEND_2 = "http://backend2:8080";
+    private static final String QUERY_ID = "20240101_000000_00000_aaaaa";
+    private static final String STATEMENT = "SELECT 1";
+
+    @BeforeAll
+    void setup()
+    {
+        GatewayCookieConfigurationPropertiesProvider.getInstance().initialize(new GatewayCookieConfiguration());
+    }
+
+    @Test
+    void testRejectWhenLaneIsFull()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getProxyLaneConfiguration().setSubmissionMaxInFlight(1);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        AtomicInteger requests = new AtomicInteger();
+        try {
+            ProxyRequestHandler handler = createHandler(configuration, lanes, new TestingHttpClient(_ -> {
+                requests.incrementAndGet();
+                return TestingResponse.mockResponse(HttpStatus.OK, PLAIN_TEXT_UTF_8, "{}");
+            }), mock(RoutingManager.class));
+            assertThat(lanes.getSubmission().tryAcquire()).isTrue();
+
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            handler.postRequest(STATEMENT.getBytes(UTF_8), servletRequest(), asyncResponse, destination(BACKEND_1, "/v1/statement"));
+
+            Response response = resumedResponse(asyncResponse);
+            assertThat(response.getStatus()).isEqualTo(SERVICE_UNAVAILABLE.getStatusCode());
+            assertThat(response.getHeaderString(RETRY_AFTER)).isEqualTo("1");
+            assertThat(requests.get()).isZero();
+            assertThat(lanes.getSubmission().getRejected().getTotalCount()).isEqualTo(1);
+            assertThat(lanes.getSubmission().getInFlight()).isEqualTo(1);
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testReleaseSlotAfterResponse()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        try {
+            ProxyRequestHandler handler = createHandler(configuration, lanes, new TestingHttpClient(_ -> TestingResponse.mockResponse(HttpStatus.OK, PLAIN_TEXT_UTF_8, "ok")), routingManager());
+
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            handler.getRequest(servletRequest(), asyncResponse, destination(BACKEND_1, "/v1/info"));
+
+            assertThat(resumedResponse(asyncResponse).getStatus()).isEqualTo(OK.getStatusCode());
+            assertThat(lanes.getApi().getInFlight()).isZero();
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testReleaseSlotWhenRequestFailsToStart()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getProxyResponseConfiguration().setStreamingEnabled(true);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        ProxyRequestHandler handler = createHandler(configuration, lanes, new TestingHttpClient(_ -> {
+            throw new AssertionError("no request expected");
+        }), routingManager());
+        // the executor of a stopped lane rejects the streaming task
+        lanes.stop();
+
+        assertThatThrownBy(() -> handler.getRequest(servletRequest(), mock(AsyncResponse.class), destination(BACKEND_1, "/v1/info")))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(lanes.getApi().getInFlight()).isZero();
+    }
+
+    @Test
+    void testStreamingDoesNotWaitForLaneThreads()
+            throws Exception
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getProxyResponseConfiguration().setStreamingEnabled(true);
+        configuration.getProxyLaneConfiguration().setThreadsPerLane(1);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        try {
+            // each backend response is only sent once both polls reached the backend
+            CountDownLatch polls = new CountDownLatch(2);
+            HttpClient httpClient = mock(HttpClient.class);
+            when(httpClient.executeStreaming(any())).thenAnswer(_ -> {
+                polls.countDown();
+                polls.await(10, SECONDS);
+                return streamingResponse(HttpStatus.OK, "{}");
+            });
+            ProxyRequestHandler handler = new ProxyRequestHandler(httpClient, routingManager(), mock(QueryHistoryManager.class), lanes, configuration);
+
+            AsyncResponse first = mock(AsyncResponse.class);
+            AsyncResponse second = mock(AsyncResponse.class);
+            handler.getRequest(servletRequest(), first, destination(BACKEND_1, "/v1/statement/executing/" + QUERY_ID + "/slug/1"));
+            handler.getRequest(servletRequest(), second, destination(BACKEND_1, "/v1/statement/executing/" + QUERY_ID + "/slug/1"));
+
+            assertThat(polls.await(10, SECONDS)).isTrue();
+            assertThat(resumedResponse(first).getStatus()).isEqualTo(OK.getStatusCode());
+            assertThat(resumedResponse(second).getStatus()).isEqualTo(OK.getStatusCode());
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testCountConnectFailures()
+    {
+        assertConnectFailureCounted(false);
+        assertConnectFailureCounted(true);
+    }
+
+    private static void assertConnectFailureCounted(boolean streamingEnabled)
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getProxyResponseConfiguration().setStreamingEnabled(streamingEnabled);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        try {
+            OutlierDetectionConfiguration outlierDetection = new OutlierDetectionConfiguration();
+            outlierDetection.setEnabled(true);
+            outlierDetection.setConsecutiveConnectFailures(1);
+            BackendOutlierDetector outlierDetector = new BackendOutlierDetector(outlierDetection);
+            RoutingManager routingManager = mock(RoutingManager.class);
+            when(routingManager.getOutlierDetector()).thenReturn(outlierDetector);
+            HttpClient httpClient = failingHttpClient(request -> request.getUri().getHost().equals("backend1")
+                    ? new UncheckedIOException(new SocketTimeoutException("Read timed out"))
+                    : new UncheckedIOException(new ConnectException("Connection refused")));
+            ProxyRequestHandler handler = new ProxyRequestHandler(httpClient, routingManager, mock(QueryHistoryManager.class), lanes, configuration);
+
+            // a backend that accepted the connection is not ejected for a timeout
+            AsyncResponse timedOut = mock(AsyncResponse.class);
+            handler.getRequest(servletRequest(), timedOut, destination(BACKEND_1, "/v1/info"));
+            verify(timedOut, timeout(10_000)).resume(any(Throwable.class));
+            assertThat(outlierDetector.isEjected(BACKEND_1)).isFalse();
+
+            AsyncResponse refused = mock(AsyncResponse.class);
+            handler.getRequest(servletRequest(), refused, destination(BACKEND_2, "/v1/info"));
+            verify(refused, timeout(10_000)).resume(any(Throwable.class));
+            assertThat(outlierDetector.isEjected(BACKEND_2)).isTrue();
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testRetryAfterConnectFailure()
+    {
+        List<String> requestedBackends = new CopyOnWriteArrayList<>();
+        assertRetried(request -> {
+            requestedBackends.add(request.getUri().getHost());
+            if (request.getUri().getHost().equals("backend1")) {
+                throw new ConnectException("Connection refused");
+            }
+            return queryResults();
+        });
+        assertThat(requestedBackends).containsExactly("backend1", "backend2");
+    }
+
+    @Test
+    void testStreamingRetryAfterConnectFailure()
+            throws Exception
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getRouting().setSubmissionMaxAttempts(3);
+        configuration.getProxyResponseConfiguration().setStreamingEnabled(true);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        List<String> requestedBackends = new CopyOnWriteArrayList<>();
+        try {
+            RoutingManager routingManager = routingManager();
+            when(routingManager.provideFailoverCluster("adhoc", null, ImmutableSet.of("backend1"))).thenReturn(Optional.of(BACKEND_2));
+            QueryHistoryManager queryHistoryManager = mock(QueryHistoryManager.class);
+            HttpClient httpClient = mock(HttpClient.class);
+            when(httpClient.executeStreaming(any())).thenAnswer(invocation -> {
+                Request request = invocation.getArgument(0);
+                requestedBackends.add(request.getUri().getHost());
+                if (request.getUri().getHost().equals("backend1")) {
+                    throw new UncheckedIOException(new ConnectException("Connection refused"));
+                }
+                return streamingResponse(HttpStatus.OK, "{\"id\":\"" + QUERY_ID + "\"}");
+            });
+            ProxyRequestHandler handler = new ProxyRequestHandler(httpClient, routingManager, queryHistoryManager, lanes, configuration);
+
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            handler.postRequest(STATEMENT.getBytes(UTF_8), servletRequest(), asyncResponse, destination(BACKEND_1, "/v1/statement"));
+
+            Response response = resumedResponse(asyncResponse);
+            assertThat(response.getStatus()).isEqualTo(OK.getStatusCode());
+            assertThat(requestedBackends).containsExactly("backend1", "backend2");
+            // only the backend that accepted the query is recorded
+            ArgumentCaptor<QueryHistoryManager.QueryDetail> queryDetail = ArgumentCaptor.forClass(QueryHistoryManager.QueryDetail.class);
+            verify(queryHistoryManager).submitQueryDetail(queryDetail.capture());
+            assertThat(queryDetail.getValue().getBackendUrl()).isEqualTo(BACKEND_2);
+            verify(routingManager).setBackendForQueryId(QUERY_ID, BACKEND_2);
+            verify(routingManager, never()).setBackendForQueryId(QUERY_ID, BACKEND_1);
+
+            // the slot is held until the body was relayed to the client
+            assertThat(lanes.getSubmission().getInFlight()).isEqualTo(1);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            ((StreamingProxyResponse) response.getEntity()).write(body);
+            assertThat(body.toString(UTF_8)).isEqualTo("{\"id\":\"" + QUERY_ID + "\"}");
+            assertThat(lanes.getSubmission().getInFlight()).isZero();
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    @Test
+    void testRetryAfterServiceUnavailable()
+    {
+        assertRetried(request -> request.getUri().getHost().equals("backend1")
+                ? TestingResponse.mockResponse(HttpStatus.SERVICE_UNAVAILABLE, PLAIN_TEXT_UTF_8, "unavailable")
+                : queryResults());
+    }
+
+    @Test
+    void testStopRetryingAtDeadline()
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getRouting().setSubmissionMaxAttempts(3);
+        // the deadline has passed when the first attempt failed
+        configuration.getRouting().setAsyncTimeout(new Duration(0, MILLISECONDS));
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        List<String> requestedBackends = new CopyOnWriteArrayList<>();
+        try {
+            RoutingManager routingManager = routingManager();
+            when(routingManager.provideFailoverCluster(any(), any(), any())).thenReturn(Optional.of(BACKEND_2));
+            QueryHistoryManager queryHistoryManager = mock(QueryHistoryManager.class);
+            ProxyRequestHandler handler = new ProxyRequestHandler(new TestingHttpClient(request -> {
+                requestedBackends.add(request.getUri().getHost());
+                return TestingResponse.mockResponse(HttpStatus.SERVICE_UNAVAILABLE, PLAIN_TEXT_UTF_8, "unavailable");
+            }), routingManager, queryHistoryManager, lanes, configuration);
+
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            handler.postRequest(STATEMENT.getBytes(UTF_8), servletRequest(), asyncResponse, destination(BACKEND_1, "/v1/statement"));
+
+            assertThat(resumedResponse(asyncResponse).getStatus()).isEqualTo(SERVICE_UNAVAILABLE.getStatusCode());
+            assertThat(requestedBackends).containsExactly("backend1");
+            verify(routingManager, never()).provideFailoverCluster(any(), any(), any());
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    private static void assertRetried(TestingHttpClient.Processor processor)
+    {
+        HaGatewayConfiguration configuration = new HaGatewayConfiguration();
+        configuration.getRouting().setSubmissionMaxAttempts(3);
+        ProxyLanes lanes = new ProxyLanes(configuration);
+        try {
+            RoutingManager routingManager = routingManager();
+            // the request has no user header
+            when(routingManager.provideFailoverCluster("adhoc", null, ImmutableSet.of("backend1"))).thenReturn(Optional.of(BACKEND_2));
+            QueryHistoryManager queryHistoryManager = mock(QueryHistoryManager.class);
+            ProxyRequestHandler handler = new ProxyRequestHandler(new TestingHttpClient(processor), routingManager, queryHistoryManager, lanes, configuration);
+
+            AsyncResponse asyncResponse = mock(AsyncResponse.class);
+            handler.postRequest(STATEMENT.getBytes(UTF_8), servletRequest(), asyncResponse, destination(BACKEND_1, "/v1/statement"));
+
+            assertThat(resumedResponse(asyncResponse).getStatus()).isEqualTo(OK.getStatusCode());
+            // only the backend that accepted the query is recorded
+            ArgumentCaptor<QueryHistoryManager.QueryDetail> queryDetail = ArgumentCaptor.forClass(QueryHistoryManager.QueryDetail.class);
+            verify(queryHistoryManager).submitQueryDetail(queryDetail.capture());
+            assertThat(queryDetail.getValue().getBackendUrl()).isEqualTo(BACKEND_2);
+            assertThat(queryDetail.getValue().getQueryId()).isEqualTo(QUERY_ID);
+            verify(routingManager).setBackendForQueryId(QUERY_ID, BACKEND_2);
+            verify(routingManager, never()).setBackendForQueryId(QUERY_ID, BACKEND_1);
+        }
+        finally {
+            lanes.stop();
+        }
+    }
+
+    private static io.airlift.http.client.Response queryResults()
+    {
+        return TestingResponse.mockResponse(HttpStatus.OK, JSON_UTF_8, "{\"id\": \"" + QUERY_ID + "\"}");
+    }
+
+    /**
+     * Returns a client failing every request, buffered or streamed, with the exception for the request.
+     */
+    private static HttpClient failingHttpClient(Function<Request, RuntimeException> failure)
+    {
+        TestingHttpClient bufferedClient = new TestingHttpClient(request -> {
+            throw failure.apply(request);
+        });
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.executeAsync(any(), any())).thenAnswer(invocation -> bufferedClient.executeAsync(invocation.getArgument(0), invocation.getArgument(1)));
+        when(httpClient.executeStreaming(any())).thenAnswer(invocation -> {
+            throw failure.apply(invocation.getArgument(0));
+        });
+        return httpClient;
+    }
+
+    private static StreamingResponse streamingResponse(HttpStatus status, String body)
+    {
+        StreamingResponse response = mock(StreamingResponse.class);
+        when(response.getStatusCode()).thenReturn(status.code());
+        when(response.getHeaders()).thenReturn(ImmutableListMultimap.of());
+        when(response.getInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(UTF_8)));
+        return response;
+    }
+
+    private static ProxyRequestHandler createHandler(HaGatewayConfiguration configuration, ProxyLanes lanes, TestingHttpClient httpClient, RoutingManager routingManager)
+    {
+        return new ProxyRequestHandler(httpClient, routingManager, mock(QueryHistoryManager.class), lanes, configuration);
+    }
+
+    private static RoutingManager routingManager()
+    {
+        RoutingManager routingManager = mock(RoutingManager.class);
+        when(routingManager.getOutlierDetector()).thenReturn(new BackendOutlierDetector(new OutlierDetectionConfiguration()));
+        return routingManager;
+    }
+
+    private static HttpServletRequest servletRequest()
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeaderNames()).thenReturn(Collections.emptyEnumeration());
+        when(request.getProtocol()).thenReturn("HTTP/1.1");
+        return request;
+    }
+
+    private static RoutingDestination destination(String backend, String path)
+    {
+        return new RoutingDestination("adhoc", backend, URI.create(backend + path));
+    }
+
+    private static Response resumedResponse(AsyncResponse asyncResponse)
+    {
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(asyncResponse, timeout(10_000)).resume(response.capture());
+        return response.getValue();
+    }
+}
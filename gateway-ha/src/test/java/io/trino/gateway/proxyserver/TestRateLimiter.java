@@ -0,0 +1,257 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.trino.gateway.ha.config.RateLimitConfiguration;
+import io.trino.gateway.ha.config.RequestAnalyzerConfig;
+import io.trino.gateway.ha.config.RoutingGroupRateLimits;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+import org.weakref.jmx.MBeanExporter;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.trino.gateway.ha.handler.HttpUtils.V1_STATEMENT_PATH;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+final class TestRateLimiter
+{
+    private final TestingTicker ticker = new TestingTicker();
+    private final MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+
+    @Test
+    void testTokenBucket()
+    {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(0)).isZero();
+        assertThat(bucket.tryAcquire(0)).isEqualTo(MILLISECONDS.toNanos(500));
+        assertThat(bucket.tryAcquire(MILLISECONDS.toNanos(500))).isZero();
+        assertThat(bucket.tryAcquire(MILLISECONDS.toNanos(500))).isEqualTo(MILLISECONDS.toNanos(500));
+
+        bucket.release(MILLISECONDS.toNanos(500));
+        assertThat(bucket.tryAcquire(MILLISECONDS.toNanos(500))).isZero();
+
+        // the bucket does not fill beyond the burst
+        long later = SECONDS.toNanos(60);
+        assertThat(bucket.isIdle(later, SECONDS.toNanos(30))).isTrue();
+        for (int i = 0; i < 3; i++) {
+            assertThat(bucket.tryAcquire(later)).isZero();
+        }
+        assertThat(bucket.tryAcquire(later)).isPositive();
+        assertThat(bucket.isIdle(later, SECONDS.toNanos(30))).isFalse();
+    }
+
+    @Test
+    void testUserAndSourceLimits()
+            throws Exception
+    {
+        RoutingGroupRateLimits defaultLimits = new RoutingGroupRateLimits();
+        defaultLimits.setUserQueriesPerSecond(1);
+        defaultLimits.setUserBurst(2);
+        RoutingGroupRateLimits etlLimits = new RoutingGroupRateLimits();
+        etlLimits.setSourceQueriesPerSecond(1);
+        etlLimits.setSourceBurst(1);
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setDefaultLimits(defaultLimits);
+        configuration.setRoutingGroupLimits(ImmutableMap.of("etl", etlLimits));
+        RateLimiter rateLimiter = createRateLimiter(configuration);
+
+        assertThat(rateLimiter.tryAcquire(request("alice", null), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("alice", "superset"), "adhoc")).isEmpty();
+        RateLimiter.Throttle throttle = rateLimiter.tryAcquire(request("alice", null), "adhoc").orElseThrow();
+        assertThat(throttle.key()).isEqualTo(new RateLimiter.BucketKey(RateLimiter.Kind.USER, "adhoc", "alice"));
+        assertThat(throttle.retryAfterSeconds()).isEqualTo(1);
+        assertThat(rateLimiter.tryAcquire(request("bob", null), "adhoc")).isEmpty();
+
+        // the etl routing group only limits sources
+        assertThat(rateLimiter.tryAcquire(request("alice", "superset"), "etl")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("bob", "superset"), "etl").orElseThrow().key())
+                .isEqualTo(new RateLimiter.BucketKey(RateLimiter.Kind.SOURCE, "etl", "superset"));
+        assertThat(rateLimiter.tryAcquire(request("bob", "airflow"), "etl")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("bob", null), "etl")).isEmpty();
+
+        assertThat(rateLimiter.getThrottledQueries().getTotalCount()).isEqualTo(2);
+        ObjectName throttled = new ObjectName("io.trino.gateway.proxyserver:type=RateLimiter,kind=user,routingGroup=adhoc,name=alice");
+        assertThat(mbeanServer.getAttribute(throttled, "TotalCount")).isEqualTo(1L);
+
+        // idle buckets are dropped, together with their throttle counters
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(4);
+        ticker.advance(11, MINUTES);
+        assertThat(rateLimiter.tryAcquire(request("alice", null), "adhoc")).isEmpty();
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(1);
+        assertThat(mbeanServer.isRegistered(throttled)).isFalse();
+    }
+
+    @Test
+    void testSourceLimitReturnsUserToken()
+    {
+        RoutingGroupRateLimits limits = new RoutingGroupRateLimits();
+        limits.setUserQueriesPerSecond(1);
+        limits.setUserBurst(1);
+        limits.setSourceQueriesPerSecond(1);
+        limits.setSourceBurst(1);
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setDefaultLimits(limits);
+        RateLimiter rateLimiter = createRateLimiter(configuration);
+
+        assertThat(rateLimiter.tryAcquire(request("alice", "superset"), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("bob", "superset"), "adhoc")).isPresent();
+        // bob was throttled by the source limit, so his own token was not used
+        assertThat(rateLimiter.tryAcquire(request("bob", "airflow"), "adhoc")).isEmpty();
+    }
+
+    @Test
+    void testObjectNameOfClientSuppliedName()
+            throws Exception
+    {
+        RoutingGroupRateLimits limits = new RoutingGroupRateLimits();
+        limits.setSourceQueriesPerSecond(1);
+        limits.setSourceBurst(1);
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setDefaultLimits(limits);
+        RateLimiter rateLimiter = createRateLimiter(configuration);
+
+        String source = "superset,type=Other,name=*";
+        assertThat(rateLimiter.tryAcquire(request("alice", source), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("alice", source), "adhoc")).isPresent();
+        ObjectName throttled = new ObjectName("io.trino.gateway.proxyserver:type=RateLimiter,kind=source,routingGroup=adhoc,name=superset_type_Other_name__");
+        assertThat(mbeanServer.getAttribute(throttled, "TotalCount")).isEqualTo(1L);
+
+        // a name mapping to the same object name is counted, but not exported
+        String otherSource = "superset=type=Other=name=?";
+        assertThat(rateLimiter.tryAcquire(request("alice", otherSource), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("alice", otherSource), "adhoc")).isPresent();
+        assertThat(mbeanServer.getAttribute(throttled, "TotalCount")).isEqualTo(1L);
+        assertThat(rateLimiter.getThrottledQueries().getTotalCount()).isEqualTo(2);
+
+        rateLimiter.stop();
+        assertThat(mbeanServer.isRegistered(throttled)).isFalse();
+        assertThat(rateLimiter.getBucketCount()).isZero();
+    }
+
+    @Test
+    void testOverflowBucket()
+    {
+        RoutingGroupRateLimits limits = new RoutingGroupRateLimits();
+        limits.setSourceQueriesPerSecond(1);
+        limits.setSourceBurst(1);
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setDefaultLimits(limits);
+        configuration.setMaxBuckets(2);
+        RateLimiter rateLimiter = createRateLimiter(configuration);
+
+        assertThat(rateLimiter.tryAcquire(request("alice", "source1"), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("alice", "source2"), "adhoc")).isEmpty();
+        // further sources share one bucket
+        assertThat(rateLimiter.tryAcquire(request("alice", "source3"), "adhoc")).isEmpty();
+        RateLimiter.Throttle throttle = rateLimiter.tryAcquire(request("alice", "source4"), "adhoc").orElseThrow();
+        assertThat(throttle.key()).isEqualTo(new RateLimiter.BucketKey(RateLimiter.Kind.SOURCE, "adhoc", "<overflow>"));
+        assertThat(rateLimiter.getBucketCount()).isEqualTo(2);
+        assertThat(rateLimiter.getOverflowQueries().getTotalCount()).isEqualTo(2);
+        // sources with a bucket keep their own limit
+        assertThat(rateLimiter.tryAcquire(request("alice", "source1"), "adhoc").orElseThrow().key().name()).isEqualTo("source1");
+
+        // once idle buckets are dropped, new sources get their own bucket again
+        ticker.advance(11, MINUTES);
+        assertThat(rateLimiter.tryAcquire(request("alice", "source4"), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("alice", "source4"), "adhoc").orElseThrow().key().name()).isEqualTo("source4");
+    }
+
+    @Test
+    void testMaxExportedBuckets()
+            throws Exception
+    {
+        RoutingGroupRateLimits limits = new RoutingGroupRateLimits();
+        limits.setUserQueriesPerSecond(1);
+        limits.setUserBurst(1);
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        configuration.setDefaultLimits(limits);
+        configuration.setMaxExportedBuckets(1);
+        RateLimiter rateLimiter = createRateLimiter(configuration);
+
+        for (String user : ImmutableList.of("alice", "bob")) {
+            assertThat(rateLimiter.tryAcquire(request(user, null), "adhoc")).isEmpty();
+            assertThat(rateLimiter.tryAcquire(request(user, null), "adhoc")).isPresent();
+        }
+        assertThat(rateLimiter.getExportedBucketCount()).isEqualTo(1);
+        assertThat(mbeanServer.isRegistered(new ObjectName("io.trino.gateway.proxyserver:type=RateLimiter,kind=user,routingGroup=adhoc,name=alice"))).isTrue();
+        ObjectName bob = new ObjectName("io.trino.gateway.proxyserver:type=RateLimiter,kind=user,routingGroup=adhoc,name=bob");
+        assertThat(mbeanServer.isRegistered(bob)).isFalse();
+
+        // the counter of bob is exported once the counter of alice was removed
+        ticker.advance(11, MINUTES);
+        assertThat(rateLimiter.tryAcquire(request("bob", null), "adhoc")).isEmpty();
+        assertThat(rateLimiter.tryAcquire(request("bob", null), "adhoc")).isPresent();
+        assertThat(mbeanServer.isRegistered(bob)).isTrue();
+        assertThat(rateLimiter.getExportedBucketCount()).isEqualTo(1);
+        rateLimiter.stop();
+        assertThat(rateLimiter.getExportedBucketCount()).isZero();
+    }
+
+    @Test
+    void testDisabled()
+    {
+        RateLimitConfiguration configuration = new RateLimitConfiguration();
+        RateLimiter rateLimiter = new RateLimiter(configuration, ImmutableList.of(V1_STATEMENT_PATH), new RequestAnalyzerConfig(), new MBeanExporter(mbeanServer), ticker);
+        assertThat(rateLimiter.isSubmission(V1_STATEMENT_PATH)).isFalse();
+        assertThat(rateLimiter.tryAcquire(request("alice", null), "adhoc")).isEmpty();
+    }
+
+    private RateLimiter createRateLimiter(RateLimitConfiguration configuration)
+    {
+        configuration.setEnabled(true);
+        RateLimiter rateLimiter = new RateLimiter(configuration, ImmutableList.of(V1_STATEMENT_PATH), new RequestAnalyzerConfig(), new MBeanExporter(mbeanServer), ticker);
+        assertThat(rateLimiter.isSubmission(V1_STATEMENT_PATH)).isTrue();
+        return rateLimiter;
+    }
+
+    private static HttpServletRequest request(String user, String source)
+    {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("X-Trino-User")).thenReturn(user);
+        when(request.getHeader("X-Trino-Source")).thenReturn(source);
+        return request;
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
+}
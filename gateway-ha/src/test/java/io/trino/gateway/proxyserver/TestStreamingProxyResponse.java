@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.trino.gateway.proxyserver;
+
+import io.airlift.http.client.StreamingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static io.trino.gateway.proxyserver.StreamingProxyResponse.extractQueryId;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+final class TestStreamingProxyResponse
+{
+    @Test
+    void testExtractQueryIdFromPrefix()
+    {
+        assertThat(extractQueryId(bytes("{\"id\":\"20240101_000000_00000_abcde\",\"infoUri\":\"http://trino"))).hasValue("20240101_000000_00000_abcde");
+        assertThat(extractQueryId(bytes("{\"stats\":{\"id\":\"nested\"},\"columns\":[1,2],\"id\":\"top_level\",\"data\":[[1"))).hasValue("top_level");
+    }
+
+    @Test
+    void testExtractQueryIdMissing()
+    {
+        assertThat(extractQueryId(bytes("{\"infoUri\":\"http://trino\",\"i"))).isEmpty();
+        assertThat(extractQueryId(bytes("{\"id\":\"20240101_000"))).isEmpty();
+        assertThat(extractQueryId(bytes("not json"))).isEmpty();
+        assertThat(extractQueryId(new byte[0])).isEmpty();
+    }
+
+    @Test
+    void testRelaysBodyAndClosesResponse()
+            throws IOException
+    {
+        String body = "{\"id\":\"20240101_000000_00000_abcde\",\"data\":[[1],[2],[3]]}";
+        StreamingResponse response = mock(StreamingResponse.class);
+        when(response.getInputStream()).thenReturn(new ByteArrayInputStream(bytes(body)));
+        StreamingProxyResponse streamingResponse = new StreamingProxyResponse(response, 8);
+
+        // the prefix read to find the query id is relayed before the rest of the body
+        assertThat(streamingResponse.extractQueryId()).isEmpty();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        streamingResponse.write(output);
+        assertThat(output.toString(UTF_8)).isEqualTo(body);
+        verify(response).close();
+
+        // closing after the body was written does not close the backend response again
+        streamingResponse.close();
+        verify(response).close();
+    }
+
+    @Test
+    void testCloseUnsentResponse()
+    {
+        StreamingResponse response = mock(StreamingResponse.class);
+        StreamingProxyResponse streamingResponse = new StreamingProxyResponse(response, 8);
+
+        streamingResponse.close();
+        streamingResponse.close();
+        verify(response, times(1)).close();
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -198,6 +198,20 @@ export function Cluster() {
             ]}
             initValue={form?.externalUrl}
           />
+          <Form.InputNumber
+            field="weight"
+            label="Weight"
+            trigger='blur'
+            rules={[
+              { required: true, message: 'required error' },
+              { type: 'number', message: 'type error' },
+            ]}
+            initValue={form?.weight || 1}
+            hideButtons
+            formatter={value => `${value}`.replace(/\D/g, '')}
+            min={1}
+            max={2147483647}
+          />
           <Form.Switch label="Active" field='active' initValue={form?.active || false} />
         </Form>
       </Modal>
@@ -167,6 +167,12 @@ export function RoutingRules() {
                                             disabled={!editingStates[index]}
                                             initValue={rule.actions}
                                     />
+                                    <Form.Switch
+                                            field="terminal"
+                                            label="Terminal"
+                                            disabled={!editingStates[index]}
+                                            initValue={rule.terminal}
+                                    />
                                 </Form>
                             </Card>
                         </div>
@@ -4,6 +4,7 @@ export interface BackendData {
   active: boolean;
   routingGroup: string;
   externalUrl: string;
+  weight: number;
   queued: number;
   running: number;
   status: string;
@@ -4,4 +4,5 @@ export interface RoutingRulesData {
     priority: number;
     actions: string[];
     condition: string;
+    terminal: boolean;
 }